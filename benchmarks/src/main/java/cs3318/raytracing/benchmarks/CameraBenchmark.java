@@ -0,0 +1,45 @@
+package cs3318.raytracing.benchmarks;
+
+import cs3318.raytracing.model.Camera;
+import cs3318.raytracing.model.Ray;
+import cs3318.raytracing.utils.Vector3D;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Primary ray generation, with and without allocating the direction vector.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CameraBenchmark {
+
+    private static final int SIZE = 1024;
+
+    private Camera camera;
+    private Ray ray;
+    private int pixel;
+
+    @Setup
+    public void setup() {
+        camera = SceneGenerator.camera(1000, SIZE, SIZE);
+        ray = new Ray();
+    }
+
+    @Benchmark
+    public Vector3D calculateDirection() {
+        pixel = (pixel + 1) & (SIZE * SIZE - 1);
+        return camera.calculateDirection(pixel & (SIZE - 1), pixel / SIZE);
+    }
+
+    @Benchmark
+    public Ray calculateRay() {
+        pixel = (pixel + 1) & (SIZE * SIZE - 1);
+        camera.calculateRay(pixel & (SIZE - 1), pixel / SIZE, ray);
+        return ray;
+    }
+}
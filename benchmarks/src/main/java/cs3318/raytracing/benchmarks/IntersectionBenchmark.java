@@ -0,0 +1,62 @@
+package cs3318.raytracing.benchmarks;
+
+import cs3318.raytracing.model.Ray;
+import cs3318.raytracing.model.Sphere;
+import cs3318.raytracing.model.SphereSoA;
+import cs3318.raytracing.model.Surface;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single ray-sphere test, and of testing one ray against a packed batch of
+ * spheres as a BVH leaf does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class IntersectionBenchmark {
+
+    private static final int BATCH = 16;
+
+    private Sphere sphere;
+    private SphereSoA batch;
+    private float[] distances;
+    private Ray hitRay;
+    private Ray missRay;
+
+    @Setup
+    public void setup() {
+        Surface surface = new Surface(1, 0, 0, 0.2f, 0.7f, 0.5f, 10.0f, 0.5f, 0, 1);
+        sphere = new Sphere(new Point3D(0, 0, -5), 1, surface);
+        batch = new SphereSoA(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(new Point3D(i % 4 - 1.5f, i / 4 - 1.5f, -5 - i), 0.4f, surface);
+        }
+        distances = new float[BATCH];
+        hitRay = new Ray(new Point3D(0, 0, 0), new Vector3D(0.01f, 0.02f, -1));
+        missRay = new Ray(new Point3D(0, 0, 0), new Vector3D(0, 1, 0));
+    }
+
+    @Benchmark
+    public float sphereHit() {
+        return sphere.intersect(hitRay, Ray.MAX_T);
+    }
+
+    @Benchmark
+    public float sphereMiss() {
+        return sphere.intersect(missRay, Ray.MAX_T);
+    }
+
+    @Benchmark
+    public void packedBatch(Blackhole blackhole) {
+        batch.intersect(0, BATCH, hitRay, Ray.MAX_T, distances);
+        blackhole.consume(distances);
+    }
+}
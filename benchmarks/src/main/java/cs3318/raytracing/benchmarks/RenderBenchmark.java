@@ -0,0 +1,44 @@
+package cs3318.raytracing.benchmarks;
+
+import cs3318.raytracing.api.RayTraceAPI;
+import cs3318.raytracing.controller.RenderStats;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full frames through RayTraceAPI.renderImage: the built-in test scene at 800 x 800,
+ * and generated sphere scenes at 640 x 480, with the recursive and wavefront engines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Xmx4g", "-Djava.awt.headless=true"})
+public class RenderBenchmark {
+
+    @Param({"test", "10000", "1000000"})
+    public String scene;
+
+    @Param({"recursive", "wavefront"})
+    public String engine;
+
+    private RayTraceAPI api;
+
+    @Setup
+    public void setup() {
+        api = new RayTraceAPI();
+        if (scene.equals("test")) {
+            api.createTestScene();
+        } else {
+            SceneGenerator.scene(api, Integer.parseInt(scene), 640, 480);
+        }
+        api.setWavefront(engine.equals("wavefront"));
+    }
+
+    @Benchmark
+    public RenderStats renderImage() {
+        return api.renderImage();
+    }
+}
@@ -0,0 +1,71 @@
+package cs3318.raytracing.benchmarks;
+
+import cs3318.raytracing.api.RayTraceAPI;
+import cs3318.raytracing.model.Camera;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.Surface;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+
+import java.util.Random;
+
+/**
+ * Procedurally generated scenes that are reproducible from a fixed seed.
+ * <p>
+ * Spheres are scattered through a cube whose side grows with the cube root of the
+ * sphere count, so the density, and therefore the work per ray, stays comparable
+ * between scene sizes. One in five spheres is a mirror.
+ */
+final class SceneGenerator {
+
+    private static final long SEED = 3318;
+
+    private SceneGenerator() {}
+
+    static float side(int sphereCount) {
+        return 2 * (float) Math.cbrt(sphereCount);
+    }
+
+    static Scene scene(int sphereCount, int pointLights) {
+        Scene scene = new Scene();
+        Random random = new Random(SEED);
+        float side = side(sphereCount);
+        for (int i = 0; i < sphereCount; i++) {
+            boolean mirror = random.nextInt(5) == 0;
+            Surface surface = new Surface(random.nextFloat(), random.nextFloat(), random.nextFloat(),
+                    0.2f, 0.7f, 0.5f, 10.0f, mirror ? 0.5f : 0, 0, 1);
+            scene.addSphere(new Point3D((random.nextFloat() - 0.5f) * side, (random.nextFloat() - 0.5f) * side,
+                    (random.nextFloat() - 0.5f) * side), 0.2f + 0.3f * random.nextFloat(), surface);
+        }
+        scene.addAmbientLight(0.2f, 0.2f, 0.2f);
+        float intensity = 0.8f / pointLights;
+        for (int i = 0; i < pointLights; i++) {
+            scene.addPointLight(intensity, intensity, intensity, new Point3D((random.nextFloat() - 0.5f) * side,
+                    side, (random.nextFloat() - 0.5f) * side));
+        }
+        return scene;
+    }
+
+    static void scene(RayTraceAPI api, int sphereCount, int width, int height) {
+        Random random = new Random(SEED);
+        float side = side(sphereCount);
+        for (int i = 0; i < sphereCount; i++) {
+            boolean mirror = random.nextInt(5) == 0;
+            api.addSphere((random.nextFloat() - 0.5f) * side, (random.nextFloat() - 0.5f) * side,
+                    (random.nextFloat() - 0.5f) * side, 0.2f + 0.3f * random.nextFloat(),
+                    random.nextFloat(), random.nextFloat(), random.nextFloat(),
+                    0.2f, 0.7f, 0.5f, 10.0f, mirror ? 0.5f : 0, 0, 1);
+        }
+        api.addAmbientLight(0.2f, 0.2f, 0.2f);
+        api.addDirectionalLight(0.6f, 0.6f, 0.6f, 1, -5, -4);
+        api.addPointLight(0.4f, 0.4f, 0.4f, 0, side, 0);
+        api.setImageDimensions(width, height);
+        api.setCamera(0, 0, 1.5f * side, 0, 0, 0, 0, 1, 0, width, height, 40);
+    }
+
+    // Looks at the centre of the cube from outside one face
+    static Camera camera(int sphereCount, int width, int height) {
+        return new Camera(new Vector3D(0, 1, 0), new Vector3D(0, 0, 0),
+                new Point3D(0, 0, 1.5f * side(sphereCount)), width, height, 40);
+    }
+}
@@ -0,0 +1,61 @@
+package cs3318.raytracing.benchmarks;
+
+import cs3318.raytracing.controller.Renderer;
+import cs3318.raytracing.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renderer.shadePixel on precomputed primary hits, as the number of point lights grows.
+ * Each light adds one shadow ray per shading point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ShadeBenchmark {
+
+    private static final int SPHERES = 10000;
+
+    @Param({"1", "8", "64"})
+    public int lightCount;
+
+    private Scene scene;
+    private Renderer renderer;
+    private Intersection[] hits;
+    private TraceContext context;
+    private int next;
+
+    @Setup
+    public void setup() {
+        scene = SceneGenerator.scene(SPHERES, lightCount);
+        renderer = new Renderer(new Color(0, 0, 0));
+        context = new TraceContext();
+        Camera camera = SceneGenerator.camera(SPHERES, 64, 64);
+
+        List<Intersection> found = new ArrayList<>();
+        Ray ray = new Ray();
+        for (int j = 0; j < 64; j++) {
+            for (int i = 0; i < 64; i++) {
+                camera.calculateRay(i, j, ray);
+                Intersection hit = new Intersection();
+                if (ray.trace(scene, hit, context)) {
+                    found.add(hit);
+                }
+            }
+        }
+        hits = found.toArray(new Intersection[0]);
+    }
+
+    @Benchmark
+    public int shadePixel() {
+        next = (next + 1 == hits.length) ? 0 : next + 1;
+        return renderer.shadePixel(scene, hits[next], context, 0);
+    }
+}
@@ -0,0 +1,59 @@
+package cs3318.raytracing.benchmarks;
+
+import cs3318.raytracing.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closest-hit and any-hit queries through the BVH, for camera rays over scenes of
+ * increasing size. Traversal cost should grow roughly logarithmically with the count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Xmx4g"})
+public class TraceBenchmark {
+
+    private static final int RAYS = 4096;   // 64 x 64 camera rays
+
+    @Param({"1000", "100000", "1000000"})
+    public int sphereCount;
+
+    private Scene scene;
+    private Ray[] rays;
+    private Intersection hit;
+    private TraceContext context;
+    private int next;
+
+    @Setup
+    public void setup() {
+        scene = SceneGenerator.scene(sphereCount, 1);
+        scene.getBVH();
+        Camera camera = SceneGenerator.camera(sphereCount, 64, 64);
+        rays = new Ray[RAYS];
+        for (int k = 0; k < RAYS; k++) {
+            rays[k] = new Ray();
+            camera.calculateRay(k % 64, k / 64, rays[k]);
+        }
+        hit = new Intersection();
+        context = new TraceContext();
+    }
+
+    private Ray nextRay() {
+        next = (next + 1) & (RAYS - 1);
+        return rays[next];
+    }
+
+    @Benchmark
+    public boolean closestHit() {
+        return nextRay().trace(scene, hit, context);
+    }
+
+    @Benchmark
+    public boolean anyHit() {
+        return scene.occluded(nextRay(), Ray.MAX_T, context);
+    }
+}
@@ -1,11 +1,20 @@
 package cs3318.raytracing.api;
 
 import cs3318.raytracing.controller.Controller;
+import cs3318.raytracing.controller.FrameUpdate;
+import cs3318.raytracing.controller.RenderJob;
+import cs3318.raytracing.controller.RenderListener;
+import cs3318.raytracing.controller.RenderStats;
+import cs3318.raytracing.controller.ToneMap;
 import cs3318.raytracing.utils.Point3D;
 import cs3318.raytracing.utils.Vector3D;
+import cs3318.raytracing.model.MeshInstance;
 import cs3318.raytracing.model.Surface;
 
 import java.awt.Color;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A simplified 3D ray-tracing renderer that implements core graphics concepts including
@@ -88,6 +97,44 @@ public class RayTraceAPI {
         controller.addSphere(center, radius, surface);
     }
 
+    /**
+     * Loads the triangles of a Wavefront OBJ file as a mesh that can then be placed in the
+     * scene any number of times with {@link #addMeshInstance}. Only vertex positions, vertex
+     * normals and faces are read.
+     *
+     * @param filename OBJ file to load
+     * @return Number identifying the mesh, or -1 if it could not be loaded
+     */
+    public int loadMesh(String filename) {
+        return controller.loadMesh(filename);
+    }
+
+    /**
+     * Places a copy of a loaded mesh in the scene. Copies share the mesh's triangles, so
+     * thousands of them take little more memory than the mesh itself.
+     * Surface properties are set to the same defaults as spheres.
+     *
+     * @param mesh Number returned by {@link #loadMesh(String)}
+     * @param x X coordinate the mesh's origin is moved to
+     * @param y Y coordinate the mesh's origin is moved to
+     * @param z Z coordinate the mesh's origin is moved to
+     * @param scale Uniform scale factor
+     * @param rotationY Rotation about the y axis in degrees, applied before moving
+     * @param red Red component of mesh color (0-1)
+     * @param green Green component of mesh color (0-1)
+     * @param blue Blue component of mesh color (0-1)
+     */
+    public void addMeshInstance(int mesh, float x, float y, float z, float scale, float rotationY,
+                                float red, float green, float blue) {
+        Surface surface = new Surface(
+                red, green, blue,
+                0.2f, 0.7f, 0.5f,
+                10.0f,
+                0.5f, 0, 1
+        );
+        controller.addMeshInstance(mesh, MeshInstance.transform(x, y, z, scale, rotationY), surface);
+    }
+
     /**
      * Adds ambient light to the scene.
      *
@@ -131,6 +178,107 @@ public class RayTraceAPI {
         controller.addLight(r, g, b, position);
     }
 
+    /**
+     * Changes the intensity of a light already in the scene. Lights are numbered from 0
+     * in the order they were added, whatever their kind.
+     *
+     * @param light Number of the light
+     * @param r Red intensity (0-1)
+     * @param g Green intensity (0-1)
+     * @param b Blue intensity (0-1)
+     */
+    public void setLightIntensity(int light, float r, float g, float b) {
+        controller.setLightIntensity(light, r, g, b);
+    }
+
+    /**
+     * Limits how far a point light reaches. The light keeps nearly its full intensity
+     * close by and fades smoothly to nothing at the range, as (1 - (d / range)^4)^2 of
+     * its intensity at distance d, and points beyond it are not lit by it at all. Ranged
+     * lights are kept in a grid over their spheres of influence, so each point is shaded
+     * with only the lights that can reach it, however many lights the scene holds.
+     * Point lights reach everywhere at full intensity until given a range. Scene files
+     * cannot hold ranges, so a scene with ranged lights cannot be saved or rendered on
+     * workers.
+     *
+     * @param light Number of a point light, counted as for {@link #setLightIntensity}
+     * @param range Distance at which the light has faded out, or infinity for no limit
+     */
+    public void setLightRange(int light, float range) {
+        controller.setLightRange(light, range);
+    }
+
+    /**
+     * Shades each point with at most the given number of lights that cast shadows, drawn
+     * at random in proportion to how much each could add, instead of casting a shadow
+     * ray to every light. Each light drawn is weighted by the inverse of its chance of
+     * being drawn, so the lighting is right on average and the image converges on the
+     * exact one as the budget grows, while the cost per point stays the same however
+     * many lights there are; fewer samples give a noisier image. The draw depends only on
+     * the point, so an image is the same on every run. Lights a point faces away from, or
+     * lies beyond the range of, are never shadow tested whatever the setting.
+     *
+     * @param lightSamples Lights shadow tested per point, or 0 to test every one
+     */
+    public void setLightSamples(int lightSamples) {
+        controller.setLightSamples(lightSamples);
+    }
+
+    /**
+     * Skips lights whose diffuse and specular light at a point could not reach the given
+     * amount even unshadowed, scaled by the reflectance along the ray that found the
+     * point. Many faint lights skipped together can darken the image slightly; the
+     * default of 0 skips only lights that add nothing.
+     *
+     * @param lightThreshold Smallest contribution, in any colour channel, worth a shadow ray
+     */
+    public void setLightThreshold(float lightThreshold) {
+        controller.setLightThreshold(lightThreshold);
+    }
+
+    /**
+     * Changes the colour and surface properties of a sphere already in the scene. Spheres
+     * are numbered from 0 in the order they were added. Spheres loaded from a scene file
+     * may share a surface, in which case every sphere sharing it changes.
+     *
+     * @param sphere Number of the sphere
+     * @param red Red component of sphere color (0-1)
+     * @param green Green component of sphere color (0-1)
+     * @param blue Blue component of sphere color (0-1)
+     * @param ambient Ambient reflection coefficient (0-1)
+     * @param diffuse Diffuse reflection coefficient (0-1)
+     * @param specular Specular reflection coefficient (0-1)
+     * @param phongExp Phong exponent for specular highlights
+     * @param reflection Surface reflectance coefficient (0-1)
+     * @param transmission Surface transmission coefficient (0-1)
+     * @param index Index of refraction
+     */
+    public void setSphereMaterial(int sphere, float red, float green, float blue,
+                                  float ambient, float diffuse, float specular,
+                                  float phongExp, float reflection, float transmission, float index) {
+        controller.getSphereSurface(sphere).set(
+                red, green, blue,
+                ambient, diffuse, specular,
+                phongExp, reflection, transmission, index
+        );
+        controller.sphereMaterialChanged(sphere);
+    }
+
+    /**
+     * Moves a sphere already in the scene to a new center. The acceleration structure is
+     * refitted around the new position rather than rebuilt, so many spheres can be moved
+     * between frames cheaply.
+     *
+     * @param sphere Number of the sphere
+     * @param x X coordinate of the new center
+     * @param y Y coordinate of the new center
+     * @param z Z coordinate of the new center
+     * @see #renderChanges()
+     */
+    public void moveSphere(int sphere, float x, float y, float z) {
+        controller.moveSphere(sphere, new Point3D(x, y, z));
+    }
+
     /**
      * Sets basic camera parameters by specifying eye position and look-at point.
      *
@@ -184,6 +332,51 @@ public class RayTraceAPI {
         controller.setImage(width, height);
     }
 
+    /**
+     * Keeps the image in a memory-mapped scratch file instead of on the heap, so images
+     * far larger than the heap can be rendered; rendering then holds only the tiles in
+     * progress in memory. {@link #saveImage} streams such an image into the PNG one band
+     * of rows at a time. Call this before {@link #setImageDimensions} for a large image,
+     * as resizing an image on the heap allocates it there first. Render listeners are
+     * given a null image while the image is mapped.
+     *
+     * @param directory Directory for the scratch file, which is deleted when the image
+     *                  is replaced, or null to keep the image on the heap
+     */
+    public void setOutOfCore(String directory) {
+        controller.setOutOfCore(directory);
+    }
+
+    /**
+     * Keeps the linear colour of every pixel, before it is clamped or quantized, in a
+     * float buffer off the heap (16 bytes a pixel). Lights brighter than white give colours
+     * above 1: a surface's lighting is no longer saturated at white before it is reflected,
+     * so mirrors show highlights at their full strength. Anti-aliased pixels accumulate their
+     * samples there, each weighted by the area it stands for. {@link #saveImage} then tone
+     * maps and quantizes the image from those colours, and {@link #saveHdrImage} writes
+     * them unchanged. With the default tone mapping the PNG matches one rendered without
+     * the buffer, except in reflections of surfaces lit brighter than white and where
+     * anti-aliasing averages samples before rounding them.
+     *
+     * @param enabled Whether to keep linear colours
+     * @see #setToneMapping(ToneMap, float)
+     */
+    public void setHighDynamicRange(boolean enabled) {
+        controller.setHighDynamicRange(enabled);
+    }
+
+    /**
+     * Chooses how {@link #saveImage} brings linear colours into the displayable range
+     * when they are kept with {@link #setHighDynamicRange}. Colours are multiplied by the
+     * exposure first. The default is {@link ToneMap#CLAMP} with an exposure of 1.
+     *
+     * @param toneMap Operator applied to each channel
+     * @param exposure Scale applied to colours before the operator (positive)
+     */
+    public void setToneMapping(ToneMap toneMap, float exposure) {
+        controller.setToneMapping(toneMap, exposure);
+    }
+
     /**
      * Sets the background color for the scene.
      *
@@ -195,11 +388,376 @@ public class RayTraceAPI {
         controller.setRenderer(new Color(r, g, b));
     }
 
+    /**
+     * Turns on adaptive anti-aliasing. Pixels whose corners see different objects or
+     * strongly contrasting colours are subdivided into quarters, recursively, until the
+     * quarters are smooth or the pixel has used its sample budget; other pixels keep
+     * their single sample. Each subdivision takes 5 samples, so budgets below 6 have no effect.
+     *
+     * @param maxSamples Most samples a single pixel may take, or 1 to turn anti-aliasing off
+     */
+    public void setAntialiasing(int maxSamples) {
+        controller.setAntialiasing(maxSamples);
+    }
+
+    /**
+     * Sets how many times a ray may be reflected or refracted before the path is cut off.
+     * Each surface the path meets adds its reflected and transmitted light in proportion
+     * to its reflectance and transmission coefficients, so deep bounces soon stop
+     * mattering; the default is {@value cs3318.raytracing.controller.Renderer#DEFAULT_MAX_DEPTH}.
+     *
+     * @param maxDepth Deepest bounce to trace, or 0 for direct lighting only
+     */
+    public void setMaxDepth(int maxDepth) {
+        controller.setMaxDepth(maxDepth);
+    }
+
+    /**
+     * Sets the weight below which reflected and refracted rays are not traced. A ray's
+     * weight is the product of the coefficients along its path, so the default of half
+     * an 8-bit step skips only rays that cannot change the exported image. Raising it
+     * trades accuracy in deep mirrors and glass for speed.
+     *
+     * @param minContribution Smallest weight, in any colour channel, worth tracing
+     */
+    public void setMinContribution(float minContribution) {
+        controller.setMinContribution(minContribution);
+    }
+
+    /**
+     * Turns Russian roulette on or off for rays below the minimum contribution. When on,
+     * such a ray is traced with a probability proportional to its weight and its weight
+     * is raised to make up for the rays that were dropped, so the faint light of deep
+     * mirrors and glass is kept on average rather than cut off, at the cost of some
+     * noise. Which rays survive depends only on where they start, so the image is the
+     * same on every run. Off by default.
+     *
+     * @param enabled true to play roulette with faint rays, false to drop them
+     */
+    public void setRussianRoulette(boolean enabled) {
+        controller.setRussianRoulette(enabled);
+    }
+
+    /**
+     * Sets the number of worker threads used to render the image.
+     * The image is identical regardless of the number of threads.
+     * By default every instance in the JVM renders on one shared pool with a thread per
+     * available processor, so several rendering at once do not oversubscribe the processors.
+     *
+     * @param threadCount Number of render threads of this instance's own, or 0 to use the shared pool
+     */
+    public void setThreadCount(int threadCount) {
+        controller.setThreadCount(threadCount);
+    }
+
+    /**
+     * Sets the size of the square tiles the image is split into for rendering.
+     * Smaller tiles balance load better across threads; larger tiles have less scheduling overhead.
+     *
+     * @param tileSize Tile edge length in pixels
+     */
+    public void setTileSize(int tileSize) {
+        controller.setTileSize(tileSize);
+    }
+
+    /**
+     * Keeps the acceleration structure built over the spheres in a directory, so that
+     * rendering a scene with the same sphere positions and sizes again, in this or a later
+     * run, reads the structure back instead of rebuilding it. Files are named after a hash
+     * of the geometry and can be deleted at any time.
+     *
+     * @param directory Cache directory, created if needed, or null to stop caching
+     */
+    public void setAccelerationCache(String directory) {
+        controller.setAccelerationCache(directory);
+    }
+
+    /**
+     * Keeps finished frames under a hash of everything that decides their pixels: the
+     * image size, camera, background, anti-aliasing, depth and minimum contribution, and
+     * every light, surface and object of the scene. Rendering a frame whose hash is kept,
+     * in this or, with a directory, a later run, copies its pixels out instead of tracing
+     * them, and {@link RenderStats#isCached()} is then true. Changing any part of the
+     * scene changes the hash, so a stale frame is never returned.
+     * <p>
+     * The most recently used frames are kept in memory (4 bytes a pixel) and every frame
+     * on disk (3 bytes a pixel); the least recently used are dropped from each once it
+     * is over its limit. Frames rendered with high dynamic range output, within a time
+     * budget, by region or on workers are always traced and never kept.
+     *
+     * @param memoryBytes Bytes of frames to keep in memory
+     * @param directory Directory to keep frames in, created if needed, or null for memory only
+     * @param diskBytes Bytes of frames to keep in the directory
+     */
+    public void setRenderCache(long memoryBytes, String directory, long diskBytes) {
+        controller.setRenderCache(memoryBytes, directory, diskBytes);
+    }
+
+    /**
+     * Stops keeping finished frames, dropping those kept in memory. Files already in a
+     * cache directory are left there.
+     */
+    public void clearRenderCache() {
+        controller.clearRenderCache();
+    }
+
+    /**
+     * Turns progressive rendering on or off. A progressive render first fills the image
+     * with one traced pixel per 8x8 block, then refines it in 4x4, 2x2 and single pixel
+     * passes. Every pixel is still traced once, so the final image is unchanged.
+     *
+     * @param progressive Whether to render in coarse-to-fine passes
+     * @see #addRenderListener(RenderListener)
+     */
+    public void setProgressive(boolean progressive) {
+        controller.setProgressive(progressive);
+    }
+
+    /**
+     * Chooses between the two rendering engines. The default traces each pixel's rays
+     * one after another. The wavefront engine traces all of a tile's primary rays, then
+     * its shadow rays and each bounce of reflected and refracted rays, as separate waves,
+     * sorting each wave by direction and origin so consecutive rays share more of the
+     * acceleration structure. Both engines produce the same image and statistics.
+     *
+     * @param wavefront Whether to render tiles in waves of rays
+     */
+    public void setWavefront(boolean wavefront) {
+        controller.setWavefront(wavefront);
+    }
+
+    /**
+     * Keeps the primary hit of every pixel (the object and triangle, hit point, normal and
+     * view direction) between renders. While the camera, the image size and the geometry stay
+     * the same, {@link #renderImage()} then shades the frame again from those hits without
+     * tracing any primary rays, so changes made with {@link #setLightIntensity} or
+     * {@link #setSphereMaterial} render faster. Adding or moving objects, or changing the
+     * camera, makes the next render trace the frame in full. The buffer costs 56 bytes a pixel.
+     *
+     * @param enabled Whether to keep primary hits between renders
+     */
+    public void setGBuffer(boolean enabled) {
+        controller.setGBuffer(enabled);
+    }
+
+    /**
+     * Registers a listener that is told which rectangles of the image have been
+     * written while a render is in progress, and when each progressive pass is done.
+     * The listener is called from the render threads.
+     *
+     * @param listener Listener to notify of image updates
+     * @see RenderListener
+     */
+    public void addRenderListener(RenderListener listener) {
+        controller.addRenderListener(listener);
+    }
+
+    /**
+     * Removes a listener registered with {@link #addRenderListener(RenderListener)}.
+     *
+     * @param listener Listener to remove
+     */
+    public void removeRenderListener(RenderListener listener) {
+        controller.removeRenderListener(listener);
+    }
+
     /**
      * Renders the scene using ray tracing.
+     * @return Ray counts and timings of the render, and the peak memory use of the process
+     * @return Ray counts, timings and memory use of the render
+     * @see RenderStats
+     */
+    public RenderStats renderImage() {
+        return controller.renderImage();
+    }
+
+    /**
+     * Renders the scene in the background at the default priority of 0.
+     *
+     * @return The queued render
+     * @see #renderImageAsync(int)
+     */
+    public RenderJob renderImageAsync() {
+        return controller.renderImageAsync(0);
+    }
+
+    /**
+     * Queues the scene to be rendered in the background and returns at once. Renders from
+     * every instance in the JVM share one queue, ordered by priority and then by
+     * submission, and a bounded set of threads, so that they divide the processors between
+     * them. Renders queued on one instance run one after another, in order of priority,
+     * and only the next of them waits in the shared queue. Each renders the scene and
+     * camera as they are while it runs, without copying them, so they should not be
+     * changed while it runs.
+     * <p>
+     * The returned job completes with the render's statistics and reports the fraction of
+     * tiles done. Cancelling it, for example once the camera has moved on, stops the render
+     * after the tiles already being traced, and a job cancelled while still queued never runs.
+     *
+     * @param priority Higher priorities are started before lower ones still waiting
+     * @return The queued render
+     */
+    public RenderJob renderImageAsync(int priority) {
+        return controller.renderImageAsync(priority);
+    }
+
+    /**
+     * Renders the best image it can within a time budget, for previews that must arrive
+     * on time. Pixels are traced in an order that spreads them evenly over the whole
+     * frame at every moment, so when the budget runs out the pixels traced form a regular
+     * grid, and every other pixel is interpolated from that grid. Anti-aliasing is not
+     * applied. If the budget allows, every pixel is traced and the image is exactly the
+     * one {@link #renderImage()} gives without anti-aliasing. The budget starts once any
+     * render already running on this scene has finished, so time spent waiting for it
+     * is not counted.
+     *
+     * @param budgetMillis Time to return within, in milliseconds, once rendering starts
+     * @return Ray counts, timings and memory use of the render; {@link RenderStats#getCoverage()}
+     *         gives the fraction of pixels traced
+     */
+    public RenderStats renderImageWithin(long budgetMillis) {
+        return controller.renderImage(budgetMillis);
+    }
+
+    /**
+     * Renders the scene on worker processes, each started with
+     * {@code cs3318.raytracing.controller.RenderWorker [port [address]]}, here or on other
+     * machines. The scene, camera and settings are sent to every worker once, then the
+     * image is handed out in blocks of 128x128 pixels, which come back as raw RGB. Blocks
+     * held by a worker that fails are handed to the others, and near the end of the frame
+     * blocks that are taking much longer than usual are rendered again elsewhere, keeping
+     * whichever copy arrives first. The image is exactly the one {@link #renderImage()}
+     * gives. Scenes with meshes cannot be sent; they, and frames no worker can finish, are
+     * rendered here instead.
+     *
+     * @param workers Worker addresses as host:port
+     * @return Ray counts and timings of the render, summed over the workers
+     */
+    public RenderStats renderImageOnWorkers(String... workers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String worker : workers) {
+            int colon = worker.lastIndexOf(':');
+            if (colon < 0)
+                throw new IllegalArgumentException("Worker address must be host:port: " + worker);
+            addresses.add(new InetSocketAddress(worker.substring(0, colon),
+                    Integer.parseInt(worker.substring(colon + 1))));
+        }
+        return controller.renderImage(addresses);
+    }
+
+    /**
+     * Renders one rectangle of the image, leaving the rest of it as it was. The rectangle
+     * is clipped to the image, and its pixels come out exactly as in a full render.
+     *
+     * @param x Left column of the rectangle
+     * @param y Top row of the rectangle
+     * @param width Width of the rectangle in pixels
+     * @param height Height of the rectangle in pixels
+     * @return Ray counts, timings and memory use of the render, with the rectangle's size
+     */
+    public RenderStats renderRegion(int x, int y, int width, int height) {
+        return controller.renderRegion(x, y, width, height);
+    }
+
+    /**
+     * Updates the last rendered image after spheres or meshes have been added, moved with
+     * {@link #moveSphere} or changed with {@link #setSphereMaterial}, rendering only the
+     * pixels those edits can affect. That is a conservative rectangle covering where the
+     * objects appear, before and after the edit, where they can cast shadows, and wherever
+     * a reflective or transparent object could show them. After any other change, such as
+     * to the camera, lights or settings, the whole image is rendered.
+     *
+     * @return Ray counts, timings and memory use of the render, with the size of the
+     *         rectangle rendered
+     */
+    public RenderStats renderChanges() {
+        return controller.renderChanges();
+    }
+
+    /**
+     * Adds a keyframe to the camera's path for {@link #renderAnimation}. Between keyframes
+     * the eye and look-at point follow smooth curves through the neighbouring keyframes;
+     * before the first and after the last they stay put. A keyframe at the same time as an
+     * earlier one replaces it.
+     *
+     * @param time Time of the keyframe in seconds
+     * @param eyeX X coordinate of camera position
+     * @param eyeY Y coordinate of camera position
+     * @param eyeZ Z coordinate of camera position
+     * @param lookAtX X coordinate of look-at point
+     * @param lookAtY Y coordinate of look-at point
+     * @param lookAtZ Z coordinate of look-at point
+     */
+    public void addCameraKeyframe(float time, float eyeX, float eyeY, float eyeZ,
+                                  float lookAtX, float lookAtY, float lookAtZ) {
+        controller.addCameraKeyframe(time, new Point3D(eyeX, eyeY, eyeZ), new Vector3D(lookAtX, lookAtY, lookAtZ));
+    }
+
+    /**
+     * Adds a keyframe to the path of a sphere already in the scene, interpolated in the
+     * same way as the camera's.
+     *
+     * @param sphere Number of the sphere
+     * @param time Time of the keyframe in seconds
+     * @param x X coordinate of the center at that time
+     * @param y Y coordinate of the center at that time
+     * @param z Z coordinate of the center at that time
+     */
+    public void addSphereKeyframe(int sphere, float time, float x, float y, float z) {
+        controller.addSphereKeyframe(sphere, time, new Point3D(x, y, z));
+    }
+
+    /**
+     * Removes every camera and sphere keyframe.
+     */
+    public void clearKeyframes() {
+        controller.clearKeyframes();
+    }
+
+    /**
+     * Renders an animation along the keyframed paths and saves each frame as a PNG named
+     * by the prefix and a four-digit frame number, such as {@code frames/shot0000.png}.
+     *
+     * @param frameCount Number of frames to render
+     * @param framesPerSecond Frame rate; frame n is taken at n / framesPerSecond seconds
+     * @param filenamePrefix Path and name that frame numbers are appended to
+     * @return Statistics of each frame's render
+     * @see #renderAnimation(int, float, String, FrameUpdate)
+     */
+    public List<RenderStats> renderAnimation(int frameCount, float framesPerSecond, String filenamePrefix) {
+        return controller.renderAnimation(frameCount, framesPerSecond, filenamePrefix, null);
+    }
+
+    /**
+     * Renders an animation as above, calling the update before each frame so it can make
+     * further changes to the scene, for example with {@link #moveSphere} or
+     * {@link #setLightIntensity}. The scene is not rebuilt between frames: spheres that
+     * move have the acceleration structure refitted around them. Each frame is encoded
+     * and written on a separate I/O thread while the next frame is traced, so the render
+     * threads are not left waiting on the disk.
+     *
+     * @param frameCount Number of frames to render
+     * @param framesPerSecond Frame rate; frame n is taken at n / framesPerSecond seconds
+     * @param filenamePrefix Path and name that frame numbers are appended to
+     * @param update Called with the frame number and time before each frame is rendered
+     * @return Statistics of each frame's render
      */
-    public void renderImage() {
-        controller.renderImage();
+    public List<RenderStats> renderAnimation(int frameCount, float framesPerSecond, String filenamePrefix,
+                                             FrameUpdate update) {
+        return controller.renderAnimation(frameCount, framesPerSecond, filenamePrefix, update);
+    }
+
+    /**
+     * Saves the linear colours of the rendered image as a little-endian PFM file, for
+     * images rendered with {@link #setHighDynamicRange} enabled. Rows are written straight
+     * from the off-heap buffer to the file.
+     *
+     * @param filename Output filename; any extension is replaced with .pfm
+     */
+    public void saveHdrImage(String filename) {
+        int dotIndex = filename.indexOf('.');
+        String baseName = (dotIndex != -1) ? filename.substring(0, dotIndex) : filename;
+        controller.exportHdrImage(baseName + ".pfm");
     }
 
     /**
@@ -217,10 +775,34 @@ public class RayTraceAPI {
     }
 
     /**
-     * Loads a predefined test scene with multiple spheres and lights.
-     * Useful for testing and demonstration purposes.
+     * Adds the lights, surfaces and spheres of a scene file to the scene, and applies
+     * the image size, background and camera it specifies. Text and binary files are
+     * both accepted; the format is detected from the file's contents.
+     *
+     * @param filename Scene file to load
+     * @see cs3318.raytracing.io.SceneFormat
      */
-    public void loadTestScene() {
+    public void loadScene(String filename) {
+        controller.loadScene(filename);
+    }
+
+    /**
+     * Saves the scene, image size, background and camera to a scene file. Files ending
+     * in .rtb are written in the compact binary format, anything else as text.
+     *
+     * @param filename Output filename
+     * @see cs3318.raytracing.io.SceneFormat
+     */
+    public void saveScene(String filename) {
+        controller.saveScene(filename);
+    }
+
+    /**
+     * Sets up the predefined test scene without rendering it.
+     *
+     * @see #loadTestScene()
+     */
+    public void createTestScene() {
         // Scene Setup
         this.setImageDimensions(800, 800);
         this.setBackgroundColor(20, 20, 25);
@@ -237,6 +819,14 @@ public class RayTraceAPI {
         // Add lights
         this.addAmbientLight(0.8f, 0.8f, 0.8f);
         this.addDirectionalLight(1, 1, 1, 1, -5, -4);
+    }
+
+    /**
+     * Loads a predefined test scene with multiple spheres and lights.
+     * Useful for testing and demonstration purposes.
+     */
+    public void loadTestScene() {
+        this.createTestScene();
 
         // Render and save the image
         this.renderImage();
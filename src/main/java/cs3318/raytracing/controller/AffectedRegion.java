@@ -0,0 +1,201 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.*;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * A conservative bound on the pixels that can change when the objects inside a box change.
+ * <p>
+ * A pixel depends on what its primary ray hits, on the shadow rays from that hit and, if
+ * the surface hit reflects or transmits light, on rays that could go anywhere. So every
+ * pixel that can change lies in the screen-space bounds of the box itself, of the box's
+ * shadow volume from each light, cut off where it leaves the scene, or, unless no ray is
+ * reflected, of some reflective or transparent object. Shapes that reach behind the eye
+ * are clipped at a plane just in front of it, and every bound is widened by a pixel to
+ * cover the corner samples of anti-aliasing.
+ */
+final class AffectedRegion {
+
+    // Distance in front of the eye at which shapes are clipped
+    private static final float NEAR = 1e-3f;
+
+    private final Camera camera;
+    private final int width, height;
+    // Pixels covered so far, inclusive; empty while minX > maxX
+    private int minX, minY, maxX, maxY;
+    private final float[] points = new float[3 * 16];
+    private final float[] depths = new float[16];
+    private final float[] uv = new float[2];
+
+    AffectedRegion(Camera camera, int width, int height) {
+        this.camera = camera;
+        this.width = width;
+        this.height = height;
+        minX = minY = Integer.MAX_VALUE;
+        maxX = maxY = Integer.MIN_VALUE;
+    }
+
+    // Covers every pixel that can see a change to what lies inside the box
+    void addChange(Scene scene, BoundingBox changed, boolean reflections) {
+        addBox(changed);
+        BoundingBox bounds = scene.getBounds();
+        bounds.include(changed);
+        float dx = bounds.maxX - bounds.minX, dy = bounds.maxY - bounds.minY, dz = bounds.maxZ - bounds.minZ;
+        float diagonal = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        for (Light light : scene.getLights()) {
+            if (isFull())
+                return;
+            if (light instanceof DirectionalLight) {
+                // Shadows fall along the light's direction of travel
+                Vector3D travel = ((DirectionalLight) light).lightVector;
+                addSwept(changed, travel.x, travel.y, travel.z, diagonal, false);
+            } else if (light instanceof PointLight) {
+                // Shadows spread out away from the light
+                Point3D p = ((PointLight) light).lightPoint;
+                float distance = distance(changed, p.x, p.y, p.z);
+                if (distance > 0) {
+                    addSwept(changed, p.x, p.y, p.z, diagonal / distance, true);
+                } else {
+                    addBox(bounds);
+                }
+            } else if (!(light instanceof AmbientLight)) {
+                addFull();
+            }
+        }
+        if (reflections) {
+            addReflective(scene);
+        }
+    }
+
+    // Adds the hull of the box's corners and the corners moved along the light's rays: by
+    // length along (x, y, z) for a directional light, or when fromPoint, away from the light
+    // at (x, y, z) by length times their distance from it
+    private void addSwept(BoundingBox box, float x, float y, float z, float length, boolean fromPoint) {
+        corners(box, points);
+        for (int i = 0; i < 24; i += 3) {
+            float tx = fromPoint ? points[i] - x : x;
+            float ty = fromPoint ? points[i + 1] - y : y;
+            float tz = fromPoint ? points[i + 2] - z : z;
+            points[i + 24] = points[i] + length * tx;
+            points[i + 25] = points[i + 1] + length * ty;
+            points[i + 26] = points[i + 2] + length * tz;
+        }
+        addHull(16);
+    }
+
+    // Every reflective or transparent object may show the change
+    private void addReflective(Scene scene) {
+        SphereSoA spheres = scene.getSpheres();
+        BoundingBox box = new BoundingBox();
+        for (int i = 0; i < spheres.size() && !isFull(); i++) {
+            if (!shows(spheres.getSurface(i)))
+                continue;
+            float r = spheres.getRadius(i);
+            box.minX = spheres.getCenterX(i) - r;
+            box.minY = spheres.getCenterY(i) - r;
+            box.minZ = spheres.getCenterZ(i) - r;
+            box.maxX = spheres.getCenterX(i) + r;
+            box.maxY = spheres.getCenterY(i) + r;
+            box.maxZ = spheres.getCenterZ(i) + r;
+            addBox(box);
+        }
+        List<Renderable> objects = scene.getObjects();
+        for (int i = 0; i < objects.size() && !isFull(); i++) {
+            if (shows(objects.get(i).getSurface())) {
+                addBox(objects.get(i).getBounds());
+            }
+        }
+    }
+
+    private static boolean shows(Surface surface) {
+        return surface.phong.reflectanceCoefficient > 0 || surface.phong.transmissionCoefficient > 0;
+    }
+
+    void addBox(BoundingBox box) {
+        corners(box, points);
+        addHull(8);
+    }
+
+    void addFull() {
+        minX = minY = 0;
+        maxX = width - 1;
+        maxY = height - 1;
+    }
+
+    boolean isFull() {
+        return minX <= 0 && minY <= 0 && maxX >= width - 1 && maxY >= height - 1;
+    }
+
+    boolean isEmpty() {
+        return minX > maxX || minY > maxY;
+    }
+
+    // The pixels covered, clipped to the image
+    Rectangle toRectangle() {
+        if (isEmpty())
+            return new Rectangle();
+        int x0 = Math.max(minX, 0), y0 = Math.max(minY, 0);
+        int x1 = Math.min(maxX, width - 1), y1 = Math.min(maxY, height - 1);
+        return (x0 > x1 || y0 > y1) ? new Rectangle() : new Rectangle(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+    }
+
+    // Covers the projection of the convex hull of the first count points, clipped at NEAR.
+    // The clipped hull's corners are among the points in front and the crossings of the
+    // plane by the lines between points on either side of it.
+    private void addHull(int count) {
+        for (int i = 0; i < count; i++) {
+            int o = 3 * i;
+            depths[i] = camera.project(points[o], points[o + 1], points[o + 2], uv);
+            if (depths[i] >= NEAR) {
+                include(uv[0], uv[1]);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                if ((depths[i] < NEAR) == (depths[j] < NEAR))
+                    continue;
+                float t = (NEAR - depths[i]) / (depths[j] - depths[i]);
+                int a = 3 * i, b = 3 * j;
+                float x = points[a] + t * (points[b] - points[a]);
+                float y = points[a + 1] + t * (points[b + 1] - points[a + 1]);
+                float z = points[a + 2] + t * (points[b + 2] - points[a + 2]);
+                if (camera.project(x, y, z, uv) > 0) {
+                    include(uv[0], uv[1]);
+                } else {
+                    addFull();   // rounding put the crossing behind the eye
+                }
+            }
+        }
+    }
+
+    // Pixel i is sampled at u = i and, when anti-aliased, up to u = i + 1
+    private void include(float u, float v) {
+        int x = (int) Math.max(Math.min(Math.floor(u), width), -1);
+        int y = (int) Math.max(Math.min(Math.floor(v), height), -1);
+        minX = Math.min(minX, x - 1);
+        minY = Math.min(minY, y - 1);
+        maxX = Math.max(maxX, x + 1);
+        maxY = Math.max(maxY, y + 1);
+    }
+
+    private static void corners(BoundingBox box, float[] points) {
+        for (int corner = 0; corner < 8; corner++) {
+            int o = 3 * corner;
+            points[o] = (corner & 1) == 0 ? box.minX : box.maxX;
+            points[o + 1] = (corner & 2) == 0 ? box.minY : box.maxY;
+            points[o + 2] = (corner & 4) == 0 ? box.minZ : box.maxZ;
+        }
+    }
+
+    // Distance from the point to the box, 0 if it is inside
+    private static float distance(BoundingBox box, float x, float y, float z) {
+        float dx = Math.max(Math.max(box.minX - x, x - box.maxX), 0);
+        float dy = Math.max(Math.max(box.minY - y, y - box.maxY), 0);
+        float dz = Math.max(Math.max(box.minZ - z, z - box.maxZ), 0);
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
@@ -0,0 +1,125 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.Camera;
+import cs3318.raytracing.model.SphereSoA;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keyframed paths for the camera's eye and look-at point and for sphere centers.
+ * <p>
+ * Each path passes through its keyframes along a cubic Hermite curve whose tangents are
+ * the finite differences of the neighbouring keyframes, so motion is smooth through
+ * unevenly spaced keyframes. Before the first keyframe and after the last, the path holds
+ * still.
+ */
+final class Animation {
+
+    private final Track eye = new Track();
+    private final Track lookat = new Track();
+    private final Map<Integer, Track> spheres = new TreeMap<>();
+
+    void addCameraKeyframe(float time, Point3D eye, Vector3D lookat) {
+        this.eye.add(time, eye.x, eye.y, eye.z);
+        this.lookat.add(time, lookat.x, lookat.y, lookat.z);
+    }
+
+    void addSphereKeyframe(int sphere, float time, Point3D center) {
+        spheres.computeIfAbsent(sphere, s -> new Track()).add(time, center.x, center.y, center.z);
+    }
+
+    void clear() {
+        eye.clear();
+        lookat.clear();
+        spheres.clear();
+    }
+
+    // Points the camera along its path at the given time, if it has one
+    void moveCamera(float time, Camera camera) {
+        if (eye.isEmpty())
+            return;
+        float[] p = new float[3];
+        eye.at(time, p);
+        camera.setEye(new Point3D(p[0], p[1], p[2]));
+        lookat.at(time, p);
+        camera.setLookat(new Vector3D(p[0], p[1], p[2]));
+    }
+
+    // Moves the animated spheres to their centers at the given time, returning whether any were moved
+    boolean moveSpheres(float time, SphereSoA soa) {
+        float[] p = new float[3];
+        for (Map.Entry<Integer, Track> sphere : spheres.entrySet()) {
+            sphere.getValue().at(time, p);
+            soa.setCenter(sphere.getKey(), p[0], p[1], p[2]);
+        }
+        return !spheres.isEmpty();
+    }
+
+    // Keyframed positions, kept sorted by time
+    private static class Track {
+        private float[] times = new float[0];
+        private float[] points = new float[0];
+
+        // Adds a keyframe, replacing any at the same time
+        void add(float time, float x, float y, float z) {
+            int k = Arrays.binarySearch(times, time);
+            if (k < 0) {
+                k = -k - 1;
+                float[] t = new float[times.length + 1];
+                float[] p = new float[points.length + 3];
+                System.arraycopy(times, 0, t, 0, k);
+                System.arraycopy(times, k, t, k + 1, times.length - k);
+                System.arraycopy(points, 0, p, 0, 3 * k);
+                System.arraycopy(points, 3 * k, p, 3 * k + 3, points.length - 3 * k);
+                t[k] = time;
+                times = t;
+                points = p;
+            }
+            points[3 * k] = x;
+            points[3 * k + 1] = y;
+            points[3 * k + 2] = z;
+        }
+
+        boolean isEmpty() {
+            return times.length == 0;
+        }
+
+        void clear() {
+            times = new float[0];
+            points = new float[0];
+        }
+
+        // Writes the position at the given time into p
+        void at(float time, float[] p) {
+            int last = times.length - 1;
+            if (time <= times[0] || last == 0) {
+                System.arraycopy(points, 0, p, 0, 3);
+                return;
+            }
+            if (time >= times[last]) {
+                System.arraycopy(points, 3 * last, p, 0, 3);
+                return;
+            }
+            int k = Arrays.binarySearch(times, time);
+            k = (k >= 0) ? k : -k - 2;     // the keyframe at or before time
+            float h = times[k + 1] - times[k];
+            float s = (time - times[k]) / h;
+            float s2 = s * s, s3 = s2 * s;
+            float h00 = 2 * s3 - 3 * s2 + 1, h10 = s3 - 2 * s2 + s, h01 = 3 * s2 - 2 * s3, h11 = s3 - s2;
+            for (int c = 0; c < 3; c++) {
+                p[c] = h00 * points[3 * k + c] + h01 * points[3 * k + 3 + c]
+                        + h * (h10 * tangent(k, c) + h11 * tangent(k + 1, c));
+            }
+        }
+
+        // Rate of change of coordinate c at keyframe k, one-sided at the ends
+        private float tangent(int k, int c) {
+            int before = Math.max(k - 1, 0), after = Math.min(k + 1, times.length - 1);
+            return (points[3 * after + c] - points[3 * before + c]) / (times[after] - times[before]);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.Camera;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.TraceContext;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * A frame traced in an order that covers the whole image evenly at every moment, until a
+ * deadline, with the pixels not reached filled by interpolation.
+ * <p>
+ * Pixels are taken in bit-reversed Morton order over the smallest power-of-two square
+ * holding the image: the first 4^k positions of that order are exactly the points of the
+ * grid with spacing size / 2^k, so whenever tracing stops the samples form the finest
+ * complete grid plus part of the next. Workers claim the order a chunk at a time and stop,
+ * even partway through a chunk, when what is left of the budget is only enough to fill
+ * in the frame at the rate that has recently been taking. Each chunk records how far into
+ * it its worker got, which is all that is kept of which pixels were traced.
+ * <p>
+ * Traced pixels are written straight to the frame buffer. Every pixel not traced is then
+ * interpolated bilinearly from the finest grid that was completed, a strip of rows at a
+ * time, reading the grid rows back from the frame buffer, its linear colour taken from
+ * the quantized one. Nothing the size of the frame is allocated, so an image kept off the
+ * heap stays off it.
+ */
+final class BudgetedRender {
+
+    // Positions of the order claimed at a time
+    private static final int CHUNK = 256;
+    // Rows filled in at a time by one thread, rounded to a whole number of grid bands
+    private static final int STRIP_ROWS = 64;
+    // Time that filling in the frame has been taking per pixel, averaged over recent frames,
+    // so that enough of the budget is kept back to finish the frame
+    private static volatile double fillNanos = 30;
+
+    private final FrameBuffer image;
+    private final Renderer renderer;
+    private final Scene scene;
+    private final Camera camera;
+    private final HdrBuffer hdr;
+    private final int width, height;
+    private final int bits;         // log2 of the side of the square the order covers
+    private final int[] done;       // positions traced from the start of each chunk of the order
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong tracedCount = new AtomicLong();
+    private long stopAt;            // System.nanoTime after which no more pixels are traced
+
+    BudgetedRender(FrameBuffer image, Renderer renderer, Scene scene, Camera camera, HdrBuffer hdr) {
+        this.image = image;
+        this.renderer = renderer;
+        this.scene = scene;
+        this.camera = camera;
+        this.hdr = hdr;
+        width = image.getWidth();
+        height = image.getHeight();
+        int side = Math.max(Math.max(width, height), 1);
+        bits = 32 - Integer.numberOfLeadingZeros(side - 1);
+        done = new int[(int) (((1L << (2 * bits)) + CHUNK - 1) / CHUNK)];
+    }
+
+    // Traces until the deadline, given by System.nanoTime, and fills in the rest of the image.
+    // The stats count each worker as a tile and are left for the caller to finish.
+    RenderStats render(ForkJoinPool pool, long deadline) {
+        int workers = pool.getParallelism();
+        RenderStats stats = new RenderStats(width, height, workers, workers, false);
+        long size = (long) width * height;
+        stopAt = deadline - (long) (fillNanos * size);
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                RecursiveAction[] tasks = new RecursiveAction[workers];
+                for (int w = 0; w < workers; w++) {
+                    int worker = w;
+                    tasks[w] = new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            trace(worker, stats);
+                        }
+                    };
+                }
+                invokeAll(tasks);
+            }
+        });
+        long filled = size - tracedCount.get();
+        stats.setCoverage((size > 0) ? 1 - (double) filled / size : 1);
+        if (filled > 0) {
+            long start = System.nanoTime();
+            pool.submit(() -> fill(finestGrid())).join();
+            fillNanos = 0.5 * (fillNanos + (double) (System.nanoTime() - start) / size);
+        }
+        return stats;
+    }
+
+    private void trace(int worker, RenderStats stats) {
+        TraceContext context = renderer.context();
+        context.resetCounters();
+        context.linear = hdr != null;
+        int[] pixel = new int[1];
+        long start = System.nanoTime();
+        long total = 1L << (2 * bits);
+        int count = 0;
+        boolean inTime = true;
+        for (long from = next.getAndAdd(CHUNK); inTime && from < total; from = next.getAndAdd(CHUNK)) {
+            int end = (int) Math.min(CHUNK, total - from);
+            int tracedHere = 0;
+            int k = 0;
+            for (; k < end; k++) {
+                long code = (bits == 0) ? 0 : Long.reverse(from + k) >>> (64 - 2 * bits);
+                int x = compact(code), y = compact(code >>> 1);
+                if (x >= width || y >= height)
+                    continue;
+                if (System.nanoTime() >= stopAt) {
+                    inTime = false;
+                    break;
+                }
+                tracedHere++;
+                if (count++ % RenderStats.TIMING_INTERVAL == 0) {
+                    context.timing = true;
+                    long t = System.nanoTime();
+                    pixel[0] = renderer.renderPixel(x, y, scene, camera, context);
+                    context.timedNanos += System.nanoTime() - t;
+                    context.timing = false;
+                } else {
+                    pixel[0] = renderer.renderPixel(x, y, scene, camera, context);
+                }
+                context.samples++;
+                image.setRGB(x, y, 1, 1, pixel);
+                if (hdr != null) {
+                    hdr.set(x, y, context.color, 0);
+                }
+            }
+            done[(int) (from / CHUNK)] = k;
+            tracedCount.addAndGet(tracedHere);
+        }
+        stats.addTile(worker, System.nanoTime() - start, context);
+    }
+
+    // Whether pixel (x, y) was traced, from how far into its chunk of the order tracing got
+    private boolean traced(int x, int y) {
+        long position = (bits == 0) ? 0 : Long.reverse(spread(x) | spread(y) << 1) >>> (64 - 2 * bits);
+        return position % CHUNK < done[(int) (position / CHUNK)];
+    }
+
+    // Gathers the even bits of code into an int
+    private static int compact(long code) {
+        code &= 0x5555555555555555L;
+        code = (code | (code >>> 1)) & 0x3333333333333333L;
+        code = (code | (code >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        code = (code | (code >>> 4)) & 0x00FF00FF00FF00FFL;
+        code = (code | (code >>> 8)) & 0x0000FFFF0000FFFFL;
+        code = (code | (code >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) code;
+    }
+
+    // Spreads the bits of value over the even bits of a long, undoing compact
+    private static long spread(int value) {
+        long code = value & 0xFFFFFFFFL;
+        code = (code | (code << 16)) & 0x0000FFFF0000FFFFL;
+        code = (code | (code << 8)) & 0x00FF00FF00FF00FFL;
+        code = (code | (code << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        code = (code | (code << 2)) & 0x3333333333333333L;
+        code = (code | (code << 1)) & 0x5555555555555555L;
+        return code;
+    }
+
+    // Spacing of the finest grid whose every point in the image was traced, or 0 if none was
+    private int finestGrid() {
+        int spacing = 1 << bits;
+        if (width == 0 || height == 0 || !traced(0, 0))
+            return 0;
+        while (spacing > 1) {
+            int finer = spacing >> 1;
+            for (int y = 0; y < height; y += finer) {
+                for (int x = 0; x < width; x += finer) {
+                    if (!traced(x, y))
+                        return spacing;
+                }
+            }
+            spacing = finer;
+        }
+        return 1;
+    }
+
+    // Interpolates every pixel not traced from the grid with the given spacing, in strips of
+    // rows filled in parallel
+    private void fill(int spacing) {
+        int band = Math.max(spacing, 1);
+        int strip = band * Math.max(1, STRIP_ROWS / band);
+        IntStream.range(0, (height + strip - 1) / strip).parallel()
+                .forEach(s -> fill(spacing, s * strip, Math.min(s * strip + strip, height)));
+    }
+
+    // Fills rows from to to - 1, which start on a grid row, reading each row and the grid
+    // rows above and below it from the image and writing it back
+    private void fill(int spacing, int from, int to) {
+        int background = renderer.getBackground().getRGB();
+        int[] top = new int[width];
+        int[] bottom = new int[width];
+        int[] row = new int[width];
+        double[] color = new double[3];
+        int y0 = 0, y1 = 0;
+        for (int y = from; y < to; y++) {
+            if (spacing == 0) {
+                Arrays.fill(row, background);
+            } else {
+                if (y % spacing == 0) {
+                    y0 = y;
+                    y1 = Math.min(y0 + spacing, height - 1 - (height - 1) % spacing);
+                    image.getRows(y0, 1, top);
+                    image.getRows(y1, 1, bottom);
+                }
+                image.getRows(y, 1, row);
+            }
+            float fy = (y1 > y0) ? (float) (y - y0) / (y1 - y0) : 0;
+            for (int x = 0; x < width; x++) {
+                if (spacing > 0) {
+                    if (traced(x, y))
+                        continue;
+                    int x0 = x - x % spacing;
+                    int x1 = Math.min(x0 + spacing, width - 1 - (width - 1) % spacing);
+                    float fx = (x1 > x0) ? (float) (x - x0) / (x1 - x0) : 0;
+                    row[x] = bilinear(top[x0], top[x1], bottom[x0], bottom[x1], fx, fy);
+                }
+                if (hdr != null) {
+                    color[0] = ((row[x] >> 16) & 0xFF) / 255.0;
+                    color[1] = ((row[x] >> 8) & 0xFF) / 255.0;
+                    color[2] = (row[x] & 0xFF) / 255.0;
+                    hdr.set(x, y, color, 0);
+                }
+            }
+            image.setRGB(0, y, width, 1, row);
+        }
+    }
+
+    private static int bilinear(int c00, int c10, int c01, int c11, float fx, float fy) {
+        int rgb = 0xFF000000;
+        for (int shift = 0; shift < 24; shift += 8) {
+            float top = ((c00 >> shift) & 0xFF) * (1 - fx) + ((c10 >> shift) & 0xFF) * fx;
+            float bottom = ((c01 >> shift) & 0xFF) * (1 - fx) + ((c11 >> shift) & 0xFF) * fx;
+            rgb |= ((int) (top * (1 - fy) + bottom * fy + 0.5f)) << shift;
+        }
+        return rgb;
+    }
+}
@@ -1,21 +1,56 @@
 package cs3318.raytracing.controller;
 
+import cs3318.raytracing.io.JsonScene;
+import cs3318.raytracing.io.ObjReader;
+import cs3318.raytracing.io.PngWriter;
+import cs3318.raytracing.io.SceneFormat;
+import cs3318.raytracing.io.SceneReader;
+import cs3318.raytracing.io.SceneSettings;
+import cs3318.raytracing.io.SceneWriter;
 import cs3318.raytracing.model.*;
 import cs3318.raytracing.utils.Point3D;
 import cs3318.raytracing.utils.Vector3D;
 
 import java.awt.Color;
-import java.awt.image.BufferedImage;
+import java.awt.Rectangle;
 import javax.imageio.ImageIO;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Controller {
 
     private final Camera camera;
     private final Scene scene;
-    private BufferedImage image;
+    private FrameBuffer image;
+    private Path frameDirectory;     // where images are mapped off the heap, or null to keep them on it
+    private HdrBuffer hdr;           // linear colours that exports are tone mapped from, or null
+    private ToneMap toneMap = ToneMap.CLAMP;
+    private float exposure = 1;
+    private final Animation animation = new Animation();
+    private ExecutorService io;      // writes animation frames while the next is traced
     private final Renderer renderer;
+    private final TileScheduler scheduler;
+    private final List<TriangleMesh> meshes = new ArrayList<>();
+    private GBuffer gbuffer;     // primary hits kept for reshading, or null
+    private RenderCache cache;   // finished frames kept by content, or null
+    // Space whose contents changed since the last render, and whether anything else did
+    private final BoundingBox changed = new BoundingBox();
+    private boolean changedAll = true;
+    private int renderedCameraVersion;
+    private final Object renderLock = new Object();   // held while a frame renders
+    private final RenderExecutor.Lane jobs = new RenderExecutor.Lane();   // queued renders
 
     public Controller(){
         // Initialize defaults
@@ -30,10 +65,45 @@ public class Controller {
         setImage(width, height);
         scene = new Scene();
         renderer = new Renderer(background);
+        scheduler = new TileScheduler();
     }
 
     public void setImage(int width, int height) {
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        FrameBuffer previous = image;
+        image = null;
+        if (previous != null) {
+            previous.close();
+        }
+        try {
+            image = (frameDirectory != null) ? new MappedFrameBuffer(width, height, frameDirectory)
+                    : new ImageFrameBuffer(width, height);
+        } catch (IOException e) {
+            System.err.println("Error mapping image, keeping it on the heap: " + e.getMessage());
+            image = new ImageFrameBuffer(width, height);
+        }
+        if (hdr != null) {
+            hdr = new HdrBuffer(width, height);
+        }
+        changedAll = true;
+    }
+
+    // Keeps every pixel's linear colour off the heap, for exports to tone map and quantize
+    public void setHighDynamicRange(boolean enabled) {
+        hdr = enabled ? new HdrBuffer(image.getWidth(), image.getHeight()) : null;
+        changedAll = true;
+    }
+
+    public void setToneMapping(ToneMap toneMap, float exposure) {
+        if (exposure <= 0)
+            throw new IllegalArgumentException("Exposure must be positive: " + exposure);
+        this.toneMap = toneMap;
+        this.exposure = exposure;
+    }
+
+    // Keeps the image in a memory-mapped file in the directory, or on the heap if it is null
+    public void setOutOfCore(String directory) {
+        frameDirectory = (directory != null) ? Path.of(directory) : null;
+        setImage(image.getWidth(), image.getHeight());
     }
 
     public void setCamera(Vector3D up, Vector3D lookat, Point3D eye, int width, int height, float fov){
@@ -51,25 +121,232 @@ public class Controller {
 
     public void setRenderer(Color background){
         renderer.setBackground(background);
+        changedAll = true;
+    }
+
+    public void setAntialiasing(int maxSamples) {
+        renderer.setMaxSamples(maxSamples);
+        changedAll = true;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        renderer.setMaxDepth(maxDepth);
+        changedAll = true;
+    }
+
+    public void setMinContribution(float minContribution) {
+        renderer.setMinContribution(minContribution);
+        changedAll = true;
+    }
+
+    public void setRussianRoulette(boolean russianRoulette) {
+        renderer.setRussianRoulette(russianRoulette);
+        changedAll = true;
+    }
+
+    public void setLightSamples(int lightSamples) {
+        renderer.setLightSamples(lightSamples);
+        changedAll = true;
+    }
+
+    public void setLightThreshold(float lightThreshold) {
+        renderer.setLightThreshold(lightThreshold);
+        changedAll = true;
+    }
+
+    public void setThreadCount(int threadCount) {
+        scheduler.setThreadCount(threadCount);
+    }
+
+    public void setTileSize(int tileSize) {
+        scheduler.setTileSize(tileSize);
+    }
+
+    public void setProgressive(boolean progressive) {
+        scheduler.setProgressive(progressive);
+    }
+
+    public void setWavefront(boolean wavefront) {
+        scheduler.setWavefront(wavefront);
+    }
+
+    // Keeps every pixel's primary hit between renders, so frames whose camera and geometry
+    // have not changed are only reshaded
+    public void setGBuffer(boolean enabled) {
+        gbuffer = enabled ? new GBuffer() : null;
+    }
+
+    public void setAccelerationCache(String directory) {
+        scene.setCache(directory != null ? new BVHCache(Path.of(directory)) : null);
+    }
+
+    // Keeps finished frames by a hash of their contents, the most recent in memory up to
+    // memoryBytes and, unless directory is null, every one on disk up to diskBytes
+    public void setRenderCache(long memoryBytes, String directory, long diskBytes) {
+        cache = new RenderCache(memoryBytes, directory != null ? Path.of(directory) : null, diskBytes);
+    }
+
+    public void clearRenderCache() {
+        cache = null;
+    }
+
+    public void addRenderListener(RenderListener listener) {
+        scheduler.addListener(listener);
+    }
+
+    public void removeRenderListener(RenderListener listener) {
+        scheduler.removeListener(listener);
     }
 
-    public void renderImage() {
-        long time = System.currentTimeMillis();
-        for (int j = 0; j < image.getHeight(); j += 1) {
-            for (int i = 0; i < image.getWidth(); i += 1) {
-                Color pixelColor = renderer.renderPixel(i, j, scene, camera);
-                image.setRGB(i, j, pixelColor.getRGB());
+    public RenderStats renderImage() {
+        return render(null);
+    }
+
+    // Queues the frame to render in the background on the threads shared by every controller.
+    // Jobs of one controller render one after another, in order of priority. The scene and
+    // camera are not copied, so they should not be changed while a job renders them.
+    public RenderJob renderImageAsync(int priority) {
+        RenderJob job = RenderExecutor.newJob(priority);
+        RenderExecutor.submit(jobs, job, () -> render(job));
+        return job;
+    }
+
+    // Renders the frame for the job, unless it is null, stopping early if the job is cancelled
+    private RenderStats render(RenderJob job) {
+        synchronized (renderLock) {
+            long time = System.currentTimeMillis();
+            RenderStats stats;
+            int cameraVersion = camera.getVersion();
+            int geometryVersion = scene.getGeometryVersion();
+            // Linear colours are not kept by the cache, so frames that need them are always traced
+            String key = (cache != null && hdr == null)
+                    ? RenderCache.key(scene, camera, renderer, image.getWidth(), image.getHeight()) : null;
+            if (key != null && (stats = scheduler.renderCached(image, cache, key, job)) != null) {
+                clearChanges();
+                renderedCameraVersion = cameraVersion;
+                return stats;
+            }
+            // Build the acceleration structures up front rather than inside a worker
+            scene.getBVH();
+            scene.getLightGrid();
+            if (gbuffer == null) {
+                stats = scheduler.render(image, renderer, scene, camera, null, null, false, hdr, job);
+            } else if (gbuffer.isValid(image.getWidth(), image.getHeight(), cameraVersion, geometryVersion)) {
+                stats = scheduler.render(image, renderer, scene, camera, null, gbuffer, true, hdr, job);
+            } else {
+                gbuffer.reset(image.getWidth(), image.getHeight());
+                stats = scheduler.render(image, renderer, scene, camera, null, gbuffer, false, hdr, job);
+                if (job == null || !job.isCancelled()) {
+                    gbuffer.validate(cameraVersion, geometryVersion);
+                }
+            }
+            if (job != null && job.isCancelled()) {
+                // Part of the frame is stale, so the next incremental render must start afresh
+                changedAll = true;
+                return stats;
             }
+            if (key != null) {
+                cache.store(key, image);
+                stats.setCache(null, cache.getHits(), cache.getMisses());
+            }
+            clearChanges();
+            renderedCameraVersion = cameraVersion;
+            time = System.currentTimeMillis() - time;
+            System.err.println("Rendered in "+(time/60000)+":"+((time%60000) * 0.001));
+            return stats;
+        }
+    }
+
+    // Renders as much of the frame as it can in the given time and interpolates the rest. The
+    // time starts once any render already running has finished.
+    public RenderStats renderImage(long budgetMillis) {
+        synchronized (renderLock) {
+            long deadline = System.nanoTime() + budgetMillis * 1_000_000;
+            scene.getBVH();
+            RenderStats stats = scheduler.renderBudgeted(image, renderer, scene, camera, deadline, hdr);
+            // The image is an approximation, so the next incremental render must start afresh
+            changedAll = true;
+            return stats;
+        }
+    }
+
+    // Renders the frame on RenderWorker processes at the given addresses, sending them the scene
+    // once in the binary scene format; falls back to rendering here if none can finish it.
+    // Linear colours and primary hits are not kept for a distributed frame.
+    public RenderStats renderImage(List<InetSocketAddress> workers) {
+        synchronized (renderLock) {
+            try {
+                Path file = Files.createTempFile("frame", SceneFormat.BINARY_EXTENSION);
+                byte[] description;
+                try {
+                    SceneWriter.write(file, scene, settings());
+                    description = Files.readAllBytes(file);
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+                RenderStats stats = scheduler.renderDistributed(image, renderer, description, workers);
+                changedAll = true;
+                return stats;
+
+            } catch (IOException e) {
+                System.err.println("Error rendering on workers, rendering here instead: " + e.getMessage());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Scene cannot be sent to workers, rendering here instead: " + e.getMessage());
+            }
+            return renderImage();
+        }
+    }
+
+    // Renders the pixels of the given block into the image as it stands, reshading them if the
+    // G-buffer still holds this frame's hits
+    public RenderStats renderRegion(int x, int y, int width, int height) {
+        Rectangle region = new Rectangle(x, y, width, height).intersection(
+                new Rectangle(image.getWidth(), image.getHeight()));
+        if (region.isEmpty()) {
+            region = new Rectangle();
+        }
+        synchronized (renderLock) {
+            scene.getBVH();
+            if (gbuffer != null && gbuffer.isValid(image.getWidth(), image.getHeight(), camera.getVersion(),
+                    scene.getGeometryVersion())) {
+                return scheduler.render(image, renderer, scene, camera, region, gbuffer, true, hdr, null);
+            }
+            return scheduler.render(image, renderer, scene, camera, region, null, false, hdr, null);
+        }
+    }
+
+    // Brings the image up to date with the edits made since the last full render, rendering
+    // only the pixels they can affect when all of them were to spheres, and the whole frame
+    // after any other edit
+    public RenderStats renderChanges() {
+        if (changedAll || camera.getVersion() != renderedCameraVersion) {
+            return renderImage();
+        }
+        AffectedRegion affected = new AffectedRegion(camera, image.getWidth(), image.getHeight());
+        if (changed.minX <= changed.maxX) {
+            affected.addChange(scene, changed, renderer.getMaxDepth() > 0);
         }
-        time = System.currentTimeMillis() - time;
-        System.err.println("Rendered in "+(time/60000)+":"+((time%60000) * 0.001));
+        Rectangle region = affected.toRectangle();
+        RenderStats stats = renderRegion(region.x, region.y, region.width, region.height);
+        clearChanges();
+        return stats;
+    }
+
+    private void clearChanges() {
+        changed.minX = changed.minY = changed.minZ = Float.POSITIVE_INFINITY;
+        changed.maxX = changed.maxY = changed.maxZ = Float.NEGATIVE_INFINITY;
+        changedAll = false;
     }
 
     public void exportImage(String filename) {
         try {
             File outputFile = getFile(filename);
 
-            ImageIO.write(image, "PNG", outputFile);
+            if (image.getImage() != null && hdr == null) {
+                ImageIO.write(image.getImage(), "PNG", outputFile);
+            } else {
+                writePng(outputFile);
+            }
             System.out.println("Image exported as " + filename);
 
         } catch (SecurityException e) {
@@ -81,6 +358,234 @@ public class Controller {
         }
     }
 
+    // Writes the linear colours of the last render as a PFM file
+    public void exportHdrImage(String filename) {
+        try {
+            if (hdr == null)
+                throw new IllegalStateException("High dynamic range output is not enabled");
+            File outputFile = getFile(filename);
+
+            hdr.writePfm(outputFile.toPath());
+            System.out.println("Image exported as " + filename);
+
+        } catch (SecurityException e) {
+            System.err.println("Security error: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error saving image: " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Unexpected error: " + e.getMessage());
+        }
+    }
+
+    public void addCameraKeyframe(float time, Point3D eye, Vector3D lookat) {
+        animation.addCameraKeyframe(time, eye, lookat);
+    }
+
+    public void addSphereKeyframe(int sphere, float time, Point3D center) {
+        if (sphere < 0 || sphere >= scene.getSpheres().size())
+            throw new IndexOutOfBoundsException("No sphere " + sphere);
+        animation.addSphereKeyframe(sphere, time, center);
+    }
+
+    public void clearKeyframes() {
+        animation.clear();
+    }
+
+    // Renders frameCount frames at the given rate, moving along the keyframed paths and
+    // calling update, unless it is null, before each one, and saves them as
+    // filenamePrefix0000.png onwards. A frame is written on the I/O thread while the next
+    // is traced; the scene's hierarchy is refitted between frames rather than rebuilt.
+    public List<RenderStats> renderAnimation(int frameCount, float framesPerSecond, String filenamePrefix,
+                                             FrameUpdate update) {
+        if (framesPerSecond <= 0)
+            throw new IllegalArgumentException("Frame rate must be positive: " + framesPerSecond);
+        List<RenderStats> stats = new ArrayList<>();
+        // Two snapshots, so one frame can be encoded while the next is copied out
+        int[][] snapshots = new int[2][];
+        List<Future<?>> writes = new ArrayList<>();
+        try {
+            for (int frame = 0; frame < frameCount; frame++) {
+                float time = frame / framesPerSecond;
+                animation.moveCamera(time, camera);
+                if (animation.moveSpheres(time, scene.getSpheres())) {
+                    scene.refit();
+                    changedAll = true;
+                }
+                if (update != null) {
+                    update.update(frame, time);
+                }
+                stats.add(renderImage());
+
+                int buffer = frame % 2;
+                if (frame >= 2) {
+                    writes.get(frame - 2).get();
+                }
+                int width = image.getWidth(), height = image.getHeight();
+                if (snapshots[buffer] == null || snapshots[buffer].length != width * height) {
+                    snapshots[buffer] = new int[width * height];
+                }
+                int[] pixels = snapshots[buffer];
+                if (hdr != null) {
+                    hdr.toneMap(0, height, toneMap, exposure, pixels);
+                } else {
+                    image.getRows(0, height, pixels);
+                }
+                File file = getFile(String.format("%s%04d.png", filenamePrefix, frame));
+                writes.add(io().submit(() -> {
+                    writePng(file, pixels, width, height);
+                    return null;
+                }));
+            }
+            for (Future<?> write : writes) {
+                write.get();
+            }
+            System.out.println(frameCount + " frames exported as " + filenamePrefix + "*.png");
+
+        } catch (ExecutionException e) {
+            System.err.println("Error saving frame: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while saving frames");
+        } catch (SecurityException e) {
+            System.err.println("Security error: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error saving frame: " + e.getMessage());
+        }
+        return stats;
+    }
+
+    private synchronized ExecutorService io() {
+        if (io == null) {
+            io = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "frame-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return io;
+    }
+
+    private static void writePng(File file, int[] pixels, int width, int height) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+             PngWriter png = new PngWriter(out, width, height)) {
+            png.writeRows(pixels, height);
+        }
+    }
+
+    private void writePng(File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            writePng(out);
+        }
+    }
+
+    // Streams the image into a PNG one band of tile rows at a time, tone mapping it from the
+    // linear colours if they are kept. The stream is left open.
+    public void writePng(OutputStream out) throws IOException {
+        int width = image.getWidth(), height = image.getHeight();
+        int band = scheduler.getTileSize();
+        int[] pixels = new int[width * band];
+        try (PngWriter png = new PngWriter(out, width, height)) {
+            for (int y = 0; y < height; y += band) {
+                int rows = Math.min(band, height - y);
+                if (hdr != null) {
+                    hdr.toneMap(y, rows, toneMap, exposure, pixels);
+                } else {
+                    image.getRows(y, rows, pixels);
+                }
+                png.writeRows(pixels, rows);
+            }
+        }
+    }
+
+    public void loadScene(String filename) {
+        try {
+            changedAll = true;
+            applySettings(SceneReader.read(Path.of(filename), scene));
+            System.out.println("Scene loaded from " + filename);
+
+        } catch (SecurityException e) {
+            System.err.println("Security error: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error loading scene: " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Unexpected error: " + e.getMessage());
+        }
+    }
+
+    // Adds the lights, surfaces and spheres of the description and takes its settings
+    public void loadScene(JsonScene description) {
+        changedAll = true;
+        description.addTo(scene);
+        applySettings(description.getSettings());
+    }
+
+    // Takes the image size, background and camera of the settings that are present, keeping
+    // the image buffer if its size is unchanged
+    public void applySettings(SceneSettings settings) {
+        if (settings.hasImage() && (settings.width != image.getWidth() || settings.height != image.getHeight())) {
+            setImage(settings.width, settings.height);
+        }
+        if (settings.background != null) {
+            setRenderer(settings.background);
+        }
+        if (settings.hasCamera()) {
+            setCamera(settings.up, settings.lookat, settings.eye, settings.cameraWidth, settings.cameraHeight,
+                    settings.fov);
+        }
+    }
+
+    public void saveScene(String filename) {
+        try {
+            SceneWriter.write(getFile(filename).toPath(), scene, settings());
+            System.out.println("Scene saved as " + filename);
+
+        } catch (SecurityException e) {
+            System.err.println("Security error: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error saving scene: " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Unexpected error: " + e.getMessage());
+        }
+    }
+
+    private SceneSettings settings() {
+        SceneSettings settings = new SceneSettings();
+        settings.width = image.getWidth();
+        settings.height = image.getHeight();
+        settings.background = renderer.getBackground();
+        settings.eye = camera.getEye();
+        settings.lookat = camera.getLookat();
+        settings.up = camera.getUp();
+        settings.cameraWidth = camera.getWidth();
+        settings.cameraHeight = camera.getHeight();
+        settings.fov = camera.getFOV();
+        return settings;
+    }
+
+    // Returns the mesh's number for addMeshInstance, or -1 if it could not be loaded
+    public int loadMesh(String filename) {
+        try {
+            TriangleMesh mesh = ObjReader.read(Path.of(filename));
+            meshes.add(mesh);
+            System.out.println("Mesh loaded from " + filename + " (" + mesh.size() + " triangles)");
+            return meshes.size() - 1;
+
+        } catch (SecurityException e) {
+            System.err.println("Security error: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error loading mesh: " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Unexpected error: " + e.getMessage());
+        }
+        return -1;
+    }
+
+    public void addMeshInstance(int mesh, float[] transform, Surface surface) {
+        MeshInstance instance = new MeshInstance(meshes.get(mesh), surface, transform);
+        scene.addObject(instance);
+        changed.include(instance.getBounds());
+    }
+
     private static File getFile(String filename) throws IOException {
         File outputFile = new File(filename);
 
@@ -99,18 +604,68 @@ public class Controller {
 
     public void addSphere(Point3D center, float radius, Surface surface) {
         scene.addSphere(center, radius, surface);
+        changed.include(new BoundingBox(center.x - radius, center.y - radius, center.z - radius,
+                center.x + radius, center.y + radius, center.z + radius));
+    }
+
+    // Moves the sphere's center, refitting the hierarchy rather than rebuilding it
+    public void moveSphere(int sphere, Point3D center) {
+        sphereChanged(sphere);
+        scene.getSpheres().setCenter(sphere, center.x, center.y, center.z);
+        scene.refit();
+        sphereChanged(sphere);
+    }
+
+    // Records that the sphere's surface has been edited, and with it every sphere sharing it
+    public void sphereMaterialChanged(int sphere) {
+        SphereSoA spheres = scene.getSpheres();
+        Surface surface = spheres.getSurface(sphere);
+        for (int i = 0; i < spheres.size(); i++) {
+            if (spheres.getSurface(i) == surface) {
+                sphereChanged(i);
+            }
+        }
+    }
+
+    // Records that the sphere, as it now stands, needs drawing again
+    private void sphereChanged(int sphere) {
+        SphereSoA spheres = scene.getSpheres();
+        float r = spheres.getRadius(sphere);
+        changed.include(new BoundingBox(spheres.getCenterX(sphere) - r, spheres.getCenterY(sphere) - r,
+                spheres.getCenterZ(sphere) - r, spheres.getCenterX(sphere) + r, spheres.getCenterY(sphere) + r,
+                spheres.getCenterZ(sphere) + r));
     }
 
     public void addLight(float r, float g, float b){
         scene.addAmbientLight(r, g, b);
+        changedAll = true;
     }
 
     public void addLight(float r, float g, float b, Vector3D direction){
         scene.addDirectionalLight(r, g, b, direction);
+        changedAll = true;
     }
 
     public void addLight(float r, float g, float b, Point3D point){
         scene.addPointLight(r, g, b, point);
+        changedAll = true;
+    }
+
+    public void setLightIntensity(int light, float r, float g, float b) {
+        Light l = scene.getLights().get(light);
+        l.rIntensity = r;
+        l.gIntensity = g;
+        l.bIntensity = b;
+        changedAll = true;
+    }
+
+    public void setLightRange(int light, float range) {
+        scene.setLightRange(light, range);
+        changedAll = true;
+    }
+
+    public Surface getSphereSurface(int sphere) {
+        return scene.getSpheres().getSurface(sphere);
     }
 
 
@@ -0,0 +1,25 @@
+package cs3318.raytracing.controller;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A whole frame the tiles of a render are written to, as ARGB pixels, and can be read
+ * back from.
+ * <p>
+ * Tiles are written from the render threads, several at once, but never overlap.
+ */
+public interface FrameBuffer extends TileSink {
+
+    int getWidth();
+
+    int getHeight();
+
+    // Reads rows y to y + rows - 1 of the image, one after another, into pixels
+    void getRows(int y, int rows, int[] pixels);
+
+    // The image pixels are written to, or null if they are kept off the heap
+    BufferedImage getImage();
+
+    // Releases whatever holds the pixels; the buffer is not used again
+    default void close() {}
+}
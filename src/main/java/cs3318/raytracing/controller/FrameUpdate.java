@@ -0,0 +1,12 @@
+package cs3318.raytracing.controller;
+
+/**
+ * Changes the scene between the frames of an animation. It is called on the thread
+ * rendering the animation, after keyframed motion has been applied and before the frame
+ * is traced, while the previous frame may still be being written out.
+ */
+@FunctionalInterface
+public interface FrameUpdate {
+
+    void update(int frame, float time);
+}
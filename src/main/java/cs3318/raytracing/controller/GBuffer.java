@@ -0,0 +1,116 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.Intersection;
+import cs3318.raytracing.model.Scene;
+
+import java.util.Arrays;
+
+/**
+ * The primary hit of every pixel of the last full render: the object hit, the triangle hit
+ * within it and where, the hit point, the surface normal and the unit vector back along
+ * the ray, in primitive arrays.
+ * <p>
+ * Primary hits depend only on the camera and the geometry, so while neither has changed
+ * a frame can be shaded again from here without tracing a single primary ray, which
+ * makes edits to lights and materials cheap to preview. The buffer is stamped with the
+ * camera and geometry versions it was recorded against and is stale once either moves on.
+ * Surfaces are looked up again when a pixel is reshaded, so edits to them are seen.
+ */
+final class GBuffer {
+
+    private int width, height;
+    private int[] ids = new int[0];     // object seen by each pixel, as Renderer.objectId
+    private int[] elements = new int[0];
+    private float[] barycentrics = new float[0];
+    private float[] points = new float[0];
+    private float[] normals = new float[0];
+    private float[] views = new float[0];
+    private boolean valid;
+    private int cameraVersion, geometryVersion;
+
+    // Makes room for an image of the given size and marks the buffer stale until it is refilled
+    void reset(int width, int height) {
+        int size = width * height;
+        if (ids.length != size) {
+            ids = new int[size];
+            elements = new int[size];
+            barycentrics = new float[2 * size];
+            points = new float[3 * size];
+            normals = new float[3 * size];
+            views = new float[3 * size];
+        }
+        Arrays.fill(ids, Renderer.BACKGROUND_ID);
+        this.width = width;
+        this.height = height;
+        valid = false;
+    }
+
+    // Marks the buffer as holding every pixel's hit for the given camera and geometry
+    void validate(int cameraVersion, int geometryVersion) {
+        this.cameraVersion = cameraVersion;
+        this.geometryVersion = geometryVersion;
+        valid = true;
+    }
+
+    boolean isValid(int width, int height, int cameraVersion, int geometryVersion) {
+        return valid && this.width == width && this.height == height
+                && this.cameraVersion == cameraVersion && this.geometryVersion == geometryVersion;
+    }
+
+    // Stores the primary hit of pixel (x, y), whose object has the given ID
+    void record(int x, int y, int id, Intersection hit) {
+        int p = y * width + x;
+        ids[p] = id;
+        elements[p] = hit.element;
+        barycentrics[2 * p] = hit.u;
+        barycentrics[2 * p + 1] = hit.v;
+        int o = 3 * p;
+        points[o] = hit.point.x;
+        points[o + 1] = hit.point.y;
+        points[o + 2] = hit.point.z;
+        normals[o] = hit.surfaceNormal.x;
+        normals[o + 1] = hit.surfaceNormal.y;
+        normals[o + 2] = hit.surfaceNormal.z;
+        views[o] = hit.unitVecToRay.x;
+        views[o + 1] = hit.unitVecToRay.y;
+        views[o + 2] = hit.unitVecToRay.z;
+    }
+
+    void recordMiss(int x, int y) {
+        ids[y * width + x] = Renderer.BACKGROUND_ID;
+    }
+
+    int id(int x, int y) {
+        return ids[y * width + x];
+    }
+
+    // Loads the hit of pixel (x, y), which must not be background, into hit with the
+    // object's current surface; only the distance along the primary ray is not kept
+    void load(int x, int y, Scene scene, Intersection hit) {
+        int p = y * width + x;
+        int id = ids[p];
+        // Undoes Renderer.objectId
+        if (id >= 0) {
+            hit.object = null;
+            hit.primitive = id;
+            hit.surface = scene.getSpheres().getSurface(id);
+        } else {
+            hit.primitive = Renderer.BACKGROUND_ID - 1 - id;
+            hit.object = scene.getObjects().get(hit.primitive);
+            hit.surface = hit.object.getSurface();
+        }
+        hit.element = elements[p];
+        hit.u = barycentrics[2 * p];
+        hit.v = barycentrics[2 * p + 1];
+        int o = 3 * p;
+        hit.point.x = points[o];
+        hit.point.y = points[o + 1];
+        hit.point.z = points[o + 2];
+        hit.surfaceNormal.x = normals[o];
+        hit.surfaceNormal.y = normals[o + 1];
+        hit.surfaceNormal.z = normals[o + 2];
+        hit.unitVecToRay.x = views[o];
+        hit.unitVecToRay.y = views[o + 1];
+        hit.unitVecToRay.z = views[o + 2];
+    }
+}
@@ -0,0 +1,128 @@
+package cs3318.raytracing.controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The linear colour of every pixel before it is clamped or quantized, in direct buffers
+ * off the heap.
+ * <p>
+ * Each pixel holds the weighted mean of the samples added to it, as three little-endian
+ * floats, with the total weight alongside in a separate buffer. Keeping the mean rather
+ * than the sum means the colour rows are already in the layout of a PFM file's
+ * rasters, so {@link #writePfm} hands slices of them straight to the file channel.
+ * Rows are split between buffers of at most {@value #MAX_BUFFER} bytes, as one direct
+ * buffer cannot exceed 2 GB. Pixels are only ever written by the thread rendering their
+ * tile, so absolute puts and gets need no lock.
+ */
+final class HdrBuffer {
+
+    private static final int MAX_BUFFER = 1 << 30;
+
+    private final int width, height;
+    private final int rowsPerBuffer;
+    private final ByteBuffer[] colors;
+    private final FloatBuffer[] colorFloats;
+    private final FloatBuffer[] weights;
+
+    HdrBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        rowsPerBuffer = Math.max(1, MAX_BUFFER / (12 * Math.max(width, 1)));
+        int count = (height + rowsPerBuffer - 1) / rowsPerBuffer;
+        colors = new ByteBuffer[count];
+        colorFloats = new FloatBuffer[count];
+        weights = new FloatBuffer[count];
+        for (int b = 0; b < count; b++) {
+            int pixels = width * Math.min(rowsPerBuffer, height - b * rowsPerBuffer);
+            colors[b] = ByteBuffer.allocateDirect(12 * pixels).order(ByteOrder.LITTLE_ENDIAN);
+            colorFloats[b] = colors[b].asFloatBuffer();
+            weights[b] = ByteBuffer.allocateDirect(4 * pixels).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    // Replaces pixel (x, y) with a single sample of the colour at color[at]
+    void set(int x, int y, double[] color, int at) {
+        int b = y / rowsPerBuffer;
+        int p = (y % rowsPerBuffer) * width + x;
+        FloatBuffer rgb = colorFloats[b];
+        rgb.put(3 * p, (float) color[at]);
+        rgb.put(3 * p + 1, (float) color[at + 1]);
+        rgb.put(3 * p + 2, (float) color[at + 2]);
+        weights[b].put(p, 1);
+    }
+
+    // Empties pixel (x, y) so that samples can be accumulated into it afresh
+    void clear(int x, int y) {
+        weights[y / rowsPerBuffer].put((y % rowsPerBuffer) * width + x, 0);
+    }
+
+    // Adds a sample of the given weight to pixel (x, y), keeping the pixel's weighted mean
+    void add(int x, int y, double r, double g, double b, double weight) {
+        int buffer = y / rowsPerBuffer;
+        int p = (y % rowsPerBuffer) * width + x;
+        FloatBuffer rgb = colorFloats[buffer];
+        float total = weights[buffer].get(p) + (float) weight;
+        float share = (float) weight / total;
+        rgb.put(3 * p, rgb.get(3 * p) + share * ((float) r - rgb.get(3 * p)));
+        rgb.put(3 * p + 1, rgb.get(3 * p + 1) + share * ((float) g - rgb.get(3 * p + 1)));
+        rgb.put(3 * p + 2, rgb.get(3 * p + 2) + share * ((float) b - rgb.get(3 * p + 2)));
+        weights[buffer].put(p, total);
+    }
+
+    // Reads the colour of pixel (x, y) into color[at]
+    void get(int x, int y, double[] color, int at) {
+        int p = 3 * ((y % rowsPerBuffer) * width + x);
+        FloatBuffer rgb = colorFloats[y / rowsPerBuffer];
+        color[at] = rgb.get(p);
+        color[at + 1] = rgb.get(p + 1);
+        color[at + 2] = rgb.get(p + 2);
+    }
+
+    // Tone maps rows y to y + rows - 1 and quantizes them to ARGB pixels, one row after another
+    void toneMap(int y, int rows, ToneMap toneMap, float exposure, int[] pixels) {
+        double[] color = new double[3];
+        for (int j = 0; j < rows; j++) {
+            for (int x = 0; x < width; x++) {
+                get(x, y + j, color, 0);
+                pixels[j * width + x] = toneMap.toRGB(color, exposure);
+            }
+        }
+    }
+
+    // Writes the colours as a little-endian PFM file, whose rows run from the bottom up,
+    // gathering the rows from the buffers without copying them
+    void writePfm(Path path) throws IOException {
+        byte[] header = ("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer[] rows = new ByteBuffer[height + 1];
+        rows[0] = ByteBuffer.wrap(header);
+        for (int y = 0; y < height; y++) {
+            rows[height - y] = colors[y / rowsPerBuffer].slice(12 * (y % rowsPerBuffer) * width, 12 * width);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // A gathering write may stop short, and takes at most IOV_MAX buffers at a time
+            int first = 0;
+            while (first < rows.length) {
+                channel.write(rows, first, Math.min(rows.length - first, 1024));
+                while (first < rows.length && !rows[first].hasRemaining()) {
+                    first++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package cs3318.raytracing.controller;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A frame buffer held on the heap as a {@link BufferedImage}.
+ */
+public class ImageFrameBuffer implements FrameBuffer {
+
+    private final BufferedImage image;
+
+    public ImageFrameBuffer(int width, int height) {
+        this(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+    }
+
+    public ImageFrameBuffer(BufferedImage image) {
+        this.image = image;
+    }
+
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    public void setRGB(int x, int y, int width, int height, int[] pixels) {
+        // Tiles never overlap, but the raster is shared between workers. The raster of an
+        // ARGB image stores the ints as they are, so they are copied without conversion.
+        synchronized (image) {
+            image.getRaster().setDataElements(x, y, width, height, pixels);
+        }
+    }
+
+    public void getRows(int y, int rows, int[] pixels) {
+        synchronized (image) {
+            image.getRGB(0, y, image.getWidth(), rows, pixels, 0, image.getWidth());
+        }
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+}
@@ -0,0 +1,125 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.AmbientLight;
+import cs3318.raytracing.model.Intersection;
+import cs3318.raytracing.model.Light;
+import cs3318.raytracing.model.LightGrid;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.Surface;
+import cs3318.raytracing.model.TraceContext;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chooses the lights a hit is shaded with, so that the shadow rays cast per hit do not
+ * grow with the number of lights in the scene.
+ * <p>
+ * The candidates are the lights without a range and the ranged lights listed in the
+ * {@link LightGrid} cell holding the hit. Of those, a light is dropped without a shadow
+ * ray when it cannot add anything: the hit faces away from it, or lies beyond its
+ * range. Each remaining light is given a bound on what it could add if unshadowed, the
+ * most any channel of its diffuse and specular terms can reach, and when a threshold is
+ * set, lights whose bound, scaled by the weight of the ray that found the hit, falls
+ * below it are dropped too.
+ * <p>
+ * When a budget is set and more lights remain than it allows, that many are drawn with
+ * probability proportional to their bounds by systematic sampling: one random offset,
+ * then evenly spaced picks along the lights' summed bounds. A light is picked on
+ * average budget times its share of the total, and each pick is weighted by the
+ * reciprocal of that, so the expected sum of the chosen lights' terms is exactly the
+ * sum over every remaining light. Bright or close lights whose share exceeds one pick
+ * are always chosen, with weights close to 1. The offset comes from a hash of the hit
+ * point, so a frame is noisy but the same on every run and thread count. The estimate
+ * is of the lighting before it is clamped to white, so clamped highlights can differ.
+ * <p>
+ * Ambient lights cast no shadow ray and are always kept. Chosen lights are written to
+ * the context in the order they were added to the scene, so with neither a threshold
+ * nor a budget nor ranges the hit is shaded exactly as if every light were visited.
+ */
+final class LightSampler {
+
+    private LightSampler() {}
+
+    // Fills context.lightIds and lightScales with the lights to shade the hit with, and what
+    // each one's terms are to be scaled by, and returns how many there are
+    static int select(Scene scene, Intersection hit, float rayWeight, int budget, float threshold,
+                      TraceContext context) {
+        List<Light> lights = scene.getLights();
+        LightGrid grid = scene.getLightGrid();
+        int cell = grid.cellOf(hit.point);
+        int globals = grid.getGlobalCount();
+        int from = (cell >= 0) ? grid.cellStart(cell) : 0, to = (cell >= 0) ? grid.cellEnd(cell) : 0;
+        int capacity = globals + to - from;
+        if (context.lightIds.length < capacity) {
+            context.lightIds = Arrays.copyOf(context.lightIds, capacity);
+            context.lightScales = Arrays.copyOf(context.lightScales, capacity);
+            context.lightBounds = Arrays.copyOf(context.lightBounds, capacity);
+        }
+        int[] ids = context.lightIds;
+        float[] scales = context.lightScales, bounds = context.lightBounds;
+
+        Surface surface = hit.surface;
+        Point3D point = hit.point;
+        Vector3D lightVector = context.lightVector;
+        float diffuse = Math.abs(surface.phong.diffuseReflectionCoefficient) * Math.max(Math.abs(surface.rIntrinsic),
+                Math.max(Math.abs(surface.gIntrinsic), Math.abs(surface.bIntrinsic)));
+        float specular = Math.abs(surface.phong.specularReflectionCoefficient);
+        int count = 0, sampled = 0;
+        double total = 0;
+        // Merge the two lists, each in scene order
+        for (int g = 0, c = from; g < globals || c < to; ) {
+            int l = (c >= to || (g < globals && grid.getGlobalLight(g) < grid.getCellLight(c)))
+                    ? grid.getGlobalLight(g++) : grid.getCellLight(c++);
+            Light light = lights.get(l);
+            if (light instanceof AmbientLight) {
+                ids[count] = l;
+                scales[count] = 1;
+                bounds[count++] = 0;
+                continue;
+            }
+            light.calculateLightVector(point, lightVector);
+            float lambert = Vector3D.dot(hit.surfaceNormal, lightVector);
+            if (!(lambert > 0))
+                continue;
+            float falloff = light.calculateFalloff(point);
+            float intensity = Math.max(Math.abs(light.rIntensity),
+                    Math.max(Math.abs(light.gIntensity), Math.abs(light.bIntensity)));
+            float bound = falloff * intensity * (diffuse * lambert + specular);
+            if (!(bound > 0) || bound * rayWeight < threshold)
+                continue;
+            ids[count] = l;
+            scales[count] = falloff;
+            bounds[count++] = bound;
+            sampled++;
+            total += bound;
+        }
+        if (budget <= 0 || sampled <= budget)
+            return count;
+
+        double step = total / budget;
+        double next = step * Renderer.random(point, 0);
+        double end = 0;
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (bounds[i] == 0) {
+                ids[kept] = ids[i];
+                scales[kept++] = 1;
+                continue;
+            }
+            end += bounds[i];
+            int picks = 0;
+            while (next < end) {
+                picks++;
+                next += step;
+            }
+            if (picks > 0) {
+                ids[kept] = ids[i];
+                scales[kept++] = (float) (scales[i] * picks * step / bounds[i]);
+            }
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,84 @@
+package cs3318.raytracing.controller;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A frame buffer kept in a memory-mapped scratch file rather than on the heap, so the
+ * image can be far larger than the heap. Pixels are stored as native-order ints, row by
+ * row, in mappings of whole rows of at most {@value #MAX_MAPPING} bytes each, since one
+ * mapping cannot exceed 2 GB. The operating system pages them in and out as tiles are
+ * written, and the file is deleted when the buffer is closed.
+ */
+public class MappedFrameBuffer implements FrameBuffer {
+
+    private static final int MAX_MAPPING = 1 << 30;
+
+    private final int width, height;
+    private final int rowsPerMapping;
+    private final IntBuffer[] mappings;
+    private final Path file;
+
+    // Creates the scratch file in directory
+    public MappedFrameBuffer(int width, int height, Path directory) throws IOException {
+        this.width = width;
+        this.height = height;
+        rowsPerMapping = Math.max(1, MAX_MAPPING / (4 * Math.max(width, 1)));
+        mappings = new IntBuffer[(height + rowsPerMapping - 1) / rowsPerMapping];
+        Files.createDirectories(directory);
+        file = Files.createTempFile(directory, "frame", ".argb");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for (int m = 0; m < mappings.length; m++) {
+                int rows = Math.min(rowsPerMapping, height - m * rowsPerMapping);
+                mappings[m] = channel.map(FileChannel.MapMode.READ_WRITE, 4L * width * m * rowsPerMapping,
+                        4L * width * rows).order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Absolute puts and gets leave the buffers' positions alone, so workers need no lock
+    public void setRGB(int x, int y, int width, int height, int[] pixels) {
+        for (int j = 0; j < height; j++) {
+            int row = y + j;
+            mappings[row / rowsPerMapping].put((row % rowsPerMapping) * this.width + x, pixels, j * width, width);
+        }
+    }
+
+    public void getRows(int y, int rows, int[] pixels) {
+        for (int j = 0; j < rows; j++) {
+            int row = y + j;
+            mappings[row / rowsPerMapping].get((row % rowsPerMapping) * width, pixels, j * width, width);
+        }
+    }
+
+    public BufferedImage getImage() {
+        return null;
+    }
+
+    // The mappings stay valid until they are collected, but the file's name goes now
+    public void close() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.Ray;
+
+import java.util.Arrays;
+
+/**
+ * A wave of rays for the wavefront renderer, stored as one primitive array per field.
+ * <p>
+ * Shadow rays use the distance to their light and leave the weights unset; reflected and
+ * refracted rays use their weight and leave the distance unset. Every ray carries the
+ * index of the sample or shadow test it belongs to, so the queue can be reordered freely.
+ */
+final class RayQueue {
+
+    // Bits of each origin coordinate in the sort key, and the bits below them for the ray's
+    // position; the octant takes 3 more and the sign bit is left clear
+    private static final int ORIGIN_BITS = 10;
+    private static final int INDEX_BITS = 63 - 3 - 3 * ORIGIN_BITS;
+
+    float[] ox, oy, oz, dx, dy, dz;
+    float[] weightR, weightG, weightB;
+    float[] distance;
+    int[] owner;
+    private int size;
+
+    // Spare arrays the sort permutes into
+    private float[] spareFloats;
+    private int[] spareOwner;
+    private int[] order;
+    private long[] keys;
+
+    RayQueue() {
+        int capacity = 256;
+        ox = new float[capacity];
+        oy = new float[capacity];
+        oz = new float[capacity];
+        dx = new float[capacity];
+        dy = new float[capacity];
+        dz = new float[capacity];
+        weightR = new float[capacity];
+        weightG = new float[capacity];
+        weightB = new float[capacity];
+        distance = new float[capacity];
+        owner = new int[capacity];
+        spareFloats = new float[capacity];
+        spareOwner = new int[capacity];
+        order = new int[capacity];
+        keys = new long[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    // Appends the ray, with its direction as it is, and returns its position in the queue
+    int add(Ray ray, int owner) {
+        if (size == ox.length) {
+            grow();
+        }
+        int i = size++;
+        ox[i] = ray.origin.x;
+        oy[i] = ray.origin.y;
+        oz[i] = ray.origin.z;
+        dx[i] = ray.direction.x;
+        dy[i] = ray.direction.y;
+        dz[i] = ray.direction.z;
+        this.owner[i] = owner;
+        return i;
+    }
+
+    // Writes ray i into ray, without normalizing its direction again
+    Ray get(int i, Ray ray) {
+        ray.origin.x = ox[i];
+        ray.origin.y = oy[i];
+        ray.origin.z = oz[i];
+        ray.direction.x = dx[i];
+        ray.direction.y = dy[i];
+        ray.direction.z = dz[i];
+        return ray;
+    }
+
+    private void grow() {
+        int capacity = 2 * ox.length;
+        ox = Arrays.copyOf(ox, capacity);
+        oy = Arrays.copyOf(oy, capacity);
+        oz = Arrays.copyOf(oz, capacity);
+        dx = Arrays.copyOf(dx, capacity);
+        dy = Arrays.copyOf(dy, capacity);
+        dz = Arrays.copyOf(dz, capacity);
+        weightR = Arrays.copyOf(weightR, capacity);
+        weightG = Arrays.copyOf(weightG, capacity);
+        weightB = Arrays.copyOf(weightB, capacity);
+        distance = Arrays.copyOf(distance, capacity);
+        owner = Arrays.copyOf(owner, capacity);
+        spareFloats = new float[capacity];
+        spareOwner = new int[capacity];
+        order = new int[capacity];
+        keys = new long[capacity];
+    }
+
+    /**
+     * Sorts the rays by the octant of their direction, then by the Morton code of their
+     * origin within the bounds of all the origins, so rays that are traced one after
+     * another visit much the same nodes of the hierarchy. Ties keep their order.
+     */
+    void sort() {
+        if (size < 2)
+            return;
+        if (size > 1 << INDEX_BITS)
+            return;   // positions would not fit in the key; leave the queue as it is
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            minX = Math.min(minX, ox[i]);
+            minY = Math.min(minY, oy[i]);
+            minZ = Math.min(minZ, oz[i]);
+            maxX = Math.max(maxX, ox[i]);
+            maxY = Math.max(maxY, oy[i]);
+            maxZ = Math.max(maxZ, oz[i]);
+        }
+        float cells = (1 << ORIGIN_BITS) - 1;
+        float scaleX = (maxX > minX) ? cells / (maxX - minX) : 0;
+        float scaleY = (maxY > minY) ? cells / (maxY - minY) : 0;
+        float scaleZ = (maxZ > minZ) ? cells / (maxZ - minZ) : 0;
+        for (int i = 0; i < size; i++) {
+            long octant = (dx[i] < 0 ? 4 : 0) | (dy[i] < 0 ? 2 : 0) | (dz[i] < 0 ? 1 : 0);
+            long morton = spread((int) ((ox[i] - minX) * scaleX)) << 2
+                    | spread((int) ((oy[i] - minY) * scaleY)) << 1
+                    | spread((int) ((oz[i] - minZ) * scaleZ));
+            keys[i] = (octant << (3 * ORIGIN_BITS) | morton) << INDEX_BITS | i;
+        }
+        Arrays.sort(keys, 0, size);
+        long mask = (1L << INDEX_BITS) - 1;
+        for (int k = 0; k < size; k++) {
+            order[k] = (int) (keys[k] & mask);
+        }
+        // Apply the permutation to every field through the spare arrays
+        ox = permute(ox);
+        oy = permute(oy);
+        oz = permute(oz);
+        dx = permute(dx);
+        dy = permute(dy);
+        dz = permute(dz);
+        weightR = permute(weightR);
+        weightG = permute(weightG);
+        weightB = permute(weightB);
+        distance = permute(distance);
+        int[] sortedOwner = spareOwner;
+        for (int k = 0; k < size; k++) {
+            sortedOwner[k] = owner[order[k]];
+        }
+        spareOwner = owner;
+        owner = sortedOwner;
+    }
+
+    // Returns the field reordered by the sorted order, swapping it with the spare array
+    private float[] permute(float[] field) {
+        float[] sorted = spareFloats;
+        for (int k = 0; k < size; k++) {
+            sorted[k] = field[order[k]];
+        }
+        spareFloats = field;
+        return sorted;
+    }
+
+    // Spreads the low 10 bits of v so there are two zero bits between each
+    private static long spread(int v) {
+        long x = v & 0x3FF;
+        x = (x | x << 16) & 0x30000FFL;
+        x = (x | x << 8) & 0x300F00FL;
+        x = (x | x << 4) & 0x30C30C3L;
+        x = (x | x << 2) & 0x9249249L;
+        return x;
+    }
+}
@@ -0,0 +1,387 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.AmbientLight;
+import cs3318.raytracing.model.Camera;
+import cs3318.raytracing.model.DirectionalLight;
+import cs3318.raytracing.model.Light;
+import cs3318.raytracing.model.MeshInstance;
+import cs3318.raytracing.model.PointLight;
+import cs3318.raytracing.model.Renderable;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.Sphere;
+import cs3318.raytracing.model.SphereSoA;
+import cs3318.raytracing.model.Surface;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finished frames kept by a content hash of everything that decides their pixels, so
+ * that rendering a frame seen before copies it out instead of tracing it.
+ * <p>
+ * The key is a SHA-256 of the image size, the camera, the background, the renderer's
+ * samples, depth, minimum contribution and light sampling, and the lights, surfaces
+ * and objects of the scene in the order they were added, each number by its exact
+ * bits. Two scenes built the same way get the same key whichever controller, or run,
+ * built them; one that differs in a single coefficient gets another. Scenes holding
+ * objects of a kind the key does not know how to describe are not cached.
+ * <p>
+ * Frames are kept in two tiers. The memory tier holds the most recently used frames as
+ * packed pixels up to a number of bytes. The disk tier, if there is a directory, holds
+ * every frame stored, as a file named after its key, little-endian:
+ * <pre>
+ * int   magic 'RTRC', version, width, height
+ * byte  width * height pixels as R, G, B, row by row
+ * </pre>
+ * A file is touched when it is read, and the least recently used files are deleted once
+ * the directory holds more than its limit. Files are written to a temporary name and
+ * renamed, so a reader never sees a partial frame; one that is damaged or of another
+ * size is ignored. A frame found on disk is promoted to memory if the memory tier could
+ * hold it; otherwise it goes to the image band by band, and never whole on the heap.
+ */
+final class RenderCache {
+
+    static final String EXTENSION = ".rgb";
+    static final String MEMORY = "memory", DISK = "disk";
+
+    private static final int MAGIC = 'R' | 'T' << 8 | 'R' << 16 | 'C' << 24;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    // Rows read or written at a time, so a frame on disk never needs a second copy in memory
+    private static final int BAND = 64;
+
+    private final long memoryBytes;
+    private final Path directory;   // disk tier, or null for memory only
+    private final long diskBytes;
+    private final Map<String, int[]> frames = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryUsed;
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    RenderCache(long memoryBytes, Path directory, long diskBytes) {
+        if (memoryBytes < 0 || diskBytes < 0)
+            throw new IllegalArgumentException("Cache sizes must not be negative");
+        this.memoryBytes = memoryBytes;
+        this.directory = directory;
+        this.diskBytes = diskBytes;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    // Hex key of the frame the renderer would draw, or null if the scene cannot be described
+    static String key(Scene scene, Camera camera, Renderer renderer, int width, int height) {
+        Hash hash = new Hash();
+        hash.putInt(VERSION).putInt(width).putInt(height);
+        hash.put(camera.getEye()).put(camera.getLookat()).put(camera.getUp());
+        hash.putInt(camera.getWidth()).putInt(camera.getHeight()).putFloat(camera.getFOV());
+        Color background = renderer.getBackground();
+        hash.putInt(background.getRGB());
+        hash.putInt(renderer.getMaxSamples()).putInt(renderer.getMaxDepth()).putFloat(renderer.getMinContribution())
+                .putInt(renderer.isRussianRoulette() ? 1 : 0);
+        hash.putInt(renderer.getLightSamples()).putFloat(renderer.getLightThreshold());
+
+        List<Light> lights = scene.getLights();
+        hash.putInt(lights.size());
+        for (Light light : lights) {
+            if (light instanceof AmbientLight) {
+                hash.putInt(0);
+            } else if (light instanceof DirectionalLight) {
+                hash.putInt(1).put(((DirectionalLight) light).lightVector);
+            } else if (light instanceof PointLight) {
+                hash.putInt(2).put(((PointLight) light).lightPoint).putFloat(((PointLight) light).range);
+            } else {
+                return null;
+            }
+            hash.putFloat(light.rIntensity).putFloat(light.gIntensity).putFloat(light.bIntensity);
+        }
+
+        SphereSoA spheres = scene.getSpheres();
+        List<Surface> surfaces = spheres.getSurfaces();
+        hash.putInt(surfaces.size());
+        for (Surface surface : surfaces) {
+            hash.put(surface);
+        }
+        hash.putInt(spheres.size());
+        for (int i = 0; i < spheres.size(); i++) {
+            hash.putFloat(spheres.getCenterX(i)).putFloat(spheres.getCenterY(i)).putFloat(spheres.getCenterZ(i))
+                    .putFloat(spheres.getRadius(i)).putInt(spheres.getSurfaceIndex(i));
+        }
+
+        List<Renderable> objects = scene.getObjects();
+        hash.putInt(objects.size());
+        for (Renderable object : objects) {
+            if (object instanceof MeshInstance) {
+                MeshInstance instance = (MeshInstance) object;
+                hash.putInt(0);
+                for (float v : instance.getTransform()) {
+                    hash.putFloat(v);
+                }
+                hash.put(instance.getSurface()).put(instance.getMesh().getDigest());
+            } else if (object instanceof Sphere) {
+                Sphere sphere = (Sphere) object;
+                hash.putInt(1).put(sphere.getCenter()).putFloat(sphere.getRadius()).put(sphere.getSurface());
+            } else {
+                return null;
+            }
+        }
+        return hash.hex();
+    }
+
+    // Copies the frame into the image and returns the tier it came from, or null if it is not kept
+    String load(String key, FrameBuffer image) {
+        int width = image.getWidth(), height = image.getHeight();
+        int[] pixels;
+        synchronized (this) {
+            pixels = frames.get(key);
+        }
+        if (pixels != null && pixels.length == width * height) {
+            image.setRGB(0, 0, width, height, pixels);
+            hits.incrementAndGet();
+            return MEMORY;
+        }
+        if (directory != null) {
+            try {
+                if (read(key, directory.resolve(key + EXTENSION), image)) {
+                    hits.incrementAndGet();
+                    return DISK;
+                }
+            } catch (NoSuchFileException e) {
+                // Not cached yet
+            } catch (IOException e) {
+                System.err.println("Error reading render cache: " + e.getMessage());
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    // Keeps the frame now in the image under the key
+    void store(String key, FrameBuffer image) {
+        int width = image.getWidth(), height = image.getHeight();
+        if (4L * width * height <= memoryBytes) {
+            int[] pixels = new int[width * height];
+            image.getRows(0, height, pixels);
+            remember(key, pixels);
+        }
+        if (directory != null && HEADER_SIZE + 3L * width * height <= diskBytes) {
+            try {
+                write(directory.resolve(key + EXTENSION), image);
+                evict();
+            } catch (IOException e) {
+                System.err.println("Error writing render cache: " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void remember(String key, int[] pixels) {
+        if (4L * pixels.length > memoryBytes)
+            return;
+        int[] previous = frames.put(key, pixels);
+        if (previous != null) {
+            memoryUsed -= 4L * previous.length;
+        }
+        memoryUsed += 4L * pixels.length;
+        var eldest = frames.values().iterator();
+        while (memoryUsed > memoryBytes) {
+            memoryUsed -= 4L * eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    // Writes the pixels of the file into the image, keeping them in memory under the key if they
+    // fit there, and returns whether the file held a frame of the image's size
+    private boolean read(String key, Path file, FrameBuffer image) throws IOException {
+        int width = image.getWidth(), height = image.getHeight();
+        int[] frame;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getInt() != width || header.getInt() != height
+                    || channel.size() != HEADER_SIZE + 3L * width * height)
+                return false;
+            frame = (4L * width * height <= memoryBytes) ? new int[width * height] : null;
+            int[] pixels = new int[width * Math.min(BAND, height)];
+            ByteBuffer band = ByteBuffer.allocate(3 * pixels.length);
+            for (int y = 0; y < height; y += BAND) {
+                int rows = Math.min(BAND, height - y);
+                band.clear().limit(3 * width * rows);
+                while (band.hasRemaining()) {
+                    if (channel.read(band) < 0)
+                        return false;
+                }
+                band.flip();
+                for (int p = 0; p < width * rows; p++) {
+                    pixels[p] = 0xFF000000 | (band.get() & 0xFF) << 16 | (band.get() & 0xFF) << 8 | (band.get() & 0xFF);
+                }
+                image.setRGB(0, y, width, rows, pixels);
+                if (frame != null) {
+                    System.arraycopy(pixels, 0, frame, y * width, width * rows);
+                }
+            }
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        if (frame != null) {
+            remember(key, frame);
+        }
+        return true;
+    }
+
+    private void write(Path file, FrameBuffer image) throws IOException {
+        int width = image.getWidth(), height = image.getHeight();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                int[] pixels = new int[width * Math.min(BAND, height)];
+                ByteBuffer band = ByteBuffer.allocate(3 * pixels.length);
+                for (int y = 0; y < height; y += BAND) {
+                    int rows = Math.min(BAND, height - y);
+                    image.getRows(y, rows, pixels);
+                    band.clear();
+                    for (int p = 0; p < width * rows; p++) {
+                        band.put((byte) (pixels[p] >> 16)).put((byte) (pixels[p] >> 8)).put((byte) pixels[p]);
+                    }
+                    band.flip();
+                    while (band.hasRemaining()) {
+                        channel.write(band);
+                    }
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Deletes the least recently used frames until the directory is within its limit
+    private synchronized void evict() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Map<Path, FileTime> used = new LinkedHashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : stream) {
+                try {
+                    used.put(file, Files.getLastModifiedTime(file));
+                    total += Files.size(file);
+                    files.add(file);
+                } catch (NoSuchFileException e) {
+                    // Deleted by another process
+                }
+            }
+        }
+        if (total <= diskBytes)
+            return;
+        files.sort(Comparator.comparing(used::get));
+        for (Path file : files) {
+            if (total <= diskBytes)
+                break;
+            try {
+                long size = Files.size(file);
+                Files.delete(file);
+                total -= size;
+            } catch (NoSuchFileException e) {
+                // Deleted by another process
+            }
+        }
+    }
+
+    // Feeds values into a SHA-256 through a small buffer, as a scene may hold millions of them
+    private static final class Hash {
+        private final MessageDigest digest;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 13);
+
+        Hash() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+
+        Hash putInt(int value) {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+            return this;
+        }
+
+        Hash putFloat(float value) {
+            return putInt(Float.floatToIntBits(value));
+        }
+
+        Hash put(Point3D p) {
+            return putFloat(p.x).putFloat(p.y).putFloat(p.z);
+        }
+
+        Hash put(Vector3D v) {
+            return putFloat(v.x).putFloat(v.y).putFloat(v.z);
+        }
+
+        Hash put(Surface s) {
+            return putFloat(s.rIntrinsic).putFloat(s.gIntrinsic).putFloat(s.bIntrinsic)
+                    .putFloat(s.phong.ambientReflectionCoefficient).putFloat(s.phong.diffuseReflectionCoefficient)
+                    .putFloat(s.phong.specularReflectionCoefficient).putFloat(s.phong.transmissionCoefficient)
+                    .putFloat(s.phong.reflectanceCoefficient).putFloat(s.phong.exponent).putFloat(s.phong.index);
+        }
+
+        Hash put(byte[] bytes) {
+            flush();
+            digest.update(bytes);
+            return this;
+        }
+
+        private void flush() {
+            digest.update(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+
+        String hex() {
+            flush();
+            StringBuilder s = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                s.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return s.toString();
+        }
+    }
+}
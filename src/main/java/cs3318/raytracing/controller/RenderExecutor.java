@@ -0,0 +1,166 @@
+package cs3318.raytracing.controller;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The threads every renderer in the JVM shares, so that several of them rendering at
+ * once divide the processors between them instead of each starting a thread per processor.
+ * <p>
+ * Tiles are traced on one work-stealing pool with a thread per processor. Background
+ * jobs wait in a queue ordered by priority and are started by a small, fixed number of
+ * job threads, which only hand their tiles to that pool; more than one lets an urgent
+ * frame start beside a long one rather than wait for it to finish.
+ * <p>
+ * The jobs of one renderer must run one after another, so each renderer queues them on
+ * its own {@link Lane}, and only a lane's next job is in the shared queue at a time. A
+ * job thread is therefore never taken by a job that would only wait for another of the
+ * same renderer to finish, while urgent frames of other renderers wait behind it.
+ */
+final class RenderExecutor {
+
+    // Jobs in progress at once
+    private static final int JOB_THREADS = 2;
+
+    private static final AtomicLong submitted = new AtomicLong();
+    private static ForkJoinPool tiles;
+    private static ThreadPoolExecutor jobs;
+
+    private RenderExecutor() {}
+
+    static synchronized ForkJoinPool tilePool() {
+        if (tiles == null) {
+            tiles = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return tiles;
+    }
+
+    static RenderJob newJob(int priority) {
+        return new RenderJob(priority, submitted.getAndIncrement());
+    }
+
+    // Queues the job on the lane to run render and complete with its result, unless it is
+    // cancelled first
+    static void submit(Lane lane, RenderJob job, Supplier<RenderStats> render) {
+        lane.add(new Queued(job, render));
+    }
+
+    private static synchronized ThreadPoolExecutor jobs() {
+        if (jobs == null) {
+            AtomicInteger count = new AtomicInteger();
+            jobs = new ThreadPoolExecutor(JOB_THREADS, JOB_THREADS, 0, TimeUnit.MILLISECONDS,
+                    new PriorityBlockingQueue<>(), task -> {
+                        Thread thread = new Thread(task, "render-job-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return jobs;
+    }
+
+    /**
+     * The jobs of one renderer, run one after another in order of priority. The lane keeps
+     * one turn in the shared queue for its most urgent job while none of its jobs is
+     * running, and moves it forward when a more urgent job arrives.
+     */
+    static final class Lane {
+        private final PriorityQueue<Queued> waiting = new PriorityQueue<>();
+        private Turn turn;          // in the shared queue, or null
+        private boolean running;
+
+        private synchronized void add(Queued queued) {
+            waiting.add(queued);
+            schedule();
+        }
+
+        // Puts the lane's most urgent job in the shared queue, unless one is running or queued
+        // already; a queued turn that a job thread has not taken yet is replaced
+        private synchronized void schedule() {
+            if (running || waiting.isEmpty())
+                return;
+            if (turn != null && (turn.head == waiting.peek() || !jobs().remove(turn)))
+                return;
+            turn = new Turn(this, waiting.peek());
+            jobs().execute(turn);
+        }
+
+        // Runs the most urgent job not cancelled, whatever the turn was queued for, then
+        // queues the next turn
+        private void run() {
+            Queued next;
+            synchronized (this) {
+                turn = null;
+                running = true;
+                do {
+                    next = waiting.poll();
+                } while (next != null && next.job.isDone());
+            }
+            try {
+                if (next != null) {
+                    next.run();
+                }
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    schedule();
+                }
+            }
+        }
+    }
+
+    // A lane's place in the shared queue, ordered by the job at its head when it was queued
+    private static final class Turn implements Runnable, Comparable<Turn> {
+        private final Lane lane;
+        private final Queued head;
+
+        Turn(Lane lane, Queued head) {
+            this.lane = lane;
+            this.head = head;
+        }
+
+        @Override
+        public void run() {
+            lane.run();
+        }
+
+        @Override
+        public int compareTo(Turn other) {
+            return head.compareTo(other.head);
+        }
+    }
+
+    // A job waiting in its lane, ahead of those of lower priority or submitted later
+    private static final class Queued implements Runnable, Comparable<Queued> {
+        private final RenderJob job;
+        private final Supplier<RenderStats> render;
+
+        Queued(RenderJob job, Supplier<RenderStats> render) {
+            this.job = job;
+            this.render = render;
+        }
+
+        @Override
+        public void run() {
+            if (job.isDone())
+                return;
+            try {
+                job.complete(render.get());
+            } catch (RuntimeException | Error e) {
+                job.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public int compareTo(Queued other) {
+            if (job.getPriority() != other.job.getPriority())
+                return Integer.compare(other.job.getPriority(), job.getPriority());
+            return Long.compare(job.getSequence(), other.job.getSequence());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package cs3318.raytracing.controller;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A render queued or running in the background, which completes with the frame's
+ * {@link RenderStats}.
+ * <p>
+ * Cancelling a job is cooperative: tiles already being traced are finished, no further
+ * tiles are started, and the future is cancelled at once. A job cancelled before it
+ * starts never runs. The pixels of a cancelled render are left as far as it got, and
+ * the next render of the same image traces the whole frame.
+ */
+public class RenderJob extends CompletableFuture<RenderStats> {
+
+    private final int priority;
+    private final long sequence;
+    private final AtomicInteger done = new AtomicInteger();
+    private volatile int total;
+
+    RenderJob(int priority, long sequence) {
+        this.priority = priority;
+        this.sequence = sequence;
+    }
+
+    // Jobs of higher priority are started first; equal ones in the order they were submitted
+    public int getPriority() {
+        return priority;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    // Fraction of the frame's tiles rendered, over every pass of a progressive render
+    public double getProgress() {
+        if (isDone() && !isCompletedExceptionally())
+            return 1;
+        int total = this.total;
+        return (total > 0) ? (double) done.get() / total : 0;
+    }
+
+    // Starts counting progress towards the given number of tiles
+    void start(int total) {
+        done.set(0);
+        this.total = total;
+    }
+
+    void tileDone() {
+        done.incrementAndGet();
+    }
+}
@@ -0,0 +1,18 @@
+package cs3318.raytracing.controller;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Receives the parts of the image that change while a render is in progress.
+ * Methods are called from render worker threads, possibly several at once, so
+ * implementations must be thread safe and should return quickly. The image is null
+ * when the frame is kept off the heap in a {@link MappedFrameBuffer}.
+ */
+public interface RenderListener {
+
+    // Pixels of the rectangle have been written to image
+    void regionUpdated(BufferedImage image, int x, int y, int width, int height);
+
+    // Pass number pass of passCount has been written to the whole image
+    default void passCompleted(BufferedImage image, int pass, int passCount) {}
+}
@@ -0,0 +1,249 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.TraceContext;
+
+import java.util.Arrays;
+
+/**
+ * Counters and timings gathered while rendering one frame.
+ * <p>
+ * Every worker thread counts into its own {@link TraceContext}, and the counts are
+ * merged here once per tile, so the counters cost the render no contention.
+ * Intersection tests are counted per BVH leaf visited, padding slots included.
+ * <p>
+ * Timing every ray would cost more than many of the rays themselves, so only every
+ * {@link #TIMING_INTERVAL}th pixel is timed; the split between time spent finding hits
+ * (trace) and time spent shading them is estimated from those pixels.
+ */
+public class RenderStats {
+
+    public static final int TIMING_INTERVAL = 16;
+
+    private final int width, height;
+    private final int threadCount;
+    private final long[] tileNanos;
+    private final boolean reshaded;
+
+    private long primaryRays, shadowRays, reflectionRays, refractionRays;
+    private long intersectionTests, boxTests;
+    private long samples;
+    private long[] depthHistogram = new long[0];
+    private long traceNanos, timedNanos;
+
+    private long wallNanos;
+    private long peakMemory;
+    private double coverage = 1;
+    private String cacheTier;       // where the frame was copied from, or null if it was traced
+    private long cacheHits, cacheMisses = -1;
+
+    RenderStats(int width, int height, int tileCount, int threadCount, boolean reshaded) {
+        this.width = width;
+        this.height = height;
+        this.threadCount = threadCount;
+        this.tileNanos = new long[tileCount];
+        this.reshaded = reshaded;
+    }
+
+    // Adds the counters a worker gathered while rendering tile index, or a pass of it
+    synchronized void addTile(int index, long nanos, TraceContext context) {
+        tileNanos[index] += nanos;
+        primaryRays += context.primaryRays;
+        shadowRays += context.shadowRays;
+        reflectionRays += context.reflectionRays;
+        refractionRays += context.refractionRays;
+        intersectionTests += context.intersectionTests;
+        boxTests += context.boxTests;
+        samples += context.samples;
+        traceNanos += context.traceNanos;
+        timedNanos += context.timedNanos;
+        long[] depths = context.depthHistogram;
+        int used = depths.length;
+        while (used > 0 && depths[used - 1] == 0) {
+            used--;
+        }
+        if (used > depthHistogram.length) {
+            depthHistogram = Arrays.copyOf(depthHistogram, used);
+        }
+        for (int d = 0; d < used; d++) {
+            depthHistogram[d] += depths[d];
+        }
+    }
+
+    void setCoverage(double coverage) {
+        this.coverage = coverage;
+    }
+
+    void setCache(String tier, long hits, long misses) {
+        cacheTier = tier;
+        cacheHits = hits;
+        cacheMisses = misses;
+    }
+
+    void finish(long wallNanos, long peakMemory) {
+        this.wallNanos = wallNanos;
+        this.peakMemory = peakMemory;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    // True if the frame was shaded from the primary hits of an earlier one, tracing no primary rays
+    public boolean isReshaded() {
+        return reshaded;
+    }
+
+    // Fraction of the pixels that were traced; the rest of a frame cut short by its deadline
+    // were interpolated
+    public double getCoverage() {
+        return coverage;
+    }
+
+    // True if the frame was copied from the render cache rather than traced
+    public boolean isCached() {
+        return cacheTier != null;
+    }
+
+    // The cache tier the frame came from, "memory" or "disk", or null if it was traced
+    public String getCacheTier() {
+        return cacheTier;
+    }
+
+    // Frames the controller's render cache had served, and traced, up to and including this one;
+    // misses is -1 if the controller has no cache
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public long getPrimaryRays() {
+        return primaryRays;
+    }
+
+    public long getShadowRays() {
+        return shadowRays;
+    }
+
+    public long getReflectionRays() {
+        return reflectionRays;
+    }
+
+    public long getRefractionRays() {
+        return refractionRays;
+    }
+
+    public long getTotalRays() {
+        return primaryRays + shadowRays + reflectionRays + refractionRays;
+    }
+
+    // Ray-primitive tests
+    public long getIntersectionTests() {
+        return intersectionTests;
+    }
+
+    // Ray-bounding box tests during BVH traversal
+    public long getBoxTests() {
+        return boxTests;
+    }
+
+    // Image samples per pixel, above 1 where anti-aliasing refined edges
+    public double getSamplesPerPixel() {
+        return (width * height > 0) ? (double) samples / ((long) width * height) : 0;
+    }
+
+    public double getRaysPerSecond() {
+        return (wallNanos > 0) ? getTotalRays() * 1e9 / wallNanos : 0;
+    }
+
+    // Entry d is the number of primary rays whose deepest reflection or refraction was d bounces
+    public long[] getDepthHistogram() {
+        return depthHistogram.clone();
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    // Rendering time summed over every thread
+    public long getCpuNanos() {
+        long total = 0;
+        for (long t : tileNanos) {
+            total += t;
+        }
+        return total;
+    }
+
+    // Estimated share of getCpuNanos() spent finding hits
+    public long getTraceNanos() {
+        return (timedNanos > 0) ? (long) (getCpuNanos() * ((double) traceNanos / timedNanos)) : 0;
+    }
+
+    // Estimated share of getCpuNanos() spent generating rays and shading
+    public long getShadeNanos() {
+        return getCpuNanos() - getTraceNanos();
+    }
+
+    // Wall time of each tile, in the row-major order of Tile.split
+    public long[] getTileNanos() {
+        return tileNanos.clone();
+    }
+
+    // Entry k is the number of tiles that took between 2^k and 2^(k+1) microseconds
+    public int[] getTileHistogram() {
+        int[] histogram = new int[0];
+        for (long t : tileNanos) {
+            int bucket = 63 - Long.numberOfLeadingZeros(Math.max(t / 1000, 1));
+            if (bucket >= histogram.length) {
+                histogram = Arrays.copyOf(histogram, bucket + 1);
+            }
+            histogram[bucket]++;
+        }
+        return histogram;
+    }
+
+    // The tile time below which the given fraction of tiles finished
+    public long getTilePercentile(double fraction) {
+        if (tileNanos.length == 0)
+            return 0;
+        long[] sorted = getTileNanos();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+    }
+
+    // Peak heap use in bytes of the whole process up to the end of the render, which counts
+    // earlier renders, renders running alongside and anything else the process holds
+    public long getPeakMemory() {
+        return peakMemory;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%dx%d on %d threads in %.3f s%s%n", width, height, threadCount, wallNanos * 1e-9,
+                        reshaded ? ", reshaded from cached primary hits" : "")
+                + ((coverage < 1) ? String.format("coverage: %.1f%% of pixels traced, the rest interpolated%n",
+                        100 * coverage) : "")
+                + ((cacheMisses >= 0) ? String.format("cache: %s, %d hits, %d misses%n",
+                        (cacheTier != null) ? "copied from " + cacheTier : "traced", cacheHits, cacheMisses) : "")
+                + String.format("rays: %d primary, %d shadow, %d reflection, %d refraction (%.0f rays/s)%n",
+                        primaryRays, shadowRays, reflectionRays, refractionRays, getRaysPerSecond())
+                + String.format("samples: %.3f per pixel%n", getSamplesPerPixel())
+                + String.format("tests: %d intersection, %d box%n", intersectionTests, boxTests)
+                + String.format("time: %.3f s trace, %.3f s shade%n", getTraceNanos() * 1e-9, getShadeNanos() * 1e-9)
+                + String.format("tiles: %d, median %.3f ms, 99th percentile %.3f ms%n",
+                        tileNanos.length, getTilePercentile(0.5) * 1e-6, getTilePercentile(0.99) * 1e-6)
+                + "depths: " + Arrays.toString(depthHistogram) + System.lineSeparator()
+                + String.format("peak process memory: %d MB", peakMemory >> 20);
+    }
+}
@@ -0,0 +1,211 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.io.SceneReader;
+import cs3318.raytracing.io.SceneSettings;
+import cs3318.raytracing.model.Camera;
+import cs3318.raytracing.model.Scene;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A process that renders blocks of frames handed out by a coordinator, see
+ * {@link Controller#renderImage(java.util.List)}.
+ * <p>
+ * Each connection renders one frame. The coordinator sends, big-endian:
+ * <pre>
+ * int   magic 'RTWK', version
+ * int   samples per pixel, depth, then float minimum contribution and boolean Russian roulette
+ * int   light samples, then float light threshold
+ * int   length, at most 1 GiB, then the scene, image size, background and camera as a
+ *       binary scene file
+ * then per block: int block number, x, y, width, height; and int -1 after the last
+ * </pre>
+ * The worker answers the magic number once the scene is loaded and its hierarchy
+ * built, then for each block, in the order they were sent:
+ * <pre>
+ * int   block number
+ * long  render time summed over threads and the estimated share of it spent finding hits,
+ *       primary, shadow, reflection and refraction rays, intersection tests, box tests and samples
+ * int   depth histogram length, then that many longs
+ * byte  width * height pixels as R, G, B, row by row
+ * </pre>
+ * Blocks are rendered one after another, each split into tiles over this process's own
+ * threads; a coordinator keeps more than one block in flight so that the next is waiting
+ * when one is done. Every connection is served on a thread of its own.
+ */
+public final class RenderWorker implements Closeable {
+
+    public static final int DEFAULT_PORT = 7411;
+
+    static final int MAGIC = 'R' | 'T' << 8 | 'W' << 16 | 'K' << 24;
+    static final int VERSION = 2;
+    static final int END = -1;
+    // Longest scene file accepted, so that a bad length cannot exhaust the heap
+    static final int MAX_SCENE_BYTES = 1 << 30;
+
+    private final ServerSocket server;
+    private final TileScheduler scheduler = new TileScheduler();
+
+    /**
+     * Listens on the given address.
+     *
+     * @throws IOException if the address cannot be bound
+     */
+    public RenderWorker(InetSocketAddress address) throws IOException {
+        server = new ServerSocket();
+        server.bind(address);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    // Serves coordinators until closed
+    public void serve() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread thread = new Thread(() -> serve(socket), "render-worker");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    System.err.println("Error accepting coordinator: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a coordinator of this version");
+            int maxSamples = in.readInt(), maxDepth = in.readInt();
+            float minContribution = in.readFloat();
+            boolean russianRoulette = in.readBoolean();
+            int lightSamples = in.readInt();
+            float lightThreshold = in.readFloat();
+            int length = in.readInt();
+            if (length < 0 || length > MAX_SCENE_BYTES)
+                throw new IOException("Bad scene length " + length);
+            byte[] description = in.readNBytes(length);
+            if (description.length != length)
+                throw new EOFException();
+
+            // The binary reader maps the sphere columns, so the scene goes through a file
+            Scene scene = new Scene();
+            SceneSettings settings;
+            Path file = Files.createTempFile("frame", ".rtb");
+            try {
+                Files.write(file, description);
+                settings = SceneReader.read(file, scene);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+            Renderer renderer = new Renderer(settings.background != null ? settings.background : Color.BLACK);
+            renderer.setMaxSamples(maxSamples);
+            renderer.setMaxDepth(maxDepth);
+            renderer.setMinContribution(minContribution);
+            renderer.setRussianRoulette(russianRoulette);
+            renderer.setLightSamples(lightSamples);
+            renderer.setLightThreshold(lightThreshold);
+            Camera camera = new Camera(settings.up, settings.lookat, settings.eye, settings.cameraWidth,
+                    settings.cameraHeight, settings.fov);
+            scene.getBVH();
+            scene.getLightGrid();
+            out.writeInt(MAGIC);
+            out.flush();
+
+            for (int block = in.readInt(); block != END; block = in.readInt()) {
+                Rectangle region = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                if (region.isEmpty() || !new Rectangle(settings.width, settings.height).contains(region))
+                    throw new IOException("Block " + block + " lies outside the image");
+                Block pixels = new Block(region);
+                RenderStats stats = scheduler.render(pixels, renderer, scene, camera, region);
+                out.writeInt(block);
+                out.writeLong(stats.getCpuNanos());
+                out.writeLong(stats.getTraceNanos());
+                out.writeLong(stats.getPrimaryRays());
+                out.writeLong(stats.getShadowRays());
+                out.writeLong(stats.getReflectionRays());
+                out.writeLong(stats.getRefractionRays());
+                out.writeLong(stats.getIntersectionTests());
+                out.writeLong(stats.getBoxTests());
+                out.writeLong(Math.round(stats.getSamplesPerPixel() * region.width * region.height));
+                long[] depths = stats.getDepthHistogram();
+                out.writeInt(depths.length);
+                for (long d : depths) {
+                    out.writeLong(d);
+                }
+                out.write(pixels.rgb);
+                out.flush();
+            }
+        } catch (EOFException e) {
+            System.err.println("Coordinator disconnected");
+        } catch (IOException e) {
+            System.err.println("Error serving coordinator: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Unexpected error: " + e.getMessage());
+        }
+    }
+
+    // The pixels of one block of a frame, as packed RGB bytes
+    private static final class Block implements TileSink {
+        private final Rectangle region;
+        final byte[] rgb;
+
+        Block(Rectangle region) {
+            this.region = region;
+            rgb = new byte[3 * region.width * region.height];
+        }
+
+        @Override
+        public synchronized void setRGB(int x, int y, int w, int h, int[] pixels) {
+            for (int j = 0; j < h; j++) {
+                int o = 3 * ((y - region.y + j) * region.width + (x - region.x));
+                for (int i = 0; i < w; i++) {
+                    int p = pixels[j * w + i];
+                    rgb[o++] = (byte) (p >> 16);
+                    rgb[o++] = (byte) (p >> 8);
+                    rgb[o++] = (byte) p;
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves coordinators until the process is stopped.
+     *
+     * @param args Optional port, and address to listen on; by default only the loopback
+     *             interface is listened on
+     */
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        InetAddress address = (args.length > 1) ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        RenderWorker worker = new RenderWorker(new InetSocketAddress(address, port));
+        System.out.println("Render worker listening on " + address.getHostAddress() + ":" + worker.getPort());
+        worker.serve();
+    }
+}
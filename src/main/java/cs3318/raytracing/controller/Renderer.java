@@ -5,112 +5,709 @@ import cs3318.raytracing.utils.Point3D;
 import cs3318.raytracing.utils.Vector3D;
 
 import java.awt.Color;
+import java.util.Arrays;
+import java.util.List;
 
 public class Renderer {
 
-    private static final float TINY = 0.001f;
+    static final float TINY = 0.001f;
+
+    // Object ID of primary rays that hit nothing
+    public static final int BACKGROUND_ID = -1;
+    // Largest difference in any 0-255 channel between samples that counts as smooth
+    private static final int CONTRAST_THRESHOLD = 24;
+    // Deepest subdivision of an anti-aliased pixel, down to 1/16th of its width
+    private static final int MAX_SUBDIVISION = 4;
+
+    // Bounces a pixel may take by default
+    public static final int DEFAULT_MAX_DEPTH = 8;
+    // Default weight below which a secondary ray cannot change the 8-bit result
+    public static final float DEFAULT_MIN_CONTRIBUTION = 0.5f / 255;
+
     private Color background;
+    private int backgroundRGB;
+    private float backgroundR, backgroundG, backgroundB;
+    private int maxSamples = 1;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private float minContribution = DEFAULT_MIN_CONTRIBUTION;
+    private boolean russianRoulette;    // keep some rays below minContribution, at random
+    private int lightSamples;           // 0 to shade with every light that can reach a hit
+    private float lightThreshold;
 
-    Renderer() {}
+    // Scratch records for the thread that is rendering, so the hot path never allocates
+    private final ThreadLocal<TraceContext> contexts = ThreadLocal.withInitial(TraceContext::new);
 
-    Renderer(Color background) {
+    public Renderer() {}
+
+    public Renderer(Color background) {
         setBackground(background);
     }
 
     public void setBackground(Color background) {
         this.background = background;
+        this.backgroundRGB = background.getRGB();
+        backgroundR = background.getRed() / 255f;
+        backgroundG = background.getGreen() / 255f;
+        backgroundB = background.getBlue() / 255f;
     }
 
-    public Color renderPixel(int i, int j, Scene scene, Camera camera) {
-        Ray ray = new Ray(camera.eye, camera.calculateDirection(i, j));
-        Intersection intersection = ray.trace(scene.getObjects());
-        if (intersection != null) {
-            return shadePixel(scene, intersection);
-        }
+    public Color getBackground() {
         return background;
     }
 
-    public Color shadePixel(Scene scene, Intersection intersection) {
-        float r = 0;
-        float g = 0;
-        float b = 0;
-        Surface surface = intersection.object.getSurface();
-        for (Light light : scene.getLights()) {
+    // Most samples an anti-aliased pixel may take, or 1 to turn anti-aliasing off
+    public void setMaxSamples(int maxSamples) {
+        if (maxSamples < 1)
+            throw new IllegalArgumentException("Sample budget must be at least 1: " + maxSamples);
+        this.maxSamples = maxSamples;
+    }
+
+    public int getMaxSamples() {
+        return maxSamples;
+    }
+
+    // Deepest bounce of a reflected or refracted ray, 0 for none
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0)
+            throw new IllegalArgumentException("Depth must not be negative: " + maxDepth);
+        this.maxDepth = maxDepth;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    // Weight, in every channel, below which reflected and refracted rays are not traced
+    public void setMinContribution(float minContribution) {
+        if (!(minContribution >= 0))
+            throw new IllegalArgumentException("Contribution must not be negative: " + minContribution);
+        this.minContribution = minContribution;
+    }
+
+    public float getMinContribution() {
+        return minContribution;
+    }
+
+    // Whether a ray whose weight falls below minContribution is kept with probability
+    // proportional to its weight, and scaled up to make up for the ones dropped, rather
+    // than always dropped. Off by default, as it makes deep mirrors and glass noisy.
+    public void setRussianRoulette(boolean russianRoulette) {
+        this.russianRoulette = russianRoulette;
+    }
+
+    public boolean isRussianRoulette() {
+        return russianRoulette;
+    }
+
+    // Most lights with shadow rays a hit is shaded with, drawn by importance, or 0 for all of them
+    public void setLightSamples(int lightSamples) {
+        if (lightSamples < 0)
+            throw new IllegalArgumentException("Light samples must not be negative: " + lightSamples);
+        this.lightSamples = lightSamples;
+    }
+
+    public int getLightSamples() {
+        return lightSamples;
+    }
+
+    // Contribution, scaled by the ray's weight, below which a light is not shaded at all
+    public void setLightThreshold(float lightThreshold) {
+        if (!(lightThreshold >= 0))
+            throw new IllegalArgumentException("Threshold must not be negative: " + lightThreshold);
+        this.lightThreshold = lightThreshold;
+    }
+
+    public float getLightThreshold() {
+        return lightThreshold;
+    }
+
+    // Chooses the lights to shade the hit of a ray of the given weight with, see LightSampler
+    int selectLights(Scene scene, Intersection hit, float weightR, float weightG, float weightB,
+                     TraceContext context) {
+        return LightSampler.select(scene, hit, Math.max(weightR, Math.max(weightG, weightB)), lightSamples,
+                lightThreshold, context);
+    }
+
+    public boolean isAntialiasing() {
+        return maxSamples > 1;
+    }
+
+    // Returns the ARGB value of pixel (i, j)
+    public int renderPixel(int i, int j, Scene scene, Camera camera) {
+        TraceContext context = contexts.get();
+        context.linear = false;
+        return renderPixel(i, j, scene, camera, context);
+    }
+
+    public int renderPixel(int i, int j, Scene scene, Camera camera, TraceContext context) {
+        return renderSample(i, j, scene, camera, context);
+    }
+
+    // Returns the ARGB value seen through image position (u, v) and leaves the ID of the
+    // object hit in context.primaryId and its linear colour in context.color
+    public int renderSample(float u, float v, Scene scene, Camera camera, TraceContext context) {
+        Ray ray = context.ray(0);
+        camera.calculateRay(u, v, ray);
+        context.primaryRays++;
+        context.maxDepth = 0;
+        Intersection intersection = context.hit(0);
+        int rgb;
+        if (trace(scene, ray, intersection, context)) {
+            context.primaryId = objectId(intersection);
+            rgb = shadePixel(scene, intersection, context, 0);
+        } else {
+            context.primaryId = BACKGROUND_ID;
+            setBackground(context.color);
+            rgb = backgroundRGB;
+        }
+        context.recordDepth();
+        return rgb;
+    }
+
+    private void setBackground(double[] color) {
+        color[0] = color[1] = color[2] = 0;
+        addBackground(color, 0, 1, 1, 1);
+    }
+
+    // Spheres keep their index; other objects count down from below BACKGROUND_ID
+    static int objectId(Intersection hit) {
+        return (hit.object == null) ? hit.primitive : BACKGROUND_ID - 1 - hit.primitive;
+    }
+
+    // Renders every pixel of the tile into pixels, row by row, as ARGB values
+    public void renderTile(Tile tile, Scene scene, Camera camera, int[] pixels) {
+        renderTile(tile, scene, camera, pixels, contexts.get());
+    }
+
+    // As above, counting the work done into context
+    public void renderTile(Tile tile, Scene scene, Camera camera, int[] pixels, TraceContext context) {
+        int[] ids = null;
+        if (isAntialiasing()) {
+            if (context.tileIds.length < tile.size()) {
+                context.tileIds = new int[tile.size()];
+            }
+            ids = context.tileIds;
+        }
+        renderTile(tile, scene, camera, pixels, ids, context, 1, false);
+        if (ids != null) {
+            antialiasTile(tile, scene, camera, pixels, ids, context);
+        }
+    }
+
+    // Renders one pixel per step x step block of the tile and fills the block with it,
+    // recording the object seen by each traced pixel in ids unless it is null.
+    // When refining, pixels already rendered by the previous pass, with twice the step,
+    // are skipped and their blocks left as they are.
+    public void renderTile(Tile tile, Scene scene, Camera camera, int[] pixels, int[] ids, TraceContext context,
+                           int step, boolean refine) {
+        renderTile(tile, scene, camera, pixels, ids, context, step, refine, null, null);
+    }
+
+    // As above, also recording the primary hit of each traced pixel in gbuffer and its linear
+    // colour in hdr, unless they are null
+    void renderTile(Tile tile, Scene scene, Camera camera, int[] pixels, int[] ids, TraceContext context,
+                    int step, boolean refine, GBuffer gbuffer, HdrBuffer hdr) {
+        context.linear = hdr != null;
+        int count = 0;
+        for (int y = 0; y < tile.height; y += step) {
+            for (int x = 0; x < tile.width; x += step) {
+                if (refine && x % (2 * step) == 0 && y % (2 * step) == 0)
+                    continue;
+                int rgb;
+                if (count++ % RenderStats.TIMING_INTERVAL == 0) {
+                    context.timing = true;
+                    long start = System.nanoTime();
+                    rgb = renderPixel(tile.x + x, tile.y + y, scene, camera, context);
+                    context.timedNanos += System.nanoTime() - start;
+                    context.timing = false;
+                } else {
+                    rgb = renderPixel(tile.x + x, tile.y + y, scene, camera, context);
+                }
+                context.samples++;
+                if (ids != null) {
+                    ids[y * tile.width + x] = context.primaryId;
+                }
+                if (gbuffer != null) {
+                    if (context.primaryId == BACKGROUND_ID) {
+                        gbuffer.recordMiss(tile.x + x, tile.y + y);
+                    } else {
+                        gbuffer.record(tile.x + x, tile.y + y, context.primaryId, context.hit(0));
+                    }
+                }
+                if (hdr != null) {
+                    hdr.set(tile.x + x, tile.y + y, context.color, 0);
+                }
+                if (step == 1) {
+                    pixels[y * tile.width + x] = rgb;
+                } else {
+                    fill(pixels, tile.width, x, y, Math.min(step, tile.width - x), Math.min(step, tile.height - y), rgb);
+                }
+            }
+        }
+    }
+
+    // Shades every pixel of the tile from the primary hits held in gbuffer, tracing only
+    // the rays that leave them, and records the object seen by each pixel in ids and its
+    // linear colour in hdr unless they are null
+    void reshadeTile(Tile tile, Scene scene, GBuffer gbuffer, int[] pixels, int[] ids, TraceContext context,
+                     HdrBuffer hdr) {
+        context.linear = hdr != null;
+        Intersection hit = context.hit(0);
+        long start = System.nanoTime();
+        for (int y = 0; y < tile.height; y++) {
+            for (int x = 0; x < tile.width; x++) {
+                int id = gbuffer.id(tile.x + x, tile.y + y);
+                int rgb = backgroundRGB;
+                context.maxDepth = 0;
+                if (id != BACKGROUND_ID) {
+                    gbuffer.load(tile.x + x, tile.y + y, scene, hit);
+                    rgb = shadePixel(scene, hit, context, 0);
+                } else {
+                    setBackground(context.color);
+                }
+                context.recordDepth();
+                context.samples++;
+                if (ids != null) {
+                    ids[y * tile.width + x] = id;
+                }
+                if (hdr != null) {
+                    hdr.set(tile.x + x, tile.y + y, context.color, 0);
+                }
+                pixels[y * tile.width + x] = rgb;
+            }
+        }
+        context.timedNanos += System.nanoTime() - start;
+    }
+
+    // Re-renders the pixels of a finished tile whose four corner samples differ in object
+    // or colour, subdividing them adaptively within the sample budget. Pixel (i, j) is
+    // sampled at its corner, so its corners are the samples of pixels (i, j) to (i + 1, j + 1);
+    // ids holds the object seen by each pixel of the tile.
+    public void antialiasTile(Tile tile, Scene scene, Camera camera, int[] pixels, int[] ids, TraceContext context) {
+        antialiasTile(tile, scene, camera, pixels, ids, context, null);
+    }
+
+    // As above; unless hdr is null it holds the linear colour of each pixel of the tile, and
+    // the pixels re-rendered are accumulated there from their samples, weighted by area
+    void antialiasTile(Tile tile, Scene scene, Camera camera, int[] pixels, int[] ids, TraceContext context,
+                       HdrBuffer hdr) {
+        context.linear = hdr != null;
+        int w = tile.width + 1;
+        int h = tile.height + 1;
+        if (context.tileColors.length < w * h) {
+            context.tileColors = new int[w * h];
+            context.tileObjects = new int[w * h];
+        }
+        if (hdr != null && context.tileLinear.length < 3 * w * h) {
+            context.tileLinear = new double[3 * w * h];
+        }
+        int[] colors = context.tileColors;
+        int[] objects = context.tileObjects;
+        double[] linear = (hdr != null) ? context.tileLinear : null;
+        for (int y = 0; y < tile.height; y++) {
+            System.arraycopy(pixels, y * tile.width, colors, y * w, tile.width);
+            System.arraycopy(ids, y * tile.width, objects, y * w, tile.width);
+            for (int x = 0; hdr != null && x < tile.width; x++) {
+                hdr.get(tile.x + x, tile.y + y, linear, 3 * (y * w + x));
+            }
+        }
+        // The corners along the right and bottom edges are samples of the neighbouring tiles
+        for (int y = 0; y < h; y++) {
+            colors[y * w + tile.width] = renderPixel(tile.x + tile.width, tile.y + y, scene, camera, context);
+            objects[y * w + tile.width] = context.primaryId;
+            if (hdr != null) {
+                System.arraycopy(context.color, 0, linear, 3 * (y * w + tile.width), 3);
+            }
+        }
+        for (int x = 0; x < tile.width; x++) {
+            colors[tile.height * w + x] = renderPixel(tile.x + x, tile.y + tile.height, scene, camera, context);
+            objects[tile.height * w + x] = context.primaryId;
+            if (hdr != null) {
+                System.arraycopy(context.color, 0, linear, 3 * (tile.height * w + x), 3);
+            }
+        }
+
+        for (int y = 0; y < tile.height; y++) {
+            for (int x = 0; x < tile.width; x++) {
+                int k = y * w + x;
+                if (smooth(colors[k], colors[k + 1], colors[k + w], colors[k + w + 1],
+                        objects[k], objects[k + 1], objects[k + w], objects[k + w + 1]))
+                    continue;
+                context.sampleBudget = maxSamples - 1;
+                if (hdr != null) {
+                    hdr.clear(tile.x + x, tile.y + y);
+                    double[] slots = context.sampleColors;
+                    System.arraycopy(linear, 3 * k, slots, 0, 6);
+                    System.arraycopy(linear, 3 * (k + w), slots, 6, 6);
+                }
+                pixels[y * tile.width + x] = subdivide(tile.x + x, tile.y + y, 1, scene, camera, context, 0,
+                        colors[k], colors[k + 1], colors[k + w], colors[k + w + 1],
+                        objects[k], objects[k + 1], objects[k + w], objects[k + w + 1], hdr, 0, 1, 2, 3);
+            }
+        }
+    }
+
+    // Average colour of the size x size square at (u, v) whose corners have the given
+    // samples, splitting it into quarters while its corners differ and the budget allows.
+    // Unless hdr is null, the linear colours of the corners are in the given slots of
+    // context.sampleColors, and each square that is not split adds the mean of its corners
+    // to the pixel in hdr, weighted by its area.
+    private int subdivide(float u, float v, float size, Scene scene, Camera camera, TraceContext context, int depth,
+                          int c00, int c10, int c01, int c11, int id00, int id10, int id01, int id11,
+                          HdrBuffer hdr, int s00, int s10, int s01, int s11) {
+        if (depth == MAX_SUBDIVISION || context.sampleBudget < 5
+                || smooth(c00, c10, c01, c11, id00, id10, id01, id11)) {
+            if (hdr != null) {
+                double[] slots = context.sampleColors;
+                hdr.add((int) Math.floor(u), (int) Math.floor(v),
+                        0.25 * (slots[3 * s00] + slots[3 * s10] + slots[3 * s01] + slots[3 * s11]),
+                        0.25 * (slots[3 * s00 + 1] + slots[3 * s10 + 1] + slots[3 * s01 + 1] + slots[3 * s11 + 1]),
+                        0.25 * (slots[3 * s00 + 2] + slots[3 * s10 + 2] + slots[3 * s01 + 2] + slots[3 * s11 + 2]),
+                        size * size);
+            }
+            return average(c00, c10, c01, c11);
+        }
+        context.sampleBudget -= 5;
+        context.samples += 5;
+        float half = 0.5f * size;
+        // The new samples' slots, which the deeper levels leave alone
+        int sTop = 4 + 5 * depth, sLeft = sTop + 1, sCenter = sTop + 2, sRight = sTop + 3, sBottom = sTop + 4;
+        int top = renderSample(u + half, v, scene, camera, context);
+        int idTop = context.primaryId;
+        keepSample(context, hdr, sTop);
+        int left = renderSample(u, v + half, scene, camera, context);
+        int idLeft = context.primaryId;
+        keepSample(context, hdr, sLeft);
+        int center = renderSample(u + half, v + half, scene, camera, context);
+        int idCenter = context.primaryId;
+        keepSample(context, hdr, sCenter);
+        int right = renderSample(u + size, v + half, scene, camera, context);
+        int idRight = context.primaryId;
+        keepSample(context, hdr, sRight);
+        int bottom = renderSample(u + half, v + size, scene, camera, context);
+        int idBottom = context.primaryId;
+        keepSample(context, hdr, sBottom);
+        return average(
+                subdivide(u, v, half, scene, camera, context, depth + 1,
+                        c00, top, left, center, id00, idTop, idLeft, idCenter,
+                        hdr, s00, sTop, sLeft, sCenter),
+                subdivide(u + half, v, half, scene, camera, context, depth + 1,
+                        top, c10, center, right, idTop, id10, idCenter, idRight,
+                        hdr, sTop, s10, sCenter, sRight),
+                subdivide(u, v + half, half, scene, camera, context, depth + 1,
+                        left, center, c01, bottom, idLeft, idCenter, id01, idBottom,
+                        hdr, sLeft, sCenter, s01, sBottom),
+                subdivide(u + half, v + half, half, scene, camera, context, depth + 1,
+                        center, right, bottom, c11, idCenter, idRight, idBottom, id11,
+                        hdr, sCenter, sRight, sBottom, s11));
+    }
+
+    // Keeps the linear colour of the sample just rendered in the slot, if it is wanted
+    private static void keepSample(TraceContext context, HdrBuffer hdr, int slot) {
+        if (hdr != null) {
+            System.arraycopy(context.color, 0, context.sampleColors, 3 * slot, 3);
+        }
+    }
+
+    // True if the four samples see the same object with little contrast
+    private static boolean smooth(int c00, int c10, int c01, int c11, int id00, int id10, int id01, int id11) {
+        if (id00 != id10 || id00 != id01 || id00 != id11)
+            return false;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int a = (c00 >> shift) & 0xFF, b = (c10 >> shift) & 0xFF;
+            int c = (c01 >> shift) & 0xFF, d = (c11 >> shift) & 0xFF;
+            if (Math.max(Math.max(a, b), Math.max(c, d)) - Math.min(Math.min(a, b), Math.min(c, d)) > CONTRAST_THRESHOLD)
+                return false;
+        }
+        return true;
+    }
+
+    // Rounded per-channel mean of four opaque ARGB values
+    private static int average(int c00, int c10, int c01, int c11) {
+        int rgb = 0xFF000000;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int sum = ((c00 >> shift) & 0xFF) + ((c10 >> shift) & 0xFF) + ((c01 >> shift) & 0xFF) + ((c11 >> shift) & 0xFF);
+            rgb |= ((sum + 2) >> 2) << shift;
+        }
+        return rgb;
+    }
+
+    static void fill(int[] pixels, int stride, int x, int y, int width, int height, int rgb) {
+        for (int row = y; row < y + height; row++) {
+            Arrays.fill(pixels, row * stride + x, row * stride + x + width, rgb);
+        }
+    }
+
+    // The scratch records of the calling thread
+    TraceContext context() {
+        return contexts.get();
+    }
+
+    /**
+     * Shades the hit found by the ray of the given bounce and returns it as an opaque ARGB value.
+     * <p>
+     * Reflected and refracted rays are not followed by recursion but pushed onto the
+     * context's ray stack and traced in turn until it is empty. Each ray carries a weight,
+     * the product of the reflectance or transmission coefficients along its path, and the
+     * colour it finds is added to the pixel scaled by that weight; the sum is clamped once
+     * at the end. Rays deeper than maxDepth, or whose weight is below minContribution in
+     * every channel, are not traced, which bounds the work spent on any one pixel.
+     * <p>
+     * With Russian roulette on, a ray below minContribution is instead traced with
+     * probability p, its largest weight over minContribution, and its weight divided by p,
+     * so on average the faint rays add exactly what they would if all were traced. Whether
+     * a ray survives depends only on its hit point, depth and kind, so a frame is the same
+     * on every run and thread count.
+     */
+    public int shadePixel(Scene scene, Intersection intersection, TraceContext context, int depth) {
+        double[] color = context.color;
+        color[0] = color[1] = color[2] = 0;
+        RayStack stack = context.rayStack;
+        stack.clear();
+        shadeHit(scene, intersection, 1, 1, 1, depth, context);
+
+        float[] weight = context.weight;
+        Ray ray = context.ray(1);
+        Intersection hit = context.hit(1);
+        while (!stack.isEmpty()) {
+            int rayDepth = stack.pop(ray, weight);
+            if (trace(scene, ray, hit, context)) {
+                shadeHit(scene, hit, weight[0], weight[1], weight[2], rayDepth, context);
+            } else {
+                addBackground(color, 0, weight[0], weight[1], weight[2]);
+            }
+        }
+        return toRGB(color, 0);
+    }
+
+    // Adds the light reaching the hit directly, scaled by the weight, to context.color and
+    // pushes the reflected and refracted rays it spawns
+    private void shadeHit(Scene scene, Intersection intersection, float weightR, float weightG, float weightB,
+                          int depth, TraceContext context) {
+        float[] local = context.local;
+        local[0] = local[1] = local[2] = 0;
+        Point3D point = intersection.point;
+        List<Light> lights = scene.getLights();
+        int selected = selectLights(scene, intersection, weightR, weightG, weightB, context);
+        for (int s = 0; s < selected; s++) {
+            Light light = lights.get(context.lightIds[s]);
             if (light instanceof AmbientLight) {
-                r += surface.phong.ambientReflectionCoefficient * surface.rIntrinsic * light.rIntensity;
-                g += surface.phong.ambientReflectionCoefficient * surface.gIntrinsic * light.gIntensity;
-                b += surface.phong.ambientReflectionCoefficient * surface.bIntrinsic * light.bIntensity;
+                addAmbient(intersection.surface, light, local);
             } else {
                 // It's an instance of PointLight or DirectionalLight
 
-                Vector3D lightVector = light.calculateLightVector(intersection.point);
+                Vector3D lightVector = context.lightVector;
+                light.calculateLightVector(point, lightVector);
 
                 // Check if the surface point is in shadow
-                Point3D poffset = new Point3D(intersection.point.x + TINY * lightVector.x,
-                        intersection.point.y + TINY * lightVector.y, intersection.point.z + TINY * lightVector.z);
-                Ray shadowRay = new Ray(poffset, lightVector);
-                if (shadowRay.trace(scene.getObjects()) != null)
-                    break;
-
-                float lambert = Vector3D.dot(intersection.surfaceNormal, lightVector);
-                if (lambert > 0) {
-                    if (surface.phong.diffuseReflectionCoefficient > 0) {
-                        float diffuse = surface.phong.diffuseReflectionCoefficient * lambert;
-                        r += diffuse * surface.rIntrinsic * light.rIntensity;
-                        g += diffuse * surface.gIntrinsic * light.gIntensity;
-                        b += diffuse * surface.bIntrinsic * light.bIntensity;
-                    }
-                    if (surface.phong.specularReflectionCoefficient > 0) {
-                        lambert *= 2;
-                        float spec = intersection.unitVecToRay.dot(
-                                lambert * intersection.surfaceNormal.x - lightVector.x,
-                                lambert * intersection.surfaceNormal.y - lightVector.y,
-                                lambert * intersection.surfaceNormal.z - lightVector.z);
-                        if (spec > 0) {
-                            spec = surface.phong.specularReflectionCoefficient * ((float) Math.pow(spec, surface.phong.exponent));
-                            r += spec * light.rIntensity;
-                            g += spec * light.gIntensity;
-                            b += spec * light.bIntensity;
-                        }
-                    }
-                }
+                Ray shadowRay = shadowRay(point, lightVector, context.shadowRay);
+                if (occluded(scene, shadowRay, light.calculateDistance(point) - TINY, context))
+                    continue;
+
+                addDirect(intersection, light, lightVector, context.lightScales[s], local);
             }
         }
+        addLocal(context.color, 0, weightR, weightG, weightB, local, context.linear);
+        spawn(intersection, weightR, weightG, weightB, depth, context);
+    }
 
-        // Compute illumination due to reflection
-        if (surface.phong.reflectanceCoefficient > 0) {
-            Vector3D reflect = intersection.calculateReflect();
-            if (reflect != null) {
-                // t *= 2;
-                // Vector3D reflect = new Vector3D(t * n.x - v.x, t * n.y - v.y, t * n.z - v.z);
-                Point3D poffset = new Point3D(intersection.point.x + TINY * reflect.x,
-                        intersection.point.y + TINY * reflect.y, intersection.point.z + TINY * reflect.z);
-                Ray reflectedRay = new Ray(poffset, reflect);
-                Intersection reflectedIntersection = reflectedRay.trace(scene.getObjects());
-                if (reflectedIntersection != null) {
-                    Color rcolor = shadePixel(scene, reflectedIntersection);
-                    r += surface.phong.reflectanceCoefficient * rcolor.getRed();
-                    g += surface.phong.reflectanceCoefficient * rcolor.getGreen();
-                    b += surface.phong.reflectanceCoefficient * rcolor.getBlue();
-                } else {
-                    r += surface.phong.reflectanceCoefficient * background.getRed();
-                    g += surface.phong.reflectanceCoefficient * background.getGreen();
-                    b += surface.phong.reflectanceCoefficient * background.getBlue();
+    // The shadow ray from the point towards a light in the direction lightVector
+    static Ray shadowRay(Point3D point, Vector3D lightVector, Ray ray) {
+        return ray.set(point.x + TINY * lightVector.x, point.y + TINY * lightVector.y, point.z + TINY * lightVector.z,
+                lightVector.x, lightVector.y, lightVector.z);
+    }
+
+    // Adds the surface's ambient term under the light to local
+    static void addAmbient(Surface surface, Light light, float[] local) {
+        local[0] += surface.phong.ambientReflectionCoefficient * surface.rIntrinsic * light.rIntensity;
+        local[1] += surface.phong.ambientReflectionCoefficient * surface.gIntrinsic * light.gIntensity;
+        local[2] += surface.phong.ambientReflectionCoefficient * surface.bIntrinsic * light.bIntensity;
+    }
+
+    // Adds the diffuse and specular terms of a light that reaches the hit along lightVector,
+    // with its intensity scaled, to local
+    static void addDirect(Intersection intersection, Light light, Vector3D lightVector, float scale, float[] local) {
+        Surface surface = intersection.surface;
+        // Scaling by 1 is exact, so lights shaded at full strength add what they always did
+        float r = light.rIntensity * scale, g = light.gIntensity * scale, b = light.bIntensity * scale;
+        float lambert = Vector3D.dot(intersection.surfaceNormal, lightVector);
+        if (lambert > 0) {
+            if (surface.phong.diffuseReflectionCoefficient > 0) {
+                float diffuse = surface.phong.diffuseReflectionCoefficient * lambert;
+                local[0] += diffuse * surface.rIntrinsic * r;
+                local[1] += diffuse * surface.gIntrinsic * g;
+                local[2] += diffuse * surface.bIntrinsic * b;
+            }
+            if (surface.phong.specularReflectionCoefficient > 0) {
+                lambert *= 2;
+                float spec = intersection.unitVecToRay.dot(
+                        lambert * intersection.surfaceNormal.x - lightVector.x,
+                        lambert * intersection.surfaceNormal.y - lightVector.y,
+                        lambert * intersection.surfaceNormal.z - lightVector.z);
+                if (spec > 0) {
+                    spec = surface.phong.specularReflectionCoefficient * ((float) Math.pow(spec, surface.phong.exponent));
+                    local[0] += spec * r;
+                    local[1] += spec * g;
+                    local[2] += spec * b;
                 }
             }
         }
+    }
 
-        // Add code for refraction here
+    // Adds a surface's own lighting, scaled by the weight of the ray that found it, to the
+    // colour at color[at]. Unless the colour is kept linear, the lighting saturates at white
+    // before it is reflected, as it did when every bounce was quantized. Colours are summed
+    // in double precision so the order in which a pixel's rays are shaded cannot change the result.
+    static void addLocal(double[] color, int at, float weightR, float weightG, float weightB, float[] local,
+                         boolean linear) {
+        float max = linear ? Float.POSITIVE_INFINITY : 1f;
+        color[at] += weightR * Math.max(Math.min(local[0], max), 0);
+        color[at + 1] += weightG * Math.max(Math.min(local[1], max), 0);
+        color[at + 2] += weightB * Math.max(Math.min(local[2], max), 0);
+    }
 
-        r = Math.min(r, 1f);
-        g = Math.min(g, 1f);
-        b = Math.min(b, 1f);
+    // Adds the background, as seen by a ray of the given weight that hit nothing
+    void addBackground(double[] color, int at, float weightR, float weightG, float weightB) {
+        color[at] += weightR * backgroundR;
+        color[at + 1] += weightG * backgroundG;
+        color[at + 2] += weightB * backgroundB;
+    }
+
+    // Clamps the colour at color[at] and quantizes it to an opaque ARGB value
+    static int toRGB(double[] color, int at) {
+        float r = (float) Math.min(color[at], 1);
+        float g = (float) Math.min(color[at + 1], 1);
+        float b = (float) Math.min(color[at + 2], 1);
 
         r = (r < 0) ? 0 : r;
         g = (g < 0) ? 0 : g;
         b = (b < 0) ? 0 : b;
 
-        return new Color(r, g, b);
+        return 0xFF000000 | (toByte(r) << 16) | (toByte(g) << 8) | toByte(b);
+    }
+
+    // Pushes the reflected and refracted rays of the hit onto context.rayStack, unless they
+    // would be too deep or too faint to matter
+    void spawn(Intersection intersection, float weightR, float weightG, float weightB, int depth,
+               TraceContext context) {
+        if (depth >= maxDepth)
+            return;
+
+        // A ray leaving the inside of a surface can only be reflected back in by a transparent one
+        Surface surface = intersection.surface;
+        Point3D point = intersection.point;
+        Vector3D n = intersection.surfaceNormal;
+        Vector3D toRay = intersection.unitVecToRay;
+        float cos = toRay.dot(n);
+        boolean inside = cos < 0;
+        float transmission = surface.phong.transmissionCoefficient;
+
+        float reflectance = surface.getReflectance();
+        if (reflectance > 0 && (!inside || transmission > 0)) {
+            float scale = survival(point, depth, 0, reflectance * weightR, reflectance * weightG,
+                    reflectance * weightB);
+            if (scale > 0) {
+                pushReflection(intersection, inside, scale * reflectance * weightR, scale * reflectance * weightG,
+                        scale * reflectance * weightB, depth, context);
+            }
+        }
+
+        if (transmission > 0) {
+            float scale = survival(point, depth, 1, transmission * weightR, transmission * weightG,
+                    transmission * weightB);
+            if (scale == 0)
+                return;
+            float wr = scale * transmission * weightR, wg = scale * transmission * weightG;
+            float wb = scale * transmission * weightB;
+            // Snell's law, with the surrounding medium taken to be air
+            float index = (surface.phong.index > 0) ? surface.phong.index : 1;
+            float eta = inside ? index : 1 / index;
+            float cosI = inside ? -cos : cos;
+            float sign = inside ? -1 : 1;
+            float k = 1 - eta * eta * (1 - cosI * cosI);
+            if (k < 0) {
+                // Total internal reflection sends the transmitted light back as well
+                pushReflection(intersection, inside, wr, wg, wb, depth, context);
+                return;
+            }
+            float a = eta * cosI - (float) Math.sqrt(k);
+            Vector3D refract = context.reflect;
+            refract.x = -eta * toRay.x + a * sign * n.x;
+            refract.y = -eta * toRay.y + a * sign * n.y;
+            refract.z = -eta * toRay.z + a * sign * n.z;
+            context.rayStack.push(point.x + TINY * refract.x, point.y + TINY * refract.y, point.z + TINY * refract.z,
+                    refract.x, refract.y, refract.z, wr, wg, wb, depth + 1);
+            context.refractionRays++;
+            context.maxDepth = Math.max(context.maxDepth, depth + 1);
+        }
+    }
+
+    // Pushes the mirror ray of the hit, about the normal facing the incoming ray
+    private void pushReflection(Intersection intersection, boolean inside, float weightR, float weightG,
+                                float weightB, int depth, TraceContext context) {
+        Vector3D n = intersection.surfaceNormal;
+        Vector3D toRay = intersection.unitVecToRay;
+        float t = 2 * toRay.dot(n);
+        Vector3D reflect = context.reflect;
+        reflect.x = t * n.x - toRay.x;
+        reflect.y = t * n.y - toRay.y;
+        reflect.z = t * n.z - toRay.z;
+        if (!inside && t <= 0)
+            return;
+        Point3D point = intersection.point;
+        context.rayStack.push(point.x + TINY * reflect.x, point.y + TINY * reflect.y, point.z + TINY * reflect.z,
+                reflect.x, reflect.y, reflect.z, weightR, weightG, weightB, depth + 1);
+        context.reflectionRays++;
+        context.maxDepth = Math.max(context.maxDepth, depth + 1);
+    }
+
+    // What the weight of a ray spawned at the point is to be scaled by: 1 if it reaches
+    // minContribution, 0 if it is dropped, or 1 / p if it survives roulette with probability p.
+    // Kind tells the reflected ray (0) from the refracted one (1) spawned at the same hit.
+    private float survival(Point3D point, int depth, int kind, float weightR, float weightG, float weightB) {
+        float weight = Math.max(weightR, Math.max(weightG, weightB));
+        if (weight >= minContribution)
+            return 1;
+        if (!russianRoulette || !(weight > 0))
+            return 0;
+        float p = weight / minContribution;
+        return (random(point, 1 + 2L * depth + kind) < p) ? 1 / p : 0;
+    }
+
+    // A number in [0, 1) that depends only on the point and the seed
+    static double random(Point3D point, long seed) {
+        long h = 0x9e3779b97f4a7c15L ^ seed;
+        h = (h ^ Float.floatToRawIntBits(point.x)) * 0xff51afd7ed558ccdL;
+        h = (h ^ Float.floatToRawIntBits(point.y)) * 0xff51afd7ed558ccdL;
+        h = (h ^ Float.floatToRawIntBits(point.z)) * 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (h >>> 11) * 0x1p-53;
+    }
+
+    // Closest-hit query, timed if the current pixel is
+    static boolean trace(Scene scene, Ray ray, Intersection hit, TraceContext context) {
+        if (!context.timing)
+            return ray.trace(scene, hit, context);
+        long start = System.nanoTime();
+        boolean found = ray.trace(scene, hit, context);
+        context.traceNanos += System.nanoTime() - start;
+        return found;
+    }
+
+    // Shadow ray query, timed if the current pixel is
+    static boolean occluded(Scene scene, Ray ray, float maxDistance, TraceContext context) {
+        context.shadowRays++;
+        if (!context.timing)
+            return scene.occluded(ray, maxDistance, context);
+        long start = System.nanoTime();
+        boolean found = scene.occluded(ray, maxDistance, context);
+        context.traceNanos += System.nanoTime() - start;
+        return found;
+    }
+
+    // Quantizes a [0, 1] channel exactly as java.awt.Color(float, float, float) does
+    private static int toByte(float c) {
+        return (int) (c * 255 + 0.5);
     }
 
     // get intersect to return the intersection point and the distance to it
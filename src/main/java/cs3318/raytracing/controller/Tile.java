@@ -0,0 +1,44 @@
+package cs3318.raytracing.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A rectangular block of pixels that is rendered as a single unit of work.
+ */
+public class Tile {
+
+    public final int x, y;
+    public final int width, height;
+
+    public Tile(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    public int size() {
+        return width * height;
+    }
+
+    // Splits a width x height frame into row-major tiles of at most tileSize x tileSize pixels
+    public static List<Tile> split(int width, int height, int tileSize) {
+        return split(0, 0, width, height, tileSize);
+    }
+
+    // As above, for the width x height block of a frame whose top left pixel is (x, y)
+    public static List<Tile> split(int x, int y, int width, int height, int tileSize) {
+        List<Tile> tiles = new ArrayList<>();
+        for (int j = 0; j < height; j += tileSize) {
+            for (int i = 0; i < width; i += tileSize) {
+                tiles.add(new Tile(x + i, y + j, Math.min(tileSize, width - i), Math.min(tileSize, height - j)));
+            }
+        }
+        return tiles;
+    }
+
+    public String toString() {
+        return ("tile " + x + "," + y + " " + width + "x" + height);
+    }
+}
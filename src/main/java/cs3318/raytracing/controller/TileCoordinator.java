@@ -0,0 +1,299 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.TraceContext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Renders a frame on {@link RenderWorker} processes, handing out blocks of it and
+ * assembling the pixels they send back.
+ * <p>
+ * The scene is serialized once and sent to every worker, then each worker is kept
+ * {@value #WINDOW} blocks ahead. Blocks go out in row-major order until none are left
+ * unsent; from then on a worker with room takes a second copy of the block that has
+ * been out longest, if it has been out for several times the mean block time, so a slow
+ * worker cannot hold up the end of the frame. The first copy back is kept and any later
+ * one is read and dropped. When a worker fails or stops answering, the blocks it held go
+ * back to the front of the queue.
+ */
+final class TileCoordinator {
+
+    // Side of the blocks handed out, large enough that a worker's threads all have tiles
+    static final int BLOCK_SIZE = 128;
+    // Blocks each worker holds at once
+    private static final int WINDOW = 2;
+    // A block out this many times the mean block time is issued again, up to MAX_ISSUES times
+    private static final int SLOW_FACTOR = 4;
+    private static final long MIN_SLOW_NANOS = 200_000_000L;
+    private static final int MAX_ISSUES = 3;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final int READ_TIMEOUT_MILLIS = 60_000;
+    // Returned by next when the worker should collect a result rather than wait
+    private static final int COLLECT = -2;
+
+    private final FrameBuffer image;
+    private final List<Tile> blocks;
+    private final List<RenderListener> listeners;
+    private final Deque<Integer> pending = new ArrayDeque<>();
+    private final boolean[] done;
+    private final int[] inFlight, issues;
+    private final long[] issuedAt;
+    private int remaining;
+    private int live;               // workers still being driven
+    private int[] held;             // blocks each worker holds
+    private long doneNanos;
+    private int doneCount;
+    private RenderStats stats;
+
+    TileCoordinator(FrameBuffer image, List<RenderListener> listeners) {
+        this.image = image;
+        this.listeners = listeners;
+        blocks = Tile.split(image.getWidth(), image.getHeight(), BLOCK_SIZE);
+        done = new boolean[blocks.size()];
+        inFlight = new int[blocks.size()];
+        issues = new int[blocks.size()];
+        issuedAt = new long[blocks.size()];
+        for (int b = 0; b < blocks.size(); b++) {
+            pending.add(b);
+        }
+        remaining = blocks.size();
+    }
+
+    // Renders the frame described, in the binary scene format, on the workers that can be reached
+    RenderStats render(List<InetSocketAddress> workers, Renderer renderer, byte[] description) throws IOException {
+        List<Socket> sockets = new ArrayList<>();
+        for (InetSocketAddress address : workers) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+            } catch (IOException e) {
+                System.err.println("Error connecting to worker " + address + ": " + e.getMessage());
+                socket.close();
+            }
+        }
+        if (sockets.isEmpty())
+            throw new IOException("No worker could be reached");
+        stats = new RenderStats(image.getWidth(), image.getHeight(), blocks.size(), sockets.size(), false);
+        live = sockets.size();
+        held = new int[sockets.size()];
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < sockets.size(); w++) {
+            int worker = w;
+            Thread thread = new Thread(() -> drive(worker, sockets.get(worker), renderer, description),
+                    "tile-coordinator");
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            synchronized (this) {
+                while (remaining > 0 && live > 0) {
+                    wait();
+                }
+                // Workers still rendering copies of blocks that came back from elsewhere are cut off
+                for (int w = 0; w < sockets.size(); w++) {
+                    if (held[w] > 0) {
+                        closeQuietly(sockets.get(w));
+                    }
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sockets.forEach(this::closeQuietly);
+            throw new IOException("Interrupted while rendering on workers");
+        }
+        if (remaining > 0)
+            throw new IOException("Every worker failed with " + remaining + " blocks left");
+        return stats;
+    }
+
+    // Feeds one worker blocks and collects its results until the frame is done or it fails
+    private void drive(int worker, Socket socket, Renderer renderer, byte[] description) {
+        Deque<Integer> mine = new ArrayDeque<>();
+        try (socket) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            out.writeInt(RenderWorker.MAGIC);
+            out.writeInt(RenderWorker.VERSION);
+            out.writeInt(renderer.getMaxSamples());
+            out.writeInt(renderer.getMaxDepth());
+            out.writeFloat(renderer.getMinContribution());
+            out.writeBoolean(renderer.isRussianRoulette());
+            out.writeInt(renderer.getLightSamples());
+            out.writeFloat(renderer.getLightThreshold());
+            out.writeInt(description.length);
+            out.write(description);
+            out.flush();
+            if (in.readInt() != RenderWorker.MAGIC)
+                throw new IOException("Not a render worker");
+
+            TraceContext counts = new TraceContext();
+            int[] pixels = new int[BLOCK_SIZE * BLOCK_SIZE];
+            byte[] rgb = new byte[3 * BLOCK_SIZE * BLOCK_SIZE];
+            while (true) {
+                boolean sent = false;
+                int b;
+                while (mine.size() < WINDOW && (b = next(worker, mine)) >= 0) {
+                    Tile block = blocks.get(b);
+                    out.writeInt(b);
+                    out.writeInt(block.x);
+                    out.writeInt(block.y);
+                    out.writeInt(block.width);
+                    out.writeInt(block.height);
+                    mine.add(b);
+                    sent = true;
+                }
+                if (sent) {
+                    out.flush();
+                }
+                if (mine.isEmpty())
+                    break;
+                collect(worker, in, mine.peek(), counts, pixels, rgb);
+                mine.poll();
+            }
+            out.writeInt(RenderWorker.END);
+            out.flush();
+        } catch (IOException e) {
+            if (!isDone()) {
+                System.err.println("Worker " + socket.getRemoteSocketAddress() + " failed: "
+                        + (e instanceof EOFException ? "connection closed" : e.getMessage()));
+            }
+        } finally {
+            release(worker, mine);
+        }
+    }
+
+    // Reads the result for block b and keeps it unless another worker's copy came first
+    private void collect(int worker, DataInputStream in, int b, TraceContext counts, int[] pixels, byte[] rgb)
+            throws IOException {
+        if (in.readInt() != b)
+            throw new IOException("Results out of order");
+        long nanos = in.readLong();
+        // The worker's estimate of its trace time stands in for the timed sample
+        counts.timedNanos = nanos;
+        counts.traceNanos = in.readLong();
+        counts.primaryRays = in.readLong();
+        counts.shadowRays = in.readLong();
+        counts.reflectionRays = in.readLong();
+        counts.refractionRays = in.readLong();
+        counts.intersectionTests = in.readLong();
+        counts.boxTests = in.readLong();
+        counts.samples = in.readLong();
+        int depths = in.readInt();
+        if (depths < 0 || depths > 1 << 16)
+            throw new IOException("Bad depth histogram");
+        counts.depthHistogram = new long[depths];
+        for (int d = 0; d < depths; d++) {
+            counts.depthHistogram[d] = in.readLong();
+        }
+        Tile block = blocks.get(b);
+        in.readFully(rgb, 0, 3 * block.size());
+
+        synchronized (this) {
+            inFlight[b]--;
+            held[worker]--;
+            if (done[b])
+                return;
+            done[b] = true;
+            remaining--;
+            doneNanos += System.nanoTime() - issuedAt[b];
+            doneCount++;
+            notifyAll();
+        }
+        for (int p = 0, o = 0; p < block.size(); p++, o += 3) {
+            pixels[p] = 0xFF000000 | (rgb[o] & 0xFF) << 16 | (rgb[o + 1] & 0xFF) << 8 | (rgb[o + 2] & 0xFF);
+        }
+        stats.addTile(b, nanos, counts);
+        image.setRGB(block.x, block.y, block.width, block.height, pixels);
+        for (RenderListener listener : listeners) {
+            listener.regionUpdated(image.getImage(), block.x, block.y, block.width, block.height);
+        }
+    }
+
+    // The next block for a worker already holding mine: an unsent one, else a copy of one
+    // that is overdue; COLLECT if there is none but the worker has results to collect, or
+    // -1 once every block is done. Waits while there is nothing for an idle worker.
+    private synchronized int next(int worker, Deque<Integer> mine) throws IOException {
+        while (true) {
+            if (remaining == 0)
+                return -1;
+            Integer b = pending.poll();
+            if (b == null) {
+                b = overdue(mine);
+            }
+            if (b != null) {
+                inFlight[b]++;
+                held[worker]++;
+                issues[b]++;
+                issuedAt[b] = System.nanoTime();
+                return b;
+            }
+            if (!mine.isEmpty())
+                return COLLECT;
+            try {
+                wait(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+        }
+    }
+
+    // The block out longest, if it is overdue and not already held by this worker
+    private Integer overdue(Deque<Integer> mine) {
+        long now = System.nanoTime();
+        long mean = (doneCount > 0) ? doneNanos / doneCount : 0;
+        long limit = Math.max(SLOW_FACTOR * mean, MIN_SLOW_NANOS);
+        int oldest = -1;
+        for (int b = 0; b < blocks.size(); b++) {
+            if (!done[b] && inFlight[b] > 0 && issues[b] < MAX_ISSUES && now - issuedAt[b] > limit
+                    && !mine.contains(b) && (oldest < 0 || issuedAt[b] < issuedAt[oldest])) {
+                oldest = b;
+            }
+        }
+        return (oldest >= 0) ? oldest : null;
+    }
+
+    private synchronized boolean isDone() {
+        return remaining == 0;
+    }
+
+    // Puts the blocks a failed or finished worker still held back in the queue
+    private synchronized void release(int worker, Deque<Integer> mine) {
+        for (int b : mine) {
+            if (--inFlight[b] == 0 && !done[b]) {
+                pending.addFirst(b);
+            }
+        }
+        mine.clear();
+        held[worker] = 0;
+        live--;
+        notifyAll();
+    }
+
+    private void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already failing
+        }
+    }
+}
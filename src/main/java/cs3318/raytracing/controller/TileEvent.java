@@ -0,0 +1,42 @@
+package cs3318.raytracing.controller;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one rendered tile. It is disabled by default and costs
+ * nothing unless a recording enables cs3318.raytracing.Tile.
+ */
+@Name("cs3318.raytracing.Tile")
+@Label("Render Tile")
+@Category("Ray Tracing")
+@Description("A tile of the image rendered by one worker thread")
+@Enabled(false)
+class TileEvent extends Event {
+
+    @Label("X")
+    int x;
+
+    @Label("Y")
+    int y;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Block Size")
+    @Description("Edge length of the blocks each traced pixel fills in a progressive pass")
+    int step;
+
+    @Label("Rays")
+    long rays;
+
+    @Label("Intersection Tests")
+    long intersectionTests;
+}
@@ -0,0 +1,362 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.Camera;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.TraceContext;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a frame into tiles and renders them on a work-stealing pool.
+ * Every pixel is computed exactly as in a serial render, so the output does
+ * not depend on the number of threads or the tile size.
+ * <p>
+ * A progressive render first traces one pixel per 8x8 block of each tile and fills
+ * the block with it, then refines with 4x4, 2x2 and single pixel passes. Each pass
+ * only traces the pixels the coarser passes skipped, so every pixel is still traced
+ * exactly once and the final image is the same as without progressive rendering.
+ * <p>
+ * Tiles are rendered pixel by pixel by the {@link Renderer}, or a wave of rays at a time
+ * by a {@link WavefrontRenderer} over it; both give the same image.
+ */
+public class TileScheduler {
+
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    // Block sizes of the passes of a progressive render, each a quarter of the one before
+    private static final int[] PROGRESSIVE_STEPS = {8, 4, 2, 1};
+    private static final int[] FULL_STEP = {1};
+
+    private int threadCount;    // 0 means the pool shared by every scheduler, a thread per processor
+    private int tileSize = DEFAULT_TILE_SIZE;
+    private ForkJoinPool pool;  // this scheduler's own pool when it has a thread count
+    private boolean progressive;
+    private boolean wavefront;
+    private WavefrontRenderer wavefrontRenderer;
+    private final List<RenderListener> listeners = new CopyOnWriteArrayList<>();
+
+    public TileScheduler() {}
+
+    public synchronized void setThreadCount(int threadCount) {
+        if (threadCount < 0)
+            throw new IllegalArgumentException("Thread count must not be negative: " + threadCount);
+        if (threadCount != this.threadCount && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        this.threadCount = threadCount;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public void setTileSize(int tileSize) {
+        if (tileSize <= 0)
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        this.tileSize = tileSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    public void setWavefront(boolean wavefront) {
+        this.wavefront = wavefront;
+    }
+
+    public boolean isWavefront() {
+        return wavefront;
+    }
+
+    public void addListener(RenderListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(RenderListener listener) {
+        listeners.remove(listener);
+    }
+
+    public RenderStats render(BufferedImage image, Renderer renderer, Scene scene, Camera camera) {
+        return render(new ImageFrameBuffer(image), renderer, scene, camera, null, null, false, null, null);
+    }
+
+    // Renders only the pixels of region, leaving the rest of the image as it was
+    public RenderStats render(FrameBuffer image, Renderer renderer, Scene scene, Camera camera, Rectangle region) {
+        return render(image, renderer, scene, camera, region, null, false, null, null);
+    }
+
+    // Renders region, or the whole frame if it is null, recording every pixel's primary hit in
+    // gbuffer unless it is null, or when reshading, shades it in a single pass from the hits
+    // gbuffer already holds. Unless hdr is null, pixels' linear colours are kept there too.
+    // Unless job is null, progress is reported to it, and once it is cancelled no more tiles are
+    // started and the stats cover only the tiles rendered.
+    RenderStats render(FrameBuffer image, Renderer renderer, Scene scene, Camera camera, Rectangle region,
+                       GBuffer gbuffer, boolean reshade, HdrBuffer hdr, RenderJob job) {
+        if (region == null) {
+            region = new Rectangle(image.getWidth(), image.getHeight());
+        }
+        return render(image, image.getImage(), renderer, scene, camera, region, gbuffer, reshade, hdr, job);
+    }
+
+    // Renders only the pixels of region into a sink that holds no more than them; listeners
+    // are told of the tiles with no image
+    RenderStats render(TileSink sink, Renderer renderer, Scene scene, Camera camera, Rectangle region) {
+        return render(sink, null, renderer, scene, camera, region, null, false, null, null);
+    }
+
+    // Renders region into sink; image is what the tiles end up in, for listeners, or null
+    private RenderStats render(TileSink sink, BufferedImage image, Renderer renderer, Scene scene, Camera camera,
+                               Rectangle region, GBuffer gbuffer, boolean reshade, HdrBuffer hdr, RenderJob job) {
+        List<Tile> tiles = Tile.split(region.x, region.y, region.width, region.height, tileSize);
+        ForkJoinPool pool = getPool();
+        boolean progressive = this.progressive && !reshade;
+        Frame frame = new Frame(tiles, sink, image, renderer, wavefront ? getWavefrontRenderer(renderer) : null, scene, camera,
+                new RenderStats(region.width, region.height, tiles.size(), pool.getParallelism(), reshade),
+                progressive ? new int[tiles.size()][] : null,
+                progressive && renderer.isAntialiasing() ? new int[tiles.size()][] : null,
+                gbuffer, reshade, hdr, job);
+        long start = System.nanoTime();
+        int[] steps = progressive ? PROGRESSIVE_STEPS : FULL_STEP;
+        if (job != null) {
+            job.start(tiles.size() * steps.length);
+        }
+        for (int pass = 0; pass < steps.length && !tiles.isEmpty(); pass++) {
+            pool.invoke(new TileTask(frame, 0, tiles.size(), steps[pass], pass > 0));
+            if (frame.isCancelled())
+                break;
+            for (RenderListener listener : listeners) {
+                listener.passCompleted(image, pass + 1, steps.length);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        frame.stats.finish(elapsed, peakHeap());
+        return frame.stats;
+    }
+
+    // Traces as much of the frame as it can until the deadline, given by System.nanoTime,
+    // spreading the pixels traced evenly over it, and interpolates the rest
+    RenderStats renderBudgeted(FrameBuffer image, Renderer renderer, Scene scene, Camera camera, long deadline,
+                               HdrBuffer hdr) {
+        long start = System.nanoTime();
+        RenderStats stats = new BudgetedRender(image, renderer, scene, camera, hdr).render(getPool(), deadline);
+        long elapsed = System.nanoTime() - start;
+        for (RenderListener listener : listeners) {
+            listener.regionUpdated(image.getImage(), 0, 0, image.getWidth(), image.getHeight());
+            listener.passCompleted(image.getImage(), 1, 1);
+        }
+        stats.finish(elapsed, peakHeap());
+        return stats;
+    }
+
+    // Fills the image with the frame the cache keeps under the key, or returns null if it keeps none
+    RenderStats renderCached(FrameBuffer image, RenderCache cache, String key, RenderJob job) {
+        long start = System.nanoTime();
+        String tier = cache.load(key, image);
+        if (tier == null)
+            return null;
+        RenderStats stats = new RenderStats(image.getWidth(), image.getHeight(), 0, 0, false);
+        if (job != null) {
+            job.start(1);
+            job.tileDone();
+        }
+        for (RenderListener listener : listeners) {
+            listener.regionUpdated(image.getImage(), 0, 0, image.getWidth(), image.getHeight());
+            listener.passCompleted(image.getImage(), 1, 1);
+        }
+        stats.setCache(tier, cache.getHits(), cache.getMisses());
+        stats.finish(System.nanoTime() - start, 0);
+        return stats;
+    }
+
+    // Renders the frame on worker processes, sending them the scene described in the binary
+    // scene format, and assembles the blocks they return
+    RenderStats renderDistributed(FrameBuffer image, Renderer renderer, byte[] description,
+                                  List<InetSocketAddress> workers) throws IOException {
+        long start = System.nanoTime();
+        RenderStats stats = new TileCoordinator(image, listeners).render(workers, renderer, description);
+        long elapsed = System.nanoTime() - start;
+        for (RenderListener listener : listeners) {
+            listener.passCompleted(image.getImage(), 1, 1);
+        }
+        stats.finish(elapsed, peakHeap());
+        return stats;
+    }
+
+    // Highest heap use of the process so far, summed over the heap pools' own peaks. The peaks
+    // are the JVM's and are never reset, as renders running at the same time would reset each
+    // other's, so this is not the use of any one render.
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    // Keeps the wavefront renderer, and the buffers its threads have grown, between frames
+    private synchronized WavefrontRenderer getWavefrontRenderer(Renderer renderer) {
+        if (wavefrontRenderer == null || wavefrontRenderer.getRenderer() != renderer) {
+            wavefrontRenderer = new WavefrontRenderer(renderer);
+        }
+        return wavefrontRenderer;
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (threadCount == 0)
+            return RenderExecutor.tilePool();
+        if (pool == null) {
+            pool = new ForkJoinPool(threadCount);
+        }
+        return pool;
+    }
+
+    // Everything the tile tasks of one render share
+    private class Frame {
+        final List<Tile> tiles;
+        final TileSink sink;
+        final BufferedImage image; // what the sink writes to, for listeners, or null
+        final Renderer renderer;
+        final WavefrontRenderer wavefront;   // null to render pixel by pixel
+        final Scene scene;
+        final Camera camera;
+        final RenderStats stats;
+        final int[][] buffers;   // pixels of each tile kept between progressive passes, or null
+        final int[][] idBuffers; // objects seen by them, if the frame is anti-aliased
+        final GBuffer gbuffer;   // primary hits to record, or to reshade from, or null
+        final boolean reshade;
+        final HdrBuffer hdr;     // linear colours to keep, or null
+        final RenderJob job;     // background job the frame belongs to, or null
+
+        Frame(List<Tile> tiles, TileSink sink, BufferedImage image, Renderer renderer, WavefrontRenderer wavefront,
+              Scene scene, Camera camera, RenderStats stats, int[][] buffers, int[][] idBuffers, GBuffer gbuffer,
+              boolean reshade, HdrBuffer hdr, RenderJob job) {
+            this.tiles = tiles;
+            this.sink = sink;
+            this.image = image;
+            this.renderer = renderer;
+            this.wavefront = wavefront;
+            this.scene = scene;
+            this.camera = camera;
+            this.stats = stats;
+            this.buffers = buffers;
+            this.idBuffers = idBuffers;
+            this.gbuffer = gbuffer;
+            this.reshade = reshade;
+            this.hdr = hdr;
+            this.job = job;
+        }
+
+        boolean isCancelled() {
+            return job != null && job.isCancelled();
+        }
+    }
+
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Frame frame;
+        private final int from, to;
+        private final int step;
+        private final boolean refine;
+
+        TileTask(Frame frame, int from, int to, int step, boolean refine) {
+            this.frame = frame;
+            this.from = from;
+            this.to = to;
+            this.step = step;
+            this.refine = refine;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TileTask(frame, from, mid, step, refine), new TileTask(frame, mid, to, step, refine));
+                return;
+            }
+            // Checked once per tile, so a cancelled frame stops within a tile's time
+            if (frame.isCancelled())
+                return;
+            Tile tile = frame.tiles.get(from);
+            boolean antialias = frame.renderer.isAntialiasing();
+            int[] pixels;
+            int[] ids = null;
+            if (frame.buffers == null) {
+                pixels = new int[tile.size()];
+                if (antialias) {
+                    ids = new int[tile.size()];
+                }
+            } else {
+                if (frame.buffers[from] == null) {
+                    frame.buffers[from] = new int[tile.size()];
+                    if (antialias) {
+                        frame.idBuffers[from] = new int[tile.size()];
+                    }
+                }
+                pixels = frame.buffers[from];
+                if (antialias) {
+                    ids = frame.idBuffers[from];
+                }
+            }
+            TraceContext context = frame.renderer.context();
+            context.resetCounters();
+            TileEvent event = new TileEvent();
+            event.begin();
+            long start = System.nanoTime();
+            if (frame.reshade) {
+                frame.renderer.reshadeTile(tile, frame.scene, frame.gbuffer, pixels, ids, context, frame.hdr);
+            } else if (frame.wavefront != null) {
+                frame.wavefront.renderTile(tile, frame.scene, frame.camera, pixels, ids, context, step, refine,
+                        frame.gbuffer, frame.hdr);
+            } else {
+                frame.renderer.renderTile(tile, frame.scene, frame.camera, pixels, ids, context, step, refine,
+                        frame.gbuffer, frame.hdr);
+            }
+            // Anti-aliasing needs every pixel of the tile, so it follows the last pass
+            if (antialias && step == 1) {
+                frame.renderer.antialiasTile(tile, frame.scene, frame.camera, pixels, ids, context, frame.hdr);
+            }
+            frame.stats.addTile(from, System.nanoTime() - start, context);
+            event.end();
+            if (event.shouldCommit()) {
+                event.x = tile.x;
+                event.y = tile.y;
+                event.width = tile.width;
+                event.height = tile.height;
+                event.step = step;
+                event.rays = context.primaryRays + context.shadowRays + context.reflectionRays
+                        + context.refractionRays;
+                event.intersectionTests = context.intersectionTests;
+                event.commit();
+            }
+            frame.sink.setRGB(tile.x, tile.y, tile.width, tile.height, pixels);
+            for (RenderListener listener : listeners) {
+                listener.regionUpdated(frame.image, tile.x, tile.y, tile.width, tile.height);
+            }
+            if (frame.job != null) {
+                frame.job.tileDone();
+            }
+        }
+    }
+}
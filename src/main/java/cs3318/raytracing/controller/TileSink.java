@@ -0,0 +1,13 @@
+package cs3318.raytracing.controller;
+
+/**
+ * Where the finished tiles of a render are written, as ARGB pixels; a {@link FrameBuffer}
+ * if the whole frame is kept, or anything that takes only the tiles of one region.
+ * <p>
+ * Tiles are written from the render threads, several at once, but never overlap.
+ */
+public interface TileSink {
+
+    // Writes the width x height block of pixels, stored row by row, with (x, y) top left
+    void setRGB(int x, int y, int width, int height, int[] pixels);
+}
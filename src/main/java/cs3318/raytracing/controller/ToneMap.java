@@ -0,0 +1,32 @@
+package cs3318.raytracing.controller;
+
+/**
+ * How linear colours, scaled by an exposure, are brought into [0, 1] before they are
+ * quantized to 8 bits.
+ */
+public enum ToneMap {
+
+    // Clips each channel at white, as renders without an HDR buffer do
+    CLAMP {
+        double map(double c) {
+            return c;
+        }
+    },
+
+    // Compresses highlights smoothly with c / (1 + c), so nothing clips
+    REINHARD {
+        double map(double c) {
+            return c / (1 + c);
+        }
+    };
+
+    abstract double map(double c);
+
+    // Maps the colour in color[0..2] in place and quantizes it to an opaque ARGB value
+    int toRGB(double[] color, float exposure) {
+        for (int c = 0; c < 3; c++) {
+            color[c] = map(Math.max(color[c] * exposure, 0));
+        }
+        return Renderer.toRGB(color, 0);
+    }
+}
@@ -0,0 +1,253 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.*;
+import cs3318.raytracing.utils.Vector3D;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders tiles a whole wave of rays at a time rather than one pixel at a time.
+ * <p>
+ * The primary rays of every pixel of the tile are generated into a {@link RayQueue} first.
+ * Each wave is then intersected in batches, the shadow rays of a batch's hits are queued
+ * and tested together, and the hits are shaded, queueing their reflected and refracted
+ * rays as the next wave. Shadow rays and each later wave are sorted by direction and
+ * origin before they are traced, so neighbouring rays in the queue walk the same parts
+ * of the hierarchy.
+ * <p>
+ * Shading is shared with {@link Renderer}, whose settings it follows, and colours are
+ * summed in double precision, so the image and the ray counts are the same as the
+ * recursive renderer's whichever order the rays are traced in.
+ */
+public class WavefrontRenderer {
+
+    // Rays intersected and shaded together; bounds the hit records and shadow rays kept at once
+    private static final int BATCH_SIZE = 512;
+
+    private final Renderer renderer;
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    public WavefrontRenderer(Renderer renderer) {
+        this.renderer = renderer;
+    }
+
+    public Renderer getRenderer() {
+        return renderer;
+    }
+
+    // Per-thread queues and per-sample results, reused from tile to tile
+    private static class Buffers {
+        RayQueue wave = new RayQueue();
+        RayQueue next = new RayQueue();
+        final RayQueue shadows = new RayQueue();
+        final Intersection[] hits = new Intersection[BATCH_SIZE];
+        final boolean[] found = new boolean[BATCH_SIZE];
+        boolean[] visible = new boolean[0];
+        final Ray ray = new Ray();
+
+        // Tile position, colour, object seen and deepest bounce of each sample
+        int[] x = new int[0], y = new int[0];
+        double[] color = new double[0];
+        int[] ids = new int[0];
+        int[] depths = new int[0];
+
+        Buffers() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                hits[i] = new Intersection();
+            }
+        }
+
+        void reserveSamples(int count) {
+            if (x.length < count) {
+                int capacity = Math.max(count, 2 * x.length);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+                color = new double[3 * capacity];
+            }
+        }
+
+        void swapWaves() {
+            RayQueue done = wave;
+            wave = next;
+            next = done;
+        }
+    }
+
+    // As Renderer.renderTile, tracing the tile in waves
+    public void renderTile(Tile tile, Scene scene, Camera camera, int[] pixels, int[] ids, TraceContext context,
+                           int step, boolean refine) {
+        renderTile(tile, scene, camera, pixels, ids, context, step, refine, null, null);
+    }
+
+    // As above, also recording the primary hit of each traced pixel in gbuffer and its linear
+    // colour in hdr, unless they are null
+    void renderTile(Tile tile, Scene scene, Camera camera, int[] pixels, int[] ids, TraceContext context,
+                    int step, boolean refine, GBuffer gbuffer, HdrBuffer hdr) {
+        context.linear = hdr != null;
+        long start = System.nanoTime();
+        Buffers buffers = this.buffers.get();
+        RayQueue wave = buffers.wave;
+        wave.clear();
+        buffers.reserveSamples(tile.size());
+        Ray ray = buffers.ray;
+        int count = 0;
+        for (int y = 0; y < tile.height; y += step) {
+            for (int x = 0; x < tile.width; x += step) {
+                if (refine && x % (2 * step) == 0 && y % (2 * step) == 0)
+                    continue;
+                camera.calculateRay(tile.x + x, tile.y + y, ray);
+                int i = wave.add(ray, count);
+                wave.weightR[i] = wave.weightG[i] = wave.weightB[i] = 1;
+                buffers.x[count] = x;
+                buffers.y[count] = y;
+                count++;
+            }
+        }
+        context.primaryRays += count;
+        context.samples += count;
+        Arrays.fill(buffers.color, 0, 3 * count, 0);
+        Arrays.fill(buffers.depths, 0, count, 0);
+
+        for (int depth = 0; buffers.wave.size() > 0; depth++) {
+            if (depth > 0) {
+                buffers.wave.sort();
+            }
+            buffers.next.clear();
+            for (int from = 0; from < buffers.wave.size(); from += BATCH_SIZE) {
+                traceBatch(buffers, from, Math.min(from + BATCH_SIZE, buffers.wave.size()), depth, scene, context,
+                        (depth == 0) ? gbuffer : null, tile);
+            }
+            buffers.swapWaves();
+        }
+
+        int background = renderer.getBackground().getRGB();
+        for (int i = 0; i < count; i++) {
+            int rgb = (buffers.ids[i] == Renderer.BACKGROUND_ID) ? background : Renderer.toRGB(buffers.color, 3 * i);
+            context.maxDepth = buffers.depths[i];
+            context.recordDepth();
+            int x = buffers.x[i], y = buffers.y[i];
+            if (ids != null) {
+                ids[y * tile.width + x] = buffers.ids[i];
+            }
+            if (hdr != null) {
+                hdr.set(tile.x + x, tile.y + y, buffers.color, 3 * i);
+            }
+            if (step == 1) {
+                pixels[y * tile.width + x] = rgb;
+            } else {
+                Renderer.fill(pixels, tile.width, x, y, Math.min(step, tile.width - x), Math.min(step, tile.height - y),
+                        rgb);
+            }
+        }
+        context.timedNanos += System.nanoTime() - start;
+    }
+
+    // Intersects, shadow tests and shades rays from to to of the current wave, queueing the
+    // rays they spawn in the next wave; primary hits are recorded in gbuffer unless it is null
+    private void traceBatch(Buffers buffers, int from, int to, int depth, Scene scene, TraceContext context,
+                            GBuffer gbuffer, Tile tile) {
+        RayQueue wave = buffers.wave;
+        Intersection[] hits = buffers.hits;
+        boolean[] found = buffers.found;
+        Ray ray = buffers.ray;
+
+        long start = System.nanoTime();
+        for (int i = from; i < to; i++) {
+            found[i - from] = Renderer.trace(scene, wave.get(i, ray), hits[i - from], context);
+        }
+        context.traceNanos += System.nanoTime() - start;
+
+        // Shadow rays, one per hit and light chosen for it other than ambient ones, indexed by
+        // hit * lights + light
+        List<Light> lights = scene.getLights();
+        int lightCount = lights.size();
+        if (buffers.visible.length < BATCH_SIZE * lightCount) {
+            buffers.visible = new boolean[BATCH_SIZE * lightCount];
+        }
+        boolean[] visible = buffers.visible;
+        RayQueue shadows = buffers.shadows;
+        shadows.clear();
+        Vector3D lightVector = context.lightVector;
+        for (int k = 0; k < to - from; k++) {
+            if (!found[k])
+                continue;
+            Intersection hit = hits[k];
+            int selected = renderer.selectLights(scene, hit, wave.weightR[from + k], wave.weightG[from + k],
+                    wave.weightB[from + k], context);
+            for (int c = 0; c < selected; c++) {
+                int l = context.lightIds[c];
+                Light light = lights.get(l);
+                if (light instanceof AmbientLight)
+                    continue;
+                light.calculateLightVector(hit.point, lightVector);
+                int s = shadows.add(Renderer.shadowRay(hit.point, lightVector, ray), k * lightCount + l);
+                shadows.distance[s] = light.calculateDistance(hit.point) - Renderer.TINY;
+            }
+        }
+        shadows.sort();
+        start = System.nanoTime();
+        for (int s = 0; s < shadows.size(); s++) {
+            visible[shadows.owner[s]] = !Renderer.occluded(scene, shadows.get(s, ray), shadows.distance[s], context);
+        }
+        context.traceNanos += System.nanoTime() - start;
+
+        double[] color = buffers.color;
+        float[] local = context.local;
+        float[] weight = context.weight;
+        RayStack spawned = context.rayStack;
+        RayQueue next = buffers.next;
+        for (int i = from; i < to; i++) {
+            int k = i - from;
+            int sample = wave.owner[i];
+            if (!found[k]) {
+                if (depth == 0) {
+                    buffers.ids[sample] = Renderer.BACKGROUND_ID;
+                    if (gbuffer != null) {
+                        gbuffer.recordMiss(tile.x + buffers.x[sample], tile.y + buffers.y[sample]);
+                    }
+                }
+                renderer.addBackground(color, 3 * sample, wave.weightR[i], wave.weightG[i], wave.weightB[i]);
+                continue;
+            }
+            Intersection hit = hits[k];
+            if (depth == 0) {
+                buffers.ids[sample] = Renderer.objectId(hit);
+                if (gbuffer != null) {
+                    gbuffer.record(tile.x + buffers.x[sample], tile.y + buffers.y[sample], buffers.ids[sample], hit);
+                }
+            }
+            local[0] = local[1] = local[2] = 0;
+            // The choice depends only on the hit and the ray's weight, so it is the one made above
+            int selected = renderer.selectLights(scene, hit, wave.weightR[i], wave.weightG[i], wave.weightB[i],
+                    context);
+            for (int c = 0; c < selected; c++) {
+                int l = context.lightIds[c];
+                Light light = lights.get(l);
+                if (light instanceof AmbientLight) {
+                    Renderer.addAmbient(hit.surface, light, local);
+                } else if (visible[k * lightCount + l]) {
+                    light.calculateLightVector(hit.point, lightVector);
+                    Renderer.addDirect(hit, light, lightVector, context.lightScales[c], local);
+                }
+            }
+            Renderer.addLocal(color, 3 * sample, wave.weightR[i], wave.weightG[i], wave.weightB[i], local,
+                    context.linear);
+
+            spawned.clear();
+            renderer.spawn(hit, wave.weightR[i], wave.weightG[i], wave.weightB[i], depth, context);
+            if (!spawned.isEmpty()) {
+                buffers.depths[sample] = Math.max(buffers.depths[sample], depth + 1);
+            }
+            while (!spawned.isEmpty()) {
+                spawned.pop(ray, weight);
+                int n = next.add(ray, sample);
+                next.weightR[n] = weight[0];
+                next.weightG[n] = weight[1];
+                next.weightB[n] = weight[2];
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package cs3318.raytracing.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small JSON parser for scene descriptions. Objects become maps that keep their keys
+ * in order, arrays become lists, and every number a double.
+ */
+final class Json {
+
+    // Deepest nesting accepted, so that a hostile document cannot exhaust the stack
+    private static final int MAX_DEPTH = 64;
+
+    private final String text;
+    private int position;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(String text) throws IOException {
+        Json json = new Json(text);
+        Object value = json.value(0);
+        json.skipSpace();
+        if (json.position < text.length())
+            throw json.error("unexpected text after the document");
+        return value;
+    }
+
+    private Object value(int depth) throws IOException {
+        if (depth > MAX_DEPTH)
+            throw error("nested too deeply");
+        skipSpace();
+        if (position >= text.length())
+            throw error("unexpected end of document");
+        char c = text.charAt(position);
+        switch (c) {
+            case '{':
+                return object(depth);
+            case '[':
+                return array(depth);
+            case '"':
+                return string();
+            case 't':
+                literal("true");
+                return Boolean.TRUE;
+            case 'f':
+                literal("false");
+                return Boolean.FALSE;
+            case 'n':
+                literal("null");
+                return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                    return number();
+                throw error("unexpected '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object(int depth) throws IOException {
+        Map<String, Object> members = new LinkedHashMap<>();
+        position++;
+        skipSpace();
+        if (peek() == '}') {
+            position++;
+            return members;
+        }
+        while (true) {
+            skipSpace();
+            if (peek() != '"')
+                throw error("expected a member name");
+            String name = string();
+            skipSpace();
+            expect(':');
+            if (members.containsKey(name))
+                throw error("duplicate member \"" + name + "\"");
+            members.put(name, value(depth + 1));
+            skipSpace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect('}');
+                return members;
+            }
+        }
+    }
+
+    private List<Object> array(int depth) throws IOException {
+        List<Object> elements = new ArrayList<>();
+        position++;
+        skipSpace();
+        if (peek() == ']') {
+            position++;
+            return elements;
+        }
+        while (true) {
+            elements.add(value(depth + 1));
+            skipSpace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect(']');
+                return elements;
+            }
+        }
+    }
+
+    private String string() throws IOException {
+        StringBuilder s = new StringBuilder();
+        position++;
+        while (true) {
+            if (position >= text.length())
+                throw error("unterminated string");
+            char c = text.charAt(position++);
+            if (c == '"')
+                return s.toString();
+            if (c < 0x20)
+                throw error("control character in string");
+            if (c != '\\') {
+                s.append(c);
+                continue;
+            }
+            if (position >= text.length())
+                throw error("unterminated string");
+            char escape = text.charAt(position++);
+            switch (escape) {
+                case '"': case '\\': case '/':
+                    s.append(escape);
+                    break;
+                case 'b': s.append('\b'); break;
+                case 'f': s.append('\f'); break;
+                case 'n': s.append('\n'); break;
+                case 'r': s.append('\r'); break;
+                case 't': s.append('\t'); break;
+                case 'u':
+                    if (position + 4 > text.length())
+                        throw error("truncated escape");
+                    try {
+                        s.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("bad escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    throw error("bad escape");
+            }
+        }
+    }
+
+    private Double number() throws IOException {
+        int start = position;
+        if (peek() == '-') {
+            position++;
+        }
+        while (position < text.length() && "0123456789.eE+-".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        try {
+            return Double.valueOf(text.substring(start, position));
+        } catch (NumberFormatException e) {
+            throw error("bad number " + text.substring(start, position));
+        }
+    }
+
+    private void literal(String word) throws IOException {
+        if (!text.startsWith(word, position))
+            throw error("unexpected '" + text.charAt(position) + "'");
+        position += word.length();
+    }
+
+    private void expect(char c) throws IOException {
+        if (peek() != c)
+            throw error("expected '" + c + "'");
+        position++;
+    }
+
+    private int peek() {
+        return (position < text.length()) ? text.charAt(position) : -1;
+    }
+
+    private void skipSpace() {
+        while (position < text.length() && " \t\r\n".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException("JSON, character " + (position + 1) + ": " + message);
+    }
+}
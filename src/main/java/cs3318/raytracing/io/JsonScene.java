@@ -0,0 +1,293 @@
+package cs3318.raytracing.io;
+
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A scene described in JSON, as sent to the render server. Colours, coefficients and
+ * units are those of the text format of {@link SceneFormat}.
+ * <pre>
+ * {
+ *   "image":      {"width": 800, "height": 600},
+ *   "background": [20, 20, 25],                              (0-255, default black)
+ *   "camera":     {"eye": [x, y, z], "lookat": [x, y, z],
+ *                  "up": [0, 1, 0], "fov": 30,               (defaults)
+ *                  "width": 800, "height": 600},             (default the image size)
+ *   "lights":     [{"type": "ambient", "color": [r, g, b]},
+ *                  {"type": "directional", "color": [r, g, b], "direction": [x, y, z]},
+ *                  {"type": "point", "color": [r, g, b], "position": [x, y, z],
+ *                   "range": 50}],                           (default unlimited)
+ *   "surfaces":   [{"color": [r, g, b], "ambient": 0.2, "diffuse": 0.7, "specular": 0.5,
+ *                   "exponent": 10, "reflection": 0.5, "transmission": 0, "index": 1}],
+ *   "spheres":    [[centerX, centerY, centerZ, radius, surface], ...]
+ * }
+ * </pre>
+ * The image and camera are required; every other member is optional, and surface
+ * coefficients left out take the defaults shown, those of {@code RayTraceAPI.addSphere}.
+ * Spheres are arrays rather than objects, as a scene may hold a great many, and name
+ * their surface by position in the surfaces array.
+ * <p>
+ * The description is checked in full when it is parsed, so adding it to a scene cannot fail.
+ */
+public final class JsonScene {
+
+    private static final String[] LIGHT_TYPES = {"ambient", "directional", "point"};
+    private static final String[] LIGHT_VECTORS = {null, "direction", "position"};
+    private static final String[] SURFACE_COEFFICIENTS = {
+            "ambient", "diffuse", "specular", "exponent", "reflection", "transmission", "index"
+    };
+    private static final float[] SURFACE_DEFAULTS = {0.2f, 0.7f, 0.5f, 10, 0.5f, 0, 1};
+
+    private final SceneSettings settings = new SceneSettings();
+    private int[] lightTypes = new int[0];
+    private float[] lights = new float[0];      // r, g, b, x, y, z, range of each light
+    private float[][] surfaces = new float[0][];
+    private float[] spheres = new float[0];     // centerX, centerY, centerZ, radius of each sphere
+    private int[] sphereSurfaces = new int[0];
+    private String contentKey;
+
+    private JsonScene() {}
+
+    /**
+     * Parses and checks a scene description.
+     *
+     * @throws IOException if the text is not JSON or does not describe a scene
+     */
+    public static JsonScene parse(String json) throws IOException {
+        Object document = Json.parse(json);
+        if (!(document instanceof Map))
+            throw new IOException("Scene must be a JSON object");
+        JsonScene scene = new JsonScene();
+        scene.read(asMap(document, "scene"));
+        scene.contentKey = scene.hashContents();
+        return scene;
+    }
+
+    // Image size, background and camera
+    public SceneSettings getSettings() {
+        return settings;
+    }
+
+    // Hex SHA-256 of the lights, surfaces and spheres, equal for descriptions that differ only
+    // in their settings or in how their numbers are written
+    public String getContentKey() {
+        return contentKey;
+    }
+
+    public int getSphereCount() {
+        return sphereSurfaces.length;
+    }
+
+    // Adds the lights, surfaces and spheres to the scene
+    public void addTo(Scene scene) {
+        for (int i = 0; i < lightTypes.length; i++) {
+            float[] l = Arrays.copyOfRange(lights, 7 * i, 7 * i + 7);
+            switch (lightTypes[i]) {
+                case SceneFormat.AMBIENT:
+                    scene.addAmbientLight(l[0], l[1], l[2]);
+                    break;
+                case SceneFormat.DIRECTIONAL:
+                    scene.addDirectionalLight(l[0], l[1], l[2], new Vector3D(l[3], l[4], l[5]));
+                    break;
+                default:
+                    scene.addPointLight(l[0], l[1], l[2], new Point3D(l[3], l[4], l[5]));
+                    if (l[6] != Float.POSITIVE_INFINITY) {
+                        scene.setLightRange(scene.getLights().size() - 1, l[6]);
+                    }
+                    break;
+            }
+        }
+        SurfaceTable table = new SurfaceTable(scene);
+        for (float[] surface : surfaces) {
+            table.add(surface);
+        }
+        for (int i = 0; i < sphereSurfaces.length; i++) {
+            scene.addSphere(spheres[4 * i], spheres[4 * i + 1], spheres[4 * i + 2], spheres[4 * i + 3],
+                    table.get(sphereSurfaces[i]));
+        }
+    }
+
+    private void read(Map<String, Object> scene) throws IOException {
+        Map<String, Object> image = asMap(required(scene, "image"), "image");
+        settings.width = asInt(required(image, "width"), "image width");
+        settings.height = asInt(required(image, "height"), "image height");
+        if (settings.width <= 0 || settings.height <= 0)
+            throw new IOException("Image size must be positive");
+
+        settings.background = Color.BLACK;
+        if (scene.get("background") != null) {
+            float[] rgb = floats(scene.get("background"), 3, "background");
+            for (float c : rgb) {
+                if (c != (int) c || c < 0 || c > 255)
+                    throw new IOException("Background components must be whole numbers from 0 to 255");
+            }
+            settings.background = new Color((int) rgb[0], (int) rgb[1], (int) rgb[2]);
+        }
+
+        Map<String, Object> camera = asMap(required(scene, "camera"), "camera");
+        float[] eye = floats(required(camera, "eye"), 3, "camera eye");
+        float[] lookat = floats(required(camera, "lookat"), 3, "camera lookat");
+        float[] up = (camera.get("up") != null) ? floats(camera.get("up"), 3, "camera up") : new float[]{0, 1, 0};
+        settings.eye = new Point3D(eye[0], eye[1], eye[2]);
+        settings.lookat = new Vector3D(lookat[0], lookat[1], lookat[2]);
+        settings.up = new Vector3D(up[0], up[1], up[2]);
+        settings.fov = (camera.get("fov") != null) ? asFloat(camera.get("fov"), "camera fov") : 30;
+        settings.cameraWidth = (camera.get("width") != null) ? asInt(camera.get("width"), "camera width")
+                : settings.width;
+        settings.cameraHeight = (camera.get("height") != null) ? asInt(camera.get("height"), "camera height")
+                : settings.height;
+
+        List<Object> lightList = optionalList(scene, "lights");
+        lightTypes = new int[lightList.size()];
+        lights = new float[7 * lightList.size()];
+        for (int i = 0; i < lightList.size(); i++) {
+            Map<String, Object> light = asMap(lightList.get(i), "light " + i);
+            Object type = required(light, "type");
+            int t = Arrays.asList(LIGHT_TYPES).indexOf(type);
+            if (t < 0)
+                throw new IOException("Light " + i + " has unknown type " + type);
+            lightTypes[i] = t;
+            System.arraycopy(floats(required(light, "color"), 3, "light color"), 0, lights, 7 * i, 3);
+            if (LIGHT_VECTORS[t] != null) {
+                System.arraycopy(floats(required(light, LIGHT_VECTORS[t]), 3, "light " + LIGHT_VECTORS[t]), 0,
+                        lights, 7 * i + 3, 3);
+            }
+            lights[7 * i + 6] = Float.POSITIVE_INFINITY;
+            if (light.get("range") != null) {
+                if (t != SceneFormat.POINT)
+                    throw new IOException("Light " + i + " is not a point light and cannot have a range");
+                float range = asFloat(light.get("range"), "light range");
+                if (!(range > 0))
+                    throw new IOException("Light " + i + " must have a positive range");
+                lights[7 * i + 6] = range;
+            }
+        }
+
+        List<Object> surfaceList = optionalList(scene, "surfaces");
+        surfaces = new float[surfaceList.size()][];
+        for (int i = 0; i < surfaceList.size(); i++) {
+            Map<String, Object> surface = asMap(surfaceList.get(i), "surface " + i);
+            float[] values = new float[10];
+            System.arraycopy(floats(required(surface, "color"), 3, "surface color"), 0, values, 0, 3);
+            for (int c = 0; c < SURFACE_COEFFICIENTS.length; c++) {
+                Object value = surface.get(SURFACE_COEFFICIENTS[c]);
+                values[3 + c] = (value != null) ? asFloat(value, "surface " + SURFACE_COEFFICIENTS[c])
+                        : SURFACE_DEFAULTS[c];
+            }
+            surfaces[i] = values;
+        }
+
+        List<Object> sphereList = optionalList(scene, "spheres");
+        spheres = new float[4 * sphereList.size()];
+        sphereSurfaces = new int[sphereList.size()];
+        for (int i = 0; i < sphereList.size(); i++) {
+            float[] values = floats(sphereList.get(i), 5, "sphere");
+            System.arraycopy(values, 0, spheres, 4 * i, 4);
+            int surface = (int) values[4];
+            if (surface != values[4] || surface < 0 || surface >= surfaces.length)
+                throw new IOException("Sphere " + i + " names no surface " + values[4]);
+            sphereSurfaces[i] = surface;
+        }
+    }
+
+    private String hashContents() {
+        ByteBuffer bytes = ByteBuffer.allocate(4 * (3 + lightTypes.length + lights.length + 10 * surfaces.length
+                + spheres.length + sphereSurfaces.length));
+        bytes.putInt(lightTypes.length).putInt(surfaces.length).putInt(sphereSurfaces.length);
+        for (int type : lightTypes) {
+            bytes.putInt(type);
+        }
+        for (float v : lights) {
+            bytes.putInt(Float.floatToIntBits(v));
+        }
+        for (float[] surface : surfaces) {
+            for (float v : surface) {
+                bytes.putInt(Float.floatToIntBits(v));
+            }
+        }
+        for (float v : spheres) {
+            bytes.putInt(Float.floatToIntBits(v));
+        }
+        for (int s : sphereSurfaces) {
+            bytes.putInt(s);
+        }
+        return hex(sha256(bytes.array()));
+    }
+
+    static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder s = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            s.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return s.toString();
+    }
+
+    private static Object required(Map<String, Object> object, String name) throws IOException {
+        Object value = object.get(name);
+        if (value == null)
+            throw new IOException("Missing \"" + name + "\"");
+        return value;
+    }
+
+    private static List<Object> optionalList(Map<String, Object> object, String name) throws IOException {
+        Object value = object.get(name);
+        if (value == null)
+            return List.of();
+        if (!(value instanceof List))
+            throw new IOException("\"" + name + "\" must be an array");
+        @SuppressWarnings("unchecked")
+        List<Object> list = (List<Object>) value;
+        return list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object value, String what) throws IOException {
+        if (!(value instanceof Map))
+            throw new IOException(capitalize(what) + " must be an object");
+        return (Map<String, Object>) value;
+    }
+
+    private static float[] floats(Object value, int count, String what) throws IOException {
+        if (!(value instanceof List) || ((List<?>) value).size() != count)
+            throw new IOException(capitalize(what) + " must be an array of " + count + " numbers");
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = asFloat(((List<?>) value).get(i), what);
+        }
+        return values;
+    }
+
+    private static float asFloat(Object value, String what) throws IOException {
+        if (!(value instanceof Double) || !Float.isFinite(((Double) value).floatValue()))
+            throw new IOException(capitalize(what) + " must be a finite number");
+        return ((Double) value).floatValue();
+    }
+
+    private static int asInt(Object value, String what) throws IOException {
+        if (!(value instanceof Double) || (double) (int) (double) (Double) value != (Double) value)
+            throw new IOException(capitalize(what) + " must be a whole number");
+        return (int) (double) (Double) value;
+    }
+
+    private static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+}
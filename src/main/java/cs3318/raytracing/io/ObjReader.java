@@ -0,0 +1,303 @@
+package cs3318.raytracing.io;
+
+import cs3318.raytracing.model.TriangleMesh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Loads the geometry of a Wavefront OBJ file into a {@link TriangleMesh}.
+ * <p>
+ * The file is read through a fixed-size buffer and parsed straight from the buffered
+ * bytes into growing primitive arrays, so no objects are created per vertex or face.
+ * Vertex positions ({@code v}), vertex normals ({@code vn}) and faces ({@code f}) are
+ * read; faces with more than three corners are split into a fan of triangles, and
+ * negative indices count back from the last vertex read. Texture coordinates, groups,
+ * materials and every other record are ignored.
+ * <p>
+ * Normals are kept only if every face corner names one. OBJ indexes positions and
+ * normals separately, so each distinct position and normal pair becomes one vertex
+ * of the mesh.
+ */
+public final class ObjReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_TOKEN = 64;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] bytes = buffer.array();
+    private int position, limit;    // unread bytes of the buffer
+    private final byte[] token = new byte[MAX_TOKEN];
+    private int tokenLength;
+    private int line = 1;
+
+    private float[] positions = new float[3 * 1024];
+    private int positionCount;
+    private float[] normals = new float[3 * 1024];
+    private int normalCount;
+    // Position and normal index (-1 for none) of every triangle corner
+    private int[] corners = new int[2 * 3 * 1024];
+    private int cornerCount;
+    private boolean allNormals = true;
+
+    private ObjReader(ReadableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Reads the triangles of the file.
+     *
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static TriangleMesh read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ObjReader(channel).read();
+        }
+    }
+
+    private TriangleMesh read() throws IOException {
+        int[] face = new int[2 * 16];
+        while (nextRecord()) {
+            if (isToken("v")) {
+                positions = ensure(positions, 3 * positionCount + 3);
+                for (int i = 0; i < 3; i++) {
+                    positions[3 * positionCount + i] = nextFloat();
+                }
+                positionCount++;
+            } else if (isToken("vn")) {
+                normals = ensure(normals, 3 * normalCount + 3);
+                for (int i = 0; i < 3; i++) {
+                    normals[3 * normalCount + i] = nextFloat();
+                }
+                normalCount++;
+            } else if (isToken("f")) {
+                int count = 0;
+                while (hasField()) {
+                    readToken();
+                    if (2 * count == face.length) {
+                        face = Arrays.copyOf(face, 2 * face.length);
+                    }
+                    parseCorner(face, 2 * count++);
+                }
+                if (count < 3)
+                    throw error("face needs at least 3 corners");
+                corners = ensure(corners, 2 * cornerCount + 6 * (count - 2));
+                for (int k = 1; k + 1 < count; k++) {
+                    addCorner(face, 0);
+                    addCorner(face, 2 * k);
+                    addCorner(face, 2 * k + 2);
+                }
+            }
+            skipLine();
+        }
+        return allNormals && cornerCount > 0 ? withNormals() : withoutNormals();
+    }
+
+    private void addCorner(int[] face, int i) {
+        corners[2 * cornerCount] = face[i];
+        corners[2 * cornerCount + 1] = face[i + 1];
+        cornerCount++;
+    }
+
+    // Parses a face corner written as p, p/t, p//n or p/t/n into face[i] and face[i + 1]
+    private void parseCorner(int[] face, int i) throws IOException {
+        int slash = indexOf('/', 0);
+        face[i] = resolve(parseIndex(0, slash), positionCount);
+        face[i + 1] = -1;
+        if (slash < tokenLength) {
+            int second = indexOf('/', slash + 1);
+            if (second + 1 < tokenLength) {
+                face[i + 1] = resolve(parseIndex(second + 1, tokenLength), normalCount);
+            }
+        }
+        if (face[i + 1] < 0) {
+            allNormals = false;
+        }
+    }
+
+    private int indexOf(int c, int from) {
+        int i = from;
+        while (i < tokenLength && token[i] != c) {
+            i++;
+        }
+        return i;
+    }
+
+    private int parseIndex(int from, int to) throws IOException {
+        boolean negative = from < to && token[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to)
+            throw error("missing index");
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = token[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw error("bad index " + new String(token, 0, tokenLength, StandardCharsets.US_ASCII));
+            value = Math.min(10 * value + digit, Integer.MAX_VALUE);
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    // OBJ indices count from 1, or back from the last element read when negative
+    private int resolve(int index, int count) throws IOException {
+        int resolved = (index > 0) ? index - 1 : count + index;
+        if (index == 0 || resolved < 0 || resolved >= count)
+            throw error("index " + index + " out of range");
+        return resolved;
+    }
+
+    private TriangleMesh withoutNormals() {
+        int[] indices = new int[cornerCount];
+        for (int i = 0; i < cornerCount; i++) {
+            indices[i] = corners[2 * i];
+        }
+        return new TriangleMesh(Arrays.copyOf(positions, 3 * positionCount), null, indices);
+    }
+
+    // Gives each distinct position and normal pair its own vertex
+    private TriangleMesh withNormals() {
+        int capacity = Integer.highestOneBit(Math.max(2 * cornerCount, 16)) * 2;
+        long[] keys = new long[capacity];
+        int[] values = new int[capacity];
+        Arrays.fill(keys, -1);
+        int[] indices = new int[cornerCount];
+        float[] vertexPositions = new float[3 * Math.min(cornerCount, 1024)];
+        float[] vertexNormals = new float[vertexPositions.length];
+        int vertexCount = 0;
+        for (int i = 0; i < cornerCount; i++) {
+            int p = corners[2 * i], n = corners[2 * i + 1];
+            long key = (long) p << 32 | n;
+            int slot = (int) (key * 0x9e3779b97f4a7c15L >>> 32) & (capacity - 1);
+            while (keys[slot] != -1 && keys[slot] != key) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (keys[slot] == -1) {
+                keys[slot] = key;
+                values[slot] = vertexCount;
+                vertexPositions = ensure(vertexPositions, 3 * vertexCount + 3);
+                vertexNormals = ensure(vertexNormals, 3 * vertexCount + 3);
+                System.arraycopy(positions, 3 * p, vertexPositions, 3 * vertexCount, 3);
+                System.arraycopy(normals, 3 * n, vertexNormals, 3 * vertexCount, 3);
+                vertexCount++;
+            }
+            indices[i] = values[slot];
+        }
+        return new TriangleMesh(Arrays.copyOf(vertexPositions, 3 * vertexCount),
+                Arrays.copyOf(vertexNormals, 3 * vertexCount), indices);
+    }
+
+    private static float[] ensure(float[] array, int size) {
+        return (size <= array.length) ? array : Arrays.copyOf(array, Math.max(size, 2 * array.length));
+    }
+
+    private static int[] ensure(int[] array, int size) {
+        return (size <= array.length) ? array : Arrays.copyOf(array, Math.max(size, 2 * array.length));
+    }
+
+    // Reads the first token of the next record; false at the end of the input
+    private boolean nextRecord() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c < 0)
+                return false;
+            if (c == '\n') {
+                line++;
+                skip();
+            } else if (c == '#') {
+                skipLine();
+            } else if (c <= ' ') {
+                skip();
+            } else {
+                readToken();
+                return true;
+            }
+        }
+    }
+
+    private boolean isToken(String keyword) {
+        if (keyword.length() != tokenLength)
+            return false;
+        for (int i = 0; i < tokenLength; i++) {
+            if (token[i] != keyword.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    // True if the current record has another field
+    private boolean hasField() throws IOException {
+        int c = peek();
+        while (c == ' ' || c == '\t' || c == '\r') {
+            skip();
+            c = peek();
+        }
+        return c >= 0 && c != '\n' && c != '#';
+    }
+
+    private float nextFloat() throws IOException {
+        if (!hasField())
+            throw error("missing field");
+        readToken();
+        float value = TextSceneReader.parseFloat(token, tokenLength);
+        if (Float.isNaN(value))
+            throw error("bad number " + new String(token, 0, tokenLength, StandardCharsets.US_ASCII));
+        return value;
+    }
+
+    // Skips whatever is left of the current line, including any fields this reader ignores
+    private void skipLine() throws IOException {
+        int c = peek();
+        while (c >= 0 && c != '\n') {
+            skip();
+            c = peek();
+        }
+    }
+
+    private void readToken() throws IOException {
+        tokenLength = 0;
+        while (true) {
+            int end = position;
+            while (end < limit && bytes[end] > ' ' && bytes[end] != '#') {
+                end++;
+            }
+            int length = end - position;
+            if (tokenLength + length > MAX_TOKEN)
+                throw error("field too long");
+            System.arraycopy(bytes, position, token, tokenLength, length);
+            tokenLength += length;
+            position = end;
+            if (end < limit || peek() < 0)
+                return;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (position == limit) {
+            buffer.clear();
+            int n;
+            do {
+                n = channel.read(buffer);
+            } while (n == 0);
+            if (n < 0)
+                return -1;
+            position = 0;
+            limit = n;
+        }
+        return bytes[position] & 0xFF;
+    }
+
+    private void skip() {
+        position++;
+    }
+
+    private IOException error(String message) {
+        return new IOException("Line " + line + ": " + message);
+    }
+}
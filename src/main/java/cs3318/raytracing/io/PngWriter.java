@@ -0,0 +1,166 @@
+package cs3318.raytracing.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes an 8-bit RGB PNG a band of rows at a time, so an image never has to be held
+ * in memory whole. Each row is filtered with whichever of the five PNG filters gives
+ * the smallest sum of absolute differences, and the compressed data is written out in
+ * IDAT chunks as the deflater produces it.
+ */
+public final class PngWriter implements AutoCloseable {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    private final int width, height;
+    private final ChunkStream chunks = new ChunkStream();
+    private final DeflaterOutputStream deflated;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private byte[] previous, current;
+    private final byte[][] filtered = new byte[5][];
+    private int rowsWritten;
+
+    public PngWriter(OutputStream out, int width, int height) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        previous = new byte[3 * width];
+        current = new byte[3 * width];
+        for (int f = 0; f < filtered.length; f++) {
+            filtered[f] = new byte[3 * width + 1];
+            filtered[f][0] = (byte) f;
+        }
+        this.out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(header);
+        fields.writeInt(width);
+        fields.writeInt(height);
+        fields.writeByte(8);    // bits per channel
+        fields.writeByte(2);    // RGB
+        fields.writeByte(0);    // deflate
+        fields.writeByte(0);    // adaptive filtering
+        fields.writeByte(0);    // not interlaced
+        writeChunk("IHDR", header.toByteArray(), header.size());
+        deflated = new DeflaterOutputStream(chunks, deflater, CHUNK_SIZE);
+    }
+
+    // Encodes the next rows of the image from ARGB pixels stored one row after another
+    public void writeRows(int[] pixels, int rows) throws IOException {
+        if (rowsWritten + rows > height)
+            throw new IllegalStateException("Image has only " + height + " rows");
+        for (int j = 0; j < rows; j++) {
+            for (int x = 0, o = j * width; x < width; x++, o++) {
+                int argb = pixels[o];
+                current[3 * x] = (byte) (argb >> 16);
+                current[3 * x + 1] = (byte) (argb >> 8);
+                current[3 * x + 2] = (byte) argb;
+            }
+            deflated.write(filter());
+            byte[] done = previous;
+            previous = current;
+            current = done;
+        }
+        rowsWritten += rows;
+    }
+
+    // Applies each filter to the current row and returns the one that looks most compressible
+    private byte[] filter() {
+        byte[] none = filtered[0], sub = filtered[1], up = filtered[2], average = filtered[3], paeth = filtered[4];
+        long costNone = 0, costSub = 0, costUp = 0, costAverage = 0, costPaeth = 0;
+        for (int i = 0; i < current.length; i++) {
+            int raw = current[i] & 0xff;
+            int a = (i >= 3) ? current[i - 3] & 0xff : 0;
+            int b = previous[i] & 0xff;
+            int c = (i >= 3) ? previous[i - 3] & 0xff : 0;
+            int p = a + b - c;
+            int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+            int predicted = (pa <= pb && pa <= pc) ? a : (pb <= pc) ? b : c;
+            none[i + 1] = (byte) raw;
+            sub[i + 1] = (byte) (raw - a);
+            up[i + 1] = (byte) (raw - b);
+            average[i + 1] = (byte) (raw - ((a + b) >> 1));
+            paeth[i + 1] = (byte) (raw - predicted);
+            // Filtered bytes are scored as signed, as in libpng
+            costNone += Math.abs(none[i + 1]);
+            costSub += Math.abs(sub[i + 1]);
+            costUp += Math.abs(up[i + 1]);
+            costAverage += Math.abs(average[i + 1]);
+            costPaeth += Math.abs(paeth[i + 1]);
+        }
+        long[] costs = {costNone, costSub, costUp, costAverage, costPaeth};
+        int best = 0;
+        for (int f = 1; f < costs.length; f++) {
+            if (costs[f] < costs[best]) {
+                best = f;
+            }
+        }
+        return filtered[best];
+    }
+
+    // Flushes the compressed data and ends the file; every row must have been written
+    public void close() throws IOException {
+        if (rowsWritten != height)
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows written");
+        deflated.finish();
+        chunks.flush();
+        deflater.end();
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(name);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Gathers deflated bytes into IDAT chunks of up to CHUNK_SIZE bytes
+    private class ChunkStream extends OutputStream {
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int size;
+
+        @Override
+        public void write(int b) throws IOException {
+            buffer[size++] = (byte) b;
+            if (size == buffer.length) {
+                flush();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, n);
+                size += n;
+                off += n;
+                len -= n;
+                if (size == buffer.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size > 0) {
+                writeChunk("IDAT", buffer, size);
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package cs3318.raytracing.io;
+
+/**
+ * The scene file formats read by {@link SceneReader} and written by {@link SceneWriter}.
+ * <p>
+ * <b>Text</b> ({@value #TEXT_EXTENSION}): one record per line, fields separated by
+ * spaces or tabs, and everything after a {@code #} ignored. Colours of lights and
+ * surfaces and all coefficients are in the 0-1 range used by {@code RayTraceAPI}.
+ * <pre>
+ * image       width height
+ * background  r g b                      (0-255)
+ * camera      eyeX eyeY eyeZ  lookAtX lookAtY lookAtZ  upX upY upZ  width height fov
+ * ambient     r g b
+ * directional r g b  dirX dirY dirZ
+ * point       r g b  posX posY posZ
+ * surface     r g b  ambient diffuse specular  phongExp  reflection transmission index
+ * sphere      centerX centerY centerZ radius surface
+ * </pre>
+ * A sphere names its surface by position among the file's surface records, counting
+ * from 0, and may only follow that record. Every record is optional and records may
+ * appear in any order otherwise.
+ * <p>
+ * <b>Binary</b> ({@value #BINARY_EXTENSION}): little-endian, with every field 4 bytes long.
+ * <pre>
+ * int   magic 'RTSB', version
+ * int   flags: 1 = image, 2 = background, 4 = camera
+ * int   width, height                    (present if flagged)
+ * int   background as 0xRRGGBB           (present if flagged)
+ * float camera: eye, lookAt, up, then int width, height, float fov  (present if flagged)
+ * int   light count, then per light: int type (0 ambient, 1 directional, 2 point),
+ *       float r, g, b, x, y, z           (x, y, z unused for ambient lights)
+ * int   surface count, then per surface the 10 floats of a text surface record
+ * int   sphere count n, then n float centerX, n float centerY, n float centerZ,
+ *       n float radius and n int surface
+ * </pre>
+ * Spheres are stored column by column so that each column can be copied into the
+ * scene's sphere arrays in one bulk transfer.
+ */
+public final class SceneFormat {
+
+    public static final String TEXT_EXTENSION = ".rts";
+    public static final String BINARY_EXTENSION = ".rtb";
+
+    static final int MAGIC = 'R' | 'T' << 8 | 'S' << 16 | 'B' << 24;
+    static final int VERSION = 1;
+
+    static final int HAS_IMAGE = 1;
+    static final int HAS_BACKGROUND = 2;
+    static final int HAS_CAMERA = 4;
+
+    static final int AMBIENT = 0;
+    static final int DIRECTIONAL = 1;
+    static final int POINT = 2;
+
+    private SceneFormat() {}
+}
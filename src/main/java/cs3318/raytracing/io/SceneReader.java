@@ -0,0 +1,149 @@
+package cs3318.raytracing.io;
+
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+
+import java.awt.Color;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads scene files in either of the formats described by {@link SceneFormat}; binary
+ * files are recognised by their magic number. Lights and surfaces are added to the
+ * scene one at a time, spheres go straight into the scene's sphere arrays.
+ */
+public final class SceneReader {
+
+    private SceneReader() {}
+
+    /**
+     * Adds the lights, surfaces and spheres of the file to the scene.
+     *
+     * @return The image, background and camera settings found in the file
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static SceneSettings read(Path path, Scene scene) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(magic);
+            if (!magic.hasRemaining() && magic.getInt(0) == SceneFormat.MAGIC) {
+                return new BinaryInput(channel).read(scene);
+            }
+            channel.position(0);
+            return new TextSceneReader(channel).read(scene);
+        }
+    }
+
+    // Reads the binary format: small records through a buffer, sphere columns by mapping them
+    private static final class BinaryInput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+
+        BinaryInput(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        SceneSettings read(Scene scene) throws IOException {
+            int version = readInt();
+            if (version != SceneFormat.VERSION)
+                throw new IOException("Unsupported scene file version " + version);
+            SceneSettings settings = new SceneSettings();
+            int flags = readInt();
+            if ((flags & SceneFormat.HAS_IMAGE) != 0) {
+                settings.width = readInt();
+                settings.height = readInt();
+            }
+            if ((flags & SceneFormat.HAS_BACKGROUND) != 0) {
+                settings.background = new Color(readInt());
+            }
+            if ((flags & SceneFormat.HAS_CAMERA) != 0) {
+                settings.eye = new Point3D(readFloat(), readFloat(), readFloat());
+                settings.lookat = new Vector3D(readFloat(), readFloat(), readFloat());
+                settings.up = new Vector3D(readFloat(), readFloat(), readFloat());
+                settings.cameraWidth = readInt();
+                settings.cameraHeight = readInt();
+                settings.fov = readFloat();
+            }
+
+            int lightCount = readCount();
+            for (int i = 0; i < lightCount; i++) {
+                int type = readInt();
+                float r = readFloat(), g = readFloat(), b = readFloat();
+                float x = readFloat(), y = readFloat(), z = readFloat();
+                switch (type) {
+                    case SceneFormat.AMBIENT:
+                        scene.addAmbientLight(r, g, b);
+                        break;
+                    case SceneFormat.DIRECTIONAL:
+                        scene.addDirectionalLight(r, g, b, new Vector3D(x, y, z));
+                        break;
+                    case SceneFormat.POINT:
+                        scene.addPointLight(r, g, b, new Point3D(x, y, z));
+                        break;
+                    default:
+                        throw new IOException("Unknown light type " + type);
+                }
+            }
+
+            SurfaceTable surfaces = new SurfaceTable(scene);
+            int surfaceCount = readCount();
+            float[] surface = new float[10];
+            for (int i = 0; i < surfaceCount; i++) {
+                for (int k = 0; k < surface.length; k++) {
+                    surface[k] = readFloat();
+                }
+                surfaces.add(surface);
+            }
+
+            int sphereCount = readCount();
+            long column = channel.position() - buffer.remaining();
+            long columnSize = 4L * sphereCount;
+            if (column + 5 * columnSize > channel.size())
+                throw new EOFException("Scene file ends inside the sphere data");
+            try {
+                scene.addSpheres(map(column, columnSize).asFloatBuffer(),
+                        map(column + columnSize, columnSize).asFloatBuffer(),
+                        map(column + 2 * columnSize, columnSize).asFloatBuffer(),
+                        map(column + 3 * columnSize, columnSize).asFloatBuffer(),
+                        map(column + 4 * columnSize, columnSize).asIntBuffer(), sphereCount, surfaces.toArray());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            return settings;
+        }
+
+        private ByteBuffer map(long position, long size) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private int readCount() throws IOException {
+            int count = readInt();
+            if (count < 0)
+                throw new IOException("Negative record count " + count);
+            return count;
+        }
+
+        private float readFloat() throws IOException {
+            return Float.intBitsToFloat(readInt());
+        }
+
+        private int readInt() throws IOException {
+            if (buffer.remaining() < 4) {
+                buffer.compact();
+                while (buffer.position() < 4) {
+                    if (channel.read(buffer) < 0)
+                        throw new EOFException("Scene file ends early");
+                }
+                buffer.flip();
+            }
+            return buffer.getInt();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package cs3318.raytracing.io;
+
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+
+import java.awt.Color;
+
+/**
+ * The parts of a scene file that describe the view rather than the scene: image size,
+ * background and camera. Fields of records missing from the file are left at 0 or null.
+ */
+public class SceneSettings {
+
+    public int width, height;
+    public Color background;
+
+    public Point3D eye;
+    public Vector3D lookat, up;
+    public int cameraWidth, cameraHeight;
+    public float fov;
+
+    public SceneSettings() {}
+
+    public boolean hasImage() {
+        return width > 0;
+    }
+
+    public boolean hasCamera() {
+        return eye != null;
+    }
+}
@@ -0,0 +1,282 @@
+package cs3318.raytracing.io;
+
+import cs3318.raytracing.model.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a scene in one of the formats described by {@link SceneFormat}, chosen by the
+ * file extension: {@value SceneFormat#BINARY_EXTENSION} for binary, anything else for text.
+ * Reading the file back gives a scene that renders identically.
+ */
+public final class SceneWriter {
+
+    // Text records of each light type
+    private static final String[] KEYWORDS = {"ambient", "directional", "point"};
+
+    private SceneWriter() {}
+
+    /**
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if the scene holds objects or lights that the
+     *                                  format cannot describe
+     */
+    public static void write(Path path, Scene scene, SceneSettings settings) throws IOException {
+        Contents contents = new Contents(scene);
+        if (path.getFileName().toString().endsWith(SceneFormat.BINARY_EXTENSION)) {
+            writeBinary(path, contents, settings);
+        } else {
+            writeText(path, contents, settings);
+        }
+    }
+
+    private static void writeText(Path path, Contents contents, SceneSettings settings) throws IOException {
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(path, StandardCharsets.US_ASCII), 1 << 16)) {
+            out.write("# Ray tracer scene, see cs3318.raytracing.io.SceneFormat\n");
+            if (settings.hasImage()) {
+                out.write("image " + settings.width + " " + settings.height + "\n");
+            }
+            if (settings.background != null) {
+                out.write("background " + settings.background.getRed() + " " + settings.background.getGreen()
+                        + " " + settings.background.getBlue() + "\n");
+            }
+            if (settings.hasCamera()) {
+                out.write("camera " + settings.eye.x + " " + settings.eye.y + " " + settings.eye.z
+                        + "  " + settings.lookat.x + " " + settings.lookat.y + " " + settings.lookat.z
+                        + "  " + settings.up.x + " " + settings.up.y + " " + settings.up.z
+                        + "  " + settings.cameraWidth + " " + settings.cameraHeight + " " + settings.fov + "\n");
+            }
+            for (Light light : contents.lights) {
+                float[] v = lightValues(light);
+                out.write(KEYWORDS[lightType(light)] + " " + v[0] + " " + v[1] + " " + v[2]);
+                if (!(light instanceof AmbientLight)) {
+                    out.write("  " + v[3] + " " + v[4] + " " + v[5]);
+                }
+                out.write("\n");
+            }
+            for (Surface surface : contents.surfaces) {
+                float[] v = surfaceValues(surface);
+                out.write("surface " + v[0] + " " + v[1] + " " + v[2] + "  " + v[3] + " " + v[4] + " " + v[5]
+                        + "  " + v[6] + "  " + v[7] + " " + v[8] + " " + v[9] + "\n");
+            }
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < contents.sphereCount(); i++) {
+                line.setLength(0);
+                line.append("sphere ").append(contents.x(i)).append(' ').append(contents.y(i)).append(' ')
+                        .append(contents.z(i)).append(' ').append(contents.radius(i)).append(' ')
+                        .append(contents.surface(i)).append('\n');
+                out.append(line);
+            }
+        }
+    }
+
+    private static void writeBinary(Path path, Contents contents, SceneSettings settings) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            BinaryOutput out = new BinaryOutput(channel);
+            out.putInt(SceneFormat.MAGIC);
+            out.putInt(SceneFormat.VERSION);
+            int flags = (settings.hasImage() ? SceneFormat.HAS_IMAGE : 0)
+                    | (settings.background != null ? SceneFormat.HAS_BACKGROUND : 0)
+                    | (settings.hasCamera() ? SceneFormat.HAS_CAMERA : 0);
+            out.putInt(flags);
+            if (settings.hasImage()) {
+                out.putInt(settings.width);
+                out.putInt(settings.height);
+            }
+            if (settings.background != null) {
+                out.putInt(settings.background.getRGB() & 0xFFFFFF);
+            }
+            if (settings.hasCamera()) {
+                out.putFloat(settings.eye.x);
+                out.putFloat(settings.eye.y);
+                out.putFloat(settings.eye.z);
+                out.putFloat(settings.lookat.x);
+                out.putFloat(settings.lookat.y);
+                out.putFloat(settings.lookat.z);
+                out.putFloat(settings.up.x);
+                out.putFloat(settings.up.y);
+                out.putFloat(settings.up.z);
+                out.putInt(settings.cameraWidth);
+                out.putInt(settings.cameraHeight);
+                out.putFloat(settings.fov);
+            }
+
+            out.putInt(contents.lights.size());
+            for (Light light : contents.lights) {
+                out.putInt(lightType(light));
+                for (float v : lightValues(light)) {
+                    out.putFloat(v);
+                }
+            }
+            out.putInt(contents.surfaces.size());
+            for (Surface surface : contents.surfaces) {
+                for (float v : surfaceValues(surface)) {
+                    out.putFloat(v);
+                }
+            }
+
+            int n = contents.sphereCount();
+            out.putInt(n);
+            for (int i = 0; i < n; i++) {
+                out.putFloat(contents.x(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.putFloat(contents.y(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.putFloat(contents.z(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.putFloat(contents.radius(i));
+            }
+            for (int i = 0; i < n; i++) {
+                out.putInt(contents.surface(i));
+            }
+            out.flush();
+        }
+    }
+
+    private static int lightType(Light light) {
+        if (light instanceof AmbientLight)
+            return SceneFormat.AMBIENT;
+        if (light instanceof DirectionalLight)
+            return SceneFormat.DIRECTIONAL;
+        if (light instanceof PointLight) {
+            if (((PointLight) light).range != Float.POSITIVE_INFINITY)
+                throw new IllegalArgumentException("Cannot write the range of a point light");
+            return SceneFormat.POINT;
+        }
+        throw new IllegalArgumentException("Cannot write a " + light.getClass().getSimpleName());
+    }
+
+    private static float[] lightValues(Light light) {
+        float[] v = {light.rIntensity, light.gIntensity, light.bIntensity, 0, 0, 0};
+        if (light instanceof DirectionalLight) {
+            DirectionalLight directional = (DirectionalLight) light;
+            v[3] = directional.direction.x;
+            v[4] = directional.direction.y;
+            v[5] = directional.direction.z;
+        } else if (light instanceof PointLight) {
+            PointLight point = (PointLight) light;
+            v[3] = point.lightPoint.x;
+            v[4] = point.lightPoint.y;
+            v[5] = point.lightPoint.z;
+        }
+        return v;
+    }
+
+    private static float[] surfaceValues(Surface s) {
+        PhongModel phong = s.phong;
+        return new float[]{s.rIntrinsic, s.gIntrinsic, s.bIntrinsic,
+                phong.ambientReflectionCoefficient, phong.diffuseReflectionCoefficient,
+                phong.specularReflectionCoefficient, phong.exponent,
+                s.getReflectance(), phong.transmissionCoefficient, phong.index};
+    }
+
+    // The spheres of a scene, packed and standalone, with one table of distinct surfaces
+    private static final class Contents {
+        final List<Light> lights;
+        final List<Surface> surfaces = new ArrayList<>();
+        final SphereSoA packed;
+        final int[] packedSurfaces;     // file surface of each surface in the packed table
+        final List<Sphere> others = new ArrayList<>();
+        final int[] otherSurfaces;
+        private final Map<SurfaceTable.Key, Integer> indices = new HashMap<>();
+
+        Contents(Scene scene) {
+            lights = scene.getLights();
+            // Lights the format cannot describe are refused before the file is opened
+            for (Light light : lights) {
+                lightType(light);
+            }
+            packed = scene.getSpheres();
+            List<Surface> table = packed.getSurfaces();
+            packedSurfaces = new int[table.size()];
+            for (int i = 0; i < table.size(); i++) {
+                packedSurfaces[i] = add(table.get(i));
+            }
+            for (Renderable object : scene.getObjects()) {
+                if (!(object instanceof Sphere))
+                    throw new IllegalArgumentException("Cannot write a " + object.getClass().getSimpleName());
+                others.add((Sphere) object);
+            }
+            otherSurfaces = new int[others.size()];
+            for (int i = 0; i < others.size(); i++) {
+                otherSurfaces[i] = add(others.get(i).getSurface());
+            }
+        }
+
+        private int add(Surface surface) {
+            return indices.computeIfAbsent(new SurfaceTable.Key(surfaceValues(surface)), key -> {
+                surfaces.add(surface);
+                return surfaces.size() - 1;
+            });
+        }
+
+        int sphereCount() {
+            return packed.size() + others.size();
+        }
+
+        float x(int i) {
+            return (i < packed.size()) ? packed.getCenterX(i) : others.get(i - packed.size()).getCenter().x;
+        }
+
+        float y(int i) {
+            return (i < packed.size()) ? packed.getCenterY(i) : others.get(i - packed.size()).getCenter().y;
+        }
+
+        float z(int i) {
+            return (i < packed.size()) ? packed.getCenterZ(i) : others.get(i - packed.size()).getCenter().z;
+        }
+
+        float radius(int i) {
+            return (i < packed.size()) ? packed.getRadius(i) : others.get(i - packed.size()).getRadius();
+        }
+
+        int surface(int i) {
+            return (i < packed.size()) ? packedSurfaces[packed.getSurfaceIndex(i)] : otherSurfaces[i - packed.size()];
+        }
+    }
+
+    private static final class BinaryOutput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        BinaryOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int v) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(v);
+        }
+
+        void putFloat(float v) throws IOException {
+            putInt(Float.floatToRawIntBits(v));
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
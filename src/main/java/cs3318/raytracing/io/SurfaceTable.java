@@ -0,0 +1,72 @@
+package cs3318.raytracing.io;
+
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.Surface;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The surfaces of one scene file, numbered in file order. Records with identical
+ * values share a single Surface in the scene.
+ */
+final class SurfaceTable {
+
+    private final Scene scene;
+    private final Map<Key, Integer> sceneIndices = new HashMap<>();
+    private final Key probe = new Key(null);
+    private int[] map = new int[16];    // scene surface index of each file surface
+    private int count;
+
+    SurfaceTable(Scene scene) {
+        this.scene = scene;
+    }
+
+    // Adds the next file surface from the 10 values of a surface record
+    void add(float[] values) {
+        probe.values = values;
+        Integer index = sceneIndices.get(probe);
+        if (index == null) {
+            float[] v = values.clone();
+            index = scene.addSurface(new Surface(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9]));
+            sceneIndices.put(new Key(v), index);
+        }
+        if (count == map.length) {
+            map = Arrays.copyOf(map, 2 * count);
+        }
+        map[count++] = index;
+    }
+
+    int size() {
+        return count;
+    }
+
+    // Scene surface index of file surface i, or -1 if there is no such surface
+    int get(int i) {
+        return (i >= 0 && i < count) ? map[i] : -1;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(map, count);
+    }
+
+    // Compares the values of surface records
+    static final class Key {
+        float[] values;
+
+        Key(float[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(values, ((Key) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+}
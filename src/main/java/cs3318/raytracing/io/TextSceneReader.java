@@ -0,0 +1,344 @@
+package cs3318.raytracing.io;
+
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the text format through a fixed-size buffer. Fields are parsed straight from
+ * the buffered bytes, so spheres are added to the scene without creating any objects.
+ */
+final class TextSceneReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_TOKEN = 64;
+
+    private static final String[] KEYWORDS = {
+            "image", "background", "camera", "ambient", "directional", "point", "surface", "sphere"
+    };
+    private static final int IMAGE = 0, BACKGROUND = 1, CAMERA = 2, AMBIENT = 3,
+            DIRECTIONAL = 4, POINT = 5, SURFACE = 6, SPHERE = 7;
+    private static final byte[][] KEYWORD_BYTES = new byte[KEYWORDS.length][];
+
+    static {
+        for (int k = 0; k < KEYWORDS.length; k++) {
+            KEYWORD_BYTES[k] = KEYWORDS[k].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    // Powers of ten that doubles hold exactly
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+        }
+    }
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] bytes = buffer.array();
+    private int position, limit;    // unread bytes of the buffer
+    private final byte[] token = new byte[MAX_TOKEN];
+    private int tokenLength;
+    private int line = 1;
+
+    TextSceneReader(ReadableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    SceneSettings read(Scene scene) throws IOException {
+        SceneSettings settings = new SceneSettings();
+        SurfaceTable surfaces = new SurfaceTable(scene);
+        float[] surface = new float[10];
+        while (nextRecord()) {
+            switch (keyword()) {
+                case IMAGE:
+                    settings.width = nextInt();
+                    settings.height = nextInt();
+                    if (settings.width <= 0 || settings.height <= 0)
+                        throw error("image size must be positive");
+                    break;
+                case BACKGROUND:
+                    settings.background = new Color(nextInt(), nextInt(), nextInt());
+                    break;
+                case CAMERA:
+                    settings.eye = new Point3D(nextFloat(), nextFloat(), nextFloat());
+                    settings.lookat = new Vector3D(nextFloat(), nextFloat(), nextFloat());
+                    settings.up = new Vector3D(nextFloat(), nextFloat(), nextFloat());
+                    settings.cameraWidth = nextInt();
+                    settings.cameraHeight = nextInt();
+                    settings.fov = nextFloat();
+                    break;
+                case AMBIENT:
+                    scene.addAmbientLight(nextFloat(), nextFloat(), nextFloat());
+                    break;
+                case DIRECTIONAL:
+                    scene.addDirectionalLight(nextFloat(), nextFloat(), nextFloat(),
+                            new Vector3D(nextFloat(), nextFloat(), nextFloat()));
+                    break;
+                case POINT:
+                    scene.addPointLight(nextFloat(), nextFloat(), nextFloat(),
+                            new Point3D(nextFloat(), nextFloat(), nextFloat()));
+                    break;
+                case SURFACE:
+                    for (int i = 0; i < surface.length; i++) {
+                        surface[i] = nextFloat();
+                    }
+                    surfaces.add(surface);
+                    break;
+                case SPHERE:
+                    float x = nextFloat(), y = nextFloat(), z = nextFloat(), r = nextFloat();
+                    int s = nextInt();
+                    if (surfaces.get(s) < 0)
+                        throw error("no surface " + s);
+                    scene.addSphere(x, y, z, r, surfaces.get(s));
+                    break;
+                default:
+                    throw error("unknown record " + new String(token, 0, tokenLength, StandardCharsets.US_ASCII));
+            }
+            endRecord();
+        }
+        return settings;
+    }
+
+    // Reads the first token of the next record; false at the end of the input
+    private boolean nextRecord() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c < 0)
+                return false;
+            if (c == '\n') {
+                line++;
+                skip();
+            } else if (c == '#') {
+                skipComment();
+            } else if (c == ' ' || c == '\t' || c == '\r') {
+                skip();
+            } else {
+                readToken();
+                return true;
+            }
+        }
+    }
+
+    // Reads the next token of the current record
+    private void nextField() throws IOException {
+        int c = skipBlanks();
+        if (c < 0 || c == '\n' || c == '#')
+            throw error("missing field");
+        readToken();
+    }
+
+    private void endRecord() throws IOException {
+        int c = skipBlanks();
+        if (c == '#') {
+            skipComment();
+        } else if (c >= 0 && c != '\n') {
+            readToken();
+            throw error("unexpected field " + new String(token, 0, tokenLength, StandardCharsets.US_ASCII));
+        }
+    }
+
+    private int skipBlanks() throws IOException {
+        int c = peek();
+        while (c == ' ' || c == '\t' || c == '\r') {
+            skip();
+            c = peek();
+        }
+        return c;
+    }
+
+    private void skipComment() throws IOException {
+        int c = peek();
+        while (c >= 0 && c != '\n') {
+            skip();
+            c = peek();
+        }
+    }
+
+    private void readToken() throws IOException {
+        tokenLength = 0;
+        while (true) {
+            // Copy straight from the buffer, only checking for a refill at its end
+            int end = position;
+            while (end < limit && bytes[end] > ' ' && bytes[end] != '#') {
+                end++;
+            }
+            int length = end - position;
+            if (tokenLength + length > MAX_TOKEN)
+                throw error("field too long");
+            System.arraycopy(bytes, position, token, tokenLength, length);
+            tokenLength += length;
+            position = end;
+            if (end < limit || peek() < 0)
+                return;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (position == limit) {
+            buffer.clear();
+            int n;
+            do {
+                n = channel.read(buffer);
+            } while (n == 0);
+            if (n < 0)
+                return -1;
+            position = 0;
+            limit = n;
+        }
+        return bytes[position] & 0xFF;
+    }
+
+    private void skip() {
+        position++;
+    }
+
+    private int keyword() {
+        for (int k = 0; k < KEYWORD_BYTES.length; k++) {
+            byte[] word = KEYWORD_BYTES[k];
+            if (word.length != tokenLength)
+                continue;
+            int i = 0;
+            while (i < tokenLength && token[i] == word[i]) {
+                i++;
+            }
+            if (i == tokenLength)
+                return k;
+        }
+        return -1;
+    }
+
+    private int nextInt() throws IOException {
+        nextField();
+        int i = 0;
+        boolean negative = token[0] == '-';
+        if (negative || token[0] == '+') {
+            i++;
+        }
+        if (i == tokenLength)
+            throw error("bad integer");
+        long value = 0;
+        for (; i < tokenLength; i++) {
+            int digit = token[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw error("bad integer " + new String(token, 0, tokenLength, StandardCharsets.US_ASCII));
+            value = 10 * value + digit;
+            if (value > Integer.MAX_VALUE + 1L)
+                throw error("integer out of range");
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE)
+            throw error("integer out of range");
+        return (int) value;
+    }
+
+    private float nextFloat() throws IOException {
+        nextField();
+        float value = parseFloat(token, tokenLength);
+        if (Float.isNaN(value) && !isNaN()) {
+            // Let Float.parseFloat report what is wrong with it
+            try {
+                return Float.parseFloat(new String(token, 0, tokenLength, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw error("bad number " + e.getMessage());
+            }
+        }
+        return value;
+    }
+
+    private boolean isNaN() {
+        return tokenLength == 3 && token[0] == 'N' && token[1] == 'a' && token[2] == 'N';
+    }
+
+    /**
+     * Parses a decimal number, giving the same result as Float.parseFloat. Numbers with
+     * at most 15 significant digits and a small exponent are computed with one correctly
+     * rounded double operation; anything else, and the rare double that lies exactly
+     * halfway between two floats, falls back to Float.parseFloat. Returns NaN for a
+     * malformed number.
+     */
+    static float parseFloat(byte[] b, int length) {
+        int i = 0;
+        boolean negative = false;
+        if (i < length && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        for (; i < length && b[i] >= '0' && b[i] <= '9'; i++) {
+            any = true;
+            if (digits < 18) {
+                mantissa = 10 * mantissa + (b[i] - '0');
+                if (mantissa > 0)
+                    digits++;
+            } else {
+                exponent++;
+            }
+        }
+        if (i < length && b[i] == '.') {
+            for (i++; i < length && b[i] >= '0' && b[i] <= '9'; i++) {
+                any = true;
+                if (digits < 18) {
+                    mantissa = 10 * mantissa + (b[i] - '0');
+                    if (mantissa > 0)
+                        digits++;
+                    exponent--;
+                }
+            }
+        }
+        if (!any)
+            return fallback(b, length);
+        if (i < length && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < length && (b[i] == '-' || b[i] == '+')) {
+                negativeExponent = b[i] == '-';
+                i++;
+            }
+            if (i == length)
+                return Float.NaN;
+            int e = 0;
+            for (; i < length && b[i] >= '0' && b[i] <= '9'; i++) {
+                e = Math.min(10 * e + (b[i] - '0'), 100000);
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i != length)
+            return fallback(b, length);
+        if (mantissa == 0)
+            return negative ? -0f : 0f;
+        if (digits > 15 || exponent < -22 || exponent > 22)
+            return fallback(b, length);
+
+        double value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        // Rounding the double to a float again is only wrong when it sits exactly halfway
+        long bits = Double.doubleToRawLongBits(value);
+        if ((bits & 0x1FFFFFFFL) == 0x10000000L || value < Float.MIN_NORMAL || value > Float.MAX_VALUE)
+            return fallback(b, length);
+        return negative ? (float) -value : (float) value;
+    }
+
+    private static float fallback(byte[] b, int length) {
+        try {
+            return Float.parseFloat(new String(b, 0, length, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    private IOException error(String message) {
+        return new IOException("Line " + line + ": " + message);
+    }
+}
@@ -0,0 +1,615 @@
+package cs3318.raytracing.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy over the objects of a scene, built with a binned
+ * surface area heuristic (SAH).
+ * <p>
+ * The tree is flattened in depth-first order into primitive arrays: the left child
+ * of a node is stored directly after it and the node records the index of its right
+ * child. Leaves record a contiguous range of primitives, which are stored in leaf order.
+ * <p>
+ * A hierarchy is built over arbitrary renderables, over a {@link SphereSoA} or over the
+ * triangles of a {@link TriangleMesh}. Spheres are copied into leaf order so that each
+ * leaf is a contiguous run that can be intersected in one batch; triangles are reordered
+ * within their mesh for the same reason.
+ */
+public class BVH {
+    private static final int BIN_COUNT = 16;
+    private static final int MAX_LEAF_SIZE = 8;
+    private static final float TRAVERSAL_COST = 1;   // relative to one intersection test
+
+    // 6 floats per node: minX, minY, minZ, maxX, maxY, maxZ
+    float[] nodeBounds;
+    // 2 ints per node: a leaf stores its first primitive and primitive count,
+    // an interior node stores its right child and a count of 0
+    int[] nodeInfo;
+    private int nodeCount;
+    private int depth;
+
+    private final int maxLeafSize;
+    private final float intersectionCost;   // relative to one scalar intersection test
+
+    private final int primitiveCount;
+    int[] primitiveIds;                 // position of each primitive in the list or store it was built from
+    private final Renderable[] primitives;
+    private final SphereSoA source;
+    private final SphereSoA spheres;    // copy of source in leaf order
+    private final TriangleMesh triangles;
+
+    // Only used while building
+    private float[] primBounds;
+    private float[] centroids;
+    private final int[] binCounts = new int[BIN_COUNT];
+    private final float[] binBounds = new float[BIN_COUNT * 6];
+    private final float[] rightAreas = new float[BIN_COUNT];
+    private final int[] rightCounts = new int[BIN_COUNT];
+
+    public BVH(List<Renderable> objects) {
+        int n = objects.size();
+        primitiveCount = n;
+        maxLeafSize = MAX_LEAF_SIZE;
+        intersectionCost = 1;
+        primitiveIds = new int[n];
+        primBounds = new float[n * 6];
+        for (int i = 0; i < n; i++) {
+            setBounds(primBounds, i, objects.get(i).getBounds());
+        }
+        build(n);
+
+        primitives = new Renderable[n];
+        for (int i = 0; i < n; i++) {
+            primitives[i] = objects.get(primitiveIds[i]);
+        }
+        source = null;
+        spheres = null;
+        triangles = null;
+    }
+
+    public BVH(SphereSoA source) {
+        int n = source.size();
+        primitiveCount = n;
+        // A leaf of up to one vector's worth of spheres costs about as much as one scalar test
+        maxLeafSize = Math.max(MAX_LEAF_SIZE, SphereSoA.BATCH_SIZE);
+        intersectionCost = 1f / SphereSoA.BATCH_SIZE;
+        primitiveIds = new int[n];
+        primBounds = new float[n * 6];
+        for (int i = 0; i < n; i++) {
+            source.bounds(i, primBounds, 6 * i);
+        }
+        build(n);
+        padLeaves(SphereSoA.BATCH_SIZE);
+
+        primitives = null;
+        this.source = source;
+        spheres = source.permute(primitiveIds);
+        triangles = null;
+    }
+
+    // Builds the hierarchy of a mesh and reorders the mesh's triangles into leaf order
+    BVH(TriangleMesh mesh) {
+        int n = mesh.size();
+        primitiveCount = n;
+        maxLeafSize = MAX_LEAF_SIZE;
+        intersectionCost = 1;
+        primitiveIds = new int[n];
+        primBounds = new float[n * 6];
+        for (int i = 0; i < n; i++) {
+            mesh.bounds(i, primBounds, 6 * i);
+        }
+        build(n);
+        mesh.reorder(primitiveIds);
+
+        primitives = null;
+        source = null;
+        spheres = null;
+        triangles = mesh;
+    }
+
+    // A hierarchy over source with a shape built earlier, as read back by BVHCache; spheres
+    // are source's in leaf order, and the node bounds are computed from them
+    BVH(SphereSoA source, SphereSoA spheres, int[] nodeInfo, int[] primitiveIds, int depth) {
+        primitiveCount = source.size();
+        maxLeafSize = Math.max(MAX_LEAF_SIZE, SphereSoA.BATCH_SIZE);
+        intersectionCost = 1f / SphereSoA.BATCH_SIZE;
+        this.nodeInfo = nodeInfo;
+        this.nodeCount = nodeInfo.length / 2;
+        this.nodeBounds = new float[6 * nodeCount];
+        this.primitiveIds = primitiveIds;
+        this.depth = depth;
+
+        primitives = null;
+        this.source = source;
+        this.spheres = spheres;
+        triangles = null;
+        refitBounds();
+    }
+
+    // Moves every leaf to start on a multiple of batch, leaving empty slots (id -1) between
+    // leaves, so that leaves can be tested in whole vectors without masked loads
+    private void padLeaves(int batch) {
+        int slots = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            slots += roundUp(nodeInfo[2 * node + 1], batch);
+        }
+        int[] padded = new int[slots];
+        Arrays.fill(padded, -1);
+        int next = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            int count = nodeInfo[2 * node + 1];
+            if (count > 0) {
+                System.arraycopy(primitiveIds, nodeInfo[2 * node], padded, next, count);
+                nodeInfo[2 * node] = next;
+                next += roundUp(count, batch);
+            }
+        }
+        primitiveIds = padded;
+    }
+
+    private static int roundUp(int count, int batch) {
+        return (count + batch - 1) / batch * batch;
+    }
+
+    private void build(int n) {
+        centroids = new float[n * 3];
+        for (int i = 0; i < n; i++) {
+            centroids[3 * i] = 0.5f * (primBounds[6 * i] + primBounds[6 * i + 3]);
+            centroids[3 * i + 1] = 0.5f * (primBounds[6 * i + 1] + primBounds[6 * i + 4]);
+            centroids[3 * i + 2] = 0.5f * (primBounds[6 * i + 2] + primBounds[6 * i + 5]);
+            primitiveIds[i] = i;
+        }
+
+        // A tree whose leaves hold at least one primitive has at most 2n - 1 nodes
+        int maxNodes = Math.max(1, 2 * n - 1);
+        nodeBounds = new float[maxNodes * 6];
+        nodeInfo = new int[maxNodes * 2];
+        if (n > 0) {
+            build(0, n, 1);
+        } else {
+            // An empty scene gets a single empty leaf that no ray can enter
+            nodeCount = 1;
+            setBounds(nodeBounds, 0, new BoundingBox());
+        }
+        nodeBounds = Arrays.copyOf(nodeBounds, nodeCount * 6);
+        nodeInfo = Arrays.copyOf(nodeInfo, nodeCount * 2);
+        primBounds = null;
+        centroids = null;
+    }
+
+    public int size() {
+        return primitiveCount;
+    }
+
+    public int getMaxLeafSize() {
+        return maxLeafSize;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public BoundingBox getBounds() {
+        return new BoundingBox(nodeBounds[0], nodeBounds[1], nodeBounds[2], nodeBounds[3], nodeBounds[4], nodeBounds[5]);
+    }
+
+    // The spheres in leaf order for a hierarchy over a SphereSoA, the only kind
+    // BVHCache can store, or null
+    SphereSoA getLeafSpheres() {
+        return spheres;
+    }
+
+    // Build parameters that change the shape of the tree built over a SphereSoA
+    static int[] sphereBuildParameters() {
+        return new int[] {BIN_COUNT, MAX_LEAF_SIZE, SphereSoA.BATCH_SIZE};
+    }
+
+    private int build(int start, int end, int level) {
+        int node = nodeCount++;
+        depth = Math.max(depth, level);
+
+        setEmpty(nodeBounds, node);
+        float cMinX = Float.POSITIVE_INFINITY, cMinY = Float.POSITIVE_INFINITY, cMinZ = Float.POSITIVE_INFINITY;
+        float cMaxX = Float.NEGATIVE_INFINITY, cMaxY = Float.NEGATIVE_INFINITY, cMaxZ = Float.NEGATIVE_INFINITY;
+        for (int i = start; i < end; i++) {
+            int id = primitiveIds[i];
+            grow(nodeBounds, node, primBounds, id);
+            cMinX = Math.min(cMinX, centroids[3 * id]);
+            cMinY = Math.min(cMinY, centroids[3 * id + 1]);
+            cMinZ = Math.min(cMinZ, centroids[3 * id + 2]);
+            cMaxX = Math.max(cMaxX, centroids[3 * id]);
+            cMaxY = Math.max(cMaxY, centroids[3 * id + 1]);
+            cMaxZ = Math.max(cMaxZ, centroids[3 * id + 2]);
+        }
+
+        int count = end - start;
+        if (count == 1) {
+            makeLeaf(node, start, count);
+            return node;
+        }
+
+        // Find the cheapest bin boundary over all three axes
+        float[] cMin = {cMinX, cMinY, cMinZ};
+        float[] cExtent = {cMaxX - cMinX, cMaxY - cMinY, cMaxZ - cMinZ};
+        float bestCost = Float.POSITIVE_INFINITY;
+        int bestAxis = -1;
+        int bestBin = -1;
+        for (int axis = 0; axis < 3; axis++) {
+            if (cExtent[axis] <= 0)
+                continue;
+            binPrimitives(start, end, axis, cMin[axis], cExtent[axis]);
+
+            float[] acc = emptyBox();
+            int accCount = 0;
+            for (int b = BIN_COUNT - 1; b > 0; b--) {
+                growBox(acc, binBounds, b);
+                accCount += binCounts[b];
+                rightAreas[b] = area(acc, 0);
+                rightCounts[b] = accCount;
+            }
+            acc = emptyBox();
+            accCount = 0;
+            for (int b = 0; b < BIN_COUNT - 1; b++) {
+                growBox(acc, binBounds, b);
+                accCount += binCounts[b];
+                if (accCount == 0 || rightCounts[b + 1] == 0)
+                    continue;
+                float cost = area(acc, 0) * accCount + rightAreas[b + 1] * rightCounts[b + 1];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestBin = b;
+                }
+            }
+        }
+
+        int mid;
+        if (bestAxis < 0) {
+            // All centroids coincide, so any split is as good as another
+            if (count <= maxLeafSize) {
+                makeLeaf(node, start, count);
+                return node;
+            }
+            mid = (start + end) >>> 1;
+        } else {
+            float nodeArea = area(nodeBounds, node);
+            float splitCost = TRAVERSAL_COST + (nodeArea > 0 ? intersectionCost * bestCost / nodeArea : 0);
+            if (count <= maxLeafSize && splitCost >= intersectionCost * count) {
+                makeLeaf(node, start, count);
+                return node;
+            }
+            mid = partition(start, end, bestAxis, cMin[bestAxis], cExtent[bestAxis], bestBin);
+        }
+
+        build(start, mid, level + 1);
+        int right = build(mid, end, level + 1);
+        nodeInfo[2 * node] = right;
+        nodeInfo[2 * node + 1] = 0;
+        return node;
+    }
+
+    private void binPrimitives(int start, int end, int axis, float min, float extent) {
+        Arrays.fill(binCounts, 0);
+        for (int b = 0; b < BIN_COUNT; b++) {
+            setEmpty(binBounds, b);
+        }
+        for (int i = start; i < end; i++) {
+            int id = primitiveIds[i];
+            int b = binIndex(centroids[3 * id + axis], min, extent);
+            binCounts[b]++;
+            grow(binBounds, b, primBounds, id);
+        }
+    }
+
+    private int partition(int start, int end, int axis, float min, float extent, int splitBin) {
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+            if (binIndex(centroids[3 * primitiveIds[i] + axis], min, extent) <= splitBin) {
+                i++;
+            } else {
+                int tmp = primitiveIds[i];
+                primitiveIds[i] = primitiveIds[j];
+                primitiveIds[j--] = tmp;
+            }
+        }
+        return i;
+    }
+
+    private static int binIndex(float c, float min, float extent) {
+        int b = (int) (BIN_COUNT * ((c - min) / extent));
+        return Math.min(b, BIN_COUNT - 1);
+    }
+
+    private void makeLeaf(int node, int first, int count) {
+        nodeInfo[2 * node] = first;
+        nodeInfo[2 * node + 1] = count;
+    }
+
+    /**
+     * Finds the closest intersection along the ray no further than maxDistance and writes
+     * it into hit, leaving hit untouched if there is none. When several objects are hit at
+     * exactly the same distance, the one added last wins, as with {@link Ray#trace(List)}.
+     * <p>
+     * A mesh hierarchy works in the mesh's own space, so only the distance, the triangle
+     * and its barycentric coordinates are written; the mesh's instance fills in the rest.
+     */
+    public boolean intersect(Ray ray, float maxDistance, Intersection hit, TraceContext context) {
+        float ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        float ix = inverse(ray.direction.x), iy = inverse(ray.direction.y), iz = inverse(ray.direction.z);
+
+        float best = maxDistance;
+        int bestPrim = -1;
+        // Triangle and barycentrics of the best hit on a renderable made of triangles
+        int element = -1;
+        float u = 0, v = 0;
+        context.reserveStack(depth + 1);
+        context.reserveDistances(roundUp(maxLeafSize, SphereSoA.BATCH_SIZE));
+        int[] stack = context.nodeStack;
+        float[] stackT = context.entryStack;
+        float[] distances = context.distances;
+        int sp = 0;
+
+        int node = 0;
+        float entry = enter(0, ox, oy, oz, ix, iy, iz, best);
+        context.boxTests++;
+        if (entry == Float.POSITIVE_INFINITY)
+            return false;
+        int tests = 0, boxes = 0;
+        while (true) {
+            int count = nodeInfo[2 * node + 1];
+            if (count > 0) {
+                int first = nodeInfo[2 * node];
+                tests += count;
+                if (spheres != null) {
+                    // The whole leaf is tested against the same distance, so hits beyond
+                    // one found earlier in the leaf have to be rejected here
+                    spheres.intersect(first, first + count, ray, best, distances);
+                    for (int k = first; k < first + count; k++) {
+                        float t = distances[k - first];
+                        if (t != Renderable.MISS && t <= best
+                                && (t < best || bestPrim < 0 || primitiveIds[k] > primitiveIds[bestPrim])) {
+                            best = t;
+                            bestPrim = k;
+                        }
+                    }
+                } else if (triangles != null) {
+                    for (int k = first; k < first + count; k++) {
+                        float t = triangles.intersect(k, ray, best);
+                        if (t != Renderable.MISS && (t < best || bestPrim < 0 || primitiveIds[k] > primitiveIds[bestPrim])) {
+                            best = t;
+                            bestPrim = k;
+                        }
+                    }
+                } else {
+                    Intersection candidate = context.candidate;
+                    for (int k = first; k < first + count; k++) {
+                        candidate.element = -1;
+                        float t = primitives[k].intersect(ray, best, candidate, context);
+                        if (t != Renderable.MISS && (t < best || bestPrim < 0 || primitiveIds[k] > primitiveIds[bestPrim])) {
+                            best = t;
+                            bestPrim = k;
+                            element = candidate.element;
+                            u = candidate.u;
+                            v = candidate.v;
+                        }
+                    }
+                }
+            } else {
+                int left = node + 1;
+                int right = nodeInfo[2 * node];
+                float tLeft = enter(left, ox, oy, oz, ix, iy, iz, best);
+                float tRight = enter(right, ox, oy, oz, ix, iy, iz, best);
+                boxes += 2;
+                if (tLeft <= tRight) {
+                    if (tLeft != Float.POSITIVE_INFINITY) {
+                        if (tRight != Float.POSITIVE_INFINITY) {
+                            stack[sp] = right;
+                            stackT[sp++] = tRight;
+                        }
+                        node = left;
+                        continue;
+                    }
+                } else {
+                    if (tLeft != Float.POSITIVE_INFINITY) {
+                        stack[sp] = left;
+                        stackT[sp++] = tLeft;
+                    }
+                    node = right;
+                    continue;
+                }
+            }
+
+            // Pop the next subtree that may still hold a closer hit
+            node = -1;
+            while (sp > 0) {
+                sp--;
+                if (stackT[sp] <= best) {
+                    node = stack[sp];
+                    break;
+                }
+            }
+            if (node < 0)
+                break;
+        }
+        context.intersectionTests += tests;
+        context.boxTests += boxes;
+
+        if (bestPrim < 0)
+            return false;
+        if (spheres != null) {
+            hit.set(ray, spheres, bestPrim, primitiveIds[bestPrim], best);
+        } else if (triangles != null) {
+            hit.distance = best;
+            hit.element = bestPrim;
+            triangles.barycentrics(bestPrim, ray, hit);
+        } else {
+            hit.set(ray, primitives[bestPrim], best, element, u, v).primitive = primitiveIds[bestPrim];
+        }
+        return true;
+    }
+
+    /**
+     * Tests whether any object blocks the ray closer than maxDistance. Traversal stops
+     * at the first blocker found, which need not be the closest one.
+     */
+    public boolean occluded(Ray ray, float maxDistance, TraceContext context) {
+        float ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        float ix = inverse(ray.direction.x), iy = inverse(ray.direction.y), iz = inverse(ray.direction.z);
+
+        context.reserveStack(depth + 1);
+        int[] stack = context.nodeStack;
+        int sp = 0;
+        context.boxTests++;
+        if (enter(0, ox, oy, oz, ix, iy, iz, maxDistance) == Float.POSITIVE_INFINITY)
+            return false;
+        stack[sp++] = 0;
+        int tests = 0, boxes = 0;
+        boolean found = false;
+        while (sp > 0 && !found) {
+            int node = stack[--sp];
+            int count = nodeInfo[2 * node + 1];
+            if (count > 0) {
+                int first = nodeInfo[2 * node];
+                tests += count;
+                if (spheres != null) {
+                    found = spheres.occludes(first, first + count, ray, maxDistance);
+                } else if (triangles != null) {
+                    for (int k = first; k < first + count && !found; k++) {
+                        found = triangles.intersect(k, ray, maxDistance) != Renderable.MISS;
+                    }
+                } else {
+                    for (int k = first; k < first + count && !found; k++) {
+                        found = primitives[k].occludes(ray, maxDistance, context);
+                    }
+                }
+            } else {
+                int left = node + 1;
+                int right = nodeInfo[2 * node];
+                boxes += 2;
+                if (enter(right, ox, oy, oz, ix, iy, iz, maxDistance) != Float.POSITIVE_INFINITY)
+                    stack[sp++] = right;
+                if (enter(left, ox, oy, oz, ix, iy, iz, maxDistance) != Float.POSITIVE_INFINITY)
+                    stack[sp++] = left;
+            }
+        }
+        context.intersectionTests += tests;
+        context.boxTests += boxes;
+        return found;
+    }
+
+    // Distance at which the ray enters the node's box, or infinity if it misses it before maxT
+    private float enter(int node, float ox, float oy, float oz, float ix, float iy, float iz, float maxT) {
+        int o = 6 * node;
+        float t1 = (nodeBounds[o] - ox) * ix;
+        float t2 = (nodeBounds[o + 3] - ox) * ix;
+        float tMin = Math.min(t1, t2);
+        float tMax = Math.max(t1, t2);
+        t1 = (nodeBounds[o + 1] - oy) * iy;
+        t2 = (nodeBounds[o + 4] - oy) * iy;
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+        t1 = (nodeBounds[o + 2] - oz) * iz;
+        t2 = (nodeBounds[o + 5] - oz) * iz;
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+
+        tMin = Math.max(tMin, 0);
+        tMax = Math.min(tMax, maxT);
+        return (tMin <= tMax) ? tMin : Float.POSITIVE_INFINITY;
+    }
+
+    // Avoids 0 * infinity in the slab test for axis-parallel rays
+    private static float inverse(float d) {
+        return (d != 0) ? 1 / d : 1e30f;
+    }
+
+    /**
+     * Recomputes all node bounds from the current bounds of the objects, keeping the
+     * tree topology. Use after objects have moved; when objects are added the
+     * hierarchy has to be rebuilt instead.
+     */
+    public void refit() {
+        if (spheres != null) {
+            spheres.copyFrom(source, primitiveIds);
+        }
+        refitBounds();
+    }
+
+    private void refitBounds() {
+        float[] b = new float[6];
+        // Children always come after their parent, so a reverse sweep sees them first
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            int count = nodeInfo[2 * node + 1];
+            setEmpty(nodeBounds, node);
+            if (count > 0) {
+                int first = nodeInfo[2 * node];
+                for (int k = first; k < first + count; k++) {
+                    if (spheres != null) {
+                        spheres.bounds(k, b, 0);
+                    } else if (triangles != null) {
+                        triangles.bounds(k, b, 0);
+                    } else {
+                        setBounds(b, 0, primitives[k].getBounds());
+                    }
+                    grow(nodeBounds, node, b, 0);
+                }
+            } else if (primitiveCount > 0) {
+                grow(nodeBounds, node, nodeBounds, node + 1);
+                grow(nodeBounds, node, nodeBounds, nodeInfo[2 * node]);
+            }
+        }
+    }
+
+    private static void setBounds(float[] dst, int i, BoundingBox b) {
+        int o = 6 * i;
+        dst[o] = b.minX;
+        dst[o + 1] = b.minY;
+        dst[o + 2] = b.minZ;
+        dst[o + 3] = b.maxX;
+        dst[o + 4] = b.maxY;
+        dst[o + 5] = b.maxZ;
+    }
+
+    private static void setEmpty(float[] dst, int i) {
+        int o = 6 * i;
+        dst[o] = dst[o + 1] = dst[o + 2] = Float.POSITIVE_INFINITY;
+        dst[o + 3] = dst[o + 4] = dst[o + 5] = Float.NEGATIVE_INFINITY;
+    }
+
+    private static float[] emptyBox() {
+        float[] box = new float[6];
+        setEmpty(box, 0);
+        return box;
+    }
+
+    private static void growBox(float[] box, float[] src, int j) {
+        grow(box, 0, src, j);
+    }
+
+    private static void grow(float[] dst, int i, float[] src, int j) {
+        int o = 6 * i;
+        int p = 6 * j;
+        dst[o] = Math.min(dst[o], src[p]);
+        dst[o + 1] = Math.min(dst[o + 1], src[p + 1]);
+        dst[o + 2] = Math.min(dst[o + 2], src[p + 2]);
+        dst[o + 3] = Math.max(dst[o + 3], src[p + 3]);
+        dst[o + 4] = Math.max(dst[o + 4], src[p + 4]);
+        dst[o + 5] = Math.max(dst[o + 5], src[p + 5]);
+    }
+
+    private static float area(float[] box, int i) {
+        int o = 6 * i;
+        float dx = box[o + 3] - box[o];
+        float dy = box[o + 4] - box[o + 1];
+        float dz = box[o + 5] - box[o + 2];
+        if (dx < 0 || dy < 0 || dz < 0)
+            return 0;
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+}
@@ -0,0 +1,234 @@
+package cs3318.raytracing.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A directory of sphere hierarchies saved by a previous run, so that a scene that has
+ * been rendered before does not have to be rebuilt.
+ * <p>
+ * Each file is named after a 64-bit hash of the sphere centers and radii together with
+ * the parameters that shape the tree, and holds the shape of the flattened tree as
+ * {@link BVH} keeps it in memory, little-endian:
+ * <pre>
+ * int   magic 'RTBV', version
+ * long  key
+ * int   sphere count, node count, depth, primitive slot count
+ * int   2 infos per node
+ * int   sphere index per primitive slot, -1 for padding
+ * </pre>
+ * Only the shape is read back. The spheres in leaf order are gathered from the scene
+ * through the slots' sphere indices, and the node bounds recomputed from them, both in
+ * one pass over the slots, so a file left by another scene whose key collides can at
+ * worst make a slow tree, never one that renders the wrong geometry. Files are mapped
+ * read-only and each array is copied out of the mapping in one bulk transfer, and are
+ * written to a temporary name and then renamed, so a reader never sees a partial file.
+ * <p>
+ * Any file that is missing, truncated or does not fit the scene is ignored and the
+ * hierarchy is built and saved again.
+ */
+public class BVHCache {
+
+    public static final String EXTENSION = ".bvh";
+
+    private static final int MAGIC = 'R' | 'T' << 8 | 'B' << 16 | 'V' << 24;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+
+    private final Path directory;
+
+    public BVHCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // The saved hierarchy over the spheres, or a new one that is saved for next time
+    public BVH get(SphereSoA spheres) {
+        long key = key(spheres);
+        Path file = directory.resolve(String.format("%016x", key) + EXTENSION);
+        try {
+            BVH bvh = load(file, key, spheres);
+            if (bvh != null)
+                return bvh;
+        } catch (NoSuchFileException e) {
+            // Not cached yet
+        } catch (IOException e) {
+            System.err.println("Error reading acceleration cache: " + e.getMessage());
+        }
+
+        BVH bvh = new BVH(spheres);
+        try {
+            store(file, key, bvh);
+        } catch (IOException e) {
+            System.err.println("Error writing acceleration cache: " + e.getMessage());
+        }
+        return bvh;
+    }
+
+    /**
+     * Hash of everything the shape of a sphere hierarchy depends on: the centers and
+     * radii of the spheres, the build parameters and the file version. Surfaces are left
+     * out, so recolouring a scene keeps its hierarchy.
+     */
+    public static long key(SphereSoA spheres) {
+        int n = spheres.size();
+        long h = mix(VERSION, n);
+        for (int parameter : BVH.sphereBuildParameters()) {
+            h = mix(h, parameter);
+        }
+        // Four independent chains, one per column, so the multiplies can overlap
+        long x = h ^ 1, y = h ^ 2, z = h ^ 3, r = h ^ 4;
+        for (int i = 0; i < n; i++) {
+            x = mix(x, Float.floatToRawIntBits(spheres.centerX[i]));
+            y = mix(y, Float.floatToRawIntBits(spheres.centerY[i]));
+            z = mix(z, Float.floatToRawIntBits(spheres.centerZ[i]));
+            r = mix(r, Float.floatToRawIntBits(spheres.radius[i]));
+        }
+        return finish(mix(mix(mix(finish(x), (int) finish(y)), (int) finish(z)), (int) finish(r)));
+    }
+
+    private static long mix(long h, int value) {
+        return (h ^ (value & 0xffffffffL)) * 0x9e3779b97f4a7c15L;
+    }
+
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static BVH load(Path file, long key, SphereSoA spheres) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE)
+                return null;
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt() != MAGIC || map.getInt() != VERSION || map.getLong() != key)
+                return null;
+            int n = map.getInt();
+            int nodeCount = map.getInt();
+            int depth = map.getInt();
+            int slots = map.getInt();
+            if (n != spheres.size() || nodeCount < 1 || slots < n
+                    || size != HEADER_SIZE + 4L * (2L * nodeCount + slots))
+                return null;
+
+            int[] nodeInfo = new int[2 * nodeCount];
+            int[] primitiveIds = new int[slots];
+            map.asIntBuffer().get(nodeInfo);
+            map.position(map.position() + 4 * nodeInfo.length);
+            map.asIntBuffer().get(primitiveIds);
+
+            if (!isValid(nodeInfo, primitiveIds, n, depth))
+                return null;
+            return new BVH(spheres, spheres.permute(primitiveIds), nodeInfo, primitiveIds, depth);
+        }
+    }
+
+    // A colliding key or a damaged file must not send traversal out of bounds, nor
+    // leave out or repeat a sphere
+    private static boolean isValid(int[] nodeInfo, int[] primitiveIds, int n, int depth) {
+        boolean[] seen = new boolean[n];
+        int count = 0;
+        for (int id : primitiveIds) {
+            if (id < -1 || id >= n)
+                return false;
+            if (id >= 0) {
+                if (seen[id])
+                    return false;
+                seen[id] = true;
+                count++;
+            }
+        }
+        if (count != n)
+            return false;
+
+        // Walk the tree from the root, marking the slots each leaf covers. Children come
+        // after their parent and no node may be reached twice, so the walk always ends.
+        int nodeCount = nodeInfo.length / 2;
+        boolean[] reached = new boolean[nodeCount];
+        boolean[] covered = new boolean[primitiveIds.length];
+        int[] stack = new int[nodeCount];
+        int[] levels = new int[nodeCount];
+        int top = 0;
+        stack[top] = 0;
+        levels[top++] = 1;
+        while (top > 0) {
+            int node = stack[--top];
+            int level = levels[top];
+            if (reached[node] || level > depth)
+                return false;
+            reached[node] = true;
+            int first = nodeInfo[2 * node];
+            int size = nodeInfo[2 * node + 1];
+            if (size > 0) {
+                if (first < 0 || first > primitiveIds.length - size)
+                    return false;
+                for (int slot = first; slot < first + size; slot++) {
+                    if (covered[slot])
+                        return false;
+                    covered[slot] = true;
+                }
+            } else if (size < 0 || first <= node + 1 || first >= nodeCount) {
+                return false;
+            } else {
+                stack[top] = first;
+                levels[top++] = level + 1;
+                stack[top] = node + 1;
+                levels[top++] = level + 1;
+            }
+        }
+        // Every sphere must sit in a slot some leaf reaches, or it could never be hit
+        for (int slot = 0; slot < primitiveIds.length; slot++) {
+            if (primitiveIds[slot] >= 0 && !covered[slot])
+                return false;
+        }
+        return true;
+    }
+
+    private void store(Path file, long key, BVH bvh) throws IOException {
+        if (bvh.getLeafSpheres() == null)
+            throw new IllegalArgumentException("Only sphere hierarchies can be cached");
+        int nodeCount = bvh.getNodeCount();
+        int slots = bvh.primitiveIds.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * (2 * nodeCount + slots))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(key)
+                .putInt(bvh.size()).putInt(nodeCount).putInt(bvh.getDepth()).putInt(slots);
+        buffer.asIntBuffer().put(bvh.nodeInfo, 0, 2 * nodeCount);
+        buffer.position(buffer.position() + 8 * nodeCount);
+        buffer.asIntBuffer().put(bvh.primitiveIds);
+        buffer.position(0);
+
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package cs3318.raytracing.model;
+
+public class BoundingBox {
+    public float minX, minY, minZ;
+    public float maxX, maxY, maxZ;
+
+    public BoundingBox() {
+        minX = minY = minZ = Float.POSITIVE_INFINITY;
+        maxX = maxY = maxZ = Float.NEGATIVE_INFINITY;
+    }
+
+    public BoundingBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        this.minX = minX; this.minY = minY; this.minZ = minZ;
+        this.maxX = maxX; this.maxY = maxY; this.maxZ = maxZ;
+    }
+
+    public void include(BoundingBox b) {
+        minX = Math.min(minX, b.minX); minY = Math.min(minY, b.minY); minZ = Math.min(minZ, b.minZ);
+        maxX = Math.max(maxX, b.maxX); maxY = Math.max(maxY, b.maxY); maxZ = Math.max(maxZ, b.maxZ);
+    }
+
+    public float surfaceArea() {
+        float dx = maxX - minX;
+        float dy = maxY - minY;
+        float dz = maxZ - minZ;
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    public String toString() {
+        return ("box [" + minX + ", " + minY + ", " + minZ + "] [" + maxX + ", " + maxY + ", " + maxZ + "]");
+    }
+}
@@ -10,6 +10,7 @@ public class Camera {
     public Vector3D Du, Dv, Vp;
     private float fov;
     private int width, height;
+    private int version;    // changes whenever the view does
 
     public Camera() {}
 
@@ -23,6 +24,30 @@ public class Camera {
         computeVectors();
     }
 
+    public Point3D getEye() {
+        return eye;
+    }
+
+    public Vector3D getLookat() {
+        return lookat;
+    }
+
+    public Vector3D getUp() {
+        return up;
+    }
+
+    public float getFOV() {
+        return fov;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
     public void setEye(Point3D eye) {
         this.eye = eye;
         computeVectors();
@@ -49,7 +74,12 @@ public class Camera {
         computeVectors();
     }
 
+    public int getVersion() {
+        return version;
+    }
+
     private void computeVectors() {
+        version++;
         // Compute viewing matrix that maps a
         // screen coordinate to a ray direction
         Vector3D look = new Vector3D(lookat.x - eye.x, lookat.y - eye.y, lookat.z - eye.z);
@@ -63,10 +93,46 @@ public class Camera {
     }
 
     public Vector3D calculateDirection(int i, int j) {
+        return calculateDirection((float) i, (float) j);
+    }
+
+    // Direction through a sub-pixel position; pixel (i, j) covers [i, i + 1) x [j, j + 1)
+    public Vector3D calculateDirection(float u, float v) {
         return new Vector3D(
-                i * Du.x + j * Dv.x + Vp.x,
-                i * Du.y + j * Dv.y + Vp.y,
-                i * Du.z + j * Dv.z + Vp.z);
+                u * Du.x + v * Dv.x + Vp.x,
+                u * Du.y + v * Dv.y + Vp.y,
+                u * Du.z + v * Dv.z + Vp.z);
+    }
+
+    // Writes the image position (u, v) the point appears at into uv, inverting calculateRay,
+    // and returns the point's distance in front of the eye along the view direction; uv is
+    // only written when that distance is positive
+    public float project(float x, float y, float z, float[] uv) {
+        // Vp points at the image's corner, so this is the view direction scaled by the focal length
+        float wx = Vp.x + 0.5f * (width * Du.x + height * Dv.x);
+        float wy = Vp.y + 0.5f * (width * Du.y + height * Dv.y);
+        float wz = Vp.z + 0.5f * (width * Du.z + height * Dv.z);
+        float dx = x - eye.x, dy = y - eye.y, dz = z - eye.z;
+        float along = dx * wx + dy * wy + dz * wz;
+        float focal2 = wx * wx + wy * wy + wz * wz;
+        if (along > 0) {
+            float scale = focal2 / along;
+            uv[0] = (dx * Du.x + dy * Du.y + dz * Du.z) * scale + 0.5f * width;
+            uv[1] = (dx * Dv.x + dy * Dv.y + dz * Dv.z) * scale + 0.5f * height;
+        }
+        return along / (float) Math.sqrt(focal2);
+    }
+
+    // Points the ray from the eye through pixel (i, j) without allocating
+    public void calculateRay(int i, int j, Ray ray) {
+        calculateRay((float) i, (float) j, ray);
+    }
+
+    public void calculateRay(float u, float v, Ray ray) {
+        ray.set(eye.x, eye.y, eye.z,
+                u * Du.x + v * Dv.x + Vp.x,
+                u * Du.y + v * Dv.y + Vp.y,
+                u * Du.z + v * Dv.z + Vp.z);
     }
 
 }
@@ -6,9 +6,11 @@ import cs3318.raytracing.utils.Vector3D;
 public class DirectionalLight extends Light{
 
     public Vector3D lightVector;
+    public final Vector3D direction;    // as given, since normalizing again may not give lightVector
 
     public DirectionalLight(float r, float g, float b, Vector3D direction) {
         super(r, g, b);
+        this.direction = new Vector3D(direction);
         lightVector = direction;
         lightVector.normalize();
     }
@@ -17,6 +19,12 @@ public class DirectionalLight extends Light{
         return new Vector3D(-lightVector.x, -lightVector.y, -lightVector.z);
     }
 
+    public void calculateLightVector(Point3D p, Vector3D l) {
+        l.x = -lightVector.x;
+        l.y = -lightVector.y;
+        l.z = -lightVector.z;
+    }
+
 }
 
 
@@ -5,38 +5,81 @@ import cs3318.raytracing.utils.Vector3D;
 
 public class Intersection {
 
-    public Renderable object;
-    public Point3D point;
-    public Vector3D unitVecToRay;
-    public Vector3D surfaceNormal;
+    public Renderable object;        // null for spheres held in a SphereSoA
+    public Surface surface;
+    public int primitive;            // index of the hit object in the store or list it came from
+    public int element = -1;         // triangle hit within a mesh, -1 for other objects
+    public float u, v;               // barycentric coordinates of the hit within that triangle
+    public final Point3D point = new Point3D();
+    public final Vector3D unitVecToRay = new Vector3D();
+    public final Vector3D surfaceNormal = new Vector3D();
+    public float distance;
+
+    public Intersection() {}
 
     Intersection(Ray ray, Renderable object, float intersectionDistance) {
+        set(ray, object, intersectionDistance);
+    }
+
+    // Reuses this record for a new hit
+    public Intersection set(Ray ray, Renderable object, float intersectionDistance) {
+        return set(ray, object, intersectionDistance, -1, 0, 0);
+    }
+
+    // Reuses this record for a hit on the given triangle of an object made of triangles
+    public Intersection set(Ray ray, Renderable object, float intersectionDistance, int element, float u, float v) {
         this.object = object;
-        point = calculateIntersectionPoint(intersectionDistance, ray);
-        unitVecToRay = ray.unitToOrigin();
-        surfaceNormal = object.surfaceNormal(point);
+        surface = object.getSurface();
+        primitive = -1;
+        this.element = element;
+        this.u = u;
+        this.v = v;
+        setPoint(ray, intersectionDistance);
+        object.surfaceNormal(this, surfaceNormal);
+        return this;
     }
 
-    private Point3D calculateIntersectionPoint(float intersectionDistance, Ray ray) {
-        float px = ray.origin.x + intersectionDistance * ray.direction.x;
-        float py = ray.origin.y + intersectionDistance * ray.direction.y;
-        float pz = ray.origin.z + intersectionDistance * ray.direction.z;
+    // Reuses this record for a hit on sphere index of a packed store
+    public Intersection set(Ray ray, SphereSoA spheres, int index, int primitive, float intersectionDistance) {
+        object = null;
+        surface = spheres.getSurface(index);
+        this.primitive = primitive;
+        element = -1;
+        setPoint(ray, intersectionDistance);
+        spheres.surfaceNormal(index, point, surfaceNormal);
+        return this;
+    }
 
-        return new Point3D(px, py, pz);
+    private void setPoint(Ray ray, float intersectionDistance) {
+        distance = intersectionDistance;
+        point.x = ray.origin.x + intersectionDistance * ray.direction.x;
+        point.y = ray.origin.y + intersectionDistance * ray.direction.y;
+        point.z = ray.origin.z + intersectionDistance * ray.direction.z;
+        unitVecToRay.x = -ray.direction.x;
+        unitVecToRay.y = -ray.direction.y;
+        unitVecToRay.z = -ray.direction.z;
     }
 
     public Vector3D calculateReflect() {
+        Vector3D reflect = new Vector3D();
+        return calculateReflect(reflect) ? reflect : null;
+    }
+
+    // Writes the mirror direction into reflect; false if the ray hit the back of the surface
+    public boolean calculateReflect(Vector3D reflect) {
         float t = unitVecToRay.dot(surfaceNormal);
         if (t > 0) {
             t *= 2;
-            return new Vector3D(t * surfaceNormal.x - unitVecToRay.x, t * surfaceNormal.y - unitVecToRay.y,
-                    t * surfaceNormal.z - unitVecToRay.z);
+            reflect.x = t * surfaceNormal.x - unitVecToRay.x;
+            reflect.y = t * surfaceNormal.y - unitVecToRay.y;
+            reflect.z = t * surfaceNormal.z - unitVecToRay.z;
+            return true;
         }
-        return null;
+        return false;
     }
 
     @Override
     public String toString() {
-        return point.toString() + object.toString();
+        return point.toString() + ((object != null) ? object.toString() : "sphere " + primitive);
     }
 }
@@ -14,6 +14,15 @@ public abstract class Light {
     }
 
     public Vector3D calculateLightVector (Point3D point) {return null;}
+
+    // Writes the unit vector from the point towards the light into lightVector
+    public void calculateLightVector (Point3D point, Vector3D lightVector) {}
+
+    // Distance from the point to the light, used to limit shadow rays
+    public float calculateDistance (Point3D point) {return Ray.MAX_T;}
+
+    // Fraction of the intensity that reaches the point, 0 where the light has no effect
+    public float calculateFalloff (Point3D point) {return 1;}
 }
 
 
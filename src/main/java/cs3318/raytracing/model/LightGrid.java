@@ -0,0 +1,172 @@
+package cs3318.raytracing.model;
+
+import cs3318.raytracing.utils.Point3D;
+
+import java.util.List;
+
+/**
+ * A uniform grid over the spheres of influence of the point lights that have a range,
+ * so that shading a point only looks at the lights that can reach it.
+ * <p>
+ * Lights without a range (ambient and directional lights, and point lights left at an
+ * infinite range) reach everywhere and are kept in a list of their own. Every other
+ * light is listed in each cell its sphere of influence overlaps, so a cell's list holds
+ * every ranged light that may light a point inside it, and a point outside the grid is
+ * reached by no ranged light at all. Lists are packed into one array, each in the order
+ * the lights were added, and cells are cubes sized to hold a few lights each.
+ */
+public final class LightGrid {
+
+    // Cells per ranged light the grid aims for, and most cells along any axis
+    private static final int CELLS_PER_LIGHT = 4;
+    private static final int MAX_RESOLUTION = 64;
+
+    private final int[] globalLights;     // lights without a range, in order
+    private final float minX, minY, minZ;
+    private final float inverseCell;      // cells per unit length
+    private final int nx, ny, nz;
+    private final int[] cellStart;        // start of each cell's list in cellLights, then the end
+    private final int[] cellLights;
+
+    public LightGrid(List<Light> lights) {
+        int ranged = 0;
+        for (Light light : lights) {
+            if (isRanged(light)) {
+                ranged++;
+            }
+        }
+        globalLights = new int[lights.size() - ranged];
+        float x0 = Float.POSITIVE_INFINITY, y0 = x0, z0 = x0;
+        float x1 = Float.NEGATIVE_INFINITY, y1 = x1, z1 = x1;
+        for (int l = 0, g = 0; l < lights.size(); l++) {
+            Light light = lights.get(l);
+            if (!isRanged(light)) {
+                globalLights[g++] = l;
+                continue;
+            }
+            Point3D p = ((PointLight) light).lightPoint;
+            float r = ((PointLight) light).range;
+            x0 = Math.min(x0, p.x - r);
+            y0 = Math.min(y0, p.y - r);
+            z0 = Math.min(z0, p.z - r);
+            x1 = Math.max(x1, p.x + r);
+            y1 = Math.max(y1, p.y + r);
+            z1 = Math.max(z1, p.z + r);
+        }
+        if (ranged == 0) {
+            minX = minY = minZ = inverseCell = 0;
+            nx = ny = nz = 0;
+            cellStart = new int[1];
+            cellLights = new int[0];
+            return;
+        }
+
+        float dx = x1 - x0, dy = y1 - y0, dz = z1 - z0;
+        float extent = Math.max(dx, Math.max(dy, dz));
+        float cell = Math.max((float) Math.cbrt((double) dx * dy * dz / (CELLS_PER_LIGHT * ranged)),
+                extent / MAX_RESOLUTION);
+        minX = x0;
+        minY = y0;
+        minZ = z0;
+        inverseCell = 1 / cell;
+        nx = resolution(dx);
+        ny = resolution(dy);
+        nz = resolution(dz);
+
+        // Count each cell's lights, then fill the lists in a second identical sweep
+        cellStart = new int[nx * ny * nz + 1];
+        sweep(lights, cellStart, null);
+        for (int c = 0; c < nx * ny * nz; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellLights = new int[cellStart[nx * ny * nz]];
+        sweep(lights, cellStart.clone(), cellLights);
+    }
+
+    // Adds each ranged light to the cells it overlaps: one to the count after each cell's
+    // entry in next when lists is null, else its number at the cell's next free slot
+    private void sweep(List<Light> lights, int[] next, int[] lists) {
+        for (int l = 0; l < lights.size(); l++) {
+            Light light = lights.get(l);
+            if (!isRanged(light))
+                continue;
+            Point3D p = ((PointLight) light).lightPoint;
+            float r = ((PointLight) light).range;
+            int i0 = clamp(p.x - r - minX, nx), i1 = clamp(p.x + r - minX, nx);
+            int j0 = clamp(p.y - r - minY, ny), j1 = clamp(p.y + r - minY, ny);
+            int k0 = clamp(p.z - r - minZ, nz), k1 = clamp(p.z + r - minZ, nz);
+            for (int k = k0; k <= k1; k++) {
+                for (int j = j0; j <= j1; j++) {
+                    for (int i = i0; i <= i1; i++) {
+                        if (!overlaps(p, r, i, j, k))
+                            continue;
+                        int c = (k * ny + j) * nx + i;
+                        if (lists == null) {
+                            next[c + 1]++;
+                        } else {
+                            lists[next[c]++] = l;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isRanged(Light light) {
+        return light instanceof PointLight && ((PointLight) light).range != Float.POSITIVE_INFINITY;
+    }
+
+    private int resolution(float extent) {
+        // The cell size keeps this to MAX_RESOLUTION, or one more through rounding
+        return Math.max((int) Math.ceil(extent * inverseCell), 1);
+    }
+
+    private int clamp(float offset, int cells) {
+        return Math.min(Math.max((int) (offset * inverseCell), 0), cells - 1);
+    }
+
+    // Whether the sphere reaches into cell (i, j, k), with a little to spare so that rounding
+    // in cellOf cannot leave out a light that reaches a point near the cell's faces
+    private boolean overlaps(Point3D p, float r, int i, int j, int k) {
+        float cell = 1 / inverseCell;
+        float dx = Math.max(Math.max(minX + i * cell - p.x, p.x - (minX + (i + 1) * cell)), 0);
+        float dy = Math.max(Math.max(minY + j * cell - p.y, p.y - (minY + (j + 1) * cell)), 0);
+        float dz = Math.max(Math.max(minZ + k * cell - p.z, p.z - (minZ + (k + 1) * cell)), 0);
+        return dx * dx + dy * dy + dz * dz <= 1.0001f * r * r;
+    }
+
+    public int getGlobalCount() {
+        return globalLights.length;
+    }
+
+    // Number of the given light without a range
+    public int getGlobalLight(int i) {
+        return globalLights[i];
+    }
+
+    // The cell holding the point, or -1 if no ranged light reaches it
+    public int cellOf(Point3D p) {
+        if (nx == 0)
+            return -1;
+        float x = (p.x - minX) * inverseCell, y = (p.y - minY) * inverseCell, z = (p.z - minZ) * inverseCell;
+        if (!(x >= 0 && y >= 0 && z >= 0))
+            return -1;
+        int i = (int) x, j = (int) y, k = (int) z;
+        if (i >= nx || j >= ny || k >= nz)
+            return -1;
+        return (k * ny + j) * nx + i;
+    }
+
+    // The cell's lights are getCellLight(i) for i from cellStart(cell) up to cellEnd(cell)
+    public int cellStart(int cell) {
+        return cellStart[cell];
+    }
+
+    public int cellEnd(int cell) {
+        return cellStart[cell + 1];
+    }
+
+    public int getCellLight(int i) {
+        return cellLights[i];
+    }
+}
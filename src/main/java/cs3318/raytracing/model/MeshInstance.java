@@ -0,0 +1,182 @@
+package cs3318.raytracing.model;
+
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+
+/**
+ * A {@link TriangleMesh} placed in the scene by an affine transform, with its own surface.
+ * <p>
+ * Rays are moved into the mesh's space rather than the mesh into the world, so instances
+ * share the mesh's vertices and hierarchy. The ray's direction is transformed without
+ * being normalized, which keeps distances along it the same in both spaces. The scene's
+ * hierarchy over its other objects serves as the top level above the instances.
+ */
+public class MeshInstance implements Renderable {
+
+    private final TriangleMesh mesh;
+    private final Surface surface;
+    // Rows of the 3x4 matrices from mesh to world space and back
+    private final float[] toWorld;
+    private final float[] toMesh;
+    // Scratch space for callers that do not pass a context of their own
+    private static final ThreadLocal<TraceContext> contexts = ThreadLocal.withInitial(TraceContext::new);
+
+    /**
+     * @param transform The 12 entries of the 3x4 matrix from mesh to world space, row by row
+     */
+    public MeshInstance(TriangleMesh mesh, Surface surface, float[] transform) {
+        if (transform.length != 12)
+            throw new IllegalArgumentException("Expected a 3x4 matrix");
+        this.mesh = mesh;
+        this.surface = surface;
+        toWorld = transform.clone();
+        toMesh = invert(toWorld);
+    }
+
+    // Matrix that scales by scale, turns by yRotation degrees about the y axis, then moves by (x, y, z)
+    public static float[] transform(float x, float y, float z, float scale, float yRotation) {
+        float cos = (float) Math.cos(Math.toRadians(yRotation)) * scale;
+        float sin = (float) Math.sin(Math.toRadians(yRotation)) * scale;
+        return new float[] {
+                cos, 0, sin, x,
+                0, scale, 0, y,
+                -sin, 0, cos, z
+        };
+    }
+
+    private static float[] invert(float[] m) {
+        // Inverse of the 3x3 part by cofactors, then the translation moved back through it
+        float c00 = m[5] * m[10] - m[6] * m[9];
+        float c01 = m[6] * m[8] - m[4] * m[10];
+        float c02 = m[4] * m[9] - m[5] * m[8];
+        float det = m[0] * c00 + m[1] * c01 + m[2] * c02;
+        if (det == 0)
+            throw new IllegalArgumentException("Transform cannot be inverted");
+        float inv = 1 / det;
+        float[] r = new float[12];
+        r[0] = c00 * inv;
+        r[1] = (m[2] * m[9] - m[1] * m[10]) * inv;
+        r[2] = (m[1] * m[6] - m[2] * m[5]) * inv;
+        r[4] = c01 * inv;
+        r[5] = (m[0] * m[10] - m[2] * m[8]) * inv;
+        r[6] = (m[2] * m[4] - m[0] * m[6]) * inv;
+        r[8] = c02 * inv;
+        r[9] = (m[1] * m[8] - m[0] * m[9]) * inv;
+        r[10] = (m[0] * m[5] - m[1] * m[4]) * inv;
+        for (int row = 0; row < 3; row++) {
+            int o = 4 * row;
+            r[o + 3] = -(r[o] * m[3] + r[o + 1] * m[7] + r[o + 2] * m[11]);
+        }
+        return r;
+    }
+
+    public TriangleMesh getMesh() {
+        return mesh;
+    }
+
+    public float[] getTransform() {
+        return toWorld.clone();
+    }
+
+    // Writes the ray moved into the mesh's space into local
+    private void toMesh(Ray ray, Ray local) {
+        float[] m = toMesh;
+        float ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        float dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+        local.origin.x = m[0] * ox + m[1] * oy + m[2] * oz + m[3];
+        local.origin.y = m[4] * ox + m[5] * oy + m[6] * oz + m[7];
+        local.origin.z = m[8] * ox + m[9] * oy + m[10] * oz + m[11];
+        local.direction.x = m[0] * dx + m[1] * dy + m[2] * dz;
+        local.direction.y = m[4] * dx + m[5] * dy + m[6] * dz;
+        local.direction.z = m[8] * dx + m[9] * dy + m[10] * dz;
+    }
+
+    public float intersect(Ray ray, float intersectDistance) {
+        TraceContext context = contexts.get();
+        return intersect(ray, intersectDistance, context.candidate, context);
+    }
+
+    public float intersect(Ray ray, float intersectDistance, Intersection hit, TraceContext context) {
+        TraceContext nested = context.nested();
+        Ray local = context.localRay;
+        toMesh(ray, local);
+        boolean found = mesh.getBVH().intersect(local, intersectDistance, hit, nested);
+        context.collectNested();
+        return found ? hit.distance : MISS;
+    }
+
+    public boolean occludes(Ray ray, float maxDistance) {
+        return occludes(ray, maxDistance, contexts.get());
+    }
+
+    public boolean occludes(Ray ray, float maxDistance, TraceContext context) {
+        TraceContext nested = context.nested();
+        Ray local = context.localRay;
+        toMesh(ray, local);
+        boolean found = mesh.getBVH().occluded(local, maxDistance, nested);
+        context.collectNested();
+        return found;
+    }
+
+    public void surfaceNormal(Intersection hit, Vector3D n) {
+        if (hit.element < 0) {
+            surfaceNormal(hit.point, n);
+            return;
+        }
+        // As with spheres the normal points out of the mesh, whichever side the ray hit, so
+        // a ray that ends up inside a closed mesh is not reflected around in there forever
+        mesh.normal(hit.element, hit.u, hit.v, n);
+        toWorldNormal(n);
+    }
+
+    // Searches the whole mesh for the triangle under the point; prefer the method above
+    public void surfaceNormal(Point3D point, Vector3D n) {
+        float[] m = toMesh;
+        float x = m[0] * point.x + m[1] * point.y + m[2] * point.z + m[3];
+        float y = m[4] * point.x + m[5] * point.y + m[6] * point.z + m[7];
+        float z = m[8] * point.x + m[9] * point.y + m[10] * point.z + m[11];
+        mesh.normal(mesh.closestTriangle(x, y, z), 1f / 3, 1f / 3, n);
+        toWorldNormal(n);
+    }
+
+    // Normals move by the transpose of the inverse matrix
+    private void toWorldNormal(Vector3D n) {
+        float[] m = toMesh;
+        float x = n.x, y = n.y, z = n.z;
+        n.x = m[0] * x + m[4] * y + m[8] * z;
+        n.y = m[1] * x + m[5] * y + m[9] * z;
+        n.z = m[2] * x + m[6] * y + m[10] * z;
+        n.normalize();
+    }
+
+    public Surface getSurface() {
+        return surface;
+    }
+
+    public BoundingBox getBounds() {
+        BoundingBox world = new BoundingBox();
+        if (mesh.size() == 0)
+            return world;
+        BoundingBox b = mesh.getBounds();
+        float[] m = toWorld;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = (corner & 1) == 0 ? b.minX : b.maxX;
+            float y = (corner & 2) == 0 ? b.minY : b.maxY;
+            float z = (corner & 4) == 0 ? b.minZ : b.maxZ;
+            float wx = m[0] * x + m[1] * y + m[2] * z + m[3];
+            float wy = m[4] * x + m[5] * y + m[6] * z + m[7];
+            float wz = m[8] * x + m[9] * y + m[10] * z + m[11];
+            world.include(new BoundingBox(wx, wy, wz, wx, wy, wz));
+        }
+        // Pad as spheres do, since the corners were rounded on the way
+        float pad = Sphere.BOUNDS_EPSILON * (world.maxX - world.minX + world.maxY - world.minY + world.maxZ - world.minZ
+                + Math.abs(world.minX) + Math.abs(world.minY) + Math.abs(world.minZ)
+                + Math.abs(world.maxX) + Math.abs(world.maxY) + Math.abs(world.maxZ));
+        return new BoundingBox(world.minX - pad, world.minY - pad, world.minZ - pad,
+                world.maxX + pad, world.maxY + pad, world.maxZ + pad);
+    }
+
+    public String toString() {
+        return "instance of " + mesh;
+    }
+}
@@ -6,6 +6,8 @@ import cs3318.raytracing.utils.Vector3D;
 public class PointLight extends Light {
 
     public Point3D lightPoint;
+    // Distance at which the light has faded to nothing; infinite lights every point at full strength
+    public float range = Float.POSITIVE_INFINITY;
 
     public PointLight(float r, float g, float b, Point3D point) {
         super(r, g, b);
@@ -13,11 +15,39 @@ public class PointLight extends Light {
     }
 
     public Vector3D calculateLightVector(Point3D p) {
-        Vector3D l = new Vector3D(lightPoint.x - p.x, lightPoint.y - p.y, lightPoint.z - p.z);
-        l.normalize();
+        Vector3D l = new Vector3D();
+        calculateLightVector(p, l);
         return l;
     }
 
+    public void calculateLightVector(Point3D p, Vector3D l) {
+        l.x = lightPoint.x - p.x;
+        l.y = lightPoint.y - p.y;
+        l.z = lightPoint.z - p.z;
+        l.normalize();
+    }
+
+    public float calculateDistance(Point3D p) {
+        float dx = lightPoint.x - p.x;
+        float dy = lightPoint.y - p.y;
+        float dz = lightPoint.z - p.z;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    // Full strength at the light, fading smoothly to 0 at its range as (1 - (d / range)^4)^2
+    public float calculateFalloff(Point3D p) {
+        if (range == Float.POSITIVE_INFINITY)
+            return 1;
+        float dx = lightPoint.x - p.x;
+        float dy = lightPoint.y - p.y;
+        float dz = lightPoint.z - p.z;
+        float x = (dx * dx + dy * dy + dz * dz) / (range * range);
+        if (x >= 1)
+            return 0;
+        float window = 1 - x * x;
+        return window * window;
+    }
+
 }
 
 
@@ -7,32 +7,63 @@ import java.util.List;
 
 public class Ray {
     public static final float MAX_T = Float.MAX_VALUE;
-    public Point3D origin;
-    public Vector3D direction;
+    public final Point3D origin = new Point3D();
+    public final Vector3D direction = new Vector3D();
+
+    public Ray() {}
 
     public Ray(Point3D eye, Vector3D dir) {
-        origin = new Point3D(eye);
-        direction = Vector3D.normalize(dir);
+        set(eye.x, eye.y, eye.z, dir.x, dir.y, dir.z);
+    }
+
+    // Reuses this ray for a new origin and direction; the direction is normalized
+    public Ray set(float ox, float oy, float oz, float dx, float dy, float dz) {
+        origin.x = ox;
+        origin.y = oy;
+        origin.z = oz;
+        direction.x = dx;
+        direction.y = dy;
+        direction.z = dz;
+        direction.normalize();
+        return this;
     }
 
     public Intersection trace(List<Renderable> objects) {
         float intersectDistance = MAX_T;
         Renderable intersectObject = null;
+        Intersection candidate = new Intersection();
+        TraceContext context = new TraceContext();
+        int element = -1;
+        float u = 0, v = 0;
         for (Renderable object : objects) {
-            Float t = object.intersect(this, intersectDistance);
-            if (t != null){
+            candidate.element = -1;
+            float t = object.intersect(this, intersectDistance, candidate, context);
+            if (t != Renderable.MISS){
                 intersectDistance = Math.min(t, intersectDistance);
                 intersectObject = object;
+                element = candidate.element;
+                u = candidate.u;
+                v = candidate.v;
             }
         }
         Intersection intersection = null;
         if (intersectObject != null){
-            intersection = new Intersection(this, intersectObject, intersectDistance);
+            intersection = new Intersection().set(this, intersectObject, intersectDistance, element, u, v);
         }
 
         return intersection;
     }
 
+    public Intersection trace(Scene scene) {
+        Intersection hit = new Intersection();
+        return trace(scene, hit, new TraceContext()) ? hit : null;
+    }
+
+    // Fills hit with the closest intersection, without allocating
+    public boolean trace(Scene scene, Intersection hit, TraceContext context) {
+        return scene.intersect(this, hit, context);
+    }
+
     public Vector3D unitToOrigin(){
         return new Vector3D(-direction.x, -direction.y, -direction.z);
     }
@@ -41,5 +72,3 @@ public class Ray {
         return ("ray origin = "+origin+"  direction = "+direction);
     }
 }
-
-
@@ -0,0 +1,58 @@
+package cs3318.raytracing.model;
+
+import java.util.Arrays;
+
+/**
+ * Secondary rays waiting to be traced for the pixel being shaded. Each entry holds the
+ * ray, its bounce depth and the weight its colour carries into the pixel. Entries are
+ * kept in parallel primitive arrays, so pushing and popping never allocates once the
+ * stack has grown to the deepest pixel's needs.
+ */
+public class RayStack {
+
+    private static final int FLOATS = 9;    // origin, direction, weight
+
+    private float[] entries = new float[FLOATS * 16];
+    private int[] depths = new int[16];
+    private int size;
+
+    public RayStack() {}
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void push(float ox, float oy, float oz, float dx, float dy, float dz,
+                     float weightR, float weightG, float weightB, int depth) {
+        if (size == depths.length) {
+            depths = Arrays.copyOf(depths, 2 * size);
+            entries = Arrays.copyOf(entries, FLOATS * 2 * size);
+        }
+        int o = FLOATS * size;
+        entries[o] = ox;
+        entries[o + 1] = oy;
+        entries[o + 2] = oz;
+        entries[o + 3] = dx;
+        entries[o + 4] = dy;
+        entries[o + 5] = dz;
+        entries[o + 6] = weightR;
+        entries[o + 7] = weightG;
+        entries[o + 8] = weightB;
+        depths[size++] = depth;
+    }
+
+    // Removes the top entry, writing its ray into ray and its weight into weight[0..2],
+    // and returns its depth
+    public int pop(Ray ray, float[] weight) {
+        int o = FLOATS * --size;
+        ray.set(entries[o], entries[o + 1], entries[o + 2], entries[o + 3], entries[o + 4], entries[o + 5]);
+        weight[0] = entries[o + 6];
+        weight[1] = entries[o + 7];
+        weight[2] = entries[o + 8];
+        return depths[size];
+    }
+}
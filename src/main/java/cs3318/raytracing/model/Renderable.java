@@ -3,9 +3,34 @@ package cs3318.raytracing.model;
 import cs3318.raytracing.utils.*;
 
 public interface Renderable {
-    Float intersect(Ray r, float intersectDistance);
+    float MISS = -1;    // returned by intersect when there is no hit within the given distance
+
+    float intersect(Ray r, float intersectDistance);
+    boolean occludes(Ray r, float maxDistance);
     String toString();
-    Vector3D surfaceNormal(Point3D intersectionPoint);
+    void surfaceNormal(Point3D intersectionPoint, Vector3D normal);
     Surface getSurface();
+    BoundingBox getBounds();
+
+    // As intersect, but objects made of triangles also write the triangle hit and its
+    // barycentric coordinates into hit.element, hit.u and hit.v, using context for scratch space
+    default float intersect(Ray r, float intersectDistance, Intersection hit, TraceContext context) {
+        return intersect(r, intersectDistance);
+    }
+
+    default boolean occludes(Ray r, float maxDistance, TraceContext context) {
+        return occludes(r, maxDistance);
+    }
+
+    // Normal at a hit recorded by the method above, which saves searching for the triangle
+    default void surfaceNormal(Intersection hit, Vector3D normal) {
+        surfaceNormal(hit.point, normal);
+    }
+
+    default Vector3D surfaceNormal(Point3D intersectionPoint) {
+        Vector3D n = new Vector3D();
+        surfaceNormal(intersectionPoint, n);
+        return n;
+    }
 }
 
@@ -1,5 +1,7 @@
 package cs3318.raytracing.model;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -7,10 +9,17 @@ import cs3318.raytracing.utils.*;
 
 public class Scene {
     final static int CHUNKSIZE = 100;  // Max array size
-    List<Renderable> objectList;
+    final SphereSoA spheres;            // every sphere added through addSphere
+    List<Renderable> objectList;        // any other renderables
     List<Light> lightList;
+    private volatile BVH bvh;
+    private volatile BVH objectBVH;
+    private volatile BVHCache cache;
+    private volatile int geometryVersion;   // changes whenever an object is added or moved
+    private volatile LightGrid lightGrid;
 
     public Scene (){
+        spheres = new SphereSoA(CHUNKSIZE);
         objectList = new ArrayList<>(CHUNKSIZE);
         lightList = new ArrayList<>(CHUNKSIZE);
     }
@@ -19,27 +28,186 @@ public class Scene {
         return lightList;
     }
 
+    public int getGeometryVersion() {
+        return geometryVersion;
+    }
+
+    // The spheres added through addSphere, packed for the intersection kernels
+    public SphereSoA getSpheres() {
+        return spheres;
+    }
+
+    // The renderables added through addObject, as the live list; spheres are in getSpheres
     public List<Renderable> getObjects() {
         return objectList;
     }
 
+    // Where sphere hierarchies are saved and looked up, or null to always build them
+    public void setCache(BVHCache cache) {
+        this.cache = cache;
+    }
+
+    public BVHCache getCache() {
+        return cache;
+    }
+
+    // The hierarchy over the spheres is built, or read from the cache, on first use
+    // after spheres have been added
+    public BVH getBVH() {
+        BVH b = bvh;
+        if (b == null || b.size() != spheres.size()) {
+            synchronized (this) {
+                b = bvh;
+                if (b == null || b.size() != spheres.size()) {
+                    BVHCache c = cache;
+                    b = (c != null && spheres.size() > 0) ? c.get(spheres) : new BVH(spheres);
+                    bvh = b;
+                }
+            }
+        }
+        return b;
+    }
+
+    private BVH getObjectBVH() {
+        BVH b = objectBVH;
+        if (b == null || b.size() != objectList.size()) {
+            synchronized (this) {
+                b = objectBVH;
+                if (b == null || b.size() != objectList.size()) {
+                    b = new BVH(objectList);
+                    objectBVH = b;
+                }
+            }
+        }
+        return b;
+    }
+
+    // Bounds of every object in the scene, empty if there are none
+    public BoundingBox getBounds() {
+        BoundingBox bounds = new BoundingBox();
+        if (spheres.size() > 0) {
+            bounds.include(getBVH().getBounds());
+        }
+        if (!objectList.isEmpty()) {
+            bounds.include(getObjectBVH().getBounds());
+        }
+        return bounds;
+    }
+
+    // Finds the closest hit on any object; other renderables win exact ties with spheres
+    public boolean intersect(Ray ray, Intersection hit, TraceContext context) {
+        boolean found = getBVH().intersect(ray, Ray.MAX_T, hit, context);
+        if (!objectList.isEmpty()) {
+            found |= getObjectBVH().intersect(ray, found ? hit.distance : Ray.MAX_T, hit, context);
+        }
+        return found;
+    }
+
+    // Any-hit query: true if some object lies along the ray closer than maxDistance
+    public boolean occluded(Ray ray, float maxDistance) {
+        return occluded(ray, maxDistance, new TraceContext());
+    }
+
+    public boolean occluded(Ray ray, float maxDistance, TraceContext context) {
+        if (getBVH().occluded(ray, maxDistance, context))
+            return true;
+        return !objectList.isEmpty() && getObjectBVH().occluded(ray, maxDistance, context);
+    }
+
+    public synchronized void rebuild() {
+        geometryVersion++;
+        bvh = new BVH(spheres);
+        objectBVH = objectList.isEmpty() ? null : new BVH(objectList);
+    }
+
+    // Updates the hierarchies after objects have moved without adding or removing any
+    public void refit() {
+        geometryVersion++;
+        BVH b = bvh;
+        if (b != null) {
+            b.refit();
+        }
+        b = objectBVH;
+        if (b != null) {
+            b.refit();
+        }
+    }
+
     public void addSphere(Point3D center, float radius, Surface surface){
-        Sphere sphere = new Sphere(center, radius, surface);
-        objectList.add(sphere);
+        spheres.add(center, radius, surface);
+        bvh = null;
+        geometryVersion++;
+    }
+
+    // Adds a surface to the sphere store's table and returns its index for addSphere
+    public int addSurface(Surface surface) {
+        return spheres.addSurface(surface);
+    }
+
+    public void addSphere(float x, float y, float z, float radius, int surface) {
+        spheres.add(x, y, z, radius, surface);
+        bvh = null;
+        geometryVersion++;
+    }
+
+    // Bulk insert, as SphereSoA.addAll
+    public void addSpheres(FloatBuffer x, FloatBuffer y, FloatBuffer z, FloatBuffer radius, IntBuffer surface,
+                           int count, int[] surfaceMap) {
+        spheres.addAll(x, y, z, radius, surface, count, surfaceMap);
+        bvh = null;
+        geometryVersion++;
+    }
+
+    public void addObject(Renderable object) {
+        objectList.add(object);
+        objectBVH = null;
+        geometryVersion++;
     }
 
     public void addAmbientLight(float r, float g, float b) {
         AmbientLight ambientLight = new AmbientLight(r, g, b);
         lightList.add(ambientLight);
+        lightGrid = null;
     }
 
     public void addDirectionalLight(float r, float g, float b, Vector3D direction) {
         DirectionalLight directionalLight = new DirectionalLight(r, g, b, direction);
         lightList.add(directionalLight);
+        lightGrid = null;
     }
 
     public void addPointLight(float r, float g, float b, Point3D point) {
         PointLight pointLight = new PointLight(r, g, b, point);
         lightList.add(pointLight);
+        lightGrid = null;
+    }
+
+    // Limits the point light's reach to the given distance, or lifts the limit if it is infinite
+    public void setLightRange(int light, float range) {
+        if (!(lightList.get(light) instanceof PointLight))
+            throw new IllegalArgumentException("Light " + light + " is not a point light");
+        if (!(range > 0))
+            throw new IllegalArgumentException("Range must be positive: " + range);
+        ((PointLight) lightList.get(light)).range = range;
+        lightGrid = null;
+    }
+
+    // The grid over the lights' ranges is built on first use after lights have been added
+    // or their ranges changed; lights moved in place need lightsMoved to be called
+    public LightGrid getLightGrid() {
+        LightGrid g = lightGrid;
+        if (g == null) {
+            synchronized (this) {
+                g = lightGrid;
+                if (g == null) {
+                    lightGrid = g = new LightGrid(lightList);
+                }
+            }
+        }
+        return g;
+    }
+
+    public void lightsMoved() {
+        lightGrid = null;
     }
 }
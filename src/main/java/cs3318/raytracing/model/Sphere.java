@@ -4,6 +4,7 @@ import cs3318.raytracing.utils.Point3D;
 import cs3318.raytracing.utils.Vector3D;
 
 public class Sphere implements Renderable {
+    static final float BOUNDS_EPSILON = 1e-5f;
     public Surface surface;
     Point3D center;
     float radius;
@@ -16,7 +17,15 @@ public class Sphere implements Renderable {
         radSqr = r * r;
     }
 
-    public Float intersect(Ray ray, float intersectDistance) {
+    public Point3D getCenter() {
+        return center;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    public float intersect(Ray ray, float intersectDistance) {
         float dx = center.x - ray.origin.x;
         float dy = center.y - ray.origin.y;
         float dz = center.z - ray.origin.z;
@@ -25,27 +34,51 @@ public class Sphere implements Renderable {
         // Do the following quick check to see if there is even a chance
         // that an intersection here might be closer than a previous one
         if (v - radius > intersectDistance)
-            return null;
+            return MISS;
 
         // Test if the ray actually intersects the sphere
         float t = radSqr + v * v - dx * dx - dy * dy - dz * dz;
         if (t < 0)
-            return null;
+            return MISS;
 
         // Test if the intersection is in the positive
         // ray direction, and it is the closest so far
         t = v - ((float) Math.sqrt(t));
         if ((t > intersectDistance) || (t < 0))
-            return null;
+            return MISS;
 
         return t;
     }
 
-    public Vector3D surfaceNormal(Point3D intersectionPoint) {
-        Vector3D n = new Vector3D(intersectionPoint.x - center.x, intersectionPoint.y - center.y,
-                intersectionPoint.z - center.z);
+    // Same test as intersect, but only answers whether there is a hit within maxDistance
+    public boolean occludes(Ray ray, float maxDistance) {
+        float dx = center.x - ray.origin.x;
+        float dy = center.y - ray.origin.y;
+        float dz = center.z - ray.origin.z;
+        float v = ray.direction.dot(dx, dy, dz);
+        if (v - radius > maxDistance)
+            return false;
+
+        float t = radSqr + v * v - dx * dx - dy * dy - dz * dz;
+        if (t < 0)
+            return false;
+
+        t = v - ((float) Math.sqrt(t));
+        return (t <= maxDistance) && (t >= 0);
+    }
+
+    public void surfaceNormal(Point3D intersectionPoint, Vector3D n) {
+        n.x = intersectionPoint.x - center.x;
+        n.y = intersectionPoint.y - center.y;
+        n.z = intersectionPoint.z - center.z;
         n.normalize();
-        return n;
+    }
+
+    public BoundingBox getBounds() {
+        // Pad the box a little so rounding in the slab test never culls a grazing hit
+        float pad = radius + BOUNDS_EPSILON * (radius + Math.abs(center.x) + Math.abs(center.y) + Math.abs(center.z));
+        return new BoundingBox(center.x - pad, center.y - pad, center.z - pad,
+                center.x + pad, center.y + pad, center.z + pad);
     }
 
     public String toString() {
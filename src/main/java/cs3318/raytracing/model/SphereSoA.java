@@ -0,0 +1,266 @@
+package cs3318.raytracing.model;
+
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spheres packed as a structure of arrays: centers, radii and surface indices live in
+ * contiguous primitive arrays instead of one heap object per sphere.
+ * <p>
+ * Ranges of spheres can be intersected with one ray at a time using the incubating
+ * Vector API, which tests as many spheres per instruction as the hardware has float
+ * lanes. The Vector API is only used when the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}; otherwise, or when the system property
+ * {@code raytracing.vectorize} is {@code false}, a scalar loop is used instead.
+ * Both paths perform the same float operations as {@link Sphere#intersect} in the same
+ * order, so they return exactly the same distances.
+ */
+public class SphereSoA {
+
+    public static final boolean VECTORIZED = Boolean.parseBoolean(System.getProperty("raytracing.vectorize", "true"))
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    // Number of spheres tested together by one vector operation
+    public static final int BATCH_SIZE = VECTORIZED ? SphereVectorKernel.laneCount() : 1;
+
+    float[] centerX, centerY, centerZ;
+    float[] radius, radSqr;
+    int[] surfaceIndex;
+    private final List<Surface> surfaces;
+    private final Map<Surface, Integer> surfaceIds;
+    private int size;
+
+    public SphereSoA() {
+        this(16);
+    }
+
+    public SphereSoA(int capacity) {
+        allocate(Math.max(capacity, 1));
+        surfaces = new ArrayList<>();
+        surfaceIds = new IdentityHashMap<>();
+    }
+
+    private SphereSoA(SphereSoA source, int size) {
+        allocate(Math.max(size, 1));
+        surfaces = source.surfaces;
+        surfaceIds = source.surfaceIds;
+        this.size = size;
+    }
+
+    private void allocate(int capacity) {
+        centerX = new float[capacity];
+        centerY = new float[capacity];
+        centerZ = new float[capacity];
+        radius = new float[capacity];
+        radSqr = new float[capacity];
+        surfaceIndex = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Appends a sphere and returns its index
+    public int add(Point3D center, float r, Surface surface) {
+        return add(center.x, center.y, center.z, r, addSurface(surface));
+    }
+
+    public int add(float x, float y, float z, float r, int surface) {
+        if (size == centerX.length) {
+            ensureCapacity(2 * size);
+        }
+        centerX[size] = x;
+        centerY[size] = y;
+        centerZ[size] = z;
+        radius[size] = r;
+        radSqr[size] = r * r;
+        surfaceIndex[size] = surface;
+        return size++;
+    }
+
+    /**
+     * Appends count spheres read from the current positions of the buffers, which are
+     * advanced past them. The surface of sphere i is surfaceMap[surface.get()], so
+     * surface indices from another table can be mapped onto this store's table.
+     */
+    public void addAll(FloatBuffer x, FloatBuffer y, FloatBuffer z, FloatBuffer r, IntBuffer surface,
+                       int count, int[] surfaceMap) {
+        ensureCapacity(size + count);
+        x.get(centerX, size, count);
+        y.get(centerY, size, count);
+        z.get(centerZ, size, count);
+        r.get(radius, size, count);
+        surface.get(surfaceIndex, size, count);
+        for (int i = size; i < size + count; i++) {
+            radSqr[i] = radius[i] * radius[i];
+            int s = surfaceIndex[i];
+            if (s < 0 || s >= surfaceMap.length)
+                throw new IllegalArgumentException("No surface " + s + " for sphere " + (i - size));
+            surfaceIndex[i] = surfaceMap[s];
+        }
+        size += count;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity <= centerX.length)
+            return;
+        centerX = Arrays.copyOf(centerX, capacity);
+        centerY = Arrays.copyOf(centerY, capacity);
+        centerZ = Arrays.copyOf(centerZ, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        radSqr = Arrays.copyOf(radSqr, capacity);
+        surfaceIndex = Arrays.copyOf(surfaceIndex, capacity);
+    }
+
+    // Returns the index of the surface in this store's surface table, adding it if needed
+    public int addSurface(Surface surface) {
+        Integer id = surfaceIds.get(surface);
+        if (id == null) {
+            id = surfaces.size();
+            surfaces.add(surface);
+            surfaceIds.put(surface, id);
+        }
+        return id;
+    }
+
+    public void setCenter(int i, float x, float y, float z) {
+        centerX[i] = x;
+        centerY[i] = y;
+        centerZ[i] = z;
+    }
+
+    public Surface getSurface(int i) {
+        return surfaces.get(surfaceIndex[i]);
+    }
+
+    public float getCenterX(int i) {
+        return centerX[i];
+    }
+
+    public float getCenterY(int i) {
+        return centerY[i];
+    }
+
+    public float getCenterZ(int i) {
+        return centerZ[i];
+    }
+
+    public float getRadius(int i) {
+        return radius[i];
+    }
+
+    // Index of sphere i's surface in getSurfaces()
+    public int getSurfaceIndex(int i) {
+        return surfaceIndex[i];
+    }
+
+    // The surface table, in the order surfaces were first added
+    public List<Surface> getSurfaces() {
+        return Collections.unmodifiableList(surfaces);
+    }
+
+    // A standalone copy of sphere i
+    public Sphere get(int i) {
+        return new Sphere(new Point3D(centerX[i], centerY[i], centerZ[i]), radius[i], getSurface(i));
+    }
+
+    // A copy holding the spheres at the given indices, in that order, sharing this store's
+    // surfaces; an index of -1 leaves an empty slot that no ray can hit
+    public SphereSoA permute(int[] order) {
+        SphereSoA copy = new SphereSoA(this, order.length);
+        copy.copyFrom(this, order);
+        return copy;
+    }
+
+    // Overwrites every sphere with source sphere order[i], as set up by permute
+    void copyFrom(SphereSoA source, int[] order) {
+        for (int i = 0; i < order.length; i++) {
+            int j = order[i];
+            if (j < 0) {
+                radius[i] = radSqr[i] = Float.NaN;
+                continue;
+            }
+            centerX[i] = source.centerX[j];
+            centerY[i] = source.centerY[j];
+            centerZ[i] = source.centerZ[j];
+            radius[i] = source.radius[j];
+            radSqr[i] = source.radSqr[j];
+            surfaceIndex[i] = source.surfaceIndex[j];
+        }
+    }
+
+    // Writes the padded bounds of sphere i as minX, minY, minZ, maxX, maxY, maxZ
+    public void bounds(int i, float[] box, int offset) {
+        float x = centerX[i], y = centerY[i], z = centerZ[i], r = radius[i];
+        float pad = r + Sphere.BOUNDS_EPSILON * (r + Math.abs(x) + Math.abs(y) + Math.abs(z));
+        box[offset] = x - pad;
+        box[offset + 1] = y - pad;
+        box[offset + 2] = z - pad;
+        box[offset + 3] = x + pad;
+        box[offset + 4] = y + pad;
+        box[offset + 5] = z + pad;
+    }
+
+    // Same test as Sphere.intersect on sphere i
+    public float intersect(int i, Ray ray, float intersectDistance) {
+        float dx = centerX[i] - ray.origin.x;
+        float dy = centerY[i] - ray.origin.y;
+        float dz = centerZ[i] - ray.origin.z;
+        float v = ray.direction.dot(dx, dy, dz);
+        if (v - radius[i] > intersectDistance)
+            return Renderable.MISS;
+
+        float t = radSqr[i] + v * v - dx * dx - dy * dy - dz * dz;
+        if (t < 0)
+            return Renderable.MISS;
+
+        t = v - ((float) Math.sqrt(t));
+        if ((t > intersectDistance) || (t < 0))
+            return Renderable.MISS;
+        return t;
+    }
+
+    /**
+     * Intersects spheres [from, to) with the ray, writing the distance to sphere
+     * from + k, or {@link Renderable#MISS}, into distances[k].
+     * <p>
+     * The vector path works on whole vectors wherever the arrays allow it and may then
+     * write up to {@link #BATCH_SIZE} - 1 entries past to - from into distances.
+     */
+    public void intersect(int from, int to, Ray ray, float intersectDistance, float[] distances) {
+        if (VECTORIZED) {
+            SphereVectorKernel.intersect(this, from, to, ray, intersectDistance, distances);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            distances[i - from] = intersect(i, ray, intersectDistance);
+        }
+    }
+
+    // True if any of spheres [from, to) is hit closer than maxDistance
+    public boolean occludes(int from, int to, Ray ray, float maxDistance) {
+        if (VECTORIZED)
+            return SphereVectorKernel.occludes(this, from, to, ray, maxDistance);
+        for (int i = from; i < to; i++) {
+            if (intersect(i, ray, maxDistance) != Renderable.MISS)
+                return true;
+        }
+        return false;
+    }
+
+    public void surfaceNormal(int i, Point3D intersectionPoint, Vector3D n) {
+        n.x = intersectionPoint.x - centerX[i];
+        n.y = intersectionPoint.y - centerY[i];
+        n.z = intersectionPoint.z - centerZ[i];
+        n.normalize();
+    }
+}
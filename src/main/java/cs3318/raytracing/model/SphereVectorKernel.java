@@ -0,0 +1,95 @@
+package cs3318.raytracing.model;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API version of the sphere test in {@link SphereSoA}. This class must only be
+ * loaded when the jdk.incubator.vector module is present.
+ * <p>
+ * Each lane performs the float operations of {@link Sphere#intersect} in the same order
+ * and without fused multiply-adds, so every lane agrees exactly with the scalar test.
+ * Only unmasked loads and stores are used, because masked memory access is not compiled
+ * to vector instructions on JDK 17; lanes past the end of a range are masked out of the
+ * result instead.
+ */
+final class SphereVectorKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final FloatVector LANE_INDEX = FloatVector.fromArray(SPECIES, laneIndices(), 0);
+
+    private SphereVectorKernel() {}
+
+    static int laneCount() {
+        return SPECIES.length();
+    }
+
+    private static float[] laneIndices() {
+        float[] indices = new float[SPECIES.length()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+
+    static void intersect(SphereSoA s, int from, int to, Ray ray, float intersectDistance, float[] distances) {
+        int lanes = SPECIES.length();
+        int i = from;
+        for (; i < to && i + lanes <= s.centerX.length && i - from + lanes <= distances.length; i += lanes) {
+            FloatVector dx = FloatVector.fromArray(SPECIES, s.centerX, i).sub(ray.origin.x);
+            FloatVector dy = FloatVector.fromArray(SPECIES, s.centerY, i).sub(ray.origin.y);
+            FloatVector dz = FloatVector.fromArray(SPECIES, s.centerZ, i).sub(ray.origin.z);
+            FloatVector v = dx.mul(ray.direction.x).add(dy.mul(ray.direction.y)).add(dz.mul(ray.direction.z));
+
+            // Quick check for a chance of a closer hit, as in Sphere.intersect
+            FloatVector r = FloatVector.fromArray(SPECIES, s.radius, i);
+            VectorMask<Float> hit = LANE_INDEX.compare(VectorOperators.LT, to - i)
+                    .and(v.sub(r).compare(VectorOperators.LE, intersectDistance));
+
+            FloatVector t = FloatVector.fromArray(SPECIES, s.radSqr, i)
+                    .add(v.mul(v)).sub(dx.mul(dx)).sub(dy.mul(dy)).sub(dz.mul(dz));
+            hit = hit.and(t.compare(VectorOperators.GE, 0));
+
+            t = v.sub(t.lanewise(VectorOperators.SQRT));
+            hit = hit.and(t.compare(VectorOperators.LE, intersectDistance))
+                    .and(t.compare(VectorOperators.GE, 0));
+            t.blend(Renderable.MISS, hit.not()).intoArray(distances, i - from);
+        }
+        // Tail that would run off the end of the arrays
+        for (; i < to; i++) {
+            distances[i - from] = s.intersect(i, ray, intersectDistance);
+        }
+    }
+
+    static boolean occludes(SphereSoA s, int from, int to, Ray ray, float maxDistance) {
+        int lanes = SPECIES.length();
+        int i = from;
+        for (; i < to && i + lanes <= s.centerX.length; i += lanes) {
+            FloatVector dx = FloatVector.fromArray(SPECIES, s.centerX, i).sub(ray.origin.x);
+            FloatVector dy = FloatVector.fromArray(SPECIES, s.centerY, i).sub(ray.origin.y);
+            FloatVector dz = FloatVector.fromArray(SPECIES, s.centerZ, i).sub(ray.origin.z);
+            FloatVector v = dx.mul(ray.direction.x).add(dy.mul(ray.direction.y)).add(dz.mul(ray.direction.z));
+
+            FloatVector r = FloatVector.fromArray(SPECIES, s.radius, i);
+            VectorMask<Float> hit = LANE_INDEX.compare(VectorOperators.LT, to - i)
+                    .and(v.sub(r).compare(VectorOperators.LE, maxDistance));
+
+            FloatVector t = FloatVector.fromArray(SPECIES, s.radSqr, i)
+                    .add(v.mul(v)).sub(dx.mul(dx)).sub(dy.mul(dy)).sub(dz.mul(dz));
+            hit = hit.and(t.compare(VectorOperators.GE, 0));
+
+            t = v.sub(t.lanewise(VectorOperators.SQRT));
+            hit = hit.and(t.compare(VectorOperators.LE, maxDistance))
+                    .and(t.compare(VectorOperators.GE, 0));
+            if (hit.anyTrue())
+                return true;
+        }
+        for (; i < to; i++) {
+            if (s.intersect(i, ray, maxDistance) != Renderable.MISS)
+                return true;
+        }
+        return false;
+    }
+}
@@ -27,6 +27,38 @@ public class Surface {
                 exponent, index);
     }
 
+    // Changes the surface in place, taking the same values as the constructor
+    public void set(float rval, float gval, float bval,
+            float ambientReflectionCoefficient, float diffuseReflectionCoefficient, float specularReflectionCoefficient,
+            float exponent,
+            float reflectanceCoefficient, float transmissionCoefficient, float index) {
+        rIntrinsic = rval;
+        gIntrinsic = gval;
+        bIntrinsic = bval;
+        phong.ambientReflectionCoefficient = ambientReflectionCoefficient;
+        phong.diffuseReflectionCoefficient = diffuseReflectionCoefficient;
+        phong.specularReflectionCoefficient = specularReflectionCoefficient;
+        phong.exponent = exponent;
+        phong.reflectanceCoefficient = reflectanceCoefficient * I255;
+        phong.transmissionCoefficient = transmissionCoefficient;
+        phong.index = index;
+    }
+
+    // The reflectance coefficient as given to the constructor, before scaling
+    public float getReflectance() {
+        float scaled = phong.reflectanceCoefficient;
+        float r = scaled / I255;
+        // The quotient can be a rounding step away from the value that scales back exactly
+        if (r * I255 != scaled) {
+            if (Math.nextUp(r) * I255 == scaled) {
+                r = Math.nextUp(r);
+            } else if (Math.nextDown(r) * I255 == scaled) {
+                r = Math.nextDown(r);
+            }
+        }
+        return r;
+    }
+
 }
 
 // public Surface(float rval, float gval, float bval,
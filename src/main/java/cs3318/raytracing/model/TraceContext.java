@@ -0,0 +1,149 @@
+package cs3318.raytracing.model;
+
+import cs3318.raytracing.utils.Vector3D;
+
+import java.util.Arrays;
+
+/**
+ * Scratch records that one thread reuses for every ray it traces, so that tracing
+ * and shading do not allocate. A context must never be shared between threads.
+ */
+public class TraceContext {
+
+    public final Ray shadowRay = new Ray();
+    public final Vector3D lightVector = new Vector3D();
+    public final Vector3D reflect = new Vector3D();
+    // Reflected and refracted rays still to be traced for the current pixel
+    public final RayStack rayStack = new RayStack();
+    // Colour gathered so far for the current pixel, the weight of the ray being shaded and
+    // the lighting of the surface it hit
+    public final double[] color = new double[3];
+    public final float[] weight = new float[3];
+    public final float[] local = new float[3];
+    // Lights chosen to shade the current hit, with the scale of each and the bound it was chosen by
+    public int[] lightIds = new int[16];
+    public float[] lightScales = new float[16];
+    public float[] lightBounds = new float[16];
+    // Linear colours of the anti-aliasing samples in use, three to a slot: the four corners
+    // of the pixel, then five for each level of subdivision
+    public final double[] sampleColors = new double[3 * (4 + 5 * 4)];
+
+    private Ray[] rays = new Ray[0];
+    private Intersection[] hits = new Intersection[0];
+
+    // BVH traversal stacks of node indices and their entry distances
+    int[] nodeStack = new int[0];
+    float[] entryStack = new float[0];
+    // Per-primitive distances of the BVH leaf being tested
+    float[] distances = new float[0];
+    // Hit on the renderable being tested by the BVH, before it is known to be the closest
+    final Intersection candidate = new Intersection();
+    // The ray in the space of the mesh instance being tested
+    final Ray localRay = new Ray();
+    // Stacks for traversing a mesh's hierarchy from within the scene's hierarchy
+    private TraceContext nested;
+
+    // Work done by this thread since the counters were last reset
+    public long primaryRays, shadowRays, reflectionRays, refractionRays;
+    public long intersectionTests, boxTests;
+    // Image samples, which differs from primaryRays when anti-aliasing re-traces tile borders
+    public long samples;
+    // Number of primary rays whose deepest bounce was at each depth
+    public long[] depthHistogram = new long[8];
+    // Deepest bounce reached so far by the current primary ray
+    public int maxDepth;
+
+    // Set while the current pixel is being timed; only a sample of pixels is timed
+    public boolean timing;
+    public long traceNanos, timedNanos;
+
+    // Object seen by the last primary ray, as assigned by the renderer
+    public int primaryId;
+    // Samples the pixel being anti-aliased may still trace
+    public int sampleBudget;
+    // Set while rendering for a buffer of linear colours, so that surfaces lit brighter than
+    // white are summed as they are; the image itself is only clamped as it is quantized
+    public boolean linear;
+    // Object seen by each pixel of the tile being anti-aliased, then the colour, object and
+    // linear colour of each of its pixels and of the samples past its right and bottom edges;
+    // grown as larger tiles come along
+    public int[] tileIds = new int[0];
+    public int[] tileColors = new int[0];
+    public int[] tileObjects = new int[0];
+    public double[] tileLinear = new double[0];
+
+    public TraceContext() {}
+
+    // Ray for the given bounce, 0 being the primary ray
+    public Ray ray(int depth) {
+        if (depth >= rays.length) {
+            grow(depth + 1);
+        }
+        return rays[depth];
+    }
+
+    // Hit record for the given bounce, 0 being the primary hit
+    public Intersection hit(int depth) {
+        if (depth >= hits.length) {
+            grow(depth + 1);
+        }
+        return hits[depth];
+    }
+
+    private void grow(int size) {
+        int length = Math.max(size, 2 * rays.length);
+        Ray[] newRays = new Ray[length];
+        Intersection[] newHits = new Intersection[length];
+        System.arraycopy(rays, 0, newRays, 0, rays.length);
+        System.arraycopy(hits, 0, newHits, 0, hits.length);
+        for (int i = rays.length; i < length; i++) {
+            newRays[i] = new Ray();
+            newHits[i] = new Intersection();
+        }
+        rays = newRays;
+        hits = newHits;
+    }
+
+    public void resetCounters() {
+        primaryRays = shadowRays = reflectionRays = refractionRays = 0;
+        intersectionTests = boxTests = 0;
+        samples = 0;
+        Arrays.fill(depthHistogram, 0);
+        traceNanos = timedNanos = 0;
+    }
+
+    // Adds the current primary ray to the depth histogram
+    public void recordDepth() {
+        if (maxDepth >= depthHistogram.length) {
+            depthHistogram = Arrays.copyOf(depthHistogram, Math.max(maxDepth + 1, 2 * depthHistogram.length));
+        }
+        depthHistogram[maxDepth]++;
+    }
+
+    TraceContext nested() {
+        if (nested == null) {
+            nested = new TraceContext();
+        }
+        return nested;
+    }
+
+    // Moves the tests counted while traversing a mesh into this context
+    void collectNested() {
+        intersectionTests += nested.intersectionTests;
+        boxTests += nested.boxTests;
+        nested.intersectionTests = nested.boxTests = 0;
+    }
+
+    void reserveDistances(int size) {
+        if (distances.length < size) {
+            distances = new float[size];
+        }
+    }
+
+    void reserveStack(int size) {
+        if (nodeStack.length < size) {
+            nodeStack = new int[size];
+            entryStack = new float[size];
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package cs3318.raytracing.model;
+
+import cs3318.raytracing.utils.Vector3D;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Triangles stored as packed arrays: three floats per vertex position, optionally three
+ * per vertex normal, and three vertex indices per triangle.
+ * <p>
+ * A mesh has no place in the world or surface of its own. It is added to a scene through
+ * {@link MeshInstance}s, which all share the mesh's arrays and its hierarchy, so many
+ * copies of a mesh cost little more memory than one. The hierarchy is built when the
+ * mesh is created, and the triangles are reordered into its leaf order.
+ */
+public class TriangleMesh {
+
+    private final float[] positions;   // x, y, z per vertex
+    private final float[] normals;     // x, y, z per vertex, or null to shade with face normals
+    private int[] indices;             // 3 vertices per triangle
+    private final BVH bvh;
+    private byte[] digest;             // SHA-256 of the arrays, worked out when first asked for
+
+    public TriangleMesh(float[] positions, float[] normals, int[] indices) {
+        if (positions.length % 3 != 0 || indices.length % 3 != 0)
+            throw new IllegalArgumentException("Positions and indices must come in threes");
+        if (normals != null && normals.length != positions.length)
+            throw new IllegalArgumentException("Need one normal per vertex");
+        int vertexCount = positions.length / 3;
+        for (int index : indices) {
+            if (index < 0 || index >= vertexCount)
+                throw new IllegalArgumentException("No vertex " + index);
+        }
+        this.positions = positions;
+        this.normals = normals;
+        this.indices = indices.clone();
+        bvh = new BVH(this);
+    }
+
+    // Number of triangles
+    public int size() {
+        return indices.length / 3;
+    }
+
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    public boolean hasNormals() {
+        return normals != null;
+    }
+
+    // SHA-256 of the positions, normals and triangles, equal for meshes built from equal arrays
+    public synchronized byte[] getDigest() {
+        if (digest == null) {
+            ByteBuffer bytes = ByteBuffer.allocate(4 * (3 + positions.length
+                    + (normals != null ? normals.length : 0) + indices.length));
+            bytes.putInt(positions.length).putInt(normals != null ? normals.length : -1).putInt(indices.length);
+            for (float v : positions) {
+                bytes.putInt(Float.floatToIntBits(v));
+            }
+            if (normals != null) {
+                for (float v : normals) {
+                    bytes.putInt(Float.floatToIntBits(v));
+                }
+            }
+            for (int index : indices) {
+                bytes.putInt(index);
+            }
+            try {
+                digest = MessageDigest.getInstance("SHA-256").digest(bytes.array());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+        return digest.clone();
+    }
+
+    public BVH getBVH() {
+        return bvh;
+    }
+
+    // Bounds of the mesh in its own space
+    public BoundingBox getBounds() {
+        return bvh.getBounds();
+    }
+
+    // Puts triangle order[i] in position i, as the hierarchy is built
+    void reorder(int[] order) {
+        int[] reordered = new int[indices.length];
+        for (int i = 0; i < order.length; i++) {
+            System.arraycopy(indices, 3 * order[i], reordered, 3 * i, 3);
+        }
+        indices = reordered;
+    }
+
+    // Writes the padded bounds of triangle i as minX, minY, minZ, maxX, maxY, maxZ
+    void bounds(int i, float[] box, int offset) {
+        int a = 3 * indices[3 * i], b = 3 * indices[3 * i + 1], c = 3 * indices[3 * i + 2];
+        for (int axis = 0; axis < 3; axis++) {
+            float pa = positions[a + axis], pb = positions[b + axis], pc = positions[c + axis];
+            float min = Math.min(pa, Math.min(pb, pc));
+            float max = Math.max(pa, Math.max(pb, pc));
+            // Pad as spheres do, so rounding in the slab test never culls a grazing hit
+            float pad = Sphere.BOUNDS_EPSILON * (max - min + Math.abs(min) + Math.abs(max));
+            box[offset + axis] = min - pad;
+            box[offset + 3 + axis] = max + pad;
+        }
+    }
+
+    // Distance along the ray to triangle i, or MISS if it is not hit within intersectDistance.
+    // The ray's direction need not be normalized; distances are in units of its length.
+    float intersect(int i, Ray ray, float intersectDistance) {
+        int a = 3 * indices[3 * i], b = 3 * indices[3 * i + 1], c = 3 * indices[3 * i + 2];
+        float ax = positions[a], ay = positions[a + 1], az = positions[a + 2];
+        float e1x = positions[b] - ax, e1y = positions[b + 1] - ay, e1z = positions[b + 2] - az;
+        float e2x = positions[c] - ax, e2y = positions[c + 1] - ay, e2z = positions[c + 2] - az;
+        Vector3D d = ray.direction;
+
+        // Moller-Trumbore: solve origin + t * d = a + u * e1 + v * e2 by Cramer's rule
+        float px = d.y * e2z - d.z * e2y;
+        float py = d.z * e2x - d.x * e2z;
+        float pz = d.x * e2y - d.y * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0)
+            return Renderable.MISS;
+        float inv = 1 / det;
+
+        float sx = ray.origin.x - ax, sy = ray.origin.y - ay, sz = ray.origin.z - az;
+        float u = (sx * px + sy * py + sz * pz) * inv;
+        if (u < 0 || u > 1)
+            return Renderable.MISS;
+
+        float qx = sy * e1z - sz * e1y;
+        float qy = sz * e1x - sx * e1z;
+        float qz = sx * e1y - sy * e1x;
+        float v = (d.x * qx + d.y * qy + d.z * qz) * inv;
+        if (v < 0 || u + v > 1)
+            return Renderable.MISS;
+
+        float t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+        if ((t > intersectDistance) || (t < 0))
+            return Renderable.MISS;
+        return t;
+    }
+
+    // Writes the barycentric coordinates of the ray's hit on triangle i into hit.u and hit.v
+    void barycentrics(int i, Ray ray, Intersection hit) {
+        int a = 3 * indices[3 * i], b = 3 * indices[3 * i + 1], c = 3 * indices[3 * i + 2];
+        float ax = positions[a], ay = positions[a + 1], az = positions[a + 2];
+        float e1x = positions[b] - ax, e1y = positions[b + 1] - ay, e1z = positions[b + 2] - az;
+        float e2x = positions[c] - ax, e2y = positions[c + 1] - ay, e2z = positions[c + 2] - az;
+        Vector3D d = ray.direction;
+
+        float px = d.y * e2z - d.z * e2y;
+        float py = d.z * e2x - d.x * e2z;
+        float pz = d.x * e2y - d.y * e2x;
+        float inv = 1 / (e1x * px + e1y * py + e1z * pz);
+        float sx = ray.origin.x - ax, sy = ray.origin.y - ay, sz = ray.origin.z - az;
+        float qx = sy * e1z - sz * e1y;
+        float qy = sz * e1x - sx * e1z;
+        float qz = sx * e1y - sy * e1x;
+        hit.u = (sx * px + sy * py + sz * pz) * inv;
+        hit.v = (d.x * qx + d.y * qy + d.z * qz) * inv;
+    }
+
+    // Writes the unnormalized normal at barycentric (u, v) of triangle i, in the mesh's space:
+    // the interpolated vertex normal, or the face normal when the mesh has no normals
+    void normal(int i, float u, float v, Vector3D n) {
+        int a = 3 * indices[3 * i], b = 3 * indices[3 * i + 1], c = 3 * indices[3 * i + 2];
+        if (normals != null) {
+            float w = 1 - u - v;
+            n.x = w * normals[a] + u * normals[b] + v * normals[c];
+            n.y = w * normals[a + 1] + u * normals[b + 1] + v * normals[c + 1];
+            n.z = w * normals[a + 2] + u * normals[b + 2] + v * normals[c + 2];
+            return;
+        }
+        faceNormal(i, n);
+    }
+
+    // The triangle whose plane passes closest to the point, for callers that only know where
+    // a hit is; this looks at every triangle
+    int closestTriangle(float x, float y, float z) {
+        Vector3D n = new Vector3D();
+        int closest = 0;
+        float best = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < size(); i++) {
+            int a = 3 * indices[3 * i];
+            faceNormal(i, n);
+            n.normalize();
+            float distance = Math.abs(n.dot(x - positions[a], y - positions[a + 1], z - positions[a + 2]));
+            if (distance < best) {
+                best = distance;
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    // Unnormalized normal of triangle i's plane, by the winding of its vertices
+    private void faceNormal(int i, Vector3D n) {
+        int a = 3 * indices[3 * i], b = 3 * indices[3 * i + 1], c = 3 * indices[3 * i + 2];
+        float e1x = positions[b] - positions[a], e1y = positions[b + 1] - positions[a + 1], e1z = positions[b + 2] - positions[a + 2];
+        float e2x = positions[c] - positions[a], e2y = positions[c + 1] - positions[a + 1], e2z = positions[c + 2] - positions[a + 2];
+        n.x = e1y * e2z - e1z * e2y;
+        n.y = e1z * e2x - e1x * e2z;
+        n.z = e1x * e2y - e1y * e2x;
+    }
+
+    @Override
+    public String toString() {
+        return "mesh of " + size() + " triangles";
+    }
+}
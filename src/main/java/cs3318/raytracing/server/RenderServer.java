@@ -0,0 +1,299 @@
+package cs3318.raytracing.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import cs3318.raytracing.controller.Controller;
+import cs3318.raytracing.controller.RenderJob;
+import cs3318.raytracing.controller.RenderStats;
+import cs3318.raytracing.controller.Renderer;
+import cs3318.raytracing.io.JsonScene;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-running render service on the loopback interface, so that rendering an image
+ * costs neither a JVM start nor the JIT's warm-up.
+ * <p>
+ * {@code POST /render} takes a {@link JsonScene} as its body and answers with the
+ * rendered PNG, streamed as it is encoded. The query may set {@code priority},
+ * {@code antialiasing} (samples per pixel) and {@code maxDepth}. {@code GET /status}
+ * answers with the server's load as JSON.
+ * <p>
+ * At most a fixed number of renders are admitted at once, queued or running; requests
+ * beyond that are turned away at once with 503 and a Retry-After header rather than
+ * left waiting, and so are images larger than the pixel limit, with 413. Admitted
+ * renders are queued by priority on the render threads shared by the whole JVM, and
+ * each request is served on a thread of its own, which mostly waits for its render.
+ * <p>
+ * Controllers, each with its renderer and the acceleration structure built over its
+ * spheres, are kept after a render, keyed by {@link JsonScene#getContentKey()}. A later
+ * request for the same lights, surfaces and spheres takes one of them back and only
+ * changes its camera, image and settings. The least recently used scenes are dropped
+ * beyond a fixed number. A directory may be given to keep acceleration structures on
+ * disk too, so that scenes dropped from memory, or seen by an earlier run, load their
+ * structure rather than build it.
+ */
+public final class RenderServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_MAX_JOBS = 16;
+    public static final int DEFAULT_MAX_SCENES = 8;
+
+    // Largest image and request body accepted
+    private static final long MAX_PIXELS = 1L << 26;
+    private static final int MAX_BODY = 64 << 20;
+    // Idle controllers kept per scene, for concurrent requests for the same one
+    private static final int CONTROLLERS_PER_SCENE = 2;
+
+    private final HttpServer http;
+    private final ExecutorService handlers;
+    private final int maxJobs;
+    private final String cacheDirectory;    // where acceleration structures are kept, or null
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final AtomicLong rendered = new AtomicLong(), rejected = new AtomicLong();
+    private final AtomicLong sceneHits = new AtomicLong(), sceneMisses = new AtomicLong();
+    private final Map<String, Deque<Controller>> idle;
+
+    /**
+     * Binds the server to a port of the loopback interface without starting it.
+     *
+     * @param port Port to listen on, or 0 for any free port
+     * @param maxJobs Renders admitted at once, queued or running
+     * @param maxScenes Scenes whose controllers are kept between requests
+     * @param cacheDirectory Directory to keep acceleration structures in, or null
+     * @throws IOException if the port cannot be bound
+     */
+    public RenderServer(int port, int maxJobs, int maxScenes, String cacheDirectory) throws IOException {
+        if (maxJobs <= 0)
+            throw new IllegalArgumentException("Job limit must be positive: " + maxJobs);
+        this.maxJobs = maxJobs;
+        this.cacheDirectory = cacheDirectory;
+        idle = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Deque<Controller>> eldest) {
+                return size() > maxScenes;
+            }
+        };
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        handlers = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "render-request");
+            thread.setDaemon(true);
+            return thread;
+        });
+        http.setExecutor(handlers);
+        http.createContext("/render", this::render);
+        http.createContext("/status", this::status);
+    }
+
+    public void start() {
+        http.start();
+        System.out.println("Render server listening on http://localhost:" + getPort() + "/render");
+    }
+
+    // Stops accepting requests and waits up to the given number of seconds for those in progress
+    public void stop(int delaySeconds) {
+        http.stop(delaySeconds);
+        handlers.shutdown();
+    }
+
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    private void render(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendText(exchange, 405, "Use POST with a JSON scene");
+                return;
+            }
+            if (admitted.incrementAndGet() > maxJobs) {
+                admitted.decrementAndGet();
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 503, "Too many renders in progress");
+                return;
+            }
+            try {
+                render(exchange, query(exchange));
+            } finally {
+                admitted.decrementAndGet();
+            }
+        }
+    }
+
+    private void render(HttpExchange exchange, Map<String, String> query) throws IOException {
+        JsonScene scene;
+        int priority, samples, maxDepth;
+        try {
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                sendText(exchange, 413, "Scene larger than " + (MAX_BODY >> 20) + " MB");
+                return;
+            }
+            scene = JsonScene.parse(new String(body, StandardCharsets.UTF_8));
+            priority = Integer.parseInt(query.getOrDefault("priority", "0"));
+            samples = Integer.parseInt(query.getOrDefault("antialiasing", "1"));
+            maxDepth = query.containsKey("maxDepth") ? Integer.parseInt(query.get("maxDepth"))
+                    : Renderer.DEFAULT_MAX_DEPTH;
+        } catch (IOException | NumberFormatException e) {
+            sendText(exchange, 400, "Bad request: " + e.getMessage());
+            return;
+        }
+        if ((long) scene.getSettings().width * scene.getSettings().height > MAX_PIXELS) {
+            sendText(exchange, 413, "Image larger than " + MAX_PIXELS + " pixels");
+            return;
+        }
+
+        String key = scene.getContentKey();
+        Controller controller = take(key);
+        try {
+            if (controller == null) {
+                sceneMisses.incrementAndGet();
+                controller = new Controller();
+                controller.setAccelerationCache(cacheDirectory);
+                controller.loadScene(scene);
+            } else {
+                sceneHits.incrementAndGet();
+                controller.applySettings(scene.getSettings());
+            }
+            controller.setAntialiasing(samples);
+            controller.setMaxDepth(maxDepth);
+        } catch (IllegalArgumentException e) {
+            give(key, controller);
+            sendText(exchange, 400, "Bad request: " + e.getMessage());
+            return;
+        }
+
+        RenderJob job = controller.renderImageAsync(priority);
+        RenderStats stats;
+        try {
+            stats = job.get();
+        } catch (InterruptedException e) {
+            job.cancel(false);
+            Thread.currentThread().interrupt();
+            sendText(exchange, 503, "Server stopping");
+            return;
+        } catch (ExecutionException e) {
+            System.err.println("Error rendering: " + e.getCause());
+            sendText(exchange, 500, "Render failed: " + e.getCause().getMessage());
+            return;
+        }
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.getResponseHeaders().set("X-Render-Millis", String.valueOf(stats.getWallNanos() / 1_000_000));
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                controller.writePng(out);
+            }
+            rendered.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("Error sending image: " + e.getMessage());
+        } finally {
+            give(key, controller);
+        }
+    }
+
+    private void status(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            int scenes;
+            synchronized (idle) {
+                scenes = idle.size();
+            }
+            String json = String.format("{\"admitted\": %d, \"maxJobs\": %d, \"rendered\": %d, \"rejected\": %d, "
+                            + "\"cachedScenes\": %d, \"sceneHits\": %d, \"sceneMisses\": %d}",
+                    admitted.get(), maxJobs, rendered.get(), rejected.get(), scenes, sceneHits.get(),
+                    sceneMisses.get());
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            send(exchange, 200, json);
+        }
+    }
+
+    // An idle controller holding the scene, or null if there is none
+    private Controller take(String key) {
+        synchronized (idle) {
+            Deque<Controller> controllers = idle.get(key);
+            return (controllers != null) ? controllers.pollFirst() : null;
+        }
+    }
+
+    // Keeps the controller for the next request for its scene
+    private void give(String key, Controller controller) {
+        synchronized (idle) {
+            Deque<Controller> controllers = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+            if (controllers.size() < CONTROLLERS_PER_SCENE) {
+                controllers.addFirst(controller);
+            }
+        }
+    }
+
+    // The whole body, or null if it is longer than MAX_BODY
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            if (body.size() + n > MAX_BODY)
+                return null;
+            body.write(buffer, 0, n);
+        }
+        return body.toByteArray();
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null)
+            return parameters;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        send(exchange, status, message + "\n");
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Runs a server until the JVM is stopped.
+     *
+     * @param args Optional port, job limit, scene limit and acceleration cache directory
+     */
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int maxJobs = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_MAX_JOBS;
+        int maxScenes = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_MAX_SCENES;
+        String cacheDirectory = (args.length > 3) ? args[3] : null;
+        new RenderServer(port, maxJobs, maxScenes, cacheDirectory).start();
+    }
+}
@@ -1,9 +1,17 @@
 module raytracing {
-    requires java.desktop;
+    requires transitive java.desktop;
+    requires java.management;
+    requires jdk.httpserver;
+    requires jdk.jfr;
     requires javafx.controls;
     requires javafx.fxml;
     requires javafx.graphics;
+    requires static jdk.incubator.vector;
 
-    exports cs3318.raytracing;
-    opens cs3318.raytracing to javafx.fxml;
-}
\ No newline at end of file
+    exports cs3318.raytracing.api;
+    exports cs3318.raytracing.controller;
+    exports cs3318.raytracing.io;
+    exports cs3318.raytracing.model;
+    exports cs3318.raytracing.server;
+    exports cs3318.raytracing.utils;
+}
@@ -0,0 +1,39 @@
+package cs3318.raytracing.api;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Renders the scene of {@link RayTraceAPI#createTestScene()} with the given settings and
+ * reads back the exported image, so that tests can compare the pixels of two renders.
+ * Run as a program it renders in its own JVM, for settings that are fixed per JVM.
+ */
+final class TestSceneRenderer {
+
+    private TestSceneRenderer() {}
+
+    // Arguments: output file, most samples per pixel, progressive, wavefront
+    public static void main(String[] args) {
+        render(Path.of(args[0]), Integer.parseInt(args[1]), Boolean.parseBoolean(args[2]),
+                Boolean.parseBoolean(args[3]));
+    }
+
+    // Renders the test scene to file, which must not contain a dot before its extension
+    static void render(Path file, int maxSamples, boolean progressive, boolean wavefront) {
+        RayTraceAPI api = new RayTraceAPI();
+        api.createTestScene();
+        api.setAntialiasing(maxSamples);
+        api.setProgressive(progressive);
+        api.setWavefront(wavefront);
+        api.renderImage();
+        api.saveImage(file.toString());
+    }
+
+    // The ARGB pixels of a PNG, row by row
+    static int[] pixels(Path file) throws IOException {
+        BufferedImage image = ImageIO.read(file.toFile());
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
@@ -0,0 +1,75 @@
+package cs3318.raytracing.api;
+
+import cs3318.raytracing.model.SphereSoA;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that the Vector API sphere kernel draws exactly the image the scalar loop does.
+ * Whether the kernel is used is fixed when SphereSoA is loaded, so the scalar image is
+ * rendered by another JVM started with -Draytracing.vectorize=false.
+ */
+class VectorizedRenderTest {
+
+    private static final long TIMEOUT_SECONDS = 120;
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest(name = "samples {0}, progressive {1}")
+    @CsvSource({"1, false", "1, true", "16, false", "16, true"})
+    void matchesScalarPath(int maxSamples, boolean progressive) throws Exception {
+        assumeTrue(SphereSoA.VECTORIZED, "the Vector API is not available");
+        Path vector = directory.resolve("vector.png");
+        Path scalar = directory.resolve("scalar.png");
+        TestSceneRenderer.render(vector, maxSamples, progressive, false);
+        renderScalar(scalar, maxSamples, progressive);
+        assertArrayEquals(TestSceneRenderer.pixels(scalar), TestSceneRenderer.pixels(vector));
+    }
+
+    private void renderScalar(Path file, int maxSamples, boolean progressive)
+            throws IOException, InterruptedException, URISyntaxException {
+        String classPath = location(RayTraceAPI.class) + File.pathSeparator + location(TestSceneRenderer.class);
+        Path log = directory.resolve("scalar.log");
+        Process process = new ProcessBuilder(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "--add-modules", "jdk.incubator.vector",
+                "-Draytracing.vectorize=false",
+                "-Djava.awt.headless=true",
+                "-cp", classPath,
+                TestSceneRenderer.class.getName(),
+                file.toString(), Integer.toString(maxSamples), Boolean.toString(progressive), "false"))
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        assertTrue(process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS), "scalar render timed out");
+        assertEquals(0, process.exitValue(), () -> "scalar render failed:\n" + read(log));
+    }
+
+    // Directory or jar the class was loaded from
+    private static String location(Class<?> type) throws URISyntaxException {
+        return Path.of(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    }
+
+    private static String read(Path file) {
+        try {
+            return Files.readString(file);
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+    }
+}
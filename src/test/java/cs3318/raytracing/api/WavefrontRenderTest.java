@@ -0,0 +1,29 @@
+package cs3318.raytracing.api;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Checks that the wavefront engine draws exactly the image the default engine does.
+ */
+class WavefrontRenderTest {
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest(name = "samples {0}, progressive {1}")
+    @CsvSource({"1, false", "1, true", "16, false", "16, true"})
+    void matchesDefaultEngine(int maxSamples, boolean progressive) throws IOException {
+        Path scalar = directory.resolve("scalar.png");
+        Path wavefront = directory.resolve("wavefront.png");
+        TestSceneRenderer.render(scalar, maxSamples, progressive, false);
+        TestSceneRenderer.render(wavefront, maxSamples, progressive, true);
+        assertArrayEquals(TestSceneRenderer.pixels(scalar), TestSceneRenderer.pixels(wavefront));
+    }
+}
@@ -0,0 +1,105 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.BoundingBox;
+import cs3318.raytracing.model.Camera;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.SphereSoA;
+import cs3318.raytracing.model.Surface;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that every pixel a moved sphere changes, through its own image, its shadows or
+ * its reflections, lies in the affected region, and that the region leaves out most of
+ * the frame when nothing reflects.
+ */
+class AffectedRegionTest {
+
+    private static final int WIDTH = 96, HEIGHT = 64;
+    private static final int MOVED = 0;
+
+    @ParameterizedTest(name = "{0} light, mirror {1}, samples {2}, move by {3} {4} {5}")
+    @CsvSource({
+            "directional, false, 1, 0.5, 0, 0",
+            "directional, false, 4, 0, 0.4, -0.3",
+            "point, false, 1, -0.3, 0.2, 0",
+            "point, false, 4, 0, 0, 2",
+            "directional, true, 1, 0.5, 0, 0",
+            "point, true, 4, 0, -0.2, 0.5"
+    })
+    void coversEveryChangedPixel(String light, boolean mirror, int maxSamples, float dx, float dy, float dz) {
+        Scene scene = scene(light, mirror);
+        Renderer renderer = new Renderer(new Color(20, 20, 25));
+        renderer.setMaxSamples(maxSamples);
+        Camera camera = new Camera(new Vector3D(0, 1, 0), new Vector3D(0, 0, 0), new Point3D(0, 2, 12),
+                WIDTH, HEIGHT, 40);
+        int[] before = render(renderer, scene, camera);
+
+        SphereSoA spheres = scene.getSpheres();
+        BoundingBox changed = bounds(spheres, MOVED);
+        spheres.setCenter(MOVED, spheres.getCenterX(MOVED) + dx, spheres.getCenterY(MOVED) + dy,
+                spheres.getCenterZ(MOVED) + dz);
+        scene.refit();
+        changed.include(bounds(spheres, MOVED));
+        int[] after = render(renderer, scene, camera);
+
+        AffectedRegion affected = new AffectedRegion(camera, WIDTH, HEIGHT);
+        affected.addChange(scene, changed, renderer.getMaxDepth() > 0);
+        Rectangle region = affected.toRectangle();
+        boolean changedAny = false;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (before[y * WIDTH + x] != after[y * WIDTH + x]) {
+                    changedAny = true;
+                    assertTrue(region.contains(x, y), "pixel " + x + ", " + y + " changed outside " + region);
+                }
+            }
+        }
+        assertTrue(changedAny, "moving the sphere should change the image");
+        if (!mirror) {
+            assertFalse(affected.isFull(), "only part of the frame can see the sphere or its shadow");
+        }
+    }
+
+    private static int[] render(Renderer renderer, Scene scene, Camera camera) {
+        TileScheduler scheduler = new TileScheduler();
+        scheduler.setThreadCount(1);
+        FrameBuffer image = new ImageFrameBuffer(WIDTH, HEIGHT);
+        scheduler.render(image, renderer, scene, camera, null);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        image.getRows(0, HEIGHT, pixels);
+        return pixels;
+    }
+
+    private static BoundingBox bounds(SphereSoA spheres, int i) {
+        float r = spheres.getRadius(i);
+        return new BoundingBox(spheres.getCenterX(i) - r, spheres.getCenterY(i) - r, spheres.getCenterZ(i) - r,
+                spheres.getCenterX(i) + r, spheres.getCenterY(i) + r, spheres.getCenterZ(i) + r);
+    }
+
+    // A small sphere over a floor, lit from above, with a mirror to its left if asked for
+    private static Scene scene(String light, boolean mirror) {
+        Scene scene = new Scene();
+        Surface matte = new Surface(1, 0.5f, 0.2f, 0.2f, 0.7f, 0.5f, 10, 0, 0, 1);
+        Surface floor = new Surface(0.8f, 0.8f, 0.8f, 0.2f, 0.8f, 0, 1, 0, 0, 1);
+        Surface chrome = new Surface(0.9f, 0.9f, 0.9f, 0.1f, 0.3f, 0.6f, 60, 0.6f, 0, 1);
+        scene.addSphere(new Point3D(1, 0, 0), 0.6f, matte);
+        scene.addSphere(new Point3D(0, -1001, 0), 1000, floor);
+        scene.addSphere(new Point3D(-2.5f, 0.5f, -1), 1.2f, mirror ? chrome : matte);
+        scene.addAmbientLight(0.2f, 0.2f, 0.2f);
+        if (light.equals("directional")) {
+            scene.addDirectionalLight(0.8f, 0.8f, 0.8f, new Vector3D(0.3f, -1, -0.2f));
+        } else {
+            scene.addPointLight(0.8f, 0.8f, 0.8f, new Point3D(1.5f, 4, 1));
+        }
+        return scene;
+    }
+}
@@ -0,0 +1,52 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.Camera;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.Surface;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.awt.Color;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that a light brighter than white gives linear colours above 1 in the HDR
+ * buffer, while the image itself is clamped to white, on every render path.
+ */
+class HdrBufferTest {
+
+    private static final int SIZE = 32;
+    private static final float INTENSITY = 4;
+
+    @ParameterizedTest(name = "samples {0}, wavefront {1}")
+    @CsvSource({"1, false", "4, false", "1, true"})
+    void keepsColoursBrighterThanWhite(int maxSamples, boolean wavefront) {
+        Renderer renderer = new Renderer(new Color(0, 0, 0));
+        renderer.setMaxSamples(maxSamples);
+        TileScheduler scheduler = new TileScheduler();
+        scheduler.setThreadCount(1);
+        scheduler.setWavefront(wavefront);
+        FrameBuffer image = new ImageFrameBuffer(SIZE, SIZE);
+        HdrBuffer hdr = new HdrBuffer(SIZE, SIZE);
+        Camera camera = new Camera(new Vector3D(0, 1, 0), new Vector3D(0, 0, 0), new Point3D(0, 0, 10), SIZE, SIZE, 30);
+
+        scheduler.render(image, renderer, scene(), camera, null, null, false, hdr, null);
+
+        // The middle of the sphere faces the light, so it gets the full diffuse term
+        double[] color = new double[3];
+        hdr.get(SIZE / 2, SIZE / 2, color, 0);
+        assertEquals(0.8 * INTENSITY, color[0], 1e-3);
+        assertEquals(0xFFFFFFFF, image.getImage().getRGB(SIZE / 2, SIZE / 2));
+    }
+
+    private static Scene scene() {
+        Scene scene = new Scene();
+        Surface white = new Surface(1, 1, 1, 0, 0.8f, 0, 1, 0, 0, 1);
+        scene.addSphere(new Point3D(0, 0, 0), 2, white);
+        scene.addDirectionalLight(INTENSITY, INTENSITY, INTENSITY, new Vector3D(0, 0, -1));
+        return scene;
+    }
+}
@@ -0,0 +1,114 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.Intersection;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.Surface;
+import cs3318.raytracing.model.TraceContext;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks which lights a hit is shaded with, and that the weights of sampled lights keep
+ * each light's expected contribution, and the sum of them, what it would be if every
+ * light were visited.
+ */
+class LightSamplerTest {
+
+    private static final float DIFFUSE = 0.8f;
+    private static final int HITS = 40_000;
+
+    private final Surface surface = new Surface(1, 1, 1, 0, DIFFUSE, 0, 1, 0, 0, 1);
+    private final TraceContext context = new TraceContext();
+
+    @Test
+    void keepsEveryLightTheHitFacesWithinRange() {
+        Scene scene = new Scene();
+        scene.addAmbientLight(0.2f, 0.2f, 0.2f);
+        scene.addDirectionalLight(1, 1, 1, new Vector3D(0, -1, 0));
+        scene.addDirectionalLight(1, 1, 1, new Vector3D(0, 1, 0));     // shines from below
+        scene.addPointLight(1, 1, 1, new Point3D(0, 5, 0));
+        scene.setLightRange(3, 10);
+        scene.addPointLight(1, 1, 1, new Point3D(0, 20, 0));
+        scene.setLightRange(4, 10);                                    // out of reach
+        scene.addPointLight(1, 1, 1, new Point3D(3, -1, 0));           // below the surface
+
+        int count = LightSampler.select(scene, hit(0, 0), 1, 0, 0, context);
+        assertEquals(3, count);
+        assertEquals(0, context.lightIds[0]);
+        assertEquals(1, context.lightIds[1]);
+        assertEquals(3, context.lightIds[2]);
+        assertEquals(1f, context.lightScales[0]);
+        assertEquals(1f, context.lightScales[1]);
+        // (1 - (5 / 10)^4)^2 of the way along its falloff
+        assertEquals(0.87890625f, context.lightScales[2], 1e-6f);
+    }
+
+    @Test
+    void dropsLightsThatCannotReachTheThreshold() {
+        Scene scene = new Scene();
+        scene.addDirectionalLight(1, 1, 1, new Vector3D(0, -1, 0));
+        scene.addDirectionalLight(0.01f, 0.01f, 0.01f, new Vector3D(0, -1, 0));
+
+        assertEquals(2, LightSampler.select(scene, hit(0, 0), 1, 0, 0, context));
+        assertEquals(1, LightSampler.select(scene, hit(0, 0), 1, 0, 0.05f, context));
+        assertEquals(0, context.lightIds[0]);
+        // A ray carrying little of the pixel needs the light to add more to be worth a shadow ray
+        assertEquals(0, LightSampler.select(scene, hit(0, 0), 0.05f, 0, 0.05f, context));
+    }
+
+    @Test
+    void weightsSampledLightsByTheReciprocalOfTheirShare() {
+        int lights = 20, budget = 4;
+        Scene scene = new Scene();
+        scene.addAmbientLight(0.1f, 0.1f, 0.1f);
+        float[] bounds = new float[lights + 2];
+        for (int l = 1; l <= lights; l++) {
+            float intensity = 0.05f * l;
+            scene.addDirectionalLight(intensity, intensity / 2, 0, new Vector3D(0, -1, 0));
+            bounds[l] = DIFFUSE * intensity;
+        }
+        // Brighter than a whole pick, so chosen at every hit
+        scene.addDirectionalLight(5, 5, 5, new Vector3D(0, -1, 0));
+        bounds[lights + 1] = DIFFUSE * 5;
+        double total = 0;
+        for (float bound : bounds) {
+            total += bound;
+        }
+
+        double[] scaleSums = new double[lights + 2];
+        Random random = new Random(1);
+        for (int i = 0; i < HITS; i++) {
+            int count = LightSampler.select(scene, hit(random.nextFloat() * 100, random.nextFloat() * 100), 1,
+                    budget, 0, context);
+            assertTrue(count <= budget + 1, count + " lights chosen");
+            assertEquals(0, context.lightIds[0], "the ambient light is always kept");
+            assertEquals(lights + 1, context.lightIds[count - 1], "the brightest light is always chosen");
+            double estimate = 0;
+            for (int k = 0; k < count; k++) {
+                int l = context.lightIds[k];
+                scaleSums[l] += context.lightScales[k];
+                estimate += context.lightScales[k] * bounds[l];
+            }
+            assertEquals(total, estimate, 1e-4 * total, "hit " + i);
+        }
+        for (int l = 0; l < bounds.length; l++) {
+            assertEquals(1, scaleSums[l] / HITS, 0.2, "mean weight of light " + l);
+        }
+    }
+
+    // A hit on the floor at (x, 0, z), facing up
+    private Intersection hit(float x, float z) {
+        Intersection hit = new Intersection();
+        hit.surface = surface;
+        hit.point.x = x;
+        hit.point.z = z;
+        hit.surfaceNormal.y = 1;
+        return hit;
+    }
+}
@@ -0,0 +1,145 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.Camera;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.Surface;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that frames come back from the tier that holds them with the pixels they were
+ * stored with, that each tier gives up its least recently used frames first, and that
+ * the key follows the scene's contents rather than the scene object.
+ */
+class RenderCacheTest {
+
+    // Taller than a band, and not a whole number of them
+    private static final int WIDTH = 37, HEIGHT = 150;
+    private static final long FRAME_BYTES = 4L * WIDTH * HEIGHT;
+    private static final long FILE_BYTES = 16 + 3L * WIDTH * HEIGHT;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsFramesInMemoryUpToItsLimit() {
+        RenderCache cache = new RenderCache(2 * FRAME_BYTES, null, 0);
+        cache.store("a", frame(1));
+        cache.store("b", frame(2));
+        assertLoads(cache, "a", RenderCache.MEMORY, 1);
+
+        // b is now the least recently used, so it makes room for c
+        cache.store("c", frame(3));
+        assertLoads(cache, "a", RenderCache.MEMORY, 1);
+        assertLoads(cache, "c", RenderCache.MEMORY, 3);
+        assertNull(cache.load("b", new ImageFrameBuffer(WIDTH, HEIGHT)));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void promotesFramesReadFromDiskOnlyIfMemoryHoldsThem() {
+        new RenderCache(0, directory, FILE_BYTES).store("a", frame(1));
+
+        RenderCache promoting = new RenderCache(FRAME_BYTES, directory, FILE_BYTES);
+        assertLoads(promoting, "a", RenderCache.DISK, 1);
+        assertLoads(promoting, "a", RenderCache.MEMORY, 1);
+
+        RenderCache streaming = new RenderCache(FRAME_BYTES - 1, directory, FILE_BYTES);
+        assertLoads(streaming, "a", RenderCache.DISK, 1);
+        assertLoads(streaming, "a", RenderCache.DISK, 1);
+    }
+
+    @Test
+    void deletesLeastRecentlyUsedFilesOverTheLimit() throws IOException {
+        RenderCache cache = new RenderCache(0, directory, 2 * FILE_BYTES);
+        cache.store("a", frame(1));
+        cache.store("b", frame(2));
+        age("a", 2);
+        age("b", 1);
+        // Reading a touches it, so b is deleted to make room for c
+        assertLoads(cache, "a", RenderCache.DISK, 1);
+        cache.store("c", frame(3));
+
+        assertTrue(Files.exists(file("a")));
+        assertFalse(Files.exists(file("b")));
+        assertTrue(Files.exists(file("c")));
+        assertNull(cache.load("b", new ImageFrameBuffer(WIDTH, HEIGHT)));
+    }
+
+    @Test
+    void ignoresFilesOfAnotherSize() {
+        new RenderCache(0, directory, FILE_BYTES).store("a", frame(1));
+        RenderCache cache = new RenderCache(FRAME_BYTES, directory, FILE_BYTES);
+        assertNull(cache.load("a", new ImageFrameBuffer(HEIGHT, WIDTH)));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void keysFollowTheSceneContents() {
+        Renderer renderer = new Renderer(Color.BLACK);
+        Camera camera = new Camera(new Vector3D(0, 1, 0), new Vector3D(0, 0, 0), new Point3D(0, 0, 10),
+                WIDTH, HEIGHT, 30);
+        String key = RenderCache.key(scene(0.8f), camera, renderer, WIDTH, HEIGHT);
+        assertEquals(key, RenderCache.key(scene(0.8f), camera, renderer, WIDTH, HEIGHT));
+        assertNotEquals(key, RenderCache.key(scene(0.7f), camera, renderer, WIDTH, HEIGHT));
+        assertNotEquals(key, RenderCache.key(scene(0.8f), camera, renderer, HEIGHT, WIDTH));
+        renderer.setMaxSamples(4);
+        assertNotEquals(key, RenderCache.key(scene(0.8f), camera, renderer, WIDTH, HEIGHT));
+    }
+
+    private void assertLoads(RenderCache cache, String key, String tier, int seed) {
+        FrameBuffer image = new ImageFrameBuffer(WIDTH, HEIGHT);
+        assertEquals(tier, cache.load(key, image), key);
+        assertArrayEquals(pixels(frame(seed)), pixels(image), key);
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + RenderCache.EXTENSION);
+    }
+
+    // Makes the file look as if it was last used the given number of minutes ago
+    private void age(String key, int minutes) throws IOException {
+        Files.setLastModifiedTime(file(key), FileTime.fromMillis(System.currentTimeMillis() - minutes * 60_000L));
+    }
+
+    // An opaque frame whose every pixel differs from its neighbours and from other seeds'
+    private static FrameBuffer frame(int seed) {
+        FrameBuffer image = new ImageFrameBuffer(WIDTH, HEIGHT);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int p = 0; p < pixels.length; p++) {
+            pixels[p] = 0xFF000000 | (int) ((p * 2654435761L * seed) >>> 8) & 0xFFFFFF;
+        }
+        image.setRGB(0, 0, WIDTH, HEIGHT, pixels);
+        return image;
+    }
+
+    private static int[] pixels(FrameBuffer image) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        image.getRows(0, HEIGHT, pixels);
+        return pixels;
+    }
+
+    private static Scene scene(float diffuse) {
+        Scene scene = new Scene();
+        Surface surface = new Surface(1, 0.5f, 0.2f, 0.2f, diffuse, 0.5f, 10, 0, 0, 1);
+        scene.addSphere(new Point3D(0, 0, 0), 2, surface);
+        scene.addDirectionalLight(1, 1, 1, new Vector3D(0, 0, -1));
+        return scene;
+    }
+}
@@ -0,0 +1,80 @@
+package cs3318.raytracing.controller;
+
+import cs3318.raytracing.model.Camera;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.Surface;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that tracing and shading a tile allocates nothing per pixel once the JIT has
+ * compiled the hot path, including reflected and refracted rays and every kind of light.
+ */
+class RendererAllocationTest {
+
+    private static final int SIZE = 64;
+    private static final int WARMUP_RENDERS = 100;
+    private static final int MEASURED_RENDERS = 20;
+    // What is left once the per-tile arrays and the counters' own overhead are spread
+    // over the tile; one object per pixel would be at least 16
+    private static final double MAX_BYTES_PER_PIXEL = 1;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    void rendersWithoutAllocatingPerPixel() {
+        assertAllocationFree(new Renderer(new Color(20, 20, 25)));
+    }
+
+    @Test
+    void antialiasesWithoutAllocatingPerPixel() {
+        Renderer renderer = new Renderer(new Color(20, 20, 25));
+        renderer.setMaxSamples(4);
+        assertAllocationFree(renderer);
+    }
+
+    private void assertAllocationFree(Renderer renderer) {
+        Scene scene = scene();
+        Camera camera = new Camera(new Vector3D(0, 1, 0), new Vector3D(0, 0, 0), new Point3D(0, 2, 12), SIZE, SIZE, 40);
+        Tile tile = new Tile(0, 0, SIZE, SIZE);
+        int[] pixels = new int[tile.size()];
+        for (int i = 0; i < WARMUP_RENDERS; i++) {
+            renderer.renderTile(tile, scene, camera, pixels);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_RENDERS; i++) {
+            renderer.renderTile(tile, scene, camera, pixels);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        double perPixel = (double) allocated / ((long) MEASURED_RENDERS * tile.size());
+        assertTrue(perPixel < MAX_BYTES_PER_PIXEL, perPixel + " bytes allocated per pixel");
+    }
+
+    private static Scene scene() {
+        Scene scene = new Scene();
+        Surface matte = new Surface(1, 0.5f, 0.2f, 0.2f, 0.7f, 0.5f, 10, 0, 0, 1);
+        Surface mirror = new Surface(0.9f, 0.9f, 0.9f, 0.1f, 0.3f, 0.6f, 60, 0.6f, 0, 1);
+        Surface glass = new Surface(0.9f, 0.9f, 0.9f, 0.02f, 0.05f, 0.6f, 60, 0.05f, 0.9f, 1.5f);
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            Point3D center = new Point3D(random.nextFloat() * 10 - 5, random.nextFloat() * 6 - 3,
+                    random.nextFloat() * 10 - 8);
+            scene.addSphere(center, 0.3f + 0.3f * random.nextFloat(), (i % 3 == 0) ? mirror : (i % 3 == 1) ? glass : matte);
+        }
+        scene.addSphere(new Point3D(0, -1003, 0), 1000, matte);
+        scene.addAmbientLight(0.3f, 0.3f, 0.3f);
+        scene.addDirectionalLight(0.6f, 0.6f, 0.6f, new Vector3D(1, -5, -4));
+        scene.addPointLight(0.5f, 0.4f, 0.3f, new Point3D(2, 5, 2));
+        return scene;
+    }
+}
@@ -0,0 +1,113 @@
+package cs3318.raytracing.io;
+
+import cs3318.raytracing.model.AmbientLight;
+import cs3318.raytracing.model.DirectionalLight;
+import cs3318.raytracing.model.Light;
+import cs3318.raytracing.model.PointLight;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.SphereSoA;
+import cs3318.raytracing.model.Surface;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that a JSON scene description builds the scene it describes, with the documented
+ * defaults, that its content key ignores the settings and how numbers are written, and
+ * that descriptions the scene could not be built from are refused when parsed.
+ */
+class JsonSceneTest {
+
+    private static final String SCENE = "{"
+            + "\"image\": {\"width\": 80, \"height\": 60},"
+            + "\"background\": [20, 20, 25],"
+            + "\"camera\": {\"eye\": [0, 2, 10], \"lookat\": [0, 0, 0]},"
+            + "\"lights\": [{\"type\": \"ambient\", \"color\": [0.2, 0.2, 0.2]},"
+            + "    {\"type\": \"directional\", \"color\": [0.5, 0.5, 0.5], \"direction\": [0, -1, 0]},"
+            + "    {\"type\": \"point\", \"color\": [1, 0.5, 0], \"position\": [0, 5, 0], \"range\": 50}],"
+            + "\"surfaces\": [{\"color\": [1, 0, 0]},"
+            + "    {\"color\": [0.9, 0.9, 0.9], \"reflection\": 0.8, \"exponent\": 60}],"
+            + "\"spheres\": [[0, 0, 0, 1, 0], [2.5, 0, -1, 0.5, 1], [-2, 0, 0, 1, 0]]"
+            + "}";
+
+    @Test
+    void buildsTheDescribedScene() throws IOException {
+        JsonScene json = JsonScene.parse(SCENE);
+        SceneSettings settings = json.getSettings();
+        assertEquals(80, settings.width);
+        assertEquals(60, settings.height);
+        assertEquals(new Color(20, 20, 25), settings.background);
+        assertEquals(2f, settings.eye.y);
+        assertEquals(1f, settings.up.y);
+        assertEquals(30f, settings.fov);
+        assertEquals(80, settings.cameraWidth);
+        assertEquals(60, settings.cameraHeight);
+        assertEquals(3, json.getSphereCount());
+
+        Scene scene = new Scene();
+        json.addTo(scene);
+        List<Light> lights = scene.getLights();
+        assertEquals(3, lights.size());
+        assertInstanceOf(AmbientLight.class, lights.get(0));
+        assertEquals(-1f, assertInstanceOf(DirectionalLight.class, lights.get(1)).direction.y);
+        PointLight point = assertInstanceOf(PointLight.class, lights.get(2));
+        assertEquals(50f, point.range);
+        assertEquals(0.5f, point.gIntensity);
+
+        SphereSoA spheres = scene.getSpheres();
+        assertEquals(3, spheres.size());
+        assertEquals(2.5f, spheres.getCenterX(1));
+        assertEquals(0.5f, spheres.getRadius(1));
+        Surface matte = spheres.getSurface(0), mirror = spheres.getSurface(1);
+        // Coefficients left out take those of RayTraceAPI.addSphere
+        assertEquals(0.7f, matte.phong.diffuseReflectionCoefficient);
+        assertEquals(10f, matte.phong.exponent);
+        assertEquals(0.8f, mirror.getReflectance());
+        assertEquals(60f, mirror.phong.exponent);
+        assertEquals(spheres.getSurfaceIndex(0), spheres.getSurfaceIndex(2), "spheres share their surface");
+    }
+
+    @Test
+    void keysTheContentsOnly() throws IOException {
+        String key = JsonScene.parse(SCENE).getContentKey();
+        String resized = SCENE.replace("\"width\": 80", "\"width\": 800").replace("[20, 20, 25]", "[0, 0, 0]")
+                .replace("[0, 2, 10]", "[5, 5, 5]");
+        assertEquals(key, JsonScene.parse(resized).getContentKey());
+        String respelled = SCENE.replace("[0, 0, 0, 1, 0]", "[0.0, 0.00, 0e3, 1.0, 0]").replace("0.8", "8e-1");
+        assertEquals(key, JsonScene.parse(respelled).getContentKey());
+        String moved = SCENE.replace("[2.5, 0, -1, 0.5, 1]", "[2.5, 0, -1, 0.51, 1]");
+        assertNotEquals(key, JsonScene.parse(moved).getContentKey());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "[]",
+            "{\"camera\": {\"eye\": [0, 0, 10], \"lookat\": [0, 0, 0]}}",
+            "{\"image\": {\"width\": 0, \"height\": 60}, \"camera\": {\"eye\": [0, 0, 10], \"lookat\": [0, 0, 0]}}",
+            "{\"image\": {\"width\": 80, \"height\": 60}}",
+            "{\"image\": {\"width\": 80, \"height\": 60}, \"camera\": {\"eye\": [0, 0], \"lookat\": [0, 0, 0]}}",
+            "{\"image\": {\"width\": 80, \"height\": 60}, \"background\": [256, 0, 0],"
+                    + " \"camera\": {\"eye\": [0, 0, 10], \"lookat\": [0, 0, 0]}}",
+            "{\"image\": {\"width\": 80, \"height\": 60}, \"camera\": {\"eye\": [0, 0, 10], \"lookat\": [0, 0, 0]},"
+                    + " \"lights\": [{\"type\": \"spot\", \"color\": [1, 1, 1]}]}",
+            "{\"image\": {\"width\": 80, \"height\": 60}, \"camera\": {\"eye\": [0, 0, 10], \"lookat\": [0, 0, 0]},"
+                    + " \"lights\": [{\"type\": \"directional\", \"color\": [1, 1, 1], \"direction\": [0, -1, 0],"
+                    + " \"range\": 5}]}",
+            "{\"image\": {\"width\": 80, \"height\": 60}, \"camera\": {\"eye\": [0, 0, 10], \"lookat\": [0, 0, 0]},"
+                    + " \"spheres\": [[0, 0, 0, 1, 0]]}",
+            "{\"image\": {\"width\": 80, \"height\": 60}, \"camera\": {\"eye\": [0, 0, 10], \"lookat\": [0, 0, 0]},"
+                    + " \"surfaces\": [{\"color\": [1, 0, 0]}], \"spheres\": [[0, 0, 0, 1, 0.5]]}"
+    })
+    void refusesScenesThatCannotBeBuilt(String json) {
+        assertThrows(IOException.class, () -> JsonScene.parse(json));
+    }
+}
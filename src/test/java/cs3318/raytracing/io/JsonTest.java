@@ -0,0 +1,61 @@
+package cs3318.raytracing.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the parser reads every kind of JSON value, and refuses malformed and
+ * hostile documents with an IOException rather than any other failure.
+ */
+class JsonTest {
+
+    @Test
+    void readsEveryKindOfValue() throws IOException {
+        Object document = Json.parse(" {\"z\": [1, -2.5e2, 0.125], \"a\": {\"t\": true, \"f\": false, \"n\": null},"
+                + "\n\t\"s\": \"tab\\t quote\\\" \\u00e9 \\/\", \"e\": [] , \"o\": {}} ");
+        Map<?, ?> object = (Map<?, ?>) document;
+        assertEquals(List.of("z", "a", "s", "e", "o"), List.copyOf(object.keySet()), "members keep their order");
+        assertEquals(List.of(1.0, -250.0, 0.125), object.get("z"));
+        Map<?, ?> inner = (Map<?, ?>) object.get("a");
+        assertEquals(Boolean.TRUE, inner.get("t"));
+        assertEquals(Boolean.FALSE, inner.get("f"));
+        assertTrue(inner.containsKey("n"));
+        assertNull(inner.get("n"));
+        assertEquals("tab\t quote\" \u00e9 /", object.get("s"));
+        assertEquals(List.of(), object.get("e"));
+        assertEquals(Map.of(), object.get("o"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "", "{", "[1, 2", "{\"a\" 1}", "{\"a\": 1,}", "[1] 2", "{\"a\": 1, \"a\": 2}", "\"open",
+            "\"bad \\q escape\"", "\"short \\u12\"", "[1.2.3]", "[-]", "tru", "{1: 2}", "\"line\nbreak\""
+    })
+    void refusesMalformedDocuments(String text) {
+        assertThrows(IOException.class, () -> Json.parse(text));
+    }
+
+    @Test
+    void refusesDocumentsNestedTooDeeply() throws IOException {
+        Json.parse(nested(60));
+        assertThrows(IOException.class, () -> Json.parse(nested(100_000)));
+    }
+
+    private static String nested(int depth) {
+        char[] open = new char[depth], close = new char[depth];
+        Arrays.fill(open, '[');
+        Arrays.fill(close, ']');
+        return new String(open) + new String(close);
+    }
+}
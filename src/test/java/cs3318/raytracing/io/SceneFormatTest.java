@@ -0,0 +1,157 @@
+package cs3318.raytracing.io;
+
+import cs3318.raytracing.model.AmbientLight;
+import cs3318.raytracing.model.DirectionalLight;
+import cs3318.raytracing.model.Light;
+import cs3318.raytracing.model.PointLight;
+import cs3318.raytracing.model.Scene;
+import cs3318.raytracing.model.SphereSoA;
+import cs3318.raytracing.model.Surface;
+import cs3318.raytracing.utils.Point3D;
+import cs3318.raytracing.utils.Vector3D;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a scene written in either format reads back with every number exactly as
+ * it was, and that the text reader takes hand-written files and refuses broken ones.
+ */
+class SceneFormatTest {
+
+    private static final int SPHERES = 1000;
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(strings = {SceneFormat.TEXT_EXTENSION, SceneFormat.BINARY_EXTENSION})
+    void readsBackWhatWasWritten(String extension) throws IOException {
+        Scene scene = scene();
+        SceneSettings settings = new SceneSettings();
+        settings.width = 320;
+        settings.height = 200;
+        settings.background = new Color(10, 20, 30);
+        settings.eye = new Point3D(1.5f, 2, 10);
+        settings.lookat = new Vector3D(0, 0.25f, 0);
+        settings.up = new Vector3D(0, 1, 0);
+        settings.cameraWidth = 320;
+        settings.cameraHeight = 200;
+        settings.fov = 37.5f;
+        Path file = directory.resolve("scene" + extension);
+        SceneWriter.write(file, scene, settings);
+
+        Scene loaded = new Scene();
+        SceneSettings read = SceneReader.read(file, loaded);
+        assertEquals(320, read.width);
+        assertEquals(200, read.height);
+        assertEquals(settings.background, read.background);
+        assertEquals(1.5f, read.eye.x);
+        assertEquals(0.25f, read.lookat.y);
+        assertEquals(1f, read.up.y);
+        assertEquals(200, read.cameraHeight);
+        assertEquals(37.5f, read.fov);
+        assertSameLights(scene.getLights(), loaded.getLights());
+        assertSameSpheres(scene.getSpheres(), loaded.getSpheres());
+    }
+
+    @Test
+    void readsHandWrittenText() throws IOException {
+        Path file = directory.resolve("scene" + SceneFormat.TEXT_EXTENSION);
+        Files.writeString(file, String.join("\n",
+                "# Two spheres",
+                "ambient 0.2 0.2 0.2",
+                "\tpoint  1 0.5 0   -2 4.5e1 3   # warm",
+                "surface 1 0 0  0.1 0.8 0.3  20  0 0 1",
+                "sphere 0 0 -1 0.5 0",
+                "sphere 1.25 -.5 -2 1 0",
+                ""));
+
+        Scene scene = new Scene();
+        SceneSettings settings = SceneReader.read(file, scene);
+        assertFalse(settings.hasImage());
+        assertFalse(settings.hasCamera());
+        List<Light> lights = scene.getLights();
+        assertEquals(2, lights.size());
+        assertInstanceOf(AmbientLight.class, lights.get(0));
+        PointLight point = assertInstanceOf(PointLight.class, lights.get(1));
+        assertEquals(45f, point.lightPoint.y);
+        SphereSoA spheres = scene.getSpheres();
+        assertEquals(2, spheres.size());
+        assertEquals(-0.5f, spheres.getCenterY(1));
+        assertEquals(0.8f, spheres.getSurface(1).phong.diffuseReflectionCoefficient);
+    }
+
+    @Test
+    void refusesSpheresBeforeTheirSurface() throws IOException {
+        Path file = directory.resolve("scene" + SceneFormat.TEXT_EXTENSION);
+        Files.writeString(file, "sphere 0 0 0 1 0\nsurface 1 1 1  0 1 0  1  0 0 1\n");
+        IOException e = assertThrows(IOException.class, () -> SceneReader.read(file, new Scene()));
+        assertTrue(e.getMessage().startsWith("Line 1"), e.getMessage());
+    }
+
+    private static void assertSameLights(List<Light> expected, List<Light> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Light want = expected.get(i), got = actual.get(i);
+            assertEquals(want.getClass(), got.getClass(), "light " + i);
+            assertEquals(want.rIntensity, got.rIntensity, "light " + i);
+            assertEquals(want.bIntensity, got.bIntensity, "light " + i);
+            if (want instanceof DirectionalLight) {
+                Vector3D direction = ((DirectionalLight) got).direction;
+                assertEquals(((DirectionalLight) want).direction.z, direction.z, "light " + i);
+            } else if (want instanceof PointLight) {
+                Point3D point = ((PointLight) got).lightPoint;
+                assertEquals(((PointLight) want).lightPoint.x, point.x, "light " + i);
+            }
+        }
+    }
+
+    private static void assertSameSpheres(SphereSoA expected, SphereSoA actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getCenterX(i), actual.getCenterX(i), "sphere " + i);
+            assertEquals(expected.getCenterY(i), actual.getCenterY(i), "sphere " + i);
+            assertEquals(expected.getCenterZ(i), actual.getCenterZ(i), "sphere " + i);
+            assertEquals(expected.getRadius(i), actual.getRadius(i), "sphere " + i);
+            Surface want = expected.getSurface(i), got = actual.getSurface(i);
+            assertEquals(want.gIntrinsic, got.gIntrinsic, "sphere " + i);
+            assertEquals(want.phong.exponent, got.phong.exponent, "sphere " + i);
+            assertEquals(want.getReflectance(), got.getReflectance(), "sphere " + i);
+            assertEquals(want.phong.index, got.phong.index, "sphere " + i);
+        }
+    }
+
+    // Random coordinates, so that the text format must print and parse every float exactly
+    private static Scene scene() {
+        Scene scene = new Scene();
+        scene.addAmbientLight(0.1f, 0.2f, 0.3f);
+        scene.addDirectionalLight(0.7f, 0.6f, 0.5f, new Vector3D(1, -3, -2));
+        scene.addPointLight(0.4f, 0.3f, 0.9f, new Point3D(2.75f, 5, -1e-3f));
+        Surface[] surfaces = {
+                new Surface(1, 0.5f, 0.2f, 0.2f, 0.7f, 0.5f, 10, 0, 0, 1),
+                new Surface(0.9f, 0.9f, 0.9f, 0.1f, 0.3f, 0.6f, 60, 0.6f, 0, 1),
+                new Surface(0.9f, 0.9f, 0.9f, 0.02f, 0.05f, 0.6f, 60, 0.05f, 0.9f, 1.5f)
+        };
+        Random random = new Random(1);
+        for (int i = 0; i < SPHERES; i++) {
+            scene.addSphere(new Point3D(random.nextFloat() * 200 - 100, random.nextFloat() * 1e-4f,
+                    (float) random.nextGaussian() * 1e6f), random.nextFloat() + 1e-3f, surfaces[i % surfaces.length]);
+        }
+        return scene;
+    }
+}
@@ -0,0 +1,103 @@
+package cs3318.raytracing.model;
+
+import cs3318.raytracing.utils.Point3D;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that a saved sphere hierarchy is read back as the same tree, and that a file
+ * whose tree would leave spheres out is ignored and saved again.
+ */
+class BVHCacheTest {
+
+    private static final int SPHERES = 500;
+    private static final int RAYS = 2000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackTheSavedHierarchy() throws IOException {
+        SphereSoA spheres = spheres();
+        BVHCache cache = new BVHCache(directory);
+        BVH built = cache.get(spheres);
+        Path file = cacheFile();
+
+        BVH loaded = cache.get(spheres);
+        assertEquals(built.getNodeCount(), loaded.getNodeCount());
+        assertEquals(built.getDepth(), loaded.getDepth());
+        assertArrayEquals(built.primitiveIds, loaded.primitiveIds);
+        assertSameHits(new BVH(spheres), loaded);
+        assertEquals(1, countFiles(), file + " should be the only file");
+    }
+
+    @Test
+    void rebuildsWhenLeavesDoNotCoverEverySphere() throws IOException {
+        SphereSoA spheres = spheres();
+        BVHCache cache = new BVHCache(directory);
+        cache.get(spheres);
+        Path file = cacheFile();
+        byte[] saved = Files.readAllBytes(file);
+
+        // Turn the root into a leaf holding only the first slot; every other node is still
+        // well formed but can no longer be reached
+        byte[] damaged = saved.clone();
+        ByteBuffer.wrap(damaged).order(ByteOrder.LITTLE_ENDIAN).putInt(32, 0).putInt(36, 1);
+        Files.write(file, damaged);
+
+        BVH bvh = cache.get(spheres);
+        assertSameHits(new BVH(spheres), bvh);
+        assertArrayEquals(saved, Files.readAllBytes(file), "the damaged file should have been saved again");
+    }
+
+    private Path cacheFile() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(f -> f.toString().endsWith(BVHCache.EXTENSION)).findFirst().orElseThrow();
+        }
+    }
+
+    private long countFiles() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static void assertSameHits(BVH expected, BVH actual) {
+        Random random = new Random(2);
+        TraceContext context = new TraceContext();
+        Ray ray = new Ray();
+        Intersection want = new Intersection();
+        Intersection got = new Intersection();
+        for (int i = 0; i < RAYS; i++) {
+            ray.set(random.nextFloat() * 20 - 10, random.nextFloat() * 20 - 10, 20,
+                    random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, -1);
+            boolean hit = expected.intersect(ray, Ray.MAX_T, want, context);
+            assertEquals(hit, actual.intersect(ray, Ray.MAX_T, got, context), "ray " + i);
+            if (hit) {
+                assertEquals(want.primitive, got.primitive, "ray " + i);
+                assertEquals(want.distance, got.distance, "ray " + i);
+            }
+        }
+    }
+
+    private static SphereSoA spheres() {
+        SphereSoA spheres = new SphereSoA();
+        Surface surface = new Surface(1, 1, 1, 0.2f, 0.8f, 0, 1, 0, 0, 1);
+        Random random = new Random(1);
+        for (int i = 0; i < SPHERES; i++) {
+            spheres.add(new Point3D(random.nextFloat() * 20 - 10, random.nextFloat() * 20 - 10,
+                    random.nextFloat() * 20 - 10), 0.2f + 0.3f * random.nextFloat(), surface);
+        }
+        return spheres;
+    }
+}